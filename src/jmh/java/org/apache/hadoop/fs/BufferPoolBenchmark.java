@@ -0,0 +1,109 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.buffer.CosNByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The get and the return of an upload buffer by the concurrent writers,
+ * with the striped pool against the legacy one of a single
+ * {@link java.util.concurrent.LinkedBlockingQueue}. The pool holds a
+ * buffer for every writer, so that the getters contend on the locks only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BufferPoolBenchmark {
+    private static final int BLOCK_SIZE = (int) Unit.MB;
+    private static final int MAX_THREADS = 128;
+
+    @Param({"legacy", "striped"})
+    private String pool;
+
+    @Param({"non_direct_memory", "direct_memory"})
+    private String bufferType;
+
+    private LegacyBufferPool legacyPool;
+    private BufferPool stripedPool;
+
+    @Setup
+    public void setUp() throws IOException {
+        Configuration conf = new Configuration(false);
+        conf.set(CosNConfigKeys.COSN_UPLOAD_BUFFER_POOL_SCOPE_KEY,
+                BufferPool.FILESYSTEM_POOL_SCOPE);
+        conf.set(CosNConfigKeys.COSN_UPLOAD_BUFFER_TYPE_KEY, this.bufferType);
+        conf.setLong(CosNConfigKeys.COSN_UPLOAD_BUFFER_SIZE_KEY,
+                (long) MAX_THREADS * BLOCK_SIZE);
+        conf.setLong(CosNConfigKeys.COSN_BLOCK_SIZE_KEY, BLOCK_SIZE);
+        if ("legacy".equals(this.pool)) {
+            this.legacyPool = new LegacyBufferPool(conf);
+        } else {
+            this.stripedPool = BufferPool.getInstance(conf);
+            this.stripedPool.initialize(conf);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (null != this.legacyPool) {
+            this.legacyPool.close();
+            this.legacyPool = null;
+        }
+        if (null != this.stripedPool) {
+            this.stripedPool.close();
+            this.stripedPool = null;
+        }
+    }
+
+    private void getAndReturn() throws IOException, InterruptedException {
+        if (null != this.legacyPool) {
+            this.legacyPool.returnBuffer(
+                    this.legacyPool.getBuffer(BLOCK_SIZE));
+        } else {
+            CosNByteBuffer buffer = this.stripedPool.getBuffer(BLOCK_SIZE);
+            this.stripedPool.returnBuffer(buffer);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads001() throws IOException, InterruptedException {
+        this.getAndReturn();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void threads008() throws IOException, InterruptedException {
+        this.getAndReturn();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void threads032() throws IOException, InterruptedException {
+        this.getAndReturn();
+    }
+
+    @Benchmark
+    @Threads(MAX_THREADS)
+    public void threads128() throws IOException, InterruptedException {
+        this.getAndReturn();
+    }
+}
@@ -0,0 +1,117 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read a file into a direct buffer of the caller, by the
+ * {@link ByteBufferReadable} of the stream against the byte array read
+ * followed by a copy, which the native readers had to do before.
+ * <p>
+ * The direct read ahead buffers need
+ * {@code -jvmArgsAppend --add-exports=java.base/sun.nio.ch=ALL-UNNAMED}
+ * on Java 9 and later.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CosFsInputStreamReadBenchmark {
+    private static final String KEY = "benchmark";
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+
+    @Param({"non_direct_memory", "direct_memory"})
+    private String readAheadBufferType;
+
+    @Param({"65536", "1048576"})
+    private int readSize;
+
+    private Configuration conf;
+    private MockNativeFileSystemStore store;
+    private ExecutorService readAheadExecutor;
+    private ByteBuffer target;
+    private byte[] chunk;
+
+    @Setup
+    public void setUp() {
+        this.conf = new Configuration(false);
+        this.conf.set(CosNConfigKeys.READ_AHEAD_BUFFER_TYPE_KEY,
+                this.readAheadBufferType);
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                false);
+        this.store = new MockNativeFileSystemStore();
+        this.store.putRandomObject(KEY, FILE_SIZE, 0L);
+        this.readAheadExecutor = Executors.newFixedThreadPool(8);
+        ReadBufferPool.getInstance().initialize(this.conf);
+        this.target = ByteBuffer.allocateDirect(this.readSize);
+        this.chunk = new byte[this.readSize];
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.readAheadExecutor.shutdownNow();
+        ReadBufferPool.getInstance().close();
+    }
+
+    private CosFsInputStream newInputStream() {
+        return new CosFsInputStream(this.conf, this.store, null, KEY,
+                FILE_SIZE, this.readAheadExecutor);
+    }
+
+    @Benchmark
+    public long byteBufferRead() throws IOException {
+        long checksum = 0;
+        CosFsInputStream in = this.newInputStream();
+        try {
+            while (true) {
+                this.target.clear();
+                if (in.read(this.target) < 0) {
+                    break;
+                }
+                checksum += this.target.get(0);
+            }
+        } finally {
+            in.close();
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public long byteArrayReadAndCopy() throws IOException {
+        long checksum = 0;
+        CosFsInputStream in = this.newInputStream();
+        try {
+            while (true) {
+                int bytes = in.read(this.chunk, 0, this.chunk.length);
+                if (bytes < 0) {
+                    break;
+                }
+                this.target.clear();
+                this.target.put(this.chunk, 0, bytes);
+                checksum += this.target.get(0);
+            }
+        } finally {
+            in.close();
+        }
+        return checksum;
+    }
+}
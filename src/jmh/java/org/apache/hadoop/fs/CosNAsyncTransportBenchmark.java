@@ -0,0 +1,145 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The concurrent range reads of the native store against the local
+ * stand-in of the COS XML API, by the blocking SDK on a pool of threads
+ * against the async transport, which holds no thread for a response.
+ * <p>
+ * The stand-in listens on the port 80, since the endpoint suffix carries
+ * no port, and the host of the bucket,
+ * {@code benchmark-1250000000.cos.local}, must be resolved to the loopback
+ * address, e.g. by a line of /etc/hosts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class CosNAsyncTransportBenchmark {
+    private static final String KEY = "benchmark";
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+    private static final int READS = 512;
+
+    @Param({"blocking", "async"})
+    private String transportMode;
+
+    @Param({"64"})
+    private int blockingThreads;
+
+    @Param({"65536", "1048576"})
+    private int readSize;
+
+    @Param({"50"})
+    private long latencyMillis;
+
+    private MockCosServer server;
+    private CosNativeFileSystemStore store;
+    private ExecutorService readers;
+    private long[] starts;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.server = new MockCosServer(80);
+        this.server.setLatencyMillis(this.latencyMillis);
+        this.server.putRandomObject(KEY, FILE_SIZE, 0L);
+
+        Configuration conf = new Configuration(false);
+        conf.set(CosNConfigKeys.COSN_USERINFO_SECRET_ID_KEY, "secret-id");
+        conf.set(CosNConfigKeys.COSN_USERINFO_SECRET_KEY_KEY, "secret-key");
+        conf.set(CosNConfigKeys.COSN_ENDPOINT_SUFFIX_PREV_KEY, "cos.local");
+        conf.set(CosNConfigKeys.TRANSPORT_MODE_KEY, this.transportMode);
+        this.store = new CosNativeFileSystemStore();
+        this.store.initialize(URI.create("cosn://benchmark-1250000000"),
+                conf);
+        this.readers = Executors.newFixedThreadPool(this.blockingThreads);
+
+        Random random = new Random(1L);
+        this.starts = new long[READS];
+        for (int i = 0; i < READS; i++) {
+            this.starts[i] = random.nextInt(FILE_SIZE - this.readSize);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.readers.shutdownNow();
+        this.store.close();
+        this.server.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public void rangeReads() throws Exception {
+        if (this.store.isAsyncTransportEnabled()) {
+            List<CompletableFuture<Long>> futures = new ArrayList<>(READS);
+            for (long start : this.starts) {
+                futures.add(this.store.retrieveBlockAsync(KEY, start,
+                        start + this.readSize - 1,
+                        ByteBuffer.allocate(this.readSize)));
+            }
+            for (CompletableFuture<Long> future : futures) {
+                future.get();
+            }
+            return;
+        }
+
+        List<Future<Void>> futures = new ArrayList<>(READS);
+        for (final long start : this.starts) {
+            futures.add(this.readers.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    byte[] buffer = new byte[readSize];
+                    InputStream inputStream = store.retrieveBlock(KEY, start,
+                            start + readSize - 1);
+                    try {
+                        int offset = 0;
+                        while (offset < readSize) {
+                            int bytes = inputStream.read(buffer, offset,
+                                    readSize - offset);
+                            if (bytes < 0) {
+                                throw new IOException("Unexpected EOF.");
+                            }
+                            offset += bytes;
+                        }
+                    } finally {
+                        inputStream.close();
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.buffer.BufferType;
+import org.apache.hadoop.fs.buffer.CosNBufferFactory;
+import org.apache.hadoop.fs.buffer.CosNByteBuffer;
+import org.apache.hadoop.fs.buffer.CosNDirectBufferFactory;
+import org.apache.hadoop.fs.buffer.CosNMappedBufferFactory;
+import org.apache.hadoop.fs.buffer.CosNNonDirectBufferFactory;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The limited upload buffer pool as it was before the size classes and the
+ * stripes, kept for the benchmarks only. All the buffers of the block size
+ * are allocated in advance, and shared by a single
+ * {@link LinkedBlockingQueue}.
+ */
+final class LegacyBufferPool {
+    private final long blockSize;
+    private final CosNBufferFactory bufferFactory;
+    private final BlockingQueue<CosNByteBuffer> bufferPool;
+
+    LegacyBufferPool(Configuration conf) throws IOException {
+        this.blockSize = conf.getLong(CosNConfigKeys.COSN_BLOCK_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_BLOCK_SIZE);
+        long totalBufferSize = conf.getLong(
+                CosNConfigKeys.COSN_UPLOAD_BUFFER_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_UPLOAD_BUFFER_SIZE);
+        BufferType bufferType = BufferType.typeFactory(conf.get(
+                CosNConfigKeys.COSN_UPLOAD_BUFFER_TYPE_KEY,
+                CosNConfigKeys.DEFAULT_UPLOAD_BUFFER_TYPE));
+        if (BufferType.NON_DIRECT_MEMORY == bufferType) {
+            this.bufferFactory = new CosNNonDirectBufferFactory();
+        } else if (BufferType.DIRECT_MEMORY == bufferType) {
+            this.bufferFactory = new CosNDirectBufferFactory();
+        } else if (BufferType.MAPPED_DISK == bufferType) {
+            this.bufferFactory = new CosNMappedBufferFactory(conf.get(
+                    CosNConfigKeys.COSN_TMP_DIR,
+                    CosNConfigKeys.DEFAULT_TMP_DIR));
+        } else {
+            throw new IllegalArgumentException(String.format("The type of " +
+                    "the upload buffer is not pooled: %s", bufferType));
+        }
+
+        int bufferNumber = (int) (totalBufferSize / this.blockSize);
+        if (bufferNumber <= 0) {
+            throw new IllegalArgumentException(String.format("The buffer " +
+                            "size: [%d] is less than the size of a block: [%d]",
+                    totalBufferSize, this.blockSize));
+        }
+        this.bufferPool = new LinkedBlockingQueue<>(bufferNumber);
+        for (int i = 0; i < bufferNumber; i++) {
+            CosNByteBuffer cosNByteBuffer =
+                    this.bufferFactory.create((int) this.blockSize);
+            if (null == cosNByteBuffer) {
+                throw new IOException(String.format("create buffer failed. " +
+                                "buffer type: %s, buffer factory: %s",
+                        bufferType.getName(),
+                        this.bufferFactory.getClass().getName()));
+            }
+            this.bufferPool.add(cosNByteBuffer);
+        }
+    }
+
+    CosNByteBuffer getBuffer(int bufferSize) throws IOException,
+            InterruptedException {
+        if (bufferSize <= 0 || bufferSize > this.blockSize) {
+            throw new IOException(String.format(
+                    "Parameter buffer size out of range: 1 to %d",
+                    this.blockSize));
+        }
+        return this.bufferPool.poll(Long.MAX_VALUE, TimeUnit.SECONDS);
+    }
+
+    void returnBuffer(CosNByteBuffer buffer) {
+        buffer.getByteBuffer().clear();
+        this.bufferPool.offer(buffer);
+    }
+
+    void close() {
+        for (CosNByteBuffer buffer : this.bufferPool) {
+            this.bufferFactory.release(buffer);
+        }
+        this.bufferPool.clear();
+        this.bufferFactory.close();
+    }
+}
@@ -6,23 +6,73 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool class is used to manage the buffers during program execution.
- * It is provided in a thread-safe singleton mode,and
- * keeps the program's memory and disk consumption at a stable value.
+ * It is thread-safe, and keeps the program's memory and disk consumption at
+ * a stable value. By default, all the file systems share the singleton
+ * pool. With the "filesystem" scope of
+ * {@link CosNConfigKeys#COSN_UPLOAD_BUFFER_POOL_SCOPE_KEY}, every file
+ * system has its own pool with its own block size, type and budget, so
+ * that a busy bucket can not starve the others of buffers.
+ * <p>
+ * When the buffer size is limited, the buffers are kept in the size classes
+ * of the power of two up to the block size, and allocated lazily up to the
+ * buffer size. The idle buffers of the other size classes are released to
+ * make room for a new buffer when the limit is reached, and the getters
+ * wait only when all the buffers are in use.
+ * <p>
+ * The idle buffers are kept in the stripes selected by the thread ids, so
+ * that the writers and the upload threads rarely contend on a lock. A getter
+ * takes a buffer from its own stripe first, then allocates one in the
+ * budget, and then steals one from the other stripes. The budget is shared
+ * by all the stripes.
+ * <p>
+ * The optional global buffer size caps the buffers allocated by all the
+ * limited pools in the process. When it is reached, the idle buffers of
+ * all the pools are released to make room. The getters of all the pools
+ * wait on a shared condition, which is signalled whenever a buffer is
+ * returned or released by any pool, since either of them can make room for
+ * a getter of another pool.
  */
 public final class BufferPool {
     private static final Logger LOG =
             LoggerFactory.getLogger(BufferPool.class);
 
+    // The smallest size class of the upload buffer.
+    private static final long MIN_SIZE_CLASS = 64 * Unit.KB;
+    // The blocks held by a mapped file when the pool is unlimited.
+    private static final int MAPPED_ARENA_BLOCKS = 16;
+    private static final int MAX_STRIPES = 64;
+
+    static final String GLOBAL_POOL_SCOPE = "global";
+    static final String FILESYSTEM_POOL_SCOPE = "filesystem";
+
     private static BufferPool ourInstance = new BufferPool();
 
+    // The limited pools in use, whose idle buffers can be released for the
+    // global buffer size.
+    private static final Set<BufferPool> LIMITED_POOLS =
+            Collections.newSetFromMap(
+                    new ConcurrentHashMap<BufferPool, Boolean>());
+    private static final AtomicLong GLOBAL_ALLOCATED_BYTES =
+            new AtomicLong(0);
+    private static long globalBufferSize = -1;
+    private static final ReentrantLock WAIT_LOCK = new ReentrantLock();
+    private static final Condition BUFFER_RELEASED = WAIT_LOCK.newCondition();
+    private static final AtomicInteger WAITERS = new AtomicInteger(0);
+
     /**
      * Use this method to get the instance of BufferPool.
      *
@@ -32,11 +82,78 @@ public final class BufferPool {
         return ourInstance;
     }
 
+    /**
+     * Get the pool of a file system by the pool scope in the configuration.
+     * The pool returned should be initialized by the file system.
+     *
+     * @param conf the configuration of the file system
+     * @return the singleton pool, or a new pool for the file system
+     * @throws IOException if the pool scope is invalid
+     */
+    public static BufferPool getInstance(Configuration conf)
+            throws IOException {
+        String scope = conf.get(
+                CosNConfigKeys.COSN_UPLOAD_BUFFER_POOL_SCOPE_KEY,
+                CosNConfigKeys.DEFAULT_UPLOAD_BUFFER_POOL_SCOPE).trim();
+        if (GLOBAL_POOL_SCOPE.equalsIgnoreCase(scope)) {
+            return ourInstance;
+        }
+        if (FILESYSTEM_POOL_SCOPE.equalsIgnoreCase(scope)) {
+            return new BufferPool();
+        }
+        throw new IOException(String.format("The buffer pool scope [%s] of " +
+                        "the option [%s] is invalid.", scope,
+                CosNConfigKeys.COSN_UPLOAD_BUFFER_POOL_SCOPE_KEY));
+    }
+
+    private static synchronized void initGlobalBufferSize(
+            Configuration conf) {
+        long size = conf.getLong(
+                CosNConfigKeys.COSN_UPLOAD_BUFFER_GLOBAL_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_UPLOAD_BUFFER_GLOBAL_SIZE);
+        if (size <= 0 || size == globalBufferSize) {
+            return;
+        }
+        if (-1 != globalBufferSize) {
+            LOG.warn("The global buffer size is set to [{}] already, and " +
+                    "the new value [{}] is ignored.", globalBufferSize, size);
+            return;
+        }
+        LOG.info("The global buffer size is [{}].", size);
+        globalBufferSize = size;
+    }
+
+    private static synchronized long getGlobalBufferSize() {
+        return globalBufferSize;
+    }
+
+    // For the tests, which set different global buffer sizes.
+    static synchronized void resetGlobalBufferSize() {
+        globalBufferSize = -1;
+    }
+
+    /**
+     * Wake up the getters of all the pools after a buffer is returned or
+     * released.
+     */
+    private static void signalWaiters() {
+        if (WAITERS.get() > 0) {
+            WAIT_LOCK.lock();
+            try {
+                BUFFER_RELEASED.signalAll();
+            } finally {
+                WAIT_LOCK.unlock();
+            }
+        }
+    }
+
     private long blockSize = 0;
     private long totalBufferSize = 0;
     private BufferType bufferType;
     private CosNBufferFactory bufferFactory;
-    private BlockingQueue<CosNByteBuffer> bufferPool;
+    private final Stripe[] stripes = newStripes();
+    private final AtomicLong allocatedBytes = new AtomicLong(0);
+    private final AtomicLong idleBytes = new AtomicLong(0);
 
     private AtomicInteger referCount = new AtomicInteger(0);
     private AtomicBoolean isInitialize = new AtomicBoolean(false);
@@ -44,6 +161,11 @@ public final class BufferPool {
     private BufferPool() {
     }
 
+    private boolean isLimited() {
+        return this.totalBufferSize > 0
+                && BufferType.HYBRID != this.bufferType;
+    }
+
     /**
      * Create buffers correctly by reading the buffer file directory,
      * buffer pool size,and file block size in the configuration.
@@ -83,7 +205,8 @@ public final class BufferPool {
         if (null == this.bufferType
                 || (BufferType.NON_DIRECT_MEMORY != this.bufferType
                 && BufferType.DIRECT_MEMORY != this.bufferType
-                && BufferType.MAPPED_DISK != this.bufferType)) {
+                && BufferType.MAPPED_DISK != this.bufferType
+                && BufferType.HYBRID != this.bufferType)) {
             LOG.warn("The [{}] option is set incorrectly, using the default " +
                             "settings:"
                             + " [{}].",
@@ -116,6 +239,9 @@ public final class BufferPool {
 
         LOG.info("The type of the upload buffer pool is [{}]. Buffer size:[{}]",
                 this.bufferType, this.totalBufferSize);
+        long maxMappedBytes = conf.getLong(
+                CosNConfigKeys.COSN_UPLOAD_BUFFER_MAPPED_MAX_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_UPLOAD_BUFFER_MAPPED_MAX_SIZE);
         if (this.bufferType == BufferType.NON_DIRECT_MEMORY) {
             this.bufferFactory = new CosNNonDirectBufferFactory();
         } else if (this.bufferType == BufferType.DIRECT_MEMORY) {
@@ -123,7 +249,21 @@ public final class BufferPool {
         } else if (this.bufferType == BufferType.MAPPED_DISK) {
             String tmpDir = conf.get(CosNConfigKeys.COSN_TMP_DIR,
                     CosNConfigKeys.DEFAULT_TMP_DIR);
-            this.bufferFactory = new CosNMappedBufferFactory(tmpDir);
+            // The buffers are sliced from the files mapped in advance, which
+            // hold the whole pool or a few blocks when it is unlimited.
+            long arenaSize = this.totalBufferSize > 0
+                    ? this.totalBufferSize
+                    : this.blockSize * MAPPED_ARENA_BLOCKS;
+            this.bufferFactory = new CosNMappedBufferFactory(tmpDir,
+                    arenaSize, maxMappedBytes);
+        } else if (this.bufferType == BufferType.HYBRID) {
+            // The buffer size is the memory budget, and the buffers beyond
+            // it are spilled to the disk, so no buffer is allocated in
+            // advance.
+            String tmpDir = conf.get(CosNConfigKeys.COSN_TMP_DIR,
+                    CosNConfigKeys.DEFAULT_TMP_DIR);
+            this.bufferFactory = new CosNHybridBufferFactory(
+                    this.totalBufferSize, tmpDir, maxMappedBytes);
         } else {
             String exceptionMsg = String.format("The type of the upload " +
                     "buffer is "
@@ -132,15 +272,13 @@ public final class BufferPool {
         }
 
         // If totalBufferSize is greater than 0, and the buffer type is direct
-        // memory
-        // or mapped memory, it need to be allocate in advance to reduce the
-        // overhead of repeated allocations and releases.
+        // memory or mapped memory, the buffers are recycled by the pool to
+        // reduce the overhead of repeated allocations and releases.
         if (this.totalBufferSize > 0
                 && (BufferType.NON_DIRECT_MEMORY == this.bufferType
                 || BufferType.DIRECT_MEMORY == this.bufferType
                 || BufferType.MAPPED_DISK == this.bufferType)) {
-            int bufferNumber = (int) (totalBufferSize / blockSize);
-            if (bufferNumber == 0) {
+            if (this.totalBufferSize < this.blockSize) {
                 String errMsg = String.format("The buffer size: [%d] is at " +
                                 "least "
                                 + "greater than or equal to the size of a " +
@@ -149,25 +287,16 @@ public final class BufferPool {
                 throw new IllegalArgumentException(errMsg);
             }
 
-            LOG.info("Initialize the {} buffer pool. size: {}", this.bufferType,
-                    bufferNumber);
-            this.bufferPool =
-                    new LinkedBlockingQueue<>(bufferNumber);
-            for (int i = 0; i < bufferNumber; i++) {
-                CosNByteBuffer cosNByteBuffer =
-                        this.bufferFactory.create((int) this.blockSize);
-                if (null == cosNByteBuffer) {
-                    String exceptionMsg = String.format("create buffer failed" +
-                                    ". buffer type: %s, " +
-                                    "buffer factory: %s",
-                            this.bufferType.getName(),
-                            this.bufferFactory.getClass().getName());
-                    throw new IOException(exceptionMsg);
-                }
-                this.bufferPool.add(cosNByteBuffer);
-            }
+            LOG.info("Initialize the {} buffer pool. max blocks: {}",
+                    this.bufferType, this.totalBufferSize / this.blockSize);
         }
 
+        initGlobalBufferSize(conf);
+        this.allocatedBytes.set(0);
+        this.idleBytes.set(0);
+        if (this.isLimited()) {
+            LIMITED_POOLS.add(this);
+        }
         this.referCount.incrementAndGet();
         this.isInitialize.set(true);
     }
@@ -182,21 +311,14 @@ public final class BufferPool {
             throw new IOException(
                     "The buffer pool has not been initialized yet");
         }
-
-        // If the buffer pool is null, but the buffer size is not -1, this is
-        // illegal.
-        if (-1 != this.totalBufferSize && null == this.bufferPool) {
-            throw new IOException("The buffer pool is null, but the size is " +
-                    "not -1"
-                    + "(unlimited).");
-        }
     }
 
     /**
      * Obtain a buffer from this buffer pool through the method.
      *
      * @param bufferSize expected buffer size to get
-     * @return a buffer that satisfies the totalBufferSize.
+     * @return a buffer whose capacity is at least the buffer size. It is
+     * rounded up to the size class when the buffer size is limited.
      * @throws IOException if the buffer pool not initialized,
      *                     or the totalBufferSize parameter is not within
      *                     the range[1MB to the single buffer size]
@@ -216,8 +338,21 @@ public final class BufferPool {
             if (-1 == this.totalBufferSize) {
                 return bufferFactory.create(bufferSize);
             }
+            // spilled to the disk beyond the memory budget
+            if (BufferType.HYBRID == this.bufferType) {
+                CosNByteBuffer buffer = this.bufferFactory.create(bufferSize);
+                if (null == buffer) {
+                    String exceptionMsg = String.format("create buffer " +
+                                    "failed. buffer type: %s, " +
+                                    "buffer factory: %s",
+                            this.bufferType.getName(),
+                            this.bufferFactory.getClass().getName());
+                    throw new IOException(exceptionMsg);
+                }
+                return buffer;
+            }
             // limited
-            return this.bufferPool.poll(Long.MAX_VALUE, TimeUnit.SECONDS);
+            return this.acquire(this.sizeClassOf(bufferSize));
         } else {
             String exceptionMsg = String.format(
                     "Parameter buffer size out of range: 1 to %d",
@@ -227,6 +362,26 @@ public final class BufferPool {
         }
     }
 
+    /**
+     * Obtain a buffer without waiting for the others to return theirs.
+     *
+     * @param bufferSize expected buffer size to get
+     * @return a buffer whose capacity is at least the buffer size, or null
+     * if the limited pool has none for now
+     * @throws IOException if the buffer pool not initialized, or the buffer
+     *                     size is out of range
+     */
+    public CosNByteBuffer tryGetBuffer(int bufferSize) throws IOException,
+            InterruptedException {
+        this.checkInitialize();
+        if (-1 != this.totalBufferSize
+                && BufferType.HYBRID != this.bufferType
+                && bufferSize > 0 && bufferSize <= this.blockSize) {
+            return this.tryAcquire(this.sizeClassOf(bufferSize));
+        }
+        return this.getBuffer(bufferSize);
+    }
+
     /**
      * return the byte buffer wrapper to the buffer pool.
      *
@@ -243,19 +398,281 @@ public final class BufferPool {
             return;
         }
 
-        this.checkInitialize();
+        if (!this.isInitialize.get() && null != this.bufferFactory) {
+            LOG.debug("The buffer pool is closed, and release the buffer " +
+                    "directly.");
+            this.releaseClosed(buffer);
+            return;
+        }
 
-        if (-1 == this.totalBufferSize) {
+        if (-1 == this.totalBufferSize
+                || BufferType.HYBRID == this.bufferType) {
             LOG.debug("No buffer pool is maintained, and release the buffer "
                     + "directly.");
             this.bufferFactory.release(buffer);
         } else {
             LOG.debug("Return the buffer to the buffer pool.");
-            buffer.getByteBuffer().clear();
-            if (!this.bufferPool.offer(buffer)) {
-                LOG.error("Return the buffer to buffer pool failed.");
+            int sizeClass = buffer.getByteBuffer().capacity();
+            Stripe stripe = this.currentStripe();
+            stripe.lock.lock();
+            try {
+                if (!this.isInitialize.get()) {
+                    this.releaseClosed(buffer);
+                    return;
+                }
+                buffer.getByteBuffer().clear();
+                stripe.add(sizeClass, buffer);
+                this.idleBytes.addAndGet(sizeClass);
+            } finally {
+                stripe.lock.unlock();
+            }
+            signalWaiters();
+        }
+    }
+
+    private CosNByteBuffer acquire(int sizeClass) throws IOException,
+            InterruptedException {
+        CosNByteBuffer buffer = this.tryAcquire(sizeClass);
+        if (null != buffer) {
+            return buffer;
+        }
+
+        // The waiter is counted before checking again, so that a buffer
+        // returned or released after the check always signals it.
+        WAIT_LOCK.lock();
+        WAITERS.incrementAndGet();
+        try {
+            while (true) {
+                buffer = this.tryAcquire(sizeClass);
+                if (null != buffer) {
+                    return buffer;
+                }
+                BUFFER_RELEASED.await();
+            }
+        } finally {
+            WAITERS.decrementAndGet();
+            WAIT_LOCK.unlock();
+        }
+    }
+
+    private CosNByteBuffer tryAcquire(int sizeClass) throws IOException {
+        this.checkInitialize();
+        Stripe local = this.currentStripe();
+        CosNByteBuffer buffer = this.poll(local, sizeClass);
+        if (null != buffer) {
+            return buffer;
+        }
+        if (this.reserve(sizeClass)) {
+            return this.allocate(sizeClass);
+        }
+        for (Stripe stripe : this.stripes) {
+            if (stripe != local) {
+                buffer = this.poll(stripe, sizeClass);
+                if (null != buffer) {
+                    return buffer;
+                }
+            }
+        }
+        if (this.evictFor(sizeClass) && this.reserve(sizeClass)) {
+            return this.allocate(sizeClass);
+        }
+        return null;
+    }
+
+    private CosNByteBuffer poll(Stripe stripe, int sizeClass) {
+        stripe.lock.lock();
+        try {
+            CosNByteBuffer buffer = stripe.poll(sizeClass);
+            if (null != buffer) {
+                this.idleBytes.addAndGet(-sizeClass);
+            }
+            return buffer;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private boolean reserve(int sizeClass) {
+        while (true) {
+            long allocated = this.allocatedBytes.get();
+            if (allocated + sizeClass > this.totalBufferSize) {
+                return false;
+            }
+            if (this.allocatedBytes.compareAndSet(allocated,
+                    allocated + sizeClass)) {
+                break;
+            }
+        }
+        if (reserveGlobal(sizeClass)) {
+            return true;
+        }
+
+        // Make room by releasing the idle buffers of all the pools.
+        long released = 0;
+        for (BufferPool pool : LIMITED_POOLS) {
+            released += pool.releaseIdle(sizeClass - released);
+            if (released >= sizeClass) {
+                break;
+            }
+        }
+        if (reserveGlobal(sizeClass)) {
+            return true;
+        }
+        this.allocatedBytes.addAndGet(-sizeClass);
+        return false;
+    }
+
+    private static boolean reserveGlobal(int sizeClass) {
+        long globalSize = getGlobalBufferSize();
+        while (true) {
+            long allocated = GLOBAL_ALLOCATED_BYTES.get();
+            if (-1 != globalSize && allocated + sizeClass > globalSize) {
+                return false;
+            }
+            if (GLOBAL_ALLOCATED_BYTES.compareAndSet(allocated,
+                    allocated + sizeClass)) {
+                return true;
+            }
+        }
+    }
+
+    private void unreserve(long size) {
+        this.allocatedBytes.addAndGet(-size);
+        GLOBAL_ALLOCATED_BYTES.addAndGet(-size);
+        signalWaiters();
+    }
+
+    /**
+     * Release a buffer returned after the pool is closed, whose share of
+     * the pool budget is cleared by the close.
+     */
+    private void releaseClosed(CosNByteBuffer buffer) {
+        if (this.isLimited() && null != buffer.getByteBuffer()) {
+            GLOBAL_ALLOCATED_BYTES.addAndGet(
+                    -buffer.getByteBuffer().capacity());
+            signalWaiters();
+        }
+        this.bufferFactory.release(buffer);
+    }
+
+    /**
+     * Release the idle buffers, the largest first.
+     *
+     * @param bytes the bytes to release at least
+     * @return the bytes released
+     */
+    private long releaseIdle(long bytes) {
+        long released = 0;
+        for (Stripe stripe : this.stripes) {
+            while (released < bytes) {
+                CosNByteBuffer buffer;
+                stripe.lock.lock();
+                try {
+                    buffer = stripe.pollLargest();
+                } finally {
+                    stripe.lock.unlock();
+                }
+                if (null == buffer) {
+                    break;
+                }
+                int sizeClass = buffer.getByteBuffer().capacity();
+                this.idleBytes.addAndGet(-sizeClass);
+                this.bufferFactory.release(buffer);
+                this.unreserve(sizeClass);
+                released += sizeClass;
+            }
+        }
+        return released;
+    }
+
+    private CosNByteBuffer allocate(int sizeClass) throws IOException {
+        CosNByteBuffer buffer = this.bufferFactory.create(sizeClass);
+        if (null == buffer) {
+            this.unreserve(sizeClass);
+            String exceptionMsg = String.format("create buffer " +
+                            "failed. buffer type: %s, " +
+                            "buffer factory: %s",
+                    this.bufferType.getName(),
+                    this.bufferFactory.getClass().getName());
+            throw new IOException(exceptionMsg);
+        }
+        return buffer;
+    }
+
+    /**
+     * Release the idle buffers of the other size classes, the largest
+     * first, until a new buffer of the size class fits in the budget.
+     *
+     * @return false if the buffers in use leave no room for it
+     */
+    private boolean evictFor(int sizeClass) {
+        while (this.allocatedBytes.get() + sizeClass > this.totalBufferSize) {
+            if (this.allocatedBytes.get() - this.idleBytes.get() + sizeClass
+                    > this.totalBufferSize) {
+                return false;
+            }
+            if (0 == this.releaseIdle(1)) {
+                return false;
             }
         }
+        return true;
+    }
+
+    private Stripe currentStripe() {
+        long id = Thread.currentThread().getId();
+        return this.stripes[(int) (id ^ (id >>> 16))
+                & (this.stripes.length - 1)];
+    }
+
+    private static Stripe[] newStripes() {
+        int count = Integer.highestOneBit(Math.min(MAX_STRIPES,
+                Runtime.getRuntime().availableProcessors() * 2));
+        Stripe[] stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        return stripes;
+    }
+
+    private int sizeClassOf(int bufferSize) {
+        long sizeClass = Math.max(MIN_SIZE_CLASS,
+                Long.highestOneBit(bufferSize));
+        if (sizeClass < bufferSize) {
+            sizeClass <<= 1;
+        }
+        return (int) Math.min(sizeClass, this.blockSize);
+    }
+
+    public long getAllocatedBytes() {
+        return this.allocatedBytes.get();
+    }
+
+    public long getIdleBytes() {
+        return this.idleBytes.get();
+    }
+
+    /**
+     * Get the metrics of the hybrid buffers, which show how many buffers
+     * are in the memory and on the disk, and how often they are spilled.
+     *
+     * @return the factory of the hybrid buffers, or null if the buffer type
+     * is not hybrid
+     */
+    public CosNHybridBufferFactory getHybridBufferFactory() {
+        return this.bufferFactory instanceof CosNHybridBufferFactory
+                ? (CosNHybridBufferFactory) this.bufferFactory : null;
+    }
+
+    /**
+     * Get the metrics of the mapped_disk buffers, e.g. the bytes mapped by
+     * the arenas, which stay mapped until the pool is closed.
+     *
+     * @return the factory of the mapped buffers, or null if the buffer type
+     * is not mapped_disk
+     */
+    public CosNMappedBufferFactory getMappedBufferFactory() {
+        return this.bufferFactory instanceof CosNMappedBufferFactory
+                ? (CosNMappedBufferFactory) this.bufferFactory : null;
     }
 
     public synchronized void close() {
@@ -272,17 +689,69 @@ public final class BufferPool {
             return;
         }
 
+        if (this.bufferFactory instanceof CosNHybridBufferFactory) {
+            LOG.info("Release the hybrid buffers: {}.", this.bufferFactory);
+        }
         LOG.info("Begin to release the buffers.");
-        // First, release the buffers in the buffer queue.
-        if (null != this.bufferPool) {
-            for (CosNByteBuffer buffer : this.bufferPool) {
-                this.bufferFactory.release(buffer);
+        // The returners check it in the stripe locks, so that no buffer
+        // is added to a stripe after it is cleared.
+        if (this.referCount.get() == 0) {
+            this.isInitialize.set(false);
+        }
+        // First, release the idle buffers in the pool.
+        LIMITED_POOLS.remove(this);
+        for (Stripe stripe : this.stripes) {
+            stripe.lock.lock();
+            try {
+                for (Deque<CosNByteBuffer> buffers
+                        : stripe.freeBuffers.values()) {
+                    for (CosNByteBuffer buffer : buffers) {
+                        this.releaseClosed(buffer);
+                    }
+                    buffers.clear();
+                }
+            } finally {
+                stripe.lock.unlock();
             }
-            this.bufferPool.clear();
         }
+        // The buffers still in use are released by the factory when
+        // they are returned.
+        this.allocatedBytes.set(0);
+        this.idleBytes.set(0);
+        this.bufferFactory.close();
+        signalWaiters();
+    }
 
-        if (this.referCount.get() == 0) {
-            this.isInitialize.set(false);
+    /**
+     * The idle buffers of a stripe, by the size classes.
+     */
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final TreeMap<Integer, Deque<CosNByteBuffer>> freeBuffers =
+                new TreeMap<>();
+
+        private void add(int sizeClass, CosNByteBuffer buffer) {
+            Deque<CosNByteBuffer> buffers = this.freeBuffers.get(sizeClass);
+            if (null == buffers) {
+                buffers = new ArrayDeque<>();
+                this.freeBuffers.put(sizeClass, buffers);
+            }
+            buffers.addFirst(buffer);
+        }
+
+        private CosNByteBuffer poll(int sizeClass) {
+            Deque<CosNByteBuffer> buffers = this.freeBuffers.get(sizeClass);
+            return null == buffers ? null : buffers.pollFirst();
+        }
+
+        private CosNByteBuffer pollLargest() {
+            for (Deque<CosNByteBuffer> buffers
+                    : this.freeBuffers.descendingMap().values()) {
+                if (!buffers.isEmpty()) {
+                    return buffers.pollFirst();
+                }
+            }
+            return null;
         }
     }
 }
@@ -1,9 +1,10 @@
 package org.apache.hadoop.fs;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.cache.CosNLocalBlockCache;
+import org.apache.hadoop.fs.cache.CosNMemoryBlockCache;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.io.retry.RetryPolicies;
 import org.apache.hadoop.io.retry.RetryPolicy;
@@ -42,8 +43,14 @@ public class CosFileSystem extends FileSystem {
     private String owner = "Unknown";
     private String group = "Unknown";
 
+    private BufferPool bufferPool;
     private ExecutorService boundedIOThreadPool;
     private ExecutorService boundedCopyThreadPool;
+    private ExecutorService streamingReadThreadPool;
+    // Whether the process wide caches are referred by this file system.
+    private boolean localBlockCacheAcquired = false;
+    private boolean memoryBlockCacheAcquired = false;
+    private boolean hedgedReadManagerAcquired = false;
 
     public CosFileSystem() {
     }
@@ -80,7 +87,15 @@ public class CosFileSystem extends FileSystem {
         if (LOG.isDebugEnabled()) {
             LOG.debug("owner:" + owner + ", group:" + group);
         }
-        BufferPool.getInstance().initialize(getConf());
+        this.bufferPool = BufferPool.getInstance(getConf());
+        this.bufferPool.initialize(getConf());
+        ReadBufferPool.getInstance().initialize(getConf());
+        this.localBlockCacheAcquired =
+                CosNLocalBlockCache.getInstance().initialize(getConf());
+        this.memoryBlockCacheAcquired =
+                CosNMemoryBlockCache.getInstance().initialize(getConf());
+        this.hedgedReadManagerAcquired =
+                CosNHedgedReadManager.getInstance().initialize(getConf());
 
         // initialize the thread pool
         int uploadThreadPoolSize = this.getConf().getInt(
@@ -92,56 +107,25 @@ public class CosFileSystem extends FileSystem {
                 CosNConfigKeys.DEFAULT_READ_AHEAD_QUEUE_SIZE
         );
         int ioThreadPoolSize = uploadThreadPoolSize + readAheadPoolSize / 3;
-        long threadKeepAlive = this.getConf().getLong(
-                CosNConfigKeys.THREAD_KEEP_ALIVE_TIME_KEY,
-                CosNConfigKeys.DEFAULT_THREAD_KEEP_ALIVE_TIME
-        );
-        this.boundedIOThreadPool = new ThreadPoolExecutor(
-                ioThreadPoolSize / 2, ioThreadPoolSize,
-                threadKeepAlive, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>(ioThreadPoolSize * 2),
-                new ThreadFactoryBuilder().setNameFormat("cos-transfer-shared" +
-                        "-%d").setDaemon(true).build(),
-                new RejectedExecutionHandler() {
-                    @Override
-                    public void rejectedExecution(Runnable r,
-                                                  ThreadPoolExecutor executor) {
-                        if (!executor.isShutdown()) {
-                            try {
-                                executor.getQueue().put(r);
-                            } catch (InterruptedException e) {
-                                LOG.error("put a io task into the download " +
-                                        "thread pool occurs an exception.", e);
-                            }
-                        }
-                    }
-                }
-        );
+        CosNExecutorProvider executorProvider =
+                CosNUtils.createExecutorProvider(this.getConf());
+        this.boundedIOThreadPool = executorProvider.newBoundedExecutor(
+                "cos-transfer-shared", ioThreadPoolSize);
 
         int copyThreadPoolSize = this.getConf().getInt(
                 CosNConfigKeys.COPY_THREAD_POOL_SIZE_KEY,
                 CosNConfigKeys.DEFAULT_COPY_THREAD_POOL_SIZE
         );
-        this.boundedCopyThreadPool = new ThreadPoolExecutor(
-                copyThreadPoolSize / 2, copyThreadPoolSize,
-                threadKeepAlive, TimeUnit.SECONDS,
-                new LinkedBlockingQueue<Runnable>(copyThreadPoolSize * 2),
-                new ThreadFactoryBuilder().setNameFormat("cos-copy-%d").setDaemon(true).build(),
-                new RejectedExecutionHandler() {
-                    @Override
-                    public void rejectedExecution(Runnable r,
-                                                  ThreadPoolExecutor executor) {
-                        if (!executor.isShutdown()) {
-                            try {
-                                executor.getQueue().put(r);
-                            } catch (InterruptedException e) {
-                                LOG.error("put a copy task into the download " +
-                                        "thread pool occurs an exception.", e);
-                            }
-                        }
-                    }
-                }
-        );
+        this.boundedCopyThreadPool = executorProvider.newBoundedExecutor(
+                "cos-copy", copyThreadPoolSize);
+
+        // The pump of a streaming read holds its thread until the stream is
+        // closed, and the streams beyond the limit wait for a free one.
+        int streamingReadThreadPoolSize = this.getConf().getInt(
+                CosNConfigKeys.STREAMING_READ_THREAD_POOL_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_STREAMING_READ_THREAD_POOL_SIZE);
+        this.streamingReadThreadPool = executorProvider.newQueueingExecutor(
+                "cos-streaming-read", streamingReadThreadPoolSize);
     }
 
     private static NativeFileSystemStore createDefaultStore(Configuration conf) {
@@ -276,7 +260,7 @@ public class CosFileSystem extends FileSystem {
                 CosNConfigKeys.DEFAULT_COSN_UPLOAD_CHECKS_ENABLE);
         return new FSDataOutputStream(
                 new CosFsDataOutputStream(getConf(), store, key,
-                        this.getDefaultBlockSize(),
+                        this.getDefaultBlockSize(), this.bufferPool,
                         this.boundedIOThreadPool, uploadChecksEnabled),
                 statistics);
     }
@@ -614,18 +598,72 @@ public class CosFileSystem extends FileSystem {
 
     @Override
     public FSDataInputStream open(Path f, int bufferSize) throws IOException {
-        FileStatus fs = getFileStatus(f); // will throw if the file doesn't
-        // exist
-        if (fs.isDirectory()) {
+        // The status of a file is got by a single HEAD request, which
+        // carries the length and the modification time as well.
+        return this.open(getFileStatus(f), bufferSize);
+    }
+
+    /**
+     * Open the file of a status which the caller already holds, e.g. from a
+     * listing, so that no more requests are sent before the first read.
+     *
+     * @param fileStatus the status of the file
+     * @return the input stream of the file
+     * @throws IOException if the status is not a file
+     */
+    public FSDataInputStream open(FileStatus fileStatus) throws IOException {
+        return this.open(fileStatus, this.getConf().getInt(
+                CosNConfigKeys.IO_FILE_BUFFER_SIZE_KEY,
+                CosNConfigKeys.IO_FILE_BUFFER_SIZE_DEFAULT));
+    }
+
+    /**
+     * Open the file of a status which the caller already holds. The length
+     * and the modification time of the file are taken from the status.
+     *
+     * @param fileStatus the status of the file
+     * @param bufferSize the size of the buffer to be used
+     * @return the input stream of the file
+     * @throws IOException if the status is not a file
+     */
+    public FSDataInputStream open(FileStatus fileStatus, int bufferSize)
+            throws IOException {
+        return this.open(fileStatus.getPath(), fileStatus, this.getConf(),
+                bufferSize);
+    }
+
+    /**
+     * Open a file with the options, e.g. the read policy.
+     *
+     * @param f the file to open
+     * @return the builder of the input stream
+     * @see CosNOpenFileBuilder
+     */
+    public CosNOpenFileBuilder openFile(Path f) {
+        return new CosNOpenFileBuilder(this, f);
+    }
+
+    /**
+     * Open the file with the configuration of the stream, which may carry
+     * the overrides of the open options.
+     */
+    FSDataInputStream open(Path f, FileStatus fileStatus, Configuration conf,
+                           int bufferSize) throws IOException {
+        checkPath(f);
+        if (fileStatus.isDirectory()) {
             throw new FileNotFoundException("'" + f + "' is a directory");
         }
         LOG.info("Opening '" + f + "' for reading");
         Path absolutePath = makeAbsolute(f);
         String key = pathToKey(absolutePath);
-        long fileSize = store.getFileLength(key);
-        return new FSDataInputStream(new BufferedFSInputStream(
-                new CosFsInputStream(this.getConf(), store, statistics, key,
-                        fileSize, this.boundedIOThreadPool),
+        // The reads larger than the buffer size bypass the buffer, and so
+        // do the reads into the byte buffers once the buffer is drained.
+        return new FSDataInputStream(new CosNBufferedFSInputStream(
+                new CosFsInputStream(conf, store, statistics,
+                        this.bucket, key, fileStatus.getLen(),
+                        fileStatus.getModificationTime(),
+                        this.boundedIOThreadPool,
+                        this.streamingReadThreadPool),
                 bufferSize));
     }
 
@@ -841,7 +879,18 @@ public class CosFileSystem extends FileSystem {
             this.store.close();
             this.boundedIOThreadPool.shutdown();
             this.boundedCopyThreadPool.shutdown();
-            BufferPool.getInstance().close();
+            this.streamingReadThreadPool.shutdownNow();
+            this.bufferPool.close();
+            ReadBufferPool.getInstance().close();
+            if (this.localBlockCacheAcquired) {
+                CosNLocalBlockCache.getInstance().close();
+            }
+            if (this.memoryBlockCacheAcquired) {
+                CosNMemoryBlockCache.getInstance().close();
+            }
+            if (this.hedgedReadManagerAcquired) {
+                CosNHedgedReadManager.getInstance().close();
+            }
         } finally {
             super.close();
         }
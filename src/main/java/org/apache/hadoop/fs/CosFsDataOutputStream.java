@@ -4,6 +4,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import com.qcloud.cos.model.PartETag;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.buffer.CosNByteBuffer;
@@ -12,6 +13,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -20,13 +22,19 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
 
 public class CosFsDataOutputStream extends OutputStream {
     static final Logger LOG =
             LoggerFactory.getLogger(CosFsDataOutputStream.class);
 
+    // The growth of the first buffer, which is copied at most a few times
+    // before reaching the block size.
+    private static final int BUFFER_GROWTH_FACTOR = 4;
+
     private final Configuration conf;
     private final NativeFileSystemStore store;
+    private final BufferPool bufferPool;
     private MessageDigest digest;
     private long blockSize;
     private String key;
@@ -46,8 +54,18 @@ public class CosFsDataOutputStream extends OutputStream {
             NativeFileSystemStore store,
             String key, long blockSize,
             ExecutorService executorService, boolean checksEnabled) throws IOException {
+        this(conf, store, key, blockSize, BufferPool.getInstance(),
+                executorService, checksEnabled);
+    }
+
+    public CosFsDataOutputStream(
+            Configuration conf,
+            NativeFileSystemStore store,
+            String key, long blockSize, BufferPool bufferPool,
+            ExecutorService executorService, boolean checksEnabled) throws IOException {
         this.conf = conf;
         this.store = store;
+        this.bufferPool = bufferPool;
         this.key = key;
         this.blockSize = blockSize;
 
@@ -72,13 +90,21 @@ public class CosFsDataOutputStream extends OutputStream {
         this.executorService =
                 MoreExecutors.listeningDecorator(executorService);
 
+        // Most of the files are small, so that the first buffer is small
+        // and grows when more is written.
+        long initialBufferSize = conf.getLong(
+                CosNConfigKeys.COSN_UPLOAD_BUFFER_INITIAL_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_UPLOAD_BUFFER_INITIAL_SIZE);
+        if (initialBufferSize <= 0 || initialBufferSize > this.blockSize) {
+            initialBufferSize = this.blockSize;
+        }
         try {
             this.currentBlockBuffer =
-                    BufferPool.getInstance().getBuffer((int) this.blockSize);
+                    this.bufferPool.getBuffer((int) initialBufferSize);
         } catch (InterruptedException e) {
             String exceptionMsg = String.format("Getting a buffer size:[%d] " +
                             "from the buffer pool occurs an exception.",
-                    this.blockSize);
+                    initialBufferSize);
             throw new IOException(exceptionMsg);
         }
         try {
@@ -95,7 +121,10 @@ public class CosFsDataOutputStream extends OutputStream {
 
     @Override
     public void flush() throws IOException {
-        this.currentBlockOutputStream.flush();
+        OutputStream outputStream = this.currentBlockOutputStream;
+        if (null != outputStream) {
+            outputStream.flush();
+        }
     }
 
     @Override
@@ -173,7 +202,7 @@ public class CosFsDataOutputStream extends OutputStream {
                 }
             }
         } finally {
-            BufferPool.getInstance().returnBuffer(this.currentBlockBuffer);
+            this.bufferPool.returnBuffer(this.currentBlockBuffer);
             this.blockWritten = 0;
             this.closed = true;
             this.writeConsistencyChecker = null;
@@ -201,6 +230,117 @@ public class CosFsDataOutputStream extends OutputStream {
         }
     }
 
+    /**
+     * Upload the current block by the async transport, which holds no
+     * thread of the executor during the upload.
+     */
+    private ListenableFuture<PartETag> uploadPartAsync() {
+        final CosNByteBuffer buffer = this.currentBlockBuffer;
+        final SettableFuture<PartETag> partETagFuture = SettableFuture.create();
+        store.uploadPartAsync(buffer.getByteBuffer().duplicate(), this.key,
+                this.uploadId, this.currentBlockId).whenComplete(
+                new BiConsumer<PartETag, Throwable>() {
+                    @Override
+                    public void accept(PartETag partETag, Throwable throwable) {
+                        try {
+                            bufferPool.returnBuffer(buffer);
+                        } catch (IOException e) {
+                            LOG.error("Failed to return the buffer.", e);
+                        } finally {
+                            if (null == throwable) {
+                                partETagFuture.set(partETag);
+                            } else {
+                                partETagFuture.setException(throwable);
+                            }
+                        }
+                    }
+                });
+        return partETagFuture;
+    }
+
+    /**
+     * Move the bytes written to a larger buffer, which can hold the
+     * required bytes.
+     */
+    private void growBlockBuffer(long required) throws IOException {
+        long capacity = this.currentBlockBuffer.getByteBuffer().capacity();
+        long newSize = capacity;
+        while (newSize < required) {
+            newSize = Math.min(newSize * BUFFER_GROWTH_FACTOR, this.blockSize);
+        }
+        LOG.debug("Grow the buffer of the key [{}] from {} to {}.", this.key,
+                capacity, newSize);
+
+        CosNByteBuffer newBlockBuffer;
+        try {
+            this.currentBlockOutputStream.flush();
+            // The new buffer is taken first if the pool has it at once.
+            // Otherwise the current buffer is returned before waiting for the
+            // new one, so that a stream never holds a buffer while waiting
+            // for the pool.
+            newBlockBuffer = this.bufferPool.tryGetBuffer((int) newSize);
+            ByteBuffer current = this.currentBlockBuffer.getByteBuffer();
+            current.flip();
+            if (null != newBlockBuffer) {
+                newBlockBuffer.getByteBuffer().put(current);
+                CosNByteBuffer oldBlockBuffer = this.currentBlockBuffer;
+                this.currentBlockBuffer = newBlockBuffer;
+                this.bufferPool.returnBuffer(oldBlockBuffer);
+            } else {
+                byte[] written = new byte[current.remaining()];
+                current.get(written);
+                this.bufferPool.returnBuffer(this.currentBlockBuffer);
+                this.currentBlockBuffer = null;
+                newBlockBuffer = this.bufferPool.getBuffer((int) newSize);
+                this.currentBlockBuffer = newBlockBuffer;
+                newBlockBuffer.getByteBuffer().put(written);
+            }
+        } catch (InterruptedException e) {
+            this.abort();
+            String exceptionMsg = String.format("getting a buffer size: [%d] " +
+                            "from the buffer pool occurs an exception.",
+                    newSize);
+            throw new IOException(exceptionMsg, e);
+        } catch (IOException | RuntimeException e) {
+            this.abort();
+            throw e;
+        }
+        // The digest goes on with the new buffer.
+        OutputStream newBlockOutputStream =
+                new BufferOutputStream(newBlockBuffer);
+        if (null != this.digest) {
+            this.currentBlockOutputStream = new DigestOutputStream(
+                    newBlockOutputStream, this.digest);
+        } else {
+            this.currentBlockOutputStream = newBlockOutputStream;
+        }
+    }
+
+    /**
+     * Give up the stream when no buffer is left to write to. The buffer
+     * still held is returned, and the parts uploaded are aborted, so that
+     * the later writes fail and the close does nothing.
+     */
+    private void abort() {
+        this.closed = true;
+        this.currentBlockOutputStream = null;
+        if (null != this.currentBlockBuffer) {
+            try {
+                this.bufferPool.returnBuffer(this.currentBlockBuffer);
+            } catch (IOException e) {
+                LOG.error("Failed to return the buffer.", e);
+            }
+            this.currentBlockBuffer = null;
+        }
+        if (null != this.uploadId) {
+            for (ListenableFuture<PartETag> future : this.partEtagList) {
+                future.cancel(true);
+            }
+            this.store.abortMultipartUpload(this.key, this.uploadId);
+        }
+        this.writeConsistencyChecker = null;
+    }
+
     private void uploadPart() throws IOException {
         this.currentBlockOutputStream.flush();
         this.currentBlockOutputStream.close();
@@ -211,37 +351,49 @@ public class CosFsDataOutputStream extends OutputStream {
 
         this.currentBlockId++;
         LOG.debug("upload part blockId: {}, uploadId: {}.", this.currentBlockId, this.uploadId);
-        ListenableFuture<PartETag> partETagListenableFuture =
-                this.executorService.submit(new Callable<PartETag>() {
-                    private final CosNByteBuffer buffer = currentBlockBuffer;
-                    private final String localKey = key;
-                    private final String localUploadId = uploadId;
-                    private final int blockId = currentBlockId;
+        ListenableFuture<PartETag> partETagListenableFuture;
+        if (store.isAsyncTransportEnabled()) {
+            partETagListenableFuture = this.uploadPartAsync();
+        } else {
+            partETagListenableFuture = this.executorService.submit(
+                    new Callable<PartETag>() {
+                        private final CosNByteBuffer buffer = currentBlockBuffer;
+                        private final String localKey = key;
+                        private final String localUploadId = uploadId;
+                        private final int blockId = currentBlockId;
 
-                    @Override
-                    public PartETag call() throws Exception {
-                        try {
-                            PartETag partETag = (store).uploadPart(
-                                    new BufferInputStream(this.buffer),
-                                    this.localKey,
-                                    this.localUploadId,
-                                    this.blockId,
-                                    this.buffer.getByteBuffer().remaining());
-                            return partETag;
-                        } finally {
-                            BufferPool.getInstance().returnBuffer(this.buffer);
+                        @Override
+                        public PartETag call() throws Exception {
+                            try {
+                                PartETag partETag = (store).uploadPart(
+                                        new BufferInputStream(this.buffer),
+                                        this.localKey,
+                                        this.localUploadId,
+                                        this.blockId,
+                                        this.buffer.getByteBuffer().remaining());
+                                return partETag;
+                            } finally {
+                                bufferPool.returnBuffer(this.buffer);
+                            }
                         }
-                    }
-                });
+                    });
+        }
         this.partEtagList.add(partETagListenableFuture);
+        // The buffer is owned by the upload now.
+        this.currentBlockBuffer = null;
+        this.currentBlockOutputStream = null;
         try {
             this.currentBlockBuffer =
-                    BufferPool.getInstance().getBuffer((int) this.blockSize);
+                    this.bufferPool.getBuffer((int) this.blockSize);
         } catch (InterruptedException e) {
+            this.abort();
             String exceptionMsg = String.format("getting a buffer size: [%d] " +
                             "from the buffer pool occurs an exception.",
                     this.blockSize);
             throw new IOException(exceptionMsg, e);
+        } catch (IOException | RuntimeException e) {
+            this.abort();
+            throw e;
         }
 
         if (null != this.digest) {
@@ -269,6 +421,10 @@ public class CosFsDataOutputStream extends OutputStream {
                 writeBytes = len;
             }
 
+            if (this.blockWritten + writeBytes
+                    > this.currentBlockBuffer.getByteBuffer().capacity()) {
+                this.growBlockBuffer(this.blockWritten + writeBytes);
+            }
             this.currentBlockOutputStream.write(b, off, (int) writeBytes);
             this.blockWritten += writeBytes;
             if (this.blockWritten >= this.blockSize) {
@@ -294,6 +450,10 @@ public class CosFsDataOutputStream extends OutputStream {
             throw new IOException("block stream has been closed.");
         }
 
+        if (this.blockWritten + 1
+                > this.currentBlockBuffer.getByteBuffer().capacity()) {
+            this.growBlockBuffer(this.blockWritten + 1);
+        }
         byte[] singleBytes = new byte[1];
         singleBytes[0] = (byte) b;
         this.currentBlockOutputStream.write(singleBytes, 0, 1);
@@ -1,62 +1,247 @@
 package org.apache.hadoop.fs;
 
+import com.qcloud.cos.model.COSObjectInputStream;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.buffer.CosNByteBuffer;
+import org.apache.hadoop.fs.cache.CosNBlockCacheKey;
+import org.apache.hadoop.fs.cache.CosNLocalBlockCache;
+import org.apache.hadoop.fs.cache.CosNMemoryBlockCache;
+import org.apache.hadoop.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
 
 
-public class CosFsInputStream extends FSInputStream {
+public class CosFsInputStream extends FSInputStream
+        implements ByteBufferReadable {
     public static final Logger LOG =
             LoggerFactory.getLogger(CosFsInputStream.class);
 
+    // The read mode keeping a single GET request for the sequential reads.
+    public static final String STREAMING_READ_MODE = "streaming";
+
     public static class ReadBuffer {
         public static final int INIT = 1;
         public static final int SUCCESS = 0;
         public static final int ERROR = -1;
 
-        private final ReentrantLock lock = new ReentrantLock();
-        private Condition readyCondition = lock.newCondition();
-
-        private byte[] buffer;
-        private int status;
+        private final CosNByteBuffer cosNByteBuffer;
+        private final ByteBuffer buffer;
+        // Completed by the read task with the buffer when the block is
+        // fetched, or exceptionally when it is given up.
+        private final CompletableFuture<ByteBuffer> readyFuture =
+                new CompletableFuture<ByteBuffer>();
+        private volatile int status;
         private long start;
         private long end;
+        // Guarded by the monitor of this read buffer.
+        private boolean finished = false;
+        private boolean released = false;
+        // The readers copying from the buffer without the stream lock.
+        private int pins = 0;
+        private boolean started = false;
+        private boolean cancelled = false;
+        private Future<?> task;
+        private InputStream inputStream;
+        private Future<?> request;
 
-        public ReadBuffer(long start, long end) {
+        public ReadBuffer(long start, long end,
+                          CosNByteBuffer cosNByteBuffer) {
             this.start = start;
             this.end = end;
-            this.buffer = new byte[(int) (this.end - this.start) + 1];
+            this.cosNByteBuffer = cosNByteBuffer;
+            // The pooled buffer may be larger than the block.
+            ByteBuffer view = cosNByteBuffer.getByteBuffer().duplicate();
+            view.clear();
+            view.limit((int) (this.end - this.start) + 1);
+            this.buffer = view.slice();
             this.status = INIT;
         }
 
-        public void lock() {
-            this.lock.lock();
+        /**
+         * Called by the read task when the block is fetched or given up,
+         * which wakes up the reader waiting for the block.
+         */
+        public void complete() {
+            if (this.status == SUCCESS) {
+                this.readyFuture.complete(this.buffer);
+            } else {
+                this.readyFuture.completeExceptionally(new IOException(
+                        String.format("Failed to read the block range " +
+                                "start: %d, end: %d.", this.start, this.end)));
+            }
+        }
+
+        /**
+         * @return the future completed with the buffer when the block is
+         * fetched
+         */
+        public CompletableFuture<ByteBuffer> getFuture() {
+            return this.readyFuture;
         }
 
-        public void unLock() {
-            this.lock.unlock();
+        public ByteBuffer getBuffer() {
+            return this.buffer;
         }
 
-        public void await(int waitStatus) throws InterruptedException {
-            while (this.status == waitStatus) {
-                readyCondition.await();
+        /**
+         * Called by the read task when it will not touch the buffer any more.
+         */
+        public synchronized void finish() {
+            this.finished = true;
+            if (this.released && 0 == this.pins) {
+                ReadBufferPool.getInstance().returnBuffer(this.cosNByteBuffer);
             }
         }
 
-        public void signalAll() {
-            readyCondition.signalAll();
+        /**
+         * Called by the stream when the buffer is consumed or discarded.
+         * The buffer is returned to the pool once the read task finishes
+         * and no reader pins it.
+         */
+        public synchronized void release() {
+            if (this.released) {
+                return;
+            }
+            this.released = true;
+            if (this.finished && 0 == this.pins) {
+                ReadBufferPool.getInstance().returnBuffer(this.cosNByteBuffer);
+            }
         }
 
-        public byte[] getBuffer() {
-            return this.buffer;
+        /**
+         * Keep the buffer from being returned to the pool, so that it can
+         * be read without the stream lock. Every successful pin must be
+         * followed by an {@link #unpin()}.
+         *
+         * @return false if the buffer has been released
+         */
+        public synchronized boolean pin() {
+            if (this.released) {
+                return false;
+            }
+            this.pins++;
+            return true;
+        }
+
+        public synchronized void unpin() {
+            this.pins--;
+            if (0 == this.pins && this.released && this.finished) {
+                ReadBufferPool.getInstance().returnBuffer(this.cosNByteBuffer);
+            }
+        }
+
+        public synchronized boolean isFinished() {
+            return this.finished;
+        }
+
+        public synchronized void setTask(Future<?> task) {
+            this.task = task;
+        }
+
+        public synchronized Future<?> getTask() {
+            return this.task;
+        }
+
+        /**
+         * Called by the read task before it touches the buffer.
+         *
+         * @return false if the read ahead has been cancelled
+         */
+        public synchronized boolean begin() {
+            if (this.cancelled) {
+                return false;
+            }
+            this.started = true;
+            return true;
+        }
+
+        /**
+         * Called by the read task to expose the input stream of the
+         * in-flight GET request, so that it can be aborted by the cancel.
+         *
+         * @return false if the read ahead has been cancelled
+         */
+        public synchronized boolean setInputStream(InputStream inputStream) {
+            this.inputStream = inputStream;
+            return !this.cancelled;
+        }
+
+        /**
+         * Called by the read task to expose the in-flight request of the
+         * async transport, so that it can be cancelled by the cancel.
+         *
+         * @return false if the read ahead has been cancelled
+         */
+        public synchronized boolean setRequest(Future<?> request) {
+            this.request = request;
+            return !this.cancelled;
+        }
+
+        public synchronized boolean isCancelled() {
+            return this.cancelled;
+        }
+
+        /**
+         * Called by the stream when the block will never be read. The task
+         * which has not started will never touch the buffer, and the
+         * in-flight GET request is aborted.
+         *
+         * @return true if the read task has not started yet
+         */
+        public boolean cancel() {
+            InputStream inFlightStream;
+            Future<?> inFlightRequest;
+            synchronized (this) {
+                if (this.cancelled || this.finished) {
+                    return false;
+                }
+                this.cancelled = true;
+                if (!this.started) {
+                    this.finished = true;
+                    return true;
+                }
+                inFlightStream = this.inputStream;
+                inFlightRequest = this.request;
+            }
+            abort(inFlightStream);
+            if (null != inFlightRequest) {
+                inFlightRequest.cancel(false);
+            }
+            return false;
+        }
+
+        /**
+         * Abort the GET request without draining the rest of the content.
+         */
+        public static void abort(InputStream inputStream) {
+            if (null == inputStream) {
+                return;
+            }
+            if (inputStream instanceof COSObjectInputStream) {
+                ((COSObjectInputStream) inputStream).abort();
+            } else {
+                IOUtils.closeStream(inputStream);
+            }
         }
 
         public int getStatus() {
@@ -79,19 +264,50 @@ public class CosFsInputStream extends FSInputStream {
     private FileSystem.Statistics statistics;
     private final Configuration conf;
     private final NativeFileSystemStore store;
+    private final String bucket;
     private final String key;
+    private final long modificationTime;
     private long position = 0;
     private long nextPos = 0;
-    private long lastByteStart = -1;
     private long fileSize;
     private long partRemaining;
-    private final long PreReadPartSize;
     private final int maxReadPartNumber;
-    private byte[] buffer;
-    private boolean closed = false;
+    // The max time to wait for a block, or 0 to wait until its read task
+    // gives up.
+    private final long readAheadWaitTimeoutMs;
+    private ReadBuffer currentReadBuffer;
+    private ByteBuffer buffer;
+    private volatile boolean closed = false;
 
     private final ExecutorService readAheadExecutorService;
-    private final Queue<ReadBuffer> readBufferQueue;
+    private final ExecutorService streamingReadExecutorService;
+    private final Deque<ReadBuffer> readBufferQueue;
+    private final ReadBufferPool readBufferPool;
+    private final CosNReadAheadPolicy readAheadPolicy;
+    private final CosNReadAheadTuner readAheadTuner;
+    // The time the reader started consuming the current block, or 0 if
+    // it is not measured.
+    private long consumeStartNanos = 0;
+    // The bytes of the last parallel read, which are reported to the read
+    // ahead policy as a consumed block by the next reopen.
+    private long parallelReadBytes = 0;
+    private final long parallelReadThreshold;
+    private final long parallelReadPartSize;
+    private final int parallelReadMaxConcurrency;
+    private final CosNInputStreamStatistics streamStatistics;
+    // The prefetched tail of the file, which is kept until the stream is
+    // closed or the prefetch fails. It is published by the constructor,
+    // and the positioned reads pin it instead of taking the stream lock.
+    private volatile ReadBuffer tailReadBuffer;
+    private final boolean streaming;
+    private CosNStreamingReader streamingReader;
+    private CosNStreamingReader.Chunk currentChunk;
+    // The consumed read ahead blocks kept for the short backward seeks,
+    // the most recently consumed first.
+    private final Deque<ReadBuffer> retainedReadBuffers;
+    private final int maxRetainedBlocks;
+    private final long maxRetainedBytes;
+    private long retainedBytes = 0;
 
     public CosFsInputStream(
             Configuration conf,
@@ -100,114 +316,398 @@ public class CosFsInputStream extends FSInputStream {
             String key,
             long fileSize,
             ExecutorService readAheadExecutorService) {
+        this(conf, store, statistics, null, key, fileSize, 0,
+                readAheadExecutorService);
+    }
+
+    /**
+     * @param bucket           the bucket of the file, which identifies the
+     *                         blocks in the local block cache together with
+     *                         the key and the modification time
+     * @param modificationTime the modification time of the file, or 0 if
+     *                         it is unknown and the local block cache is
+     *                         bypassed
+     */
+    public CosFsInputStream(
+            Configuration conf,
+            NativeFileSystemStore store,
+            FileSystem.Statistics statistics,
+            String bucket,
+            String key,
+            long fileSize,
+            long modificationTime,
+            ExecutorService readAheadExecutorService) {
+        this(conf, store, statistics, bucket, key, fileSize, modificationTime,
+                readAheadExecutorService, readAheadExecutorService);
+    }
+
+    /**
+     * @param streamingReadExecutorService the executor of the pump threads
+     *                                     of the streaming read mode, each
+     *                                     of which is held until the
+     *                                     streaming read is closed
+     */
+    public CosFsInputStream(
+            Configuration conf,
+            NativeFileSystemStore store,
+            FileSystem.Statistics statistics,
+            String bucket,
+            String key,
+            long fileSize,
+            long modificationTime,
+            ExecutorService readAheadExecutorService,
+            ExecutorService streamingReadExecutorService) {
         super();
         this.conf = conf;
         this.store = store;
         this.statistics = statistics;
+        this.bucket = bucket;
         this.key = key;
         this.fileSize = fileSize;
-        this.PreReadPartSize = conf.getLong(
-                CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY,
-                CosNConfigKeys.DEFAULT_READ_AHEAD_BLOCK_SIZE);
-        this.maxReadPartNumber = conf.getInt(
-                CosNConfigKeys.READ_AHEAD_QUEUE_SIZE,
+        this.modificationTime = modificationTime;
+        this.readAheadTuner = new CosNReadAheadTuner();
+        this.readAheadPolicy = new CosNReadAheadPolicy(conf,
+                this.readAheadTuner);
+        this.maxReadPartNumber = this.readAheadPolicy.isAutoTuned()
+                ? this.readAheadPolicy.getMaxWindow()
+                : conf.getInt(CosNConfigKeys.READ_AHEAD_QUEUE_SIZE,
                 CosNConfigKeys.DEFAULT_READ_AHEAD_QUEUE_SIZE);
+        this.readAheadWaitTimeoutMs = conf.getLong(
+                CosNConfigKeys.READ_AHEAD_WAIT_TIMEOUT_MS_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_WAIT_TIMEOUT_MS);
         this.readAheadExecutorService = readAheadExecutorService;
+        this.streamingReadExecutorService = streamingReadExecutorService;
+        this.parallelReadThreshold = conf.getLong(
+                CosNConfigKeys.PARALLEL_READ_THRESHOLD_KEY,
+                CosNConfigKeys.DEFAULT_PARALLEL_READ_THRESHOLD);
+        this.parallelReadPartSize = Math.max(conf.getLong(
+                CosNConfigKeys.PARALLEL_READ_PART_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_PARALLEL_READ_PART_SIZE), 1);
+        this.parallelReadMaxConcurrency = Math.max(1, conf.getInt(
+                CosNConfigKeys.PARALLEL_READ_MAX_CONCURRENCY_KEY,
+                CosNConfigKeys.DEFAULT_PARALLEL_READ_MAX_CONCURRENCY));
         this.readBufferQueue =
                 new ArrayDeque<ReadBuffer>(this.maxReadPartNumber);
+        this.maxRetainedBlocks = conf.getInt(
+                CosNConfigKeys.READ_AHEAD_RETAINED_BLOCKS_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_RETAINED_BLOCKS);
+        this.maxRetainedBytes = conf.getLong(
+                CosNConfigKeys.READ_AHEAD_RETAINED_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_RETAINED_SIZE);
+        this.retainedReadBuffers = new ArrayDeque<ReadBuffer>(
+                Math.max(1, this.maxRetainedBlocks + 1));
+        this.readBufferPool = ReadBufferPool.getInstance();
+        this.readBufferPool.registerReader();
+        this.streamStatistics = new CosNInputStreamStatistics();
+        this.streamStatistics.updateReadAheadPolicy(this.readAheadPolicy);
+        String readMode = conf.getTrimmed(CosNConfigKeys.READ_MODE_KEY,
+                CosNConfigKeys.DEFAULT_READ_MODE);
+        this.streaming = STREAMING_READ_MODE.equalsIgnoreCase(readMode);
+        if (!this.streaming
+                && !CosNConfigKeys.DEFAULT_READ_MODE.equalsIgnoreCase(readMode)) {
+            LOG.warn("The read mode [{}] is not supported, using the default " +
+                    "settings: [{}].", readMode,
+                    CosNConfigKeys.DEFAULT_READ_MODE);
+        }
         this.closed = false;
+        this.prefetchTail();
     }
 
-    private synchronized void reopen(long pos) throws IOException {
-        long partSize = 0;
+    /**
+     * Fetch the tail of the file asynchronously if the key matches the
+     * configured suffixes, since the columnar formats such as Parquet and
+     * ORC always read the footer first.
+     */
+    private void prefetchTail() {
+        long tailSize = this.conf.getLong(
+                CosNConfigKeys.TAIL_PREFETCH_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_TAIL_PREFETCH_SIZE);
+        if (this.fileSize <= 0 || tailSize <= 0
+                || !this.matchTailPrefetchSuffix()) {
+            return;
+        }
+
+        long byteStart = Math.max(0, this.fileSize - tailSize);
+        long byteEnd = this.fileSize - 1;
+        CosNByteBuffer cosNByteBuffer;
+        try {
+            cosNByteBuffer = this.readBufferPool.tryGetBuffer(
+                    (int) (byteEnd - byteStart + 1));
+        } catch (IOException e) {
+            LOG.warn("Failed to get a buffer to prefetch the tail of the " +
+                    "cos key: {}.", this.key, e);
+            return;
+        }
+        if (null == cosNByteBuffer) {
+            this.streamStatistics.readAheadThrottled();
+            return;
+        }
+
+        LOG.debug("Prefetch the tail of the cos key: {}, range: [{}, {}].",
+                this.key, byteStart, byteEnd);
+        ReadBuffer readBuffer = new ReadBuffer(byteStart, byteEnd,
+                cosNByteBuffer);
+        new CosNFileReadTask(this.conf, this.key, this.store, readBuffer,
+                this.blockCacheKey(byteStart, byteEnd), this.streamStatistics)
+                .submit(this.readAheadExecutorService);
+        this.streamStatistics.readAheadIssued(byteEnd - byteStart + 1);
+        this.tailReadBuffer = readBuffer;
+    }
+
+    private boolean matchTailPrefetchSuffix() {
+        for (String suffix : this.conf.getTrimmedStrings(
+                CosNConfigKeys.TAIL_PREFETCH_SUFFIXES_KEY)) {
+            if (!suffix.isEmpty() && this.key.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
+    /**
+     * Wait for the prefetched tail if it contains the position. It is
+     * called under the stream lock, and drops the tail if the prefetch is
+     * failed.
+     *
+     * @return the buffer of the tail, or null if the position is not in the
+     * tail or the prefetch is failed
+     */
+    private ByteBuffer waitTail(long pos) {
+        if (null == this.tailReadBuffer
+                || pos < this.tailReadBuffer.getStart()
+                || pos > this.tailReadBuffer.getEnd()) {
+            return null;
+        }
+        ByteBuffer tailBuffer = this.waitReadBuffer(this.tailReadBuffer);
+        if (null == tailBuffer) {
+            LOG.warn("The tail prefetch of the cos key: {} is failed.",
+                    this.key);
+            this.tailReadBuffer.release();
+            this.tailReadBuffer = null;
+            return null;
+        }
+        this.streamStatistics.tailPrefetchHit();
+        return tailBuffer;
+    }
+
+    /**
+     * Wait for the read task of the block, within the wait timeout if it is
+     * configured. The read task is cancelled on the timeout.
+     *
+     * @return the buffer of the block, or null if the fetch is failed
+     */
+    private ByteBuffer waitReadBuffer(ReadBuffer readBuffer) {
+        try {
+            if (this.readAheadWaitTimeoutMs > 0) {
+                return readBuffer.getFuture().get(
+                        this.readAheadWaitTimeoutMs, TimeUnit.MILLISECONDS);
+            }
+            return readBuffer.getFuture().get();
+        } catch (InterruptedException e) {
+            LOG.warn("interrupted exception occurs when wait a read buffer.");
+        } catch (ExecutionException e) {
+            LOG.debug("The read ahead of the block range start: {}, end: {} " +
+                    "is failed.", readBuffer.getStart(), readBuffer.getEnd());
+        } catch (TimeoutException e) {
+            LOG.warn("Wait for the block range start: {}, end: {} of the cos " +
+                            "key: {} timed out after {}ms.",
+                    readBuffer.getStart(), readBuffer.getEnd(), this.key,
+                    this.readAheadWaitTimeoutMs);
+            if (this.cancelReadTask(readBuffer)) {
+                this.streamStatistics.readAheadCancelled(
+                        readBuffer.getEnd() - readBuffer.getStart() + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Report the bytes consumed from the current block, or by the last
+     * parallel read, and the new position to the read ahead policy.
+     */
+    private void recordReopen(long pos) {
+        long consumedBytes = null == this.buffer ? this.parallelReadBytes :
+                this.buffer.capacity() - this.partRemaining;
+        this.parallelReadBytes = 0;
+        if (this.readAheadPolicy.isAutoTuned() && this.consumeStartNanos > 0) {
+            this.readAheadTuner.recordConsume(consumedBytes,
+                    System.nanoTime() - this.consumeStartNanos);
+        }
+        this.consumeStartNanos = 0;
+        this.readAheadPolicy.onReopen(pos, this.position, this.nextPos,
+                consumedBytes);
+        this.streamStatistics.updateReadAheadPolicy(this.readAheadPolicy);
+        if (this.readAheadPolicy.isAutoTuned()) {
+            this.streamStatistics.updateReadAheadTuner(this.readAheadTuner);
+        }
+    }
+
+    private synchronized void reopen(long pos) throws IOException {
         if (pos < 0) {
             throw new EOFException(FSExceptionMessages.NEGATIVE_SEEK);
         } else if (pos > this.fileSize) {
             throw new EOFException(FSExceptionMessages.CANNOT_SEEK_PAST_EOF);
-        } else {
-            if (pos + this.PreReadPartSize > this.fileSize) {
-                partSize = this.fileSize - pos;
-            } else {
-                partSize = this.PreReadPartSize;
-            }
         }
 
-        this.buffer = null;
+        this.streamStatistics.reopened(pos, this.position);
+        ReadBuffer retainedReadBuffer = this.takeRetainedReadBuffer(pos);
+        if (null != retainedReadBuffer) {
+            // No request is sent, so the read ahead policy and the queue
+            // are left as they are.
+            this.streamStatistics.retainedBlockHit();
+            this.releaseCurrentBuffer();
+            this.currentReadBuffer = retainedReadBuffer;
+            this.buffer = retainedReadBuffer.getBuffer();
+            this.position = pos;
+            this.partRemaining = retainedReadBuffer.getEnd() - pos + 1;
+            this.nextPos = retainedReadBuffer.getEnd() + 1;
+            this.consumeStartNanos = 0;
+            return;
+        }
 
-        boolean isRandomIO = true;
-        if (pos == this.nextPos) {
-            isRandomIO = false;
-        } else {
-            while (this.readBufferQueue.size() != 0) {
-                if (this.readBufferQueue.element().getStart() != pos) {
-                    this.readBufferQueue.poll();
-                } else {
-                    break;
-                }
+        this.recordReopen(pos);
+        this.releaseCurrentBuffer();
+
+        // Keep the blocks from the one containing the position within the
+        // read ahead window, and discard the skipped ones. The whole queue is
+        // discarded if none contains the position.
+        int window = Math.min(this.readAheadPolicy.getWindow(),
+                this.maxReadPartNumber);
+        boolean queued = false;
+        for (ReadBuffer readBuffer : this.readBufferQueue) {
+            if (pos >= readBuffer.getStart() && pos <= readBuffer.getEnd()) {
+                // Without read ahead, waiting for a large block in flight is
+                // slower than fetching a block of the policy size.
+                queued = window > 1 || readBuffer.isFinished()
+                        || readBuffer.getEnd() - readBuffer.getStart() + 1
+                        <= this.readAheadPolicy.getBlockSize();
+                break;
             }
         }
+        while (this.readBufferQueue.size() != 0
+                && (!queued || this.readBufferQueue.element().getEnd() < pos)) {
+            this.discardReadBuffer(this.readBufferQueue.poll());
+        }
+        while (this.readBufferQueue.size() > Math.max(1, window)) {
+            this.discardReadBuffer(this.readBufferQueue.pollLast());
+        }
 
-        this.nextPos = pos + partSize;
+        if (pos == this.fileSize) {
+            // Nothing is left to read.
+            this.nextPos = pos;
+            this.position = pos;
+            this.partRemaining = 0;
+            return;
+        }
 
-        int currentBufferQueueSize = this.readBufferQueue.size();
-        if (currentBufferQueueSize == 0) {
-            this.lastByteStart = pos - partSize;
-        } else {
-            ReadBuffer[] readBuffers =
-                    this.readBufferQueue.toArray(new ReadBuffer[currentBufferQueueSize]);
-            this.lastByteStart =
-                    readBuffers[currentBufferQueueSize - 1].getStart();
+        // The block already in the queue is preferred for the sequential
+        // reads reaching the tail.
+        ByteBuffer tailBuffer = this.readBufferQueue.isEmpty()
+                ? this.waitTail(pos) : null;
+        if (null != tailBuffer) {
+            // The tail buffer is kept by the stream, and is not the current
+            // read buffer to be released.
+            this.buffer = tailBuffer;
+            this.position = pos;
+            this.partRemaining = this.tailReadBuffer.getEnd() - pos + 1;
+            this.nextPos = this.tailReadBuffer.getEnd() + 1;
+            return;
         }
 
-        int maxLen = this.maxReadPartNumber - currentBufferQueueSize;
-        for (int i = 0; i < maxLen && i < (currentBufferQueueSize + 1) * 2; i++) {
-            if (this.lastByteStart + partSize * (i + 1) > this.fileSize) {
-                break;
-            }
+        if (this.streaming) {
+            this.reopenStreaming(pos);
+            return;
+        }
 
-            long byteStart = this.lastByteStart + partSize * (i + 1);
-            long byteEnd = byteStart + partSize - 1;
-            if (byteEnd >= this.fileSize) {
-                byteEnd = this.fileSize - 1;
-            }
+        long partSize = this.readAheadPolicy.getBlockSize();
+        long byteStart = pos;
+        if (this.readBufferQueue.size() != 0) {
+            byteStart = this.readBufferQueue.getLast().getEnd() + 1;
+        }
 
-            ReadBuffer readBuffer = new ReadBuffer(byteStart, byteEnd);
-            if (readBuffer.getBuffer().length == 0) {
-                readBuffer.setStatus(ReadBuffer.SUCCESS);
+        while ((this.readBufferQueue.size() < window
+                || this.readBufferQueue.size() == 0)
+                && byteStart < this.fileSize) {
+            long byteEnd = Math.min(byteStart + partSize, this.fileSize) - 1;
+            int bufferSize = (int) (byteEnd - byteStart + 1);
+            CosNByteBuffer cosNByteBuffer;
+            if (this.readBufferQueue.size() == 0) {
+                // The block is needed by the reader right now.
+                cosNByteBuffer = this.readBufferPool.getBuffer(bufferSize);
             } else {
-                this.readAheadExecutorService.execute(
-                        new CosNFileReadTask(
-                                this.conf, this.key, this.store, readBuffer));
+                cosNByteBuffer = this.readBufferPool.tryGetBuffer(bufferSize);
+                if (null == cosNByteBuffer) {
+                    // Stop prefetching when the read buffer pool is exhausted.
+                    this.streamStatistics.readAheadThrottled();
+                    break;
+                }
             }
+            ReadBuffer readBuffer = new ReadBuffer(byteStart, byteEnd,
+                    cosNByteBuffer);
+            new CosNFileReadTask(this.conf, this.key, this.store,
+                    readBuffer, this.blockCacheKey(byteStart, byteEnd),
+                    this.streamStatistics, this.readAheadTuner)
+                    .submit(this.readAheadExecutorService);
+            this.streamStatistics.readAheadIssued(byteEnd - byteStart + 1);
 
             this.readBufferQueue.add(readBuffer);
-            if (isRandomIO) {
-                break;
-            }
+            byteStart = byteEnd + 1;
         }
 
         ReadBuffer readBuffer = this.readBufferQueue.poll();
-        readBuffer.lock();
-        try {
-            readBuffer.await(ReadBuffer.INIT);
-            if (readBuffer.getStatus() == ReadBuffer.ERROR) {
-                this.buffer = null;
-            } else {
-                this.buffer = readBuffer.getBuffer();
-            }
-        } catch (InterruptedException e) {
-            LOG.warn("interrupted exception occurs when wait a read buffer.");
-        } finally {
-            readBuffer.unLock();
-        }
-
+        this.currentReadBuffer = readBuffer;
+        this.buffer = this.waitReadBuffer(readBuffer);
         if (null == this.buffer) {
             throw new IOException("Null IO stream");
         }
 
+        // The position may be in the middle of a queued block.
         this.position = pos;
-        this.partRemaining = partSize;
+        this.partRemaining = readBuffer.getEnd() - pos + 1;
+        this.nextPos = readBuffer.getEnd() + 1;
+        // The time waiting for the block is not the time of the reader.
+        this.consumeStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Move to the position in the streaming read mode. The GET request is
+     * kept for a forward seek within the ring, whose bytes are skipped, and
+     * reopened at the position for the other seeks.
+     */
+    private void reopenStreaming(long pos) throws IOException {
+        if (null != this.streamingReader) {
+            long nextOffset = this.streamingReader.getNextOffset();
+            if (pos < nextOffset
+                    || pos - nextOffset > this.streamingReader.getRingCapacity()) {
+                this.streamingReader.close();
+                this.streamingReader = null;
+            }
+        }
+        if (null == this.streamingReader) {
+            this.streamingReader = new CosNStreamingReader(this.conf,
+                    this.key, this.store, this.fileSize, pos,
+                    this.streamStatistics, this.streamingReadExecutorService);
+        }
+
+        CosNStreamingReader.Chunk chunk;
+        try {
+            chunk = this.streamingReader.next();
+            while (chunk.getEnd() < pos) {
+                this.streamingReader.release(chunk);
+                chunk = this.streamingReader.next();
+            }
+        } catch (IOException e) {
+            // The pump thread has exited, and the next reopen starts a new
+            // streaming read.
+            this.streamingReader.close();
+            this.streamingReader = null;
+            throw e;
+        }
+        this.currentChunk = chunk;
+        this.buffer = chunk.getBuffer();
+        this.position = pos;
+        this.partRemaining = chunk.getEnd() - pos + 1;
+        this.nextPos = chunk.getEnd() + 1;
     }
 
     @Override
@@ -226,6 +726,12 @@ public class CosFsInputStream extends FSInputStream {
             long len = pos - this.position;
             this.position = pos;
             this.partRemaining -= len;
+        } else if (pos < this.position && null != this.buffer
+                && pos >= this.nextPos - this.buffer.capacity()) {
+            // A short backward seek within the current buffer.
+            this.partRemaining += this.position - pos;
+            this.position = pos;
+            this.streamStatistics.retainedBlockHit();
         } else {
             this.reopen(pos);
         }
@@ -253,14 +759,14 @@ public class CosFsInputStream extends FSInputStream {
 
         int byteRead = -1;
         if (this.partRemaining != 0) {
-            byteRead =
-                    this.buffer[(int) (this.buffer.length - this.partRemaining)] & 0xff;
+            byteRead = this.buffer.get(
+                    (int) (this.buffer.capacity() - this.partRemaining)) & 0xff;
         }
         if (byteRead >= 0) {
             this.position++;
             this.partRemaining--;
             if (null != this.statistics) {
-                this.statistics.incrementBytesRead(byteRead);
+                this.statistics.incrementBytesRead(1);
             }
         }
 
@@ -277,28 +783,71 @@ public class CosFsInputStream extends FSInputStream {
             return 0;
         }
 
-        if (off < 0 || len < 0 || len > b.length) {
+        if (off < 0 || len < 0 || len > b.length - off) {
             throw new IndexOutOfBoundsException();
         }
 
         int bytesRead = 0;
         while (position < fileSize && bytesRead < len) {
             if (partRemaining <= 0) {
+                int bytes = this.readParallel(
+                        ByteBuffer.wrap(b, off + bytesRead, len - bytesRead));
+                if (bytes > 0) {
+                    bytesRead += bytes;
+                    continue;
+                }
                 reopen(position);
             }
 
-            int bytes = 0;
-            for (int i = this.buffer.length - (int) partRemaining;
-                 i < this.buffer.length; i++) {
-                b[off + bytesRead] = this.buffer[i];
-                bytes++;
-                bytesRead++;
-                if (off + bytesRead >= len) {
-                    break;
+            int bytes = (int) Math.min(this.partRemaining, len - bytesRead);
+            if (bytes > 0) {
+                this.currentBufferSlice(bytes).get(b, off + bytesRead, bytes);
+                bytesRead += bytes;
+                this.position += bytes;
+                this.partRemaining -= bytes;
+            } else if (this.partRemaining != 0) {
+                throw new IOException("Failed to read from stream. Remaining:" +
+                        " " + this.partRemaining);
+            }
+        }
+        if (null != this.statistics && bytesRead > 0) {
+            this.statistics.incrementBytesRead(bytesRead);
+        }
+
+        return bytesRead == 0 ? -1 : bytesRead;
+    }
+
+    /**
+     * Read the bytes into the given byte buffer, which may be a direct
+     * buffer. The data is transferred from the read ahead buffer with a
+     * bulk put, avoiding any intermediate copy.
+     */
+    @Override
+    public int read(ByteBuffer buf) throws IOException {
+        if (this.closed) {
+            throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);
+        }
+
+        if (!buf.hasRemaining()) {
+            return 0;
+        }
+
+        int bytesRead = 0;
+        while (this.position < this.fileSize && buf.hasRemaining()) {
+            if (this.partRemaining <= 0) {
+                int bytes = this.readParallel(buf.duplicate());
+                if (bytes > 0) {
+                    buf.position(buf.position() + bytes);
+                    bytesRead += bytes;
+                    continue;
                 }
+                this.reopen(this.position);
             }
 
+            int bytes = (int) Math.min(this.partRemaining, buf.remaining());
             if (bytes > 0) {
+                buf.put(this.currentBufferSlice(bytes));
+                bytesRead += bytes;
                 this.position += bytes;
                 this.partRemaining -= bytes;
             } else if (this.partRemaining != 0) {
@@ -313,13 +862,482 @@ public class CosFsInputStream extends FSInputStream {
         return bytesRead == 0 ? -1 : bytesRead;
     }
 
+    /**
+     * Read a large request from the current position by the concurrent
+     * range GET requests, which write straight into the target at the
+     * right offsets. The number of the requests is capped per read, and
+     * they are all finished when this method returns. The stream lock is
+     * not held while waiting for them.
+     *
+     * @param target the buffer whose remaining is to be filled
+     * @return the bytes read, or 0 if the request is not large enough or
+     * the parallel read is failed, and it should be read block by block
+     * @throws IOException if the stream is closed during the read
+     */
+    private int readParallel(ByteBuffer target) throws IOException {
+        if (this.streaming || this.parallelReadThreshold <= 0
+                || target.remaining() < this.parallelReadThreshold) {
+            return 0;
+        }
+
+        long start;
+        int bytes;
+        long partSize;
+        int parts;
+        synchronized (this) {
+            start = this.position;
+            bytes = (int) Math.min(target.remaining(), this.fileSize - start);
+            if (bytes < this.parallelReadThreshold) {
+                return 0;
+            }
+            // Grow the parts instead of queueing more requests than the cap.
+            partSize = Math.max(this.parallelReadPartSize,
+                    (bytes + this.parallelReadMaxConcurrency - 1)
+                            / this.parallelReadMaxConcurrency);
+            parts = (int) ((bytes + partSize - 1) / partSize);
+            LOG.debug("Parallel read the cos key: {}, range: [{}, {}], " +
+                    "parts: {}.", this.key, start, start + bytes - 1, parts);
+            // The parallel read continues the sequential read like a block
+            // of its own.
+            this.recordReopen(start);
+            // The queued blocks within the range would be fetched twice.
+            this.releaseCurrentBuffer();
+            while (this.readBufferQueue.size() != 0 && this.readBufferQueue
+                    .element().getEnd() < start + bytes) {
+                this.discardReadBuffer(this.readBufferQueue.poll());
+            }
+        }
+
+        ByteBuffer buffer = target.slice();
+        buffer.limit(bytes);
+        CosNFileRange range = new CosNFileRange(start, bytes);
+        range.setData(new CompletableFuture<ByteBuffer>());
+        CosNVectoredReadTask.PendingRange pendingRange =
+                new CosNVectoredReadTask.PendingRange(range, buffer, parts);
+        List<Future<?>> tasks = new ArrayList<>(parts);
+        for (long offset = 0; offset < bytes; offset += partSize) {
+            CosNVectoredReadTask.Slice slice = new CosNVectoredReadTask.Slice(
+                    pendingRange, start + offset,
+                    (int) Math.min(partSize, bytes - offset), (int) offset);
+            tasks.add(this.readAheadExecutorService.submit(
+                    new CosNVectoredReadTask(this.key, this.store, null,
+                            slice, this.readAheadPolicy.isAutoTuned()
+                            ? this.readAheadTuner : null)));
+        }
+        this.streamStatistics.parallelReadIssued(parts);
+
+        // The target must not be touched by any task after returning.
+        boolean interrupted = false;
+        for (Future<?> task : tasks) {
+            while (true) {
+                try {
+                    task.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (range.getData().isCompletedExceptionally()) {
+            LOG.warn("The parallel read of the cos key: {}, range: [{}, {}] " +
+                    "is failed, read it block by block.", this.key, start,
+                    start + bytes - 1);
+            return 0;
+        }
+
+        synchronized (this) {
+            if (this.closed) {
+                throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);
+            }
+            this.position = start + bytes;
+            this.nextPos = this.position;
+            this.partRemaining = 0;
+            this.parallelReadBytes = bytes;
+        }
+        return bytes;
+    }
+
+    private CosNBlockCacheKey blockCacheKey(long start, long end) {
+        if (null == this.bucket || this.modificationTime <= 0
+                || !CosNMemoryBlockCache.getInstance().isEnabled()
+                && !CosNLocalBlockCache.getInstance().isEnabled()) {
+            return null;
+        }
+        return new CosNBlockCacheKey(this.bucket, this.key,
+                this.modificationTime, start, end);
+    }
+
+    /**
+     * Get a view of the next bytes of the current read ahead buffer
+     * without changing the state of the buffer itself.
+     */
+    private ByteBuffer currentBufferSlice(int length) {
+        ByteBuffer src = this.buffer.duplicate();
+        int offset = src.capacity() - (int) this.partRemaining;
+        src.limit(offset + length);
+        src.position(offset);
+        return src;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        long targetPos = Math.min(this.position + n, this.fileSize);
+        long skipped = targetPos - this.position;
+        this.seek(targetPos);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (this.closed) {
+            throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);
+        }
+        return (int) Math.min(this.partRemaining, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Positioned read. It fetches the exact range [position, position +
+     * length) from the cos directly, so that it can be called concurrently
+     * with the sequential reads and never disturbs the current position or
+     * the read ahead queue of this stream.
+     */
     @Override
-    public void close() throws IOException {
+    public int read(long position, byte[] buffer, int offset, int length)
+            throws IOException {
         if (this.closed) {
+            throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);
+        }
+        this.validatePositionedReadArgs(position, buffer, offset, length);
+        if (length == 0) {
+            return 0;
+        }
+        if (position >= this.fileSize) {
+            return -1;
+        }
+
+        int bytesToRead = (int) Math.min(length, this.fileSize - position);
+        this.readRange(position, buffer, offset, bytesToRead);
+        if (null != this.statistics) {
+            this.statistics.incrementBytesRead(bytesToRead);
+        }
+        return bytesToRead;
+    }
+
+    @Override
+    public void readFully(long position, byte[] buffer, int offset,
+                          int length) throws IOException {
+        if (this.closed) {
+            throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);
+        }
+        this.validatePositionedReadArgs(position, buffer, offset, length);
+        if (length == 0) {
             return;
         }
+        if (position + length > this.fileSize) {
+            throw new EOFException(FSExceptionMessages.EOF_IN_READ_FULLY);
+        }
 
-        this.closed = true;
+        this.readRange(position, buffer, offset, length);
+        if (null != this.statistics) {
+            this.statistics.incrementBytesRead(length);
+        }
+    }
+
+    private void readRange(long position, byte[] buffer, int offset,
+                           int length) throws IOException {
+        if (this.readTail(position, buffer, offset, length)) {
+            return;
+        }
+        LOG.debug("Positioned read the cos key: {}, position: {}, length: {}.",
+                this.key, position, length);
+        InputStream inputStream = this.store.retrieveBlock(
+                this.key, position, position + length - 1);
+        try {
+            IOUtils.readFully(inputStream, buffer, offset, length);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Serve the positioned read from the prefetched tail. The tail is pinned
+     * rather than guarded by the stream lock, so that it can not be
+     * released during the copy while the sequential reader keeps going.
+     */
+    private boolean readTail(long position, byte[] buffer, int offset,
+                             int length) {
+        ReadBuffer tail = this.tailReadBuffer;
+        if (null == tail || position < tail.getStart()
+                || position + length - 1 > tail.getEnd() || !tail.pin()) {
+            return false;
+        }
+        try {
+            ByteBuffer tailBuffer = this.waitReadBuffer(tail);
+            if (null == tailBuffer) {
+                // The tail is dropped by the next reopen reaching it.
+                return false;
+            }
+            this.streamStatistics.tailPrefetchHit();
+            ByteBuffer src = tailBuffer.duplicate();
+            src.position((int) (position - tail.getStart()));
+            src.get(buffer, offset, length);
+            return true;
+        } finally {
+            tail.unpin();
+        }
+    }
+
+    /**
+     * The max gap between two ranges of the vectored read to be merged into
+     * a single GET request.
+     *
+     * @return the min seek size of the vectored read
+     */
+    public int minSeekForVectorReads() {
+        return this.conf.getInt(CosNConfigKeys.VECTORED_READ_MIN_SEEK_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_VECTORED_READ_MIN_SEEK_SIZE);
+    }
+
+    /**
+     * The max size of a GET request of the vectored read. The larger ranges
+     * are split and fetched in parallel.
+     *
+     * @return the max read size of the vectored read
+     */
+    public int maxReadSizeForVectorReads() {
+        return this.conf.getInt(
+                CosNConfigKeys.VECTORED_READ_MAX_MERGED_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_VECTORED_READ_MAX_MERGED_SIZE);
+    }
+
+    /**
+     * Read the ranges asynchronously, which is the counterpart of the
+     * readVectored of the newer Hadoop versions.
+     * <p>
+     * The ranges are sorted, and the ones close to each other are merged
+     * into a single GET request, while the large ones are split into the
+     * parallel sub-range requests. The data future of each range is
+     * completed as soon as all its bytes arrive. Like the positioned read,
+     * it never changes the position of this stream.
+     *
+     * @param ranges   the ranges to be read, which must not overlap
+     * @param allocate the function allocating the buffer for a range
+     * @throws IOException if the stream is closed or a range is invalid
+     */
+    public void readVectored(List<? extends CosNFileRange> ranges,
+                             IntFunction<ByteBuffer> allocate)
+            throws IOException {
+        if (this.closed) {
+            throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);
+        }
+        List<CosNFileRange> sortedRanges = new ArrayList<>(ranges);
+        Collections.sort(sortedRanges, new Comparator<CosNFileRange>() {
+            @Override
+            public int compare(CosNFileRange r1, CosNFileRange r2) {
+                return Long.compare(r1.getOffset(), r2.getOffset());
+            }
+        });
+        long previousEnd = -1;
+        for (CosNFileRange range : sortedRanges) {
+            if (range.getOffset() < 0) {
+                throw new EOFException(String.format("%s: %s",
+                        FSExceptionMessages.NEGATIVE_SEEK, range));
+            }
+            if (range.getLength() < 0) {
+                throw new IllegalArgumentException(String.format(
+                        "Negative length of the range: %s", range));
+            }
+            if (range.getOffset() < previousEnd) {
+                throw new IllegalArgumentException(String.format(
+                        "Overlapping range: %s", range));
+            }
+            previousEnd = range.getOffset() + range.getLength();
+        }
+
+        long minSeekSize = this.minSeekForVectorReads();
+        int maxMergedSize = Math.max(1, this.maxReadSizeForVectorReads());
+        List<CosNVectoredReadTask> tasks = new ArrayList<>();
+        CosNVectoredReadTask currentTask = null;
+        for (CosNFileRange range : sortedRanges) {
+            range.setData(new CompletableFuture<ByteBuffer>());
+            if (range.getOffset() + range.getLength() > this.fileSize) {
+                range.getData().completeExceptionally(new EOFException(
+                        String.format("%s: %s",
+                                FSExceptionMessages.EOF_IN_READ_FULLY, range)));
+                continue;
+            }
+            ByteBuffer buffer = allocate.apply(range.getLength());
+            if (range.getLength() == 0) {
+                buffer.limit(0);
+                range.getData().complete(buffer);
+                continue;
+            }
+
+            int slices = (range.getLength() - 1) / maxMergedSize + 1;
+            CosNVectoredReadTask.PendingRange pendingRange =
+                    new CosNVectoredReadTask.PendingRange(range, buffer,
+                            slices);
+            for (int offset = 0; offset < range.getLength();
+                 offset += maxMergedSize) {
+                CosNVectoredReadTask.Slice slice =
+                        new CosNVectoredReadTask.Slice(pendingRange,
+                                range.getOffset() + offset,
+                                Math.min(maxMergedSize,
+                                        range.getLength() - offset), offset);
+                if (null == currentTask || !currentTask.tryMerge(slice,
+                        minSeekSize, maxMergedSize)) {
+                    currentTask = new CosNVectoredReadTask(this.key,
+                            this.store, this.statistics, slice);
+                    tasks.add(currentTask);
+                }
+            }
+        }
+
+        this.streamStatistics.vectoredReadIssued(ranges.size(), tasks.size());
+        for (CosNVectoredReadTask task : tasks) {
+            this.readAheadExecutorService.execute(task);
+        }
+    }
+
+    /**
+     * Get the statistics of this stream.
+     *
+     * @return the stream statistics
+     */
+    public CosNInputStreamStatistics getStreamStatistics() {
+        return this.streamStatistics;
+    }
+
+    @Override
+    public String toString() {
+        return "CosFsInputStream{" +
+                "key='" + key + '\'' +
+                ", fileSize=" + fileSize +
+                ", position=" + position +
+                ", statistics=" + streamStatistics +
+                '}';
+    }
+
+    /**
+     * Discard a read ahead block which will never be read, and cancel its
+     * read task so that the bandwidth and the io threads are not wasted.
+     */
+    private void discardReadBuffer(ReadBuffer readBuffer) {
+        long length = readBuffer.getEnd() - readBuffer.getStart() + 1;
+        if (this.cancelReadTask(readBuffer)) {
+            this.streamStatistics.readAheadCancelled(length);
+        }
+        readBuffer.release();
+        this.streamStatistics.readAheadDiscarded(length);
+    }
+
+    /**
+     * Cancel the read task of the block, aborting its in-flight GET request.
+     *
+     * @return true if the read task has not started yet
+     */
+    private boolean cancelReadTask(ReadBuffer readBuffer) {
+        if (!readBuffer.cancel()) {
+            return false;
+        }
+        // The queued task is removed from the executor, so that it does
+        // not occupy the queue any more.
+        Future<?> task = readBuffer.getTask();
+        if (null != task) {
+            task.cancel(false);
+            if (this.readAheadExecutorService instanceof ThreadPoolExecutor
+                    && task instanceof Runnable) {
+                ((ThreadPoolExecutor) this.readAheadExecutorService)
+                        .remove((Runnable) task);
+            }
+        }
+        return true;
+    }
+
+    private void releaseCurrentBuffer() {
         this.buffer = null;
+        if (null != this.currentReadBuffer) {
+            this.retainReadBuffer(this.currentReadBuffer);
+            this.currentReadBuffer = null;
+        }
+        if (null != this.currentChunk) {
+            this.streamingReader.release(this.currentChunk);
+            this.currentChunk = null;
+        }
+    }
+
+    /**
+     * Keep the consumed block for the short backward seeks. The least
+     * recently consumed blocks are released when the number of the blocks
+     * or their bytes exceed the limits.
+     */
+    private void retainReadBuffer(ReadBuffer readBuffer) {
+        long length = readBuffer.getEnd() - readBuffer.getStart() + 1;
+        if (this.closed || this.maxRetainedBlocks <= 0
+                || length > this.maxRetainedBytes
+                || readBuffer.getStatus() != ReadBuffer.SUCCESS) {
+            readBuffer.release();
+            return;
+        }
+        this.retainedReadBuffers.addFirst(readBuffer);
+        this.retainedBytes += length;
+        while (this.retainedReadBuffers.size() > this.maxRetainedBlocks
+                || this.retainedBytes > this.maxRetainedBytes) {
+            ReadBuffer eldest = this.retainedReadBuffers.pollLast();
+            this.retainedBytes -= eldest.getEnd() - eldest.getStart() + 1;
+            eldest.release();
+        }
+    }
+
+    /**
+     * @return the retained block containing the position, which is removed
+     * from the retained ones, or null if there is none
+     */
+    private ReadBuffer takeRetainedReadBuffer(long pos) {
+        Iterator<ReadBuffer> iterator = this.retainedReadBuffers.iterator();
+        while (iterator.hasNext()) {
+            ReadBuffer readBuffer = iterator.next();
+            if (pos >= readBuffer.getStart() && pos <= readBuffer.getEnd()) {
+                iterator.remove();
+                this.retainedBytes -=
+                        readBuffer.getEnd() - readBuffer.getStart() + 1;
+                return readBuffer;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+        this.releaseCurrentBuffer();
+        while (this.retainedReadBuffers.size() != 0) {
+            this.retainedReadBuffers.poll().release();
+        }
+        this.retainedBytes = 0;
+        while (this.readBufferQueue.size() != 0) {
+            this.discardReadBuffer(this.readBufferQueue.poll());
+        }
+        if (null != this.tailReadBuffer) {
+            this.discardReadBuffer(this.tailReadBuffer);
+            this.tailReadBuffer = null;
+        }
+        if (null != this.streamingReader) {
+            this.streamingReader.close();
+            this.streamingReader = null;
+        }
+        this.readBufferPool.unregisterReader();
     }
 }
@@ -0,0 +1,768 @@
+package org.apache.hadoop.fs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.group.ChannelGroup;
+import org.jboss.netty.channel.group.DefaultChannelGroup;
+import org.jboss.netty.channel.socket.nio.NioClientSocketChannelFactory;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpChunk;
+import org.jboss.netty.handler.codec.http.HttpClientCodec;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.handler.ssl.SslHandler;
+import org.jboss.netty.handler.timeout.ReadTimeoutHandler;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The non-blocking HTTP transport of the COS requests, built on the NIO
+ * client of Netty.
+ * <p>
+ * The requests are sent to the presigned URLs of the objects, so that the
+ * signing is left to the COS SDK. A request holds no thread while waiting
+ * for the response: the content of a range read is written straight into
+ * the target buffer by the io threads, and the returned future is completed
+ * there as well. The callers should not block in the callbacks of the
+ * futures, and hand the heavy work over to their own executors.
+ * <p>
+ * The keep-alive connections are pooled per host. The requests beyond the
+ * max connections wait in the queue of the host rather than in a thread.
+ * Cancelling a returned future closes the connection of the request, and
+ * the target buffer of a range read is never written after the cancel
+ * returns.
+ */
+public class CosNAsyncTransport implements Closeable {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNAsyncTransport.class);
+
+    private static final int MAX_INITIAL_LINE_LENGTH = 4096;
+    private static final int MAX_HEADER_SIZE = 8192;
+    private static final int MAX_CHUNK_SIZE = 64 * (int) Unit.KB;
+    // The error responses are kept up to this size for the messages.
+    private static final int MAX_ERROR_CONTENT_SIZE = 4096;
+
+    private final NioClientSocketChannelFactory channelFactory;
+    private final HashedWheelTimer timer;
+    private final SSLContext sslContext;
+    // All the open connections, which are closed with the transport.
+    private final ChannelGroup channels =
+            new DefaultChannelGroup("cos-async-transport");
+    private final int maxConnections;
+    private final long readTimeoutMillis;
+    private final String userAgent;
+    private final Map<String, HostPool> hostPools =
+            new HashMap<String, HostPool>();
+    private volatile boolean closed = false;
+
+    public CosNAsyncTransport(Configuration conf) throws IOException {
+        int ioThreads = conf.getInt(
+                CosNConfigKeys.TRANSPORT_ASYNC_IO_THREADS_KEY,
+                CosNConfigKeys.DEFAULT_TRANSPORT_ASYNC_IO_THREADS);
+        if (ioThreads <= 0) {
+            ioThreads = Runtime.getRuntime().availableProcessors() * 2;
+        }
+        this.maxConnections = Math.max(1, conf.getInt(
+                CosNConfigKeys.MAX_CONNECTION_NUM,
+                CosNConfigKeys.DEFAULT_MAX_CONNECTION_NUM));
+        this.readTimeoutMillis = conf.getLong(
+                CosNConfigKeys.TRANSPORT_ASYNC_READ_TIMEOUT_MS_KEY,
+                CosNConfigKeys.DEFAULT_TRANSPORT_ASYNC_READ_TIMEOUT_MS);
+        this.userAgent = conf.get(CosNConfigKeys.USER_AGENT,
+                CosNConfigKeys.DEFAULT_USER_AGENT);
+        try {
+            this.sslContext = SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Failed to get the default SSL context.", e);
+        }
+
+        this.timer = new HashedWheelTimer(new ThreadFactoryBuilder()
+                .setNameFormat("cos-async-transport-timer-%d")
+                .setDaemon(true).build());
+        this.channelFactory = new NioClientSocketChannelFactory(
+                Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                        .setNameFormat("cos-async-transport-boss-%d")
+                        .setDaemon(true).build()),
+                Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                        .setNameFormat("cos-async-transport-io-%d")
+                        .setDaemon(true).build()),
+                ioThreads);
+        LOG.info("Initialize the async transport. io threads: [{}], " +
+                        "max connections per host: [{}], read timeout: [{}ms].",
+                ioThreads, this.maxConnections, this.readTimeoutMillis);
+    }
+
+    /**
+     * Read the byte range of the object into the remaining of the target.
+     *
+     * @param url        the presigned URL of the object
+     * @param rangeStart the first byte of the range
+     * @param rangeEnd   the last byte of the range
+     * @param target     the buffer whose remaining is exactly the range
+     * @return the future completed with the time the response arrives, in
+     * {@link System#nanoTime()}
+     */
+    public CompletableFuture<Long> get(URL url, long rangeStart,
+                                       long rangeEnd, ByteBuffer target) {
+        HttpRequest request = this.newRequest(HttpMethod.GET, url);
+        request.setHeader(HttpHeaders.Names.RANGE,
+                "bytes=" + rangeStart + "-" + rangeEnd);
+        GetExchange exchange = new GetExchange(url, request,
+                target.duplicate());
+        this.execute(exchange);
+        return exchange.future;
+    }
+
+    /**
+     * Upload the remaining of the body.
+     *
+     * @param url     the presigned URL of the request
+     * @param headers the extra headers of the request
+     * @param body    the content of the request, which must not be modified
+     *                until the future is completed
+     * @return the future completed with the ETag of the response
+     */
+    public CompletableFuture<String> put(URL url, Map<String, String> headers,
+                                         ByteBuffer body) {
+        HttpRequest request = this.newRequest(HttpMethod.PUT, url);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.setHeader(header.getKey(), header.getValue());
+        }
+        request.setHeader(HttpHeaders.Names.CONTENT_LENGTH, body.remaining());
+        request.setContent(ChannelBuffers.wrappedBuffer(body.duplicate()));
+        PutExchange exchange = new PutExchange(url, request);
+        this.execute(exchange);
+        return exchange.future;
+    }
+
+    /**
+     * Run the task on the timer of the transport after the delay, which
+     * must be short and not block. The tasks still pending when the
+     * transport is closed are run at once by the close, so that they see
+     * the transport closed rather than never run.
+     *
+     * @throws IOException if the transport is closed
+     */
+    public void schedule(Runnable task, long delayMillis) throws IOException {
+        if (this.closed) {
+            throw new IOException("The async transport is closed.");
+        }
+        try {
+            this.timer.newTimeout(new ScheduledTask(task), delayMillis,
+                    TimeUnit.MILLISECONDS);
+        } catch (IllegalStateException e) {
+            // The timer is stopped by a concurrent close.
+            throw new IOException("The async transport is closed.", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        List<Exchange<?>> exchanges = new ArrayList<Exchange<?>>();
+        synchronized (this.hostPools) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            for (HostPool hostPool : this.hostPools.values()) {
+                hostPool.drain(exchanges);
+            }
+            this.hostPools.clear();
+        }
+        for (Exchange<?> exchange : exchanges) {
+            exchange.fail(new IOException("The async transport is closed."));
+        }
+        // The in-flight requests are failed by the close of the connections.
+        this.channels.close().awaitUninterruptibly();
+        this.channelFactory.releaseExternalResources();
+        for (Timeout timeout : this.timer.stop()) {
+            if (timeout.getTask() instanceof ScheduledTask) {
+                ((ScheduledTask) timeout.getTask()).run(timeout);
+            }
+        }
+        LOG.info("Close the async transport.");
+    }
+
+    private HttpRequest newRequest(HttpMethod method, URL url) {
+        HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1,
+                method, url.getFile());
+        request.setHeader(HttpHeaders.Names.HOST, -1 == url.getPort()
+                ? url.getHost() : url.getHost() + ":" + url.getPort());
+        request.setHeader(HttpHeaders.Names.USER_AGENT, this.userAgent);
+        return request;
+    }
+
+    private void execute(Exchange<?> exchange) {
+        URL url = exchange.url;
+        boolean https = "https".equalsIgnoreCase(url.getProtocol());
+        int port = -1 == url.getPort() ? url.getDefaultPort() : url.getPort();
+        String poolKey = url.getProtocol() + "://" + url.getHost() + ":" + port;
+        HostPool hostPool;
+        synchronized (this.hostPools) {
+            if (this.closed) {
+                exchange.fail(new IOException(
+                        "The async transport is closed."));
+                return;
+            }
+            hostPool = this.hostPools.get(poolKey);
+            if (null == hostPool) {
+                hostPool = new HostPool(url.getHost(), port, https);
+                this.hostPools.put(poolKey, hostPool);
+            }
+        }
+        hostPool.execute(exchange);
+    }
+
+    /**
+     * The HTTP error response of a request.
+     */
+    public static class ResponseException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final int statusCode;
+
+        public ResponseException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * A task scheduled by {@link #schedule(Runnable, long)}.
+     */
+    private static final class ScheduledTask implements TimerTask {
+        private final Runnable task;
+
+        ScheduledTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run(Timeout timeout) {
+            try {
+                this.task.run();
+            } catch (RuntimeException e) {
+                LOG.error("Failed to run the scheduled task.", e);
+            }
+        }
+    }
+
+    /**
+     * The keep-alive connections to a host, and the requests waiting for a
+     * connection.
+     */
+    private final class HostPool {
+        private final String host;
+        private final int port;
+        private final boolean https;
+        // Guarded by the monitor of this pool.
+        private final Deque<Channel> idleChannels = new ArrayDeque<Channel>();
+        private final Queue<Exchange<?>> pendingExchanges =
+                new ArrayDeque<Exchange<?>>();
+        private int openChannels = 0;
+
+        HostPool(String host, int port, boolean https) {
+            this.host = host;
+            this.port = port;
+            this.https = https;
+        }
+
+        void execute(Exchange<?> exchange) {
+            Channel channel;
+            synchronized (this) {
+                channel = this.pollIdleChannel();
+                if (null == channel) {
+                    if (this.openChannels >= maxConnections) {
+                        this.pendingExchanges.add(exchange);
+                        return;
+                    }
+                    this.openChannels++;
+                }
+            }
+            if (null != channel) {
+                this.send(channel, exchange);
+            } else {
+                this.connect(exchange);
+            }
+        }
+
+        /**
+         * Called when the response on the channel is finished.
+         */
+        void release(Channel channel, boolean keepAlive) {
+            if (!keepAlive || closed) {
+                channel.close();
+                return;
+            }
+            Exchange<?> next;
+            synchronized (this) {
+                next = this.pollPendingExchange();
+                if (null == next) {
+                    this.idleChannels.push(channel);
+                    return;
+                }
+            }
+            this.send(channel, next);
+        }
+
+        /**
+         * Called when a channel of this pool is closed.
+         */
+        void closed(Channel channel) {
+            Exchange<?> next;
+            synchronized (this) {
+                this.idleChannels.remove(channel);
+                this.openChannels--;
+                next = this.pollPendingExchange();
+                if (null != next) {
+                    this.openChannels++;
+                }
+            }
+            if (null != next) {
+                this.connect(next);
+            }
+        }
+
+        synchronized void drain(List<Exchange<?>> exchanges) {
+            this.idleChannels.clear();
+            exchanges.addAll(this.pendingExchanges);
+            this.pendingExchanges.clear();
+        }
+
+        private Channel pollIdleChannel() {
+            Channel channel;
+            while (null != (channel = this.idleChannels.poll())) {
+                if (channel.isConnected()) {
+                    return channel;
+                }
+            }
+            return null;
+        }
+
+        private Exchange<?> pollPendingExchange() {
+            Exchange<?> exchange;
+            while (null != (exchange = this.pendingExchanges.poll())) {
+                if (!exchange.future.isDone()) {
+                    return exchange;
+                }
+            }
+            return null;
+        }
+
+        private void connect(final Exchange<?> exchange) {
+            ChannelPipeline pipeline = Channels.pipeline();
+            final SslHandler sslHandler;
+            if (this.https) {
+                SSLEngine sslEngine = sslContext.createSSLEngine(
+                        this.host, this.port);
+                sslEngine.setUseClientMode(true);
+                SSLParameters sslParameters = sslEngine.getSSLParameters();
+                sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+                sslEngine.setSSLParameters(sslParameters);
+                sslHandler = new SslHandler(sslEngine);
+                pipeline.addLast("ssl", sslHandler);
+            } else {
+                sslHandler = null;
+            }
+            pipeline.addLast("codec", new HttpClientCodec(
+                    MAX_INITIAL_LINE_LENGTH, MAX_HEADER_SIZE, MAX_CHUNK_SIZE));
+            if (readTimeoutMillis > 0) {
+                // It closes the idle pooled connections as well.
+                pipeline.addLast("timeout", new ReadTimeoutHandler(timer,
+                        readTimeoutMillis, TimeUnit.MILLISECONDS));
+            }
+            pipeline.addLast("handler", new ResponseHandler(this));
+
+            final Channel channel = channelFactory.newChannel(pipeline);
+            channels.add(channel);
+            channel.connect(new InetSocketAddress(this.host, this.port))
+                    .addListener(new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture future) {
+                            if (!future.isSuccess()) {
+                                exchange.fail(new IOException(String.format(
+                                        "Failed to connect to %s:%d.", host,
+                                        port), future.getCause()));
+                                channel.close();
+                                return;
+                            }
+                            if (null == sslHandler) {
+                                send(channel, exchange);
+                                return;
+                            }
+                            sslHandler.handshake().addListener(
+                                    new ChannelFutureListener() {
+                                        @Override
+                                        public void operationComplete(
+                                                ChannelFuture future) {
+                                            if (future.isSuccess()) {
+                                                send(channel, exchange);
+                                            } else {
+                                                exchange.fail(new IOException(
+                                                        "The SSL handshake " +
+                                                                "is failed.",
+                                                        future.getCause()));
+                                                channel.close();
+                                            }
+                                        }
+                                    });
+                        }
+                    });
+        }
+
+        private void send(final Channel channel, final Exchange<?> exchange) {
+            if (exchange.future.isDone()) {
+                // Cancelled while waiting for the connection.
+                this.release(channel, true);
+                return;
+            }
+            ResponseHandler handler =
+                    channel.getPipeline().get(ResponseHandler.class);
+            handler.exchange = exchange;
+            exchange.channel = channel;
+            if (exchange.aborted || exchange.future.isDone()) {
+                // Cancelled before the channel is attached.
+                channel.close();
+                return;
+            }
+            channel.write(exchange.request).addListener(
+                    new ChannelFutureListener() {
+                        @Override
+                        public void operationComplete(ChannelFuture future) {
+                            if (!future.isSuccess()) {
+                                exchange.fail(new IOException(
+                                        "Failed to send the request.",
+                                        future.getCause()));
+                                channel.close();
+                            }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * The handler of the responses on a connection, which serves a single
+     * request at a time.
+     */
+    private static final class ResponseHandler
+            extends SimpleChannelUpstreamHandler {
+        private final HostPool hostPool;
+        private volatile Exchange<?> exchange;
+
+        ResponseHandler(HostPool hostPool) {
+            this.hostPool = hostPool;
+        }
+
+        @Override
+        public void messageReceived(ChannelHandlerContext ctx, MessageEvent e) {
+            Exchange<?> current = this.exchange;
+            if (null == current) {
+                // An unexpected response, and the connection is not reused.
+                ctx.getChannel().close();
+                return;
+            }
+            boolean last;
+            try {
+                if (e.getMessage() instanceof HttpResponse) {
+                    HttpResponse response = (HttpResponse) e.getMessage();
+                    current.onResponse(response);
+                    current.onContent(response.getContent());
+                    last = !response.isChunked();
+                } else {
+                    HttpChunk chunk = (HttpChunk) e.getMessage();
+                    current.onContent(chunk.getContent());
+                    last = chunk.isLast();
+                }
+                if (last) {
+                    this.exchange = null;
+                    if (!current.finish()) {
+                        throw new InterruptedIOException(
+                                "The request is aborted.");
+                    }
+                    current.onFinished();
+                    this.hostPool.release(ctx.getChannel(), current.keepAlive);
+                }
+            } catch (IOException ioe) {
+                this.exchange = null;
+                current.fail(ioe);
+                ctx.getChannel().close();
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx,
+                                    ExceptionEvent e) {
+            Exchange<?> current = this.exchange;
+            this.exchange = null;
+            if (null != current) {
+                current.fail(new IOException("The request is failed.",
+                        e.getCause()));
+            } else {
+                LOG.debug("Close the idle connection.", e.getCause());
+            }
+            ctx.getChannel().close();
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx,
+                                  ChannelStateEvent e) {
+            Exchange<?> current = this.exchange;
+            this.exchange = null;
+            if (null != current) {
+                current.fail(new EOFException(
+                        "The connection is closed before the response."));
+            }
+            this.hostPool.closed(ctx.getChannel());
+        }
+    }
+
+    /**
+     * A request and the state of its response.
+     */
+    private abstract static class Exchange<T> {
+        final URL url;
+        final HttpRequest request;
+        final CompletableFuture<T> future = new ExchangeFuture<T>(this);
+        volatile Channel channel;
+        // Set by the cancel, after which the content is never written.
+        volatile boolean aborted = false;
+        // Set when the response is received, after which the connection
+        // may be reused and is not closed by the cancel.
+        private boolean finished = false;
+        int statusCode;
+        boolean keepAlive;
+        private ByteArrayOutputStream errorContent;
+
+        Exchange(URL url, HttpRequest request) {
+            this.url = url;
+            this.request = request;
+        }
+
+        /**
+         * Stop writing the content. The content being written by the io
+         * thread is finished before this method returns.
+         *
+         * @return the connection to close, or null if the request is not
+         * sent or its response is received
+         */
+        Channel abort() {
+            synchronized (this) {
+                this.aborted = true;
+                if (this.finished) {
+                    return null;
+                }
+            }
+            return this.channel;
+        }
+
+        /**
+         * Called when the whole response is received.
+         *
+         * @return false if the exchange has been aborted
+         */
+        synchronized boolean finish() {
+            if (this.aborted) {
+                return false;
+            }
+            this.finished = true;
+            return true;
+        }
+
+        void onResponse(HttpResponse response) throws IOException {
+            this.statusCode = response.getStatus().getCode();
+            this.keepAlive = HttpHeaders.isKeepAlive(response);
+            if (this.isSuccessful()) {
+                this.onSuccessfulResponse(response);
+            } else {
+                this.errorContent = new ByteArrayOutputStream();
+            }
+        }
+
+        void onContent(ChannelBuffer content) throws IOException {
+            if (!content.readable()) {
+                return;
+            }
+            if (this.isSuccessful()) {
+                synchronized (this) {
+                    if (this.aborted) {
+                        throw new InterruptedIOException(
+                                "The request is aborted.");
+                    }
+                    this.onSuccessfulContent(content);
+                }
+            } else if (this.errorContent.size() < MAX_ERROR_CONTENT_SIZE) {
+                int length = Math.min(content.readableBytes(),
+                        MAX_ERROR_CONTENT_SIZE - this.errorContent.size());
+                content.readBytes(this.errorContent, length);
+            }
+        }
+
+        void onFinished() throws IOException {
+            if (!this.isSuccessful()) {
+                throw new ResponseException(this.statusCode, String.format(
+                        "The %s request of %s is failed. status code: %d, " +
+                                "response: %s", this.request.getMethod(),
+                        this.url.getPath(), this.statusCode,
+                        new String(this.errorContent.toByteArray(),
+                                StandardCharsets.UTF_8)));
+            }
+            this.future.complete(this.result());
+        }
+
+        void fail(IOException e) {
+            this.future.completeExceptionally(e);
+        }
+
+        private boolean isSuccessful() {
+            return this.statusCode / 100 == 2;
+        }
+
+        abstract void onSuccessfulResponse(HttpResponse response)
+                throws IOException;
+
+        abstract void onSuccessfulContent(ChannelBuffer content)
+                throws IOException;
+
+        abstract T result() throws IOException;
+    }
+
+    /**
+     * The future of an exchange, whose cancel aborts the exchange before
+     * the dependents are run.
+     */
+    private static final class ExchangeFuture<T> extends CompletableFuture<T> {
+        private final Exchange<T> exchange;
+
+        ExchangeFuture(Exchange<T> exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (this.isDone()) {
+                return false;
+            }
+            Channel channel = this.exchange.abort();
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (null != channel) {
+                channel.close();
+            }
+            return cancelled;
+        }
+    }
+
+    private static final class GetExchange extends Exchange<Long> {
+        private final ByteBuffer target;
+        private long firstByteNanos;
+
+        GetExchange(URL url, HttpRequest request, ByteBuffer target) {
+            super(url, request);
+            this.target = target;
+        }
+
+        @Override
+        void onSuccessfulResponse(HttpResponse response) {
+            this.firstByteNanos = System.nanoTime();
+        }
+
+        @Override
+        void onSuccessfulContent(ChannelBuffer content) throws IOException {
+            int length = content.readableBytes();
+            if (length > this.target.remaining()) {
+                throw new IOException(String.format("The response of %s " +
+                                "exceeds the range by %d bytes.",
+                        this.url.getPath(), length - this.target.remaining()));
+            }
+            ByteBuffer slice = this.target.duplicate();
+            slice.limit(slice.position() + length);
+            content.readBytes(slice);
+            this.target.position(this.target.position() + length);
+        }
+
+        @Override
+        Long result() throws IOException {
+            if (this.target.hasRemaining()) {
+                throw new EOFException(String.format("Premature EOF of %s, " +
+                                "remaining: %d.", this.url.getPath(),
+                        this.target.remaining()));
+            }
+            return this.firstByteNanos;
+        }
+    }
+
+    private static final class PutExchange extends Exchange<String> {
+        private String eTag;
+
+        PutExchange(URL url, HttpRequest request) {
+            super(url, request);
+        }
+
+        @Override
+        void onSuccessfulResponse(HttpResponse response) {
+            this.eTag = response.getHeader(HttpHeaders.Names.ETAG);
+            if (null != this.eTag && this.eTag.length() >= 2
+                    && this.eTag.startsWith("\"") && this.eTag.endsWith("\"")) {
+                this.eTag = this.eTag.substring(1, this.eTag.length() - 1);
+            }
+        }
+
+        @Override
+        void onSuccessfulContent(ChannelBuffer content) {
+            content.skipBytes(content.readableBytes());
+        }
+
+        @Override
+        String result() throws IOException {
+            if (null == this.eTag) {
+                throw new IOException(String.format("No ETag in the response " +
+                        "of %s.", this.url.getPath()));
+            }
+            return this.eTag;
+        }
+    }
+}
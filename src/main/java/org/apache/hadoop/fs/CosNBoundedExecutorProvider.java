@@ -0,0 +1,67 @@
+package org.apache.hadoop.fs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The default executor provider, whose executors are thread pools of the
+ * platform threads. A bounded executor queues twice as many tasks as its
+ * threads, and then blocks the submitters until the queue has room.
+ */
+public class CosNBoundedExecutorProvider implements CosNExecutorProvider {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNBoundedExecutorProvider.class);
+
+    private final long threadKeepAlive;
+
+    public CosNBoundedExecutorProvider(Configuration conf) {
+        this.threadKeepAlive = conf.getLong(
+                CosNConfigKeys.THREAD_KEEP_ALIVE_TIME_KEY,
+                CosNConfigKeys.DEFAULT_THREAD_KEEP_ALIVE_TIME);
+    }
+
+    @Override
+    public ExecutorService newBoundedExecutor(final String name,
+                                              int maxConcurrency) {
+        return new ThreadPoolExecutor(
+                maxConcurrency / 2, maxConcurrency,
+                this.threadKeepAlive, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(maxConcurrency * 2),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d")
+                        .setDaemon(true).build(),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r,
+                                                  ThreadPoolExecutor executor) {
+                        if (!executor.isShutdown()) {
+                            try {
+                                executor.getQueue().put(r);
+                            } catch (InterruptedException e) {
+                                LOG.error("put a task into the thread pool " +
+                                        "[{}] occurs an exception.", name, e);
+                            }
+                        }
+                    }
+                }
+        );
+    }
+
+    @Override
+    public ExecutorService newQueueingExecutor(String name,
+                                               int maxConcurrency) {
+        return new ThreadPoolExecutor(
+                maxConcurrency, maxConcurrency,
+                0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d")
+                        .setDaemon(true).build());
+    }
+}
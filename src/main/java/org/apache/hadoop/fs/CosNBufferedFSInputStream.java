@@ -0,0 +1,62 @@
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The {@link BufferedFSInputStream} of the {@link CosFsInputStream}, which
+ * passes the {@link ByteBufferReadable} through. The bytes already buffered
+ * are drained first, and the rest is read by the wrapped stream straight
+ * into the byte buffer.
+ */
+public class CosNBufferedFSInputStream extends BufferedFSInputStream
+        implements ByteBufferReadable {
+    private final CosFsInputStream cosFsInputStream;
+
+    public CosNBufferedFSInputStream(CosFsInputStream in, int size) {
+        super(in, size);
+        this.cosFsInputStream = in;
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer buf) throws IOException {
+        if (null == this.buf) {
+            throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);
+        }
+        if (!buf.hasRemaining()) {
+            return 0;
+        }
+        int buffered = this.count - this.pos;
+        if (buffered > 0) {
+            int bytes = Math.min(buffered, buf.remaining());
+            buf.put(this.buf, this.pos, bytes);
+            this.pos += bytes;
+            return bytes;
+        }
+        if (this.markpos >= 0) {
+            // The marked bytes must be kept in the buffer for the reset.
+            byte[] bytes = new byte[Math.min(buf.remaining(), this.buf.length)];
+            int bytesRead = this.read(bytes, 0, bytes.length);
+            if (bytesRead > 0) {
+                buf.put(bytes, 0, bytesRead);
+            }
+            return bytesRead;
+        }
+        return this.cosFsInputStream.read(buf);
+    }
+
+    /**
+     * @return the size of the buffer, or 0 once the stream is closed
+     */
+    synchronized int getBufferSize() {
+        return null == this.buf ? 0 : this.buf.length;
+    }
+
+    /**
+     * @return the wrapped stream, e.g. for the vectored read and the stream
+     * statistics
+     */
+    public CosFsInputStream getCosFsInputStream() {
+        return this.cosFsInputStream;
+    }
+}
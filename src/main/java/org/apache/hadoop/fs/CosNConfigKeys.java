@@ -37,6 +37,22 @@ public class CosNConfigKeys extends CommonConfigurationKeys {
     public static final String COSN_UPLOAD_BUFFER_SIZE_KEY = "fs.cosn.upload.buffer.size";
     public static final String COSN_UPLOAD_BUFFER_SIZE_PREV_KEY = "fs.cosn.buffer.size";
     public static final int DEFAULT_UPLOAD_BUFFER_SIZE = -1;
+    // The first buffer of an output stream, which grows to the block size
+    // only when more is written. 0 starts with a whole block.
+    public static final String COSN_UPLOAD_BUFFER_INITIAL_SIZE_KEY = "fs.cosn.upload.buffer.initial.size";
+    public static final long DEFAULT_UPLOAD_BUFFER_INITIAL_SIZE = 256 * Unit.KB;
+    // global: all the file systems share a buffer pool, filesystem: each
+    // file system has its own pool.
+    public static final String COSN_UPLOAD_BUFFER_POOL_SCOPE_KEY = "fs.cosn.upload.buffer.pool.scope";
+    public static final String DEFAULT_UPLOAD_BUFFER_POOL_SCOPE = "global";
+    // The cap of the buffers allocated by all the limited pools. -1 means
+    // no cap.
+    public static final String COSN_UPLOAD_BUFFER_GLOBAL_SIZE_KEY = "fs.cosn.upload.buffer.global.size";
+    public static final long DEFAULT_UPLOAD_BUFFER_GLOBAL_SIZE = -1;
+    // The cap of the disk files mapped by the mapped_disk or the hybrid
+    // buffers of a pool. -1 means no cap.
+    public static final String COSN_UPLOAD_BUFFER_MAPPED_MAX_SIZE_KEY = "fs.cosn.upload.buffer.mapped.max.size";
+    public static final long DEFAULT_UPLOAD_BUFFER_MAPPED_MAX_SIZE = 16 * Unit.GB;
 
     public static final String COSN_BLOCK_SIZE_KEY = "fs.cosn.block.size";
     public static final long DEFAULT_BLOCK_SIZE = 8 * Unit.MB;
@@ -54,14 +70,85 @@ public class CosNConfigKeys extends CommonConfigurationKeys {
 
     public static final String THREAD_KEEP_ALIVE_TIME_KEY = "fs.cosn.threads.keep_alive_time";
     public static final long DEFAULT_THREAD_KEEP_ALIVE_TIME = 60L;
+    public static final String EXECUTOR_PROVIDER_KEY = "fs.cosn.executor.provider";
+    public static final String DEFAULT_EXECUTOR_PROVIDER = "bounded";
+    public static final String EXECUTOR_VIRTUAL_MAX_CONCURRENCY_KEY = "fs.cosn.executor.virtual.max.concurrency";
+    public static final int DEFAULT_EXECUTOR_VIRTUAL_MAX_CONCURRENCY = 0;
 
     public static final String READ_AHEAD_BLOCK_SIZE_KEY = "fs.cosn.read.ahead.block.size";
     public static final long DEFAULT_READ_AHEAD_BLOCK_SIZE = 1 * Unit.MB;
     public static final String READ_AHEAD_QUEUE_SIZE = "fs.cosn.read.ahead.queue.size";
     public static final int DEFAULT_READ_AHEAD_QUEUE_SIZE = 8;
+    public static final String READ_AHEAD_ADAPTIVE_ENABLED_KEY = "fs.cosn.read.ahead.adaptive.enabled";
+    public static final boolean DEFAULT_READ_AHEAD_ADAPTIVE_ENABLED = false;
+    public static final String READ_AHEAD_MIN_BLOCK_SIZE_KEY = "fs.cosn.read.ahead.min.block.size";
+    public static final long DEFAULT_READ_AHEAD_MIN_BLOCK_SIZE = 256 * Unit.KB;
+    public static final String READ_AHEAD_MAX_BLOCK_SIZE_KEY = "fs.cosn.read.ahead.max.block.size";
+    public static final long DEFAULT_READ_AHEAD_MAX_BLOCK_SIZE = 8 * Unit.MB;
+    public static final String READ_AHEAD_AUTO_TUNE_ENABLED_KEY = "fs.cosn.read.ahead.auto.tune.enabled";
+    public static final boolean DEFAULT_READ_AHEAD_AUTO_TUNE_ENABLED = false;
+    public static final String READ_AHEAD_AUTO_TUNE_MAX_QUEUE_SIZE_KEY = "fs.cosn.read.ahead.auto.tune.max.queue.size";
+    public static final int DEFAULT_READ_AHEAD_AUTO_TUNE_MAX_QUEUE_SIZE = 32;
+    public static final String READ_AHEAD_WAIT_TIMEOUT_MS_KEY = "fs.cosn.read.ahead.wait.timeout.ms";
+    public static final long DEFAULT_READ_AHEAD_WAIT_TIMEOUT_MS = 0;
+    public static final String READ_AHEAD_BUFFER_TYPE_KEY = "fs.cosn.read.ahead.buffer.type";
+    public static final String DEFAULT_READ_AHEAD_BUFFER_TYPE = "non_direct_memory";
+    public static final String READ_AHEAD_BUFFER_POOL_SIZE_KEY = "fs.cosn.read.ahead.buffer.pool.size";
+    public static final long DEFAULT_READ_AHEAD_BUFFER_POOL_SIZE = 512 * Unit.MB;
+    public static final String READ_AHEAD_LOCAL_CACHE_ENABLED_KEY = "fs.cosn.read.ahead.local.cache.enabled";
+    public static final boolean DEFAULT_READ_AHEAD_LOCAL_CACHE_ENABLED = false;
+    public static final String READ_AHEAD_LOCAL_CACHE_SIZE_KEY = "fs.cosn.read.ahead.local.cache.size";
+    public static final long DEFAULT_READ_AHEAD_LOCAL_CACHE_SIZE = 1 * Unit.GB;
+    public static final String READ_AHEAD_MEMORY_CACHE_ENABLED_KEY = "fs.cosn.read.ahead.memory.cache.enabled";
+    public static final boolean DEFAULT_READ_AHEAD_MEMORY_CACHE_ENABLED = false;
+    public static final String READ_AHEAD_MEMORY_CACHE_SIZE_KEY = "fs.cosn.read.ahead.memory.cache.size";
+    public static final long DEFAULT_READ_AHEAD_MEMORY_CACHE_SIZE = 64 * Unit.MB;
+    public static final String READ_AHEAD_MEMORY_CACHE_WAIT_TIMEOUT_MS_KEY = "fs.cosn.read.ahead.memory.cache.wait.timeout.ms";
+    public static final long DEFAULT_READ_AHEAD_MEMORY_CACHE_WAIT_TIMEOUT_MS = 5000;
+    public static final String READ_AHEAD_RETAINED_BLOCKS_KEY = "fs.cosn.read.ahead.retained.blocks";
+    public static final int DEFAULT_READ_AHEAD_RETAINED_BLOCKS = 2;
+    public static final String READ_AHEAD_RETAINED_SIZE_KEY = "fs.cosn.read.ahead.retained.size";
+    public static final long DEFAULT_READ_AHEAD_RETAINED_SIZE = 4 * Unit.MB;
+    public static final String READ_MODE_KEY = "fs.cosn.read.mode";
+    public static final String DEFAULT_READ_MODE = "block";
+    public static final String STREAMING_READ_CHUNK_SIZE_KEY = "fs.cosn.read.streaming.chunk.size";
+    public static final long DEFAULT_STREAMING_READ_CHUNK_SIZE = 1 * Unit.MB;
+    public static final String STREAMING_READ_RING_SIZE_KEY = "fs.cosn.read.streaming.ring.size";
+    public static final int DEFAULT_STREAMING_READ_RING_SIZE = 8;
+    public static final String STREAMING_READ_THREAD_POOL_SIZE_KEY = "fs.cosn.read.streaming.thread.pool.size";
+    public static final int DEFAULT_STREAMING_READ_THREAD_POOL_SIZE = 64;
+    public static final String TAIL_PREFETCH_SUFFIXES_KEY = "fs.cosn.read.tail.prefetch.suffixes";
+    public static final String TAIL_PREFETCH_SIZE_KEY = "fs.cosn.read.tail.prefetch.size";
+    public static final long DEFAULT_TAIL_PREFETCH_SIZE = 1 * Unit.MB;
+    public static final String VECTORED_READ_MIN_SEEK_SIZE_KEY = "fs.cosn.vectored.read.min.seek.size";
+    public static final int DEFAULT_VECTORED_READ_MIN_SEEK_SIZE = 64 * (int) Unit.KB;
+    public static final String VECTORED_READ_MAX_MERGED_SIZE_KEY = "fs.cosn.vectored.read.max.merged.size";
+    public static final int DEFAULT_VECTORED_READ_MAX_MERGED_SIZE = 8 * (int) Unit.MB;
+    public static final String PARALLEL_READ_THRESHOLD_KEY = "fs.cosn.read.parallel.threshold";
+    public static final long DEFAULT_PARALLEL_READ_THRESHOLD = 0;
+    public static final String PARALLEL_READ_PART_SIZE_KEY = "fs.cosn.read.parallel.part.size";
+    public static final long DEFAULT_PARALLEL_READ_PART_SIZE = 4 * Unit.MB;
+    public static final String PARALLEL_READ_MAX_CONCURRENCY_KEY = "fs.cosn.read.parallel.max.concurrency";
+    public static final int DEFAULT_PARALLEL_READ_MAX_CONCURRENCY = 8;
+    public static final String HEDGED_READ_ENABLED_KEY = "fs.cosn.read.hedged.enabled";
+    public static final boolean DEFAULT_HEDGED_READ_ENABLED = false;
+    public static final String HEDGED_READ_LATENCY_PERCENTILE_KEY = "fs.cosn.read.hedged.latency.percentile";
+    public static final int DEFAULT_HEDGED_READ_LATENCY_PERCENTILE = 95;
+    public static final String HEDGED_READ_MIN_THRESHOLD_MS_KEY = "fs.cosn.read.hedged.min.threshold.ms";
+    public static final long DEFAULT_HEDGED_READ_MIN_THRESHOLD_MS = 50L;
+    public static final String HEDGED_READ_MAX_PERCENT_KEY = "fs.cosn.read.hedged.max.percent";
+    public static final int DEFAULT_HEDGED_READ_MAX_PERCENT = 5;
+    public static final String HEDGED_READ_THREAD_POOL_SIZE_KEY = "fs.cosn.read.hedged.thread.pool.size";
+    public static final int DEFAULT_HEDGED_READ_THREAD_POOL_SIZE = 8;
 
     public static final String MAX_CONNECTION_NUM = "fs.cosn.max.connection.num";
     public static final int DEFAULT_MAX_CONNECTION_NUM = 2048;
+    public static final String TRANSPORT_MODE_KEY = "fs.cosn.transport.mode";
+    public static final String DEFAULT_TRANSPORT_MODE = "blocking";
+    public static final String TRANSPORT_ASYNC_IO_THREADS_KEY = "fs.cosn.transport.async.io.threads";
+    public static final int DEFAULT_TRANSPORT_ASYNC_IO_THREADS = 0;
+    public static final String TRANSPORT_ASYNC_READ_TIMEOUT_MS_KEY = "fs.cosn.transport.async.read.timeout.ms";
+    public static final long DEFAULT_TRANSPORT_ASYNC_READ_TIMEOUT_MS = 30 * 1000L;
 
     // 服务器端加密
     public static final String COSN_SERVER_SIDE_ENCRYPTION_ALGORITHM = "fs.cosn.server-side-encryption.algorithm";
@@ -0,0 +1,37 @@
+package org.apache.hadoop.fs;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The provider of the executors running the transfer, copy and read ahead
+ * tasks. It is selected by {@link CosNConfigKeys#EXECUTOR_PROVIDER_KEY},
+ * which is either a short name of the built-in providers or the name of a
+ * class implementing this interface. The class must have a public
+ * constructor accepting a {@link org.apache.hadoop.conf.Configuration}, or
+ * a public no-arg one.
+ * <p>
+ * The executors are shut down by their owners.
+ */
+public interface CosNExecutorProvider {
+    /**
+     * Create an executor which makes the submitters wait when it is
+     * saturated, so that the memory held by the pending tasks is bounded.
+     *
+     * @param name           the prefix of the thread names
+     * @param maxConcurrency the max tasks running at a time
+     * @return the executor
+     */
+    ExecutorService newBoundedExecutor(String name, int maxConcurrency);
+
+    /**
+     * Create an executor which never makes the submitters wait, and queues
+     * the tasks beyond the concurrency limit. It is for the submitters
+     * running on the executor itself, which would deadlock waiting for
+     * their own pool.
+     *
+     * @param name           the prefix of the thread names
+     * @param maxConcurrency the max tasks running at a time
+     * @return the executor
+     */
+    ExecutorService newQueueingExecutor(String name, int maxConcurrency);
+}
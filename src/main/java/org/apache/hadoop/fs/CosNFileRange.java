@@ -0,0 +1,52 @@
+package org.apache.hadoop.fs;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A byte range of a file to be read by the vectored read of the
+ * {@link CosFsInputStream}. It is the counterpart of the FileRange of the
+ * newer Hadoop versions.
+ */
+public class CosNFileRange {
+    private final long offset;
+    private final int length;
+    private CompletableFuture<ByteBuffer> data;
+
+    public CosNFileRange(long offset, int length) {
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static CosNFileRange createFileRange(long offset, int length) {
+        return new CosNFileRange(offset, length);
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Get the future of the data, which is completed with a buffer flipped
+     * for reading once all the bytes of the range arrive.
+     *
+     * @return the future of the data
+     */
+    public CompletableFuture<ByteBuffer> getData() {
+        return data;
+    }
+
+    public void setData(CompletableFuture<ByteBuffer> data) {
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return "range[" + this.offset + "," + (this.offset + this.length)
+                + ")";
+    }
+}
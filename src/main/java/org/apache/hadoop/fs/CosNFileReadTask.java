@@ -1,33 +1,110 @@
 package org.apache.hadoop.fs;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.fs.cache.CosNBlockCacheKey;
+import org.apache.hadoop.fs.cache.CosNLocalBlockCache;
+import org.apache.hadoop.fs.cache.CosNMemoryBlockCache;
 import org.apache.hadoop.io.retry.RetryPolicies;
 import org.apache.hadoop.io.retry.RetryPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 public class CosNFileReadTask implements Runnable {
     static final Logger LOG = LoggerFactory.getLogger(CosNFileReadTask.class);
 
+    // The timer resubmitting the failed tasks after the retry interval.
+    private static final ScheduledThreadPoolExecutor RETRY_TIMER;
+
+    static {
+        RETRY_TIMER = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat(
+                        "cos-read-retry-timer-%d").setDaemon(true).build());
+        RETRY_TIMER.setRemoveOnCancelPolicy(true);
+        RETRY_TIMER.setKeepAliveTime(60L, TimeUnit.SECONDS);
+        RETRY_TIMER.allowCoreThreadTimeOut(true);
+    }
+
     private final String key;
     private final NativeFileSystemStore store;
     private final CosFsInputStream.ReadBuffer readBuffer;
+    private final CosNBlockCacheKey cacheKey;
+    private final CosNInputStreamStatistics streamStatistics;
+    private final CosNReadAheadTuner readAheadTuner;
+    // The maximum time to wait for the fetch of the same block by another
+    // task, after which the task fetches the block by itself.
+    private final long inFlightWaitMillis;
+    // The bytes transferred into the buffer by the current attempt.
+    private int bytesTransferred = 0;
+    // The failed attempts so far.
+    private int retries = 0;
+    // Whether the task is the loader of the block in the memory block cache.
+    private boolean loader = false;
+    // The executor to resubmit the task for the retries, or null if the
+    // task is run by the caller and retries in place.
+    private ExecutorService executor;
 
     private RetryPolicy retryPolicy = null;
 
     public CosNFileReadTask(Configuration conf, String key,
                             NativeFileSystemStore store,
                             CosFsInputStream.ReadBuffer readBuffer) {
+        this(conf, key, store, readBuffer, null, null);
+    }
+
+    /**
+     * @param cacheKey         the key of the block in the block caches, or
+     *                         null if the block should not be cached
+     * @param streamStatistics the statistics of the stream, or null
+     */
+    public CosNFileReadTask(Configuration conf, String key,
+                            NativeFileSystemStore store,
+                            CosFsInputStream.ReadBuffer readBuffer,
+                            CosNBlockCacheKey cacheKey,
+                            CosNInputStreamStatistics streamStatistics) {
+        this(conf, key, store, readBuffer, cacheKey, streamStatistics, null);
+    }
+
+    /**
+     * @param readAheadTuner the estimator fed with the latency and the
+     *                       throughput of the fetch, or null
+     */
+    public CosNFileReadTask(Configuration conf, String key,
+                            NativeFileSystemStore store,
+                            CosFsInputStream.ReadBuffer readBuffer,
+                            CosNBlockCacheKey cacheKey,
+                            CosNInputStreamStatistics streamStatistics,
+                            CosNReadAheadTuner readAheadTuner) {
         this.key = key;
         this.store = store;
         this.readBuffer = readBuffer;
+        this.cacheKey = cacheKey;
+        this.streamStatistics = streamStatistics;
+        this.readAheadTuner = readAheadTuner;
+        this.inFlightWaitMillis = conf.getLong(
+                CosNConfigKeys.READ_AHEAD_MEMORY_CACHE_WAIT_TIMEOUT_MS_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_MEMORY_CACHE_WAIT_TIMEOUT_MS);
 
         RetryPolicy defaultPolicy =
                 RetryPolicies.retryUpToMaximumCountWithFixedSleep(
@@ -51,56 +128,439 @@ public class CosNFileReadTask implements Runnable {
                 retryPolicyMap);
     }
 
+    /**
+     * Submit the task to the executor, which runs its retries as well.
+     *
+     * @param executor the executor of the read ahead tasks
+     */
+    public void submit(ExecutorService executor) {
+        this.executor = executor;
+        this.readBuffer.setTask(executor.submit(this));
+    }
+
     @Override
     public void run() {
-        int retries = 0;
-        RetryPolicy.RetryAction retryAction = null;
+        if (0 == this.retries) {
+            if (!this.readBuffer.begin()) {
+                // The read ahead has been cancelled before it starts.
+                return;
+            }
+            if (this.readFromCaches()) {
+                this.readBuffer.setStatus(CosFsInputStream.ReadBuffer.SUCCESS);
+                this.readBuffer.complete();
+                this.readBuffer.finish();
+                return;
+            }
+        }
+        if (null != this.executor && this.store.isAsyncTransportEnabled()) {
+            // No thread is held until the response arrives.
+            this.fetchAsync();
+            return;
+        }
+
+        boolean fetched = false;
+        boolean retryScheduled = false;
         try {
-            this.readBuffer.lock();
-            do {
+            while (true) {
+                IOException e = this.readBuffer.isCancelled()
+                        ? new InterruptedIOException(
+                        "The read ahead has been cancelled.")
+                        : this.fetch();
+                if (null == e) {
+                    fetched = true;
+                    break;
+                }
+                long delayMillis = this.retryDelayMillis(e);
+                if (delayMillis < 0) {
+                    break;
+                }
+                if (null != this.executor) {
+                    // The io thread is not held during the retry interval.
+                    retryScheduled = this.scheduleRetry(delayMillis);
+                    break;
+                }
                 try {
-                    InputStream inputStream = this.store.retrieveBlock(
-                            this.key, this.readBuffer.getStart(),
-                            this.readBuffer.getEnd());
-                    IOUtils.readFully(
-                            inputStream, this.readBuffer.getBuffer(), 0,
-                            readBuffer.getBuffer().length);
-                    int readEof = inputStream.read();
-                    if (readEof != -1) {
-                        LOG.error("Expect to read the eof, but the return is not -1. key: {}.", this.key);
-                    }
-                    inputStream.close();
-                    this.readBuffer.setStatus(CosFsInputStream.ReadBuffer.SUCCESS);
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
                     break;
-                } catch (IOException e) {
-                    this.readBuffer.setStatus(CosFsInputStream.ReadBuffer.ERROR);
-                    LOG.warn("Exception occurs when retrieve the block range " +
-                            "start: "
-                            + String.valueOf(this.readBuffer.getStart()) + " " +
-                            "end: " + this.readBuffer.getEnd(), e);
-                    try {
-                        retryAction = this.retryPolicy.shouldRetry(e,
-                                retries++, 0, true);
-                        if (null != retryAction && retryAction.action == RetryPolicy.RetryAction.RetryDecision.RETRY) {
-                            Thread.sleep(retryAction.delayMillis);
-                        }
-                    } catch (Exception e1) {
-                        String errMsg = String.format("Exception occurs when " +
-                                        "retry[%s] "
-                                        + "to retrieve the block range start:" +
-                                        " %d, end:%d",
-                                this.retryPolicy.toString(),
-                                this.readBuffer.getStart(),
-                                this.readBuffer.getEnd());
-                        LOG.error(errMsg, e1);
-                        break;
+                }
+            }
+        } finally {
+            if (!retryScheduled) {
+                this.complete(fetched);
+            }
+        }
+    }
+
+    /**
+     * Make an attempt to fetch the block from COS.
+     *
+     * @return null if the block is fetched, or the exception of the attempt
+     */
+    private IOException fetch() {
+        this.bytesTransferred = 0;
+        CosNHedgedRead hedgedRead = this.newHedgedRead();
+        try {
+            long startNanos = System.nanoTime();
+            InputStream inputStream = null == hedgedRead
+                    ? this.store.retrieveBlock(this.key,
+                    this.readBuffer.getStart(), this.readBuffer.getEnd())
+                    : hedgedRead.openPrimary();
+            if (!this.readBuffer.setInputStream(inputStream)) {
+                CosFsInputStream.ReadBuffer.abort(inputStream);
+                throw new InterruptedIOException(
+                        "The read ahead has been cancelled.");
+            }
+            long firstByteNanos = System.nanoTime();
+            this.readFully(inputStream, this.readBuffer.getBuffer());
+            if (null != this.readAheadTuner) {
+                this.readAheadTuner.recordFetch(firstByteNanos - startNanos,
+                        System.nanoTime() - firstByteNanos,
+                        this.bytesTransferred);
+            }
+            if (null != hedgedRead) {
+                hedgedRead.primaryFinished();
+            }
+            int readEof = inputStream.read();
+            if (readEof != -1) {
+                LOG.error("Expect to read the eof, but the return is not -1. key: {}.", this.key);
+            }
+            inputStream.close();
+            this.readBuffer.setInputStream(null);
+            this.readBuffer.setStatus(CosFsInputStream.ReadBuffer.SUCCESS);
+            return null;
+        } catch (IOException e) {
+            if (null != hedgedRead && !this.readBuffer.isCancelled()
+                    && hedgedRead.copyIfHedgeWon(this.readBuffer.getBuffer())) {
+                // The primary stream is aborted by the winning hedge.
+                this.readBuffer.setInputStream(null);
+                this.readBuffer.setStatus(CosFsInputStream.ReadBuffer.SUCCESS);
+                return null;
+            }
+            this.readBuffer.setInputStream(null);
+            this.readBuffer.setStatus(CosFsInputStream.ReadBuffer.ERROR);
+            return e;
+        } finally {
+            if (null != hedgedRead) {
+                hedgedRead.close();
+            }
+        }
+    }
+
+    /**
+     * Make an attempt to fetch the block by the async transport. The result
+     * is handled by the executor when the response is finished. The hedged
+     * read is not used, since the slow request holds no thread.
+     */
+    private void fetchAsync() {
+        if (this.readBuffer.isCancelled()) {
+            this.retryDelayMillis(new InterruptedIOException(
+                    "The read ahead has been cancelled."));
+            this.complete(false);
+            return;
+        }
+        this.bytesTransferred = 0;
+        final long startNanos = System.nanoTime();
+        ByteBuffer target = this.readBuffer.getBuffer().duplicate();
+        target.clear();
+        CompletableFuture<Long> request = this.store.retrieveBlockAsync(
+                this.key, this.readBuffer.getStart(), this.readBuffer.getEnd(),
+                target);
+        if (!this.readBuffer.setRequest(request)) {
+            request.cancel(false);
+        }
+        request.whenComplete(new BiConsumer<Long, Throwable>() {
+            @Override
+            public void accept(final Long firstByteNanos,
+                               final Throwable throwable) {
+                // Leave the io thread of the transport for the caches, but
+                // never wait for the room of a saturated executor on it.
+                Runnable handler = new Runnable() {
+                    @Override
+                    public void run() {
+                        onFetched(startNanos, firstByteNanos, throwable);
+                    }
+                };
+                if (null == CosNUtils.trySubmit(executor, handler)) {
+                    handler.run();
+                }
+            }
+        });
+    }
+
+    private void onFetched(long startNanos, Long firstByteNanos,
+                           Throwable throwable) {
+        this.readBuffer.setRequest(null);
+        if (null == throwable) {
+            this.bytesTransferred = this.readBuffer.getBuffer().capacity();
+            if (null != this.readAheadTuner) {
+                this.readAheadTuner.recordFetch(firstByteNanos - startNanos,
+                        System.nanoTime() - firstByteNanos,
+                        this.bytesTransferred);
+            }
+            this.readBuffer.setStatus(CosFsInputStream.ReadBuffer.SUCCESS);
+            this.complete(true);
+            return;
+        }
+
+        if (throwable instanceof CompletionException
+                && null != throwable.getCause()) {
+            throwable = throwable.getCause();
+        }
+        IOException e;
+        if (throwable instanceof IOException) {
+            e = (IOException) throwable;
+        } else if (throwable instanceof CancellationException) {
+            e = new InterruptedIOException(
+                    "The read ahead has been cancelled.");
+        } else {
+            e = new IOException(throwable);
+        }
+        this.readBuffer.setStatus(CosFsInputStream.ReadBuffer.ERROR);
+        long delayMillis = this.retryDelayMillis(e);
+        if (delayMillis < 0 || !this.scheduleRetry(delayMillis)) {
+            this.complete(false);
+        }
+    }
+
+    /**
+     * @return the delay before the next attempt, or -1 if the fetch should
+     * be given up
+     */
+    private long retryDelayMillis(IOException e) {
+        if (this.readBuffer.isCancelled()) {
+            // The block is discarded, and should not be retried.
+            LOG.debug("The read ahead of the block range start: " +
+                            "{}, end: {} is aborted.",
+                    this.readBuffer.getStart(), this.readBuffer.getEnd());
+            if (null != this.streamStatistics) {
+                this.streamStatistics.readAheadCancelled(
+                        this.readBuffer.getBuffer().capacity()
+                                - this.bytesTransferred);
+            }
+            return -1;
+        }
+        LOG.warn("Exception occurs when retrieve the block range start: "
+                + String.valueOf(this.readBuffer.getStart()) + " end: "
+                + this.readBuffer.getEnd(), e);
+        try {
+            RetryPolicy.RetryAction retryAction =
+                    this.retryPolicy.shouldRetry(e, this.retries++, 0, true);
+            if (null != retryAction && retryAction.action
+                    == RetryPolicy.RetryAction.RetryDecision.RETRY) {
+                this.releaseLoader();
+                return Math.max(0, retryAction.delayMillis);
+            }
+        } catch (Exception e1) {
+            String errMsg = String.format("Exception occurs when retry[%s] "
+                            + "to retrieve the block range start: %d, end:%d",
+                    this.retryPolicy.toString(), this.readBuffer.getStart(),
+                    this.readBuffer.getEnd());
+            LOG.error(errMsg, e1);
+        }
+        return -1;
+    }
+
+    /**
+     * Give up the loader of the memory block cache before a retry. The
+     * waiting tasks may hold all the threads of the executor, and fetch the
+     * block by themselves instead of waiting for the retry queued behind
+     * them.
+     */
+    private void releaseLoader() {
+        if (this.loader) {
+            this.loader = false;
+            CosNMemoryBlockCache.getInstance().complete(this.cacheKey, null);
+        }
+    }
+
+    /**
+     * Resubmit the task to the executor after the delay.
+     *
+     * @return false if the retry can not be scheduled
+     */
+    private boolean scheduleRetry(long delayMillis) {
+        final ExecutorService retryExecutor = this.executor;
+        if (retryExecutor.isShutdown()) {
+            return false;
+        }
+        final CosNFileReadTask task = this;
+        try {
+            this.readBuffer.setTask(RETRY_TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    // The timer is shared by all the streams, and must not
+                    // wait for the room of a saturated executor.
+                    Future<?> future = CosNUtils.trySubmit(retryExecutor,
+                            task);
+                    if (null == future) {
+                        LOG.warn("Failed to retry the block range start: " +
+                                        "{}, end: {}, since the read ahead " +
+                                        "executor is saturated or shutdown.",
+                                task.readBuffer.getStart(),
+                                task.readBuffer.getEnd());
+                        task.complete(false);
+                        return;
                     }
+                    task.readBuffer.setTask(future);
                 }
-            } while (null != retryAction && retryAction.action == RetryPolicy.RetryAction.RetryDecision.RETRY);
+            }, delayMillis, TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+        return true;
+    }
 
-            this.readBuffer.signalAll();
+    /**
+     * Wake up the reader, and hand the fetched block over to the caches.
+     * The buffer is not touched any more after this method.
+     */
+    private void complete(boolean fetched) {
+        this.readBuffer.complete();
+        if (this.loader && !fetched) {
+            // Let the waiting tasks fetch the block by themselves.
+            CosNMemoryBlockCache.getInstance().complete(this.cacheKey, null);
+        }
+        if (!fetched || null == this.cacheKey) {
+            this.readBuffer.finish();
+            return;
+        }
+
+        // The reader has been woken up, and the buffer is kept until the
+        // block is handed over to the caches.
+        try {
+            if (this.loader) {
+                CosNMemoryBlockCache.getInstance().complete(
+                        this.cacheKey, this.readBuffer.getBuffer());
+            }
+            CosNLocalBlockCache.getInstance().put(
+                    this.cacheKey, this.readBuffer.getBuffer());
         } finally {
-            this.readBuffer.unLock();
+            this.readBuffer.finish();
+        }
+    }
+
+    /**
+     * Read the block from the block caches, or from the fetch of the same
+     * block by another task. The task becomes the loader of the memory
+     * block cache if there is no such fetch.
+     *
+     * @return true if the block is read
+     */
+    private boolean readFromCaches() {
+        if (this.readFromCache()) {
+            return true;
+        }
+        if (null == this.cacheKey) {
+            return false;
+        }
+        CompletableFuture<byte[]> inFlightFetch =
+                CosNMemoryBlockCache.getInstance().joinOrRegister(
+                        this.cacheKey);
+        if (null == inFlightFetch) {
+            this.loader = CosNMemoryBlockCache.getInstance().isEnabled();
+            return false;
+        }
+        return this.readFromInFlightFetch(inFlightFetch);
+    }
+
+    /**
+     * @return the race of the hedged read for the next attempt, or null if
+     * the hedged read is disabled
+     */
+    private CosNHedgedRead newHedgedRead() {
+        CosNHedgedReadManager manager = CosNHedgedReadManager.getInstance();
+        if (!manager.isEnabled()) {
+            return null;
+        }
+        CosNHedgedRead hedgedRead = new CosNHedgedRead(manager, this.key,
+                this.store, this.readBuffer.getStart(),
+                this.readBuffer.getEnd(), this.streamStatistics);
+        hedgedRead.arm();
+        return hedgedRead;
+    }
+
+    private boolean readFromCache() {
+        if (null == this.cacheKey) {
+            return false;
+        }
+        if (CosNMemoryBlockCache.getInstance().get(
+                this.cacheKey, this.readBuffer.getBuffer())) {
+            LOG.debug("Hit the memory block cache: {}.", this.cacheKey);
+            return true;
+        }
+        if (CosNLocalBlockCache.getInstance().get(
+                this.cacheKey, this.readBuffer.getBuffer())) {
+            LOG.debug("Hit the local block cache: {}.", this.cacheKey);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Wait for the fetch of the same block by another task, and copy its
+     * result. The wait is bounded, since the result of the async fetch is
+     * handled by the same executor running the waiting task.
+     *
+     * @return false if the other fetch is failed or too slow
+     */
+    private boolean readFromInFlightFetch(
+            CompletableFuture<byte[]> inFlightFetch) {
+        LOG.debug("Wait for the in-flight fetch of the block: {}.",
+                this.cacheKey);
+        byte[] data;
+        try {
+            data = inFlightFetch.get(this.inFlightWaitMillis,
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (TimeoutException e) {
+            LOG.debug("Timed out waiting for the in-flight fetch of the " +
+                    "block: {}, fetch it directly.", this.cacheKey);
+            return false;
+        }
+        if (null == data || data.length != this.readBuffer.getBuffer()
+                .remaining()) {
+            return false;
+        }
+        this.readBuffer.getBuffer().duplicate().put(data);
+        return true;
+    }
+
+    /**
+     * Fill the whole buffer from the input stream. The heap buffer is filled
+     * through its backing array, and the direct buffer through a channel.
+     */
+    private void readFully(InputStream inputStream, ByteBuffer buffer)
+            throws IOException {
+        int length = buffer.capacity();
+        if (buffer.hasArray()) {
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset();
+            while (this.bytesTransferred < length) {
+                int bytes = inputStream.read(array,
+                        offset + this.bytesTransferred,
+                        length - this.bytesTransferred);
+                if (bytes < 0) {
+                    throw new EOFException("Premature EOF from inputStream");
+                }
+                this.bytesTransferred += bytes;
+            }
+            return;
+        }
+
+        ByteBuffer target = buffer.duplicate();
+        target.clear();
+        ReadableByteChannel channel = Channels.newChannel(inputStream);
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                throw new EOFException("Premature EOF from inputStream");
+            }
+            this.bytesTransferred = target.position();
         }
     }
 }
@@ -0,0 +1,404 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.fs.buffer.CosNByteBuffer;
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The race between an attempt of the {@link CosNFileReadTask} and its
+ * hedge.
+ * <p>
+ * If the primary GET request has not responded within the first byte
+ * threshold, or has not finished within the completion threshold, a
+ * duplicate GET request of the same block is fired into a separate buffer.
+ * The first one to finish wins and the other is aborted. The primary task
+ * always owns the read buffer, and it copies the data of the hedge if the
+ * hedge wins.
+ */
+final class CosNHedgedRead implements Runnable {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNHedgedRead.class);
+
+    private static final int NONE = 0;
+    private static final int PRIMARY = 1;
+    private static final int HEDGE = 2;
+    private static final int CLOSED = 3;
+
+    private final CosNHedgedReadManager manager;
+    private final String key;
+    private final NativeFileSystemStore store;
+    private final long start;
+    private final long end;
+    private final int length;
+    private final CosNInputStreamStatistics streamStatistics;
+    private final long startNanos;
+    private final AtomicInteger winner = new AtomicInteger(NONE);
+    // Completed when the hedge wins.
+    private final CompletableFuture<Void> hedgeWon = new CompletableFuture<>();
+    // Guarded by the monitor of this race after the race is armed.
+    private boolean armed = false;
+    private volatile long firstByteNanos = 0;
+    private long completionThresholdMillis = -1;
+
+    // Guarded by the monitor of this race.
+    private InputStream primaryStream;
+    private InputStream hedgeStream;
+    private CosNByteBuffer hedgeBuffer;
+    private boolean hedged = false;
+    private ScheduledFuture<?> timer;
+
+    CosNHedgedRead(CosNHedgedReadManager manager, String key,
+                   NativeFileSystemStore store, long start, long end,
+                   CosNInputStreamStatistics streamStatistics) {
+        this.manager = manager;
+        this.key = key;
+        this.store = store;
+        this.start = start;
+        this.end = end;
+        this.length = (int) (end - start + 1);
+        this.streamStatistics = streamStatistics;
+        this.startNanos = System.nanoTime();
+        this.manager.requestIssued();
+    }
+
+    /**
+     * Schedule the check of the primary GET request if the thresholds have
+     * been learned.
+     */
+    synchronized void arm() {
+        long firstByteThresholdMillis =
+                this.manager.getFirstByteThresholdMillis();
+        if (firstByteThresholdMillis < 0) {
+            return;
+        }
+        this.completionThresholdMillis =
+                this.manager.getCompletionThresholdMillis(this.length);
+        this.armed = true;
+        this.schedule(firstByteThresholdMillis);
+    }
+
+    /**
+     * Send the primary GET request.
+     * <p>
+     * A GET request waiting for the response can not be aborted, so once
+     * the race is armed, the request is sent by a helper thread, and the
+     * primary task waits for either the response or the winning hedge. If
+     * there is no idle helper thread, the race is disarmed, and the request
+     * is sent by the primary task without the hedge.
+     *
+     * @return the content of the primary GET request
+     * @throws InterruptedIOException if the hedge has won
+     * @throws IOException            if the primary GET request is failed
+     */
+    InputStream openPrimary() throws IOException {
+        final CompletableFuture<InputStream> response =
+                new CompletableFuture<>();
+        Runnable open = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    InputStream inputStream = store.retrieveBlock(key, start,
+                            end);
+                    if (!primaryResponded(inputStream)) {
+                        CosFsInputStream.ReadBuffer.abort(inputStream);
+                        response.completeExceptionally(
+                                new InterruptedIOException(
+                                        "The hedged read has won."));
+                        return;
+                    }
+                    response.complete(inputStream);
+                } catch (IOException | RuntimeException e) {
+                    response.completeExceptionally(e);
+                }
+            }
+        };
+        if (this.isArmed() && !this.manager.executeOpen(open)) {
+            LOG.debug("No idle thread to open the block range start: {}, " +
+                    "end: {}, and give up the hedge.", this.start, this.end);
+            this.disarm();
+        }
+        if (!this.isArmed()) {
+            InputStream inputStream = this.store.retrieveBlock(this.key,
+                    this.start, this.end);
+            this.primaryResponded(inputStream);
+            return inputStream;
+        }
+
+        try {
+            CompletableFuture.anyOf(response, this.hedgeWon).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted when waiting for the response.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        if (this.hedgeWon.isDone()) {
+            // The primary stream has been aborted by the winning hedge.
+            throw new InterruptedIOException("The hedged read has won.");
+        }
+        return response.getNow(null);
+    }
+
+    private synchronized boolean isArmed() {
+        return this.armed;
+    }
+
+    /**
+     * Give up the hedge of this race before the primary GET request is sent.
+     */
+    private synchronized void disarm() {
+        this.armed = false;
+        if (null != this.timer) {
+            this.timer.cancel(false);
+            this.timer = null;
+        }
+    }
+
+    private synchronized void schedule(long delayMillis) {
+        if (this.winner.get() == NONE && this.armed) {
+            this.timer = this.manager.schedule(this, delayMillis);
+        }
+    }
+
+    /**
+     * Check the primary GET request when a threshold is reached.
+     */
+    @Override
+    public void run() {
+        if (this.winner.get() != NONE || !this.isArmed()) {
+            return;
+        }
+        if (0 == this.firstByteNanos) {
+            LOG.debug("No response of the block range start: {}, end: {} " +
+                    "within the first byte threshold.", this.start, this.end);
+            this.hedge();
+            return;
+        }
+        if (this.completionThresholdMillis < 0) {
+            return;
+        }
+        long elapsedMillis = (System.nanoTime() - this.startNanos) / 1000000;
+        if (elapsedMillis < this.completionThresholdMillis) {
+            this.schedule(this.completionThresholdMillis - elapsedMillis);
+            return;
+        }
+        LOG.debug("The block range start: {}, end: {} is not finished " +
+                "within the completion threshold.", this.start, this.end);
+        this.hedge();
+    }
+
+    private void hedge() {
+        CosNByteBuffer buffer;
+        try {
+            buffer = ReadBufferPool.getInstance().tryGetBuffer(this.length);
+        } catch (IOException e) {
+            return;
+        }
+        if (null == buffer) {
+            // Never compete with the read ahead for the buffers.
+            return;
+        }
+        synchronized (this) {
+            if (this.winner.get() != NONE || this.hedged || !this.armed
+                    || !this.manager.tryAcquireHedge()) {
+                ReadBufferPool.getInstance().returnBuffer(buffer);
+                return;
+            }
+            this.hedged = true;
+            this.hedgeBuffer = buffer;
+        }
+        boolean issued = this.manager.execute(new Runnable() {
+            @Override
+            public void run() {
+                fetchHedge();
+            }
+        });
+        if (!issued) {
+            synchronized (this) {
+                this.hedgeBuffer = null;
+            }
+            ReadBufferPool.getInstance().returnBuffer(buffer);
+            return;
+        }
+        if (null != this.streamStatistics) {
+            this.streamStatistics.hedgedReadIssued();
+        }
+    }
+
+    private void fetchHedge() {
+        InputStream inputStream = null;
+        boolean won = false;
+        CosNByteBuffer buffer;
+        synchronized (this) {
+            buffer = this.hedgeBuffer;
+        }
+        try {
+            long hedgeStartNanos = System.nanoTime();
+            inputStream = this.store.retrieveBlock(this.key, this.start,
+                    this.end);
+            long hedgeFirstByteNanos = System.nanoTime();
+            synchronized (this) {
+                if (this.winner.get() != NONE) {
+                    return;
+                }
+                this.hedgeStream = inputStream;
+            }
+            ByteBuffer target = buffer.getByteBuffer().duplicate();
+            target.clear();
+            target.limit(this.length);
+            readFully(inputStream, target);
+
+            InputStream loser = null;
+            synchronized (this) {
+                if (this.winner.compareAndSet(NONE, HEDGE)) {
+                    won = true;
+                    loser = this.primaryStream;
+                    this.hedgeStream = null;
+                }
+            }
+            if (won) {
+                this.hedgeWon.complete(null);
+                LOG.debug("The hedged read of the block range start: {}, " +
+                        "end: {} wins.", this.start, this.end);
+                CosFsInputStream.ReadBuffer.abort(loser);
+                long finishNanos = System.nanoTime();
+                this.manager.recordFetch(hedgeFirstByteNanos - hedgeStartNanos,
+                        finishNanos - hedgeFirstByteNanos, this.length);
+                this.manager.hedgeWon();
+                if (null != this.streamStatistics) {
+                    this.streamStatistics.hedgedReadWon();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.debug("The hedged read of the block range start: {}, end: {} " +
+                    "is failed or aborted.", this.start, this.end, e);
+        } finally {
+            if (won) {
+                // The buffer is handed over to the primary task.
+                IOUtils.closeStream(inputStream);
+            } else {
+                synchronized (this) {
+                    this.hedgeStream = null;
+                    this.hedgeBuffer = null;
+                }
+                CosFsInputStream.ReadBuffer.abort(inputStream);
+                ReadBufferPool.getInstance().returnBuffer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Called when the primary GET request responds.
+     *
+     * @param inputStream the content of the primary GET request
+     * @return false if the hedge has won or the race is closed, and the
+     * stream should be aborted
+     */
+    private synchronized boolean primaryResponded(InputStream inputStream) {
+        if (this.winner.get() != NONE) {
+            return false;
+        }
+        this.firstByteNanos = System.nanoTime();
+        this.primaryStream = inputStream;
+        return true;
+    }
+
+    /**
+     * Called by the primary task when the whole block is filled. The data
+     * in the read buffer is complete no matter who wins.
+     */
+    void primaryFinished() {
+        InputStream loser;
+        synchronized (this) {
+            if (!this.winner.compareAndSet(NONE, PRIMARY)) {
+                return;
+            }
+            loser = this.hedgeStream;
+            this.primaryStream = null;
+        }
+        CosFsInputStream.ReadBuffer.abort(loser);
+        if (!this.hedged) {
+            // The samples of the hedged fetches are biased.
+            long finishNanos = System.nanoTime();
+            this.manager.recordFetch(this.firstByteNanos - this.startNanos,
+                    finishNanos - this.firstByteNanos, this.length);
+        }
+    }
+
+    /**
+     * Copy the data of the hedge into the read buffer if the hedge has won.
+     *
+     * @param target the buffer of the primary task
+     * @return true if the hedge has won
+     */
+    synchronized boolean copyIfHedgeWon(ByteBuffer target) {
+        if (this.winner.get() != HEDGE || null == this.hedgeBuffer) {
+            return false;
+        }
+        ByteBuffer source = this.hedgeBuffer.getByteBuffer().duplicate();
+        source.clear();
+        source.limit(this.length);
+        target.duplicate().put(source);
+        return true;
+    }
+
+    /**
+     * Called by the primary task at last. It aborts the in-flight hedge, and
+     * returns the buffer of the winning hedge.
+     */
+    void close() {
+        InputStream inFlightHedge;
+        CosNByteBuffer wonBuffer = null;
+        synchronized (this) {
+            this.winner.compareAndSet(NONE, CLOSED);
+            if (null != this.timer) {
+                this.timer.cancel(false);
+                this.timer = null;
+            }
+            inFlightHedge = this.hedgeStream;
+            this.primaryStream = null;
+            if (this.winner.get() == HEDGE) {
+                wonBuffer = this.hedgeBuffer;
+                this.hedgeBuffer = null;
+            }
+        }
+        CosFsInputStream.ReadBuffer.abort(inFlightHedge);
+        if (null != wonBuffer) {
+            ReadBufferPool.getInstance().returnBuffer(wonBuffer);
+        }
+    }
+
+    private static void readFully(InputStream inputStream, ByteBuffer target)
+            throws IOException {
+        if (target.hasArray()) {
+            IOUtils.readFully(inputStream, target.array(),
+                    target.arrayOffset() + target.position(),
+                    target.remaining());
+            return;
+        }
+
+        ReadableByteChannel channel = Channels.newChannel(inputStream);
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                throw new EOFException("Premature EOF from inputStream");
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package org.apache.hadoop.fs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The manager of the hedged reads of all the read ahead tasks in the
+ * process.
+ * It is provided in a thread-safe singleton mode like the
+ * {@link ReadBufferPool}. It learns the rolling percentiles of the first
+ * byte latency and the transfer time of the block fetches, from which the
+ * thresholds of hedging a slow fetch are derived, and it caps the ratio of
+ * the hedged requests to all the block requests.
+ * <p>
+ * The hedges and the primary GET requests of the armed races run on the
+ * executors of the {@link CosNExecutorProvider}, each of which is bounded
+ * by the thread pool size. A task is only handed over when a thread is
+ * free, so that a saturated manager degrades to no hedge rather than
+ * queueing or blocking the read ahead.
+ */
+public final class CosNHedgedReadManager {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNHedgedReadManager.class);
+
+    // The latest samples to compute the percentiles.
+    private static final int SAMPLE_WINDOW_SIZE = 1024;
+    // No hedge until enough samples are collected.
+    private static final int MIN_SAMPLES = 64;
+    // The percentile is recomputed after this number of new samples.
+    private static final int RECOMPUTE_INTERVAL = 32;
+    // The request counters are halved when reaching this number, so that
+    // the hedge ratio reflects the recent requests.
+    private static final long RATE_WINDOW_SIZE = 10000;
+
+    private static CosNHedgedReadManager ourInstance =
+            new CosNHedgedReadManager();
+
+    /**
+     * Use this method to get the instance of CosNHedgedReadManager.
+     *
+     * @return the instance of CosNHedgedReadManager
+     */
+    public static CosNHedgedReadManager getInstance() {
+        return ourInstance;
+    }
+
+    private LatencyWindow firstByteLatency;
+    // The transfer time in microseconds per MB.
+    private LatencyWindow transferLatency;
+    private long minThresholdMillis;
+    private int maxHedgePercent;
+    private ScheduledThreadPoolExecutor timer;
+    private ExecutorService hedgeThreadPool;
+    private ExecutorService openThreadPool;
+    // The free threads of the pools above.
+    private Semaphore hedgePermits;
+    private Semaphore openPermits;
+    private int threadPoolSize;
+    // Guarded by the monitor of this manager.
+    private long recentRequests = 0;
+    private long recentHedges = 0;
+    private volatile boolean isInitialize = false;
+    private final AtomicInteger referCount = new AtomicInteger(0);
+
+    private final AtomicLong hedgedReadsIssued = new AtomicLong(0);
+    private final AtomicLong hedgedReadsWon = new AtomicLong(0);
+    private final AtomicLong hedgedReadsThrottled = new AtomicLong(0);
+
+    private CosNHedgedReadManager() {
+    }
+
+    /**
+     * Initialize the manager if the hedged read is enabled in the
+     * configuration. Only the first initialization takes effect, and the
+     * later ones just add the reference count.
+     *
+     * @param conf Provides configurations for the Hadoop runtime
+     * @return true if a reference is taken, which must be released by
+     * {@link #close()}, or false if the hedged read is disabled
+     * @throws IOException if the executor provider can not be created
+     */
+    public synchronized boolean initialize(Configuration conf)
+            throws IOException {
+        if (!conf.getBoolean(CosNConfigKeys.HEDGED_READ_ENABLED_KEY,
+                CosNConfigKeys.DEFAULT_HEDGED_READ_ENABLED)) {
+            return false;
+        }
+        if (this.isInitialize) {
+            int threadPoolSize = conf.getInt(
+                    CosNConfigKeys.HEDGED_READ_THREAD_POOL_SIZE_KEY,
+                    CosNConfigKeys.DEFAULT_HEDGED_READ_THREAD_POOL_SIZE);
+            if (threadPoolSize != this.threadPoolSize) {
+                LOG.warn("The hedged read is shared by the process, and " +
+                                "keeps the thread pool size [{}] rather than " +
+                                "[{}].", this.threadPoolSize, threadPoolSize);
+            }
+            this.referCount.incrementAndGet();
+            return true;
+        }
+
+        int percentile = conf.getInt(
+                CosNConfigKeys.HEDGED_READ_LATENCY_PERCENTILE_KEY,
+                CosNConfigKeys.DEFAULT_HEDGED_READ_LATENCY_PERCENTILE);
+        if (percentile <= 0 || percentile >= 100) {
+            String errMsg = String.format("The hedged read latency " +
+                    "percentile must be in (0, 100). current percentile: %d",
+                    percentile);
+            throw new IllegalArgumentException(errMsg);
+        }
+        int threadPoolSize = conf.getInt(
+                CosNConfigKeys.HEDGED_READ_THREAD_POOL_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_HEDGED_READ_THREAD_POOL_SIZE);
+        if (threadPoolSize <= 0) {
+            String errMsg = String.format("The hedged read thread pool size " +
+                    "must be greater than 0. current size: %d", threadPoolSize);
+            throw new IllegalArgumentException(errMsg);
+        }
+        this.minThresholdMillis = conf.getLong(
+                CosNConfigKeys.HEDGED_READ_MIN_THRESHOLD_MS_KEY,
+                CosNConfigKeys.DEFAULT_HEDGED_READ_MIN_THRESHOLD_MS);
+        this.maxHedgePercent = conf.getInt(
+                CosNConfigKeys.HEDGED_READ_MAX_PERCENT_KEY,
+                CosNConfigKeys.DEFAULT_HEDGED_READ_MAX_PERCENT);
+        this.firstByteLatency = new LatencyWindow(percentile);
+        this.transferLatency = new LatencyWindow(percentile);
+
+        this.timer = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactoryBuilder().setNameFormat(
+                        "cos-hedged-read-timer-%d").setDaemon(true).build());
+        this.timer.setRemoveOnCancelPolicy(true);
+        // A hedge is dropped rather than queued when all the threads are
+        // busy, since a queued hedge is hardly faster than the fetch itself.
+        // The tasks are admitted by the permits, so the queueing executors
+        // never queue one in fact.
+        CosNExecutorProvider executorProvider =
+                CosNUtils.createExecutorProvider(conf);
+        this.threadPoolSize = threadPoolSize;
+        this.hedgeThreadPool = executorProvider.newQueueingExecutor(
+                "cos-hedged-read", threadPoolSize);
+        this.hedgePermits = new Semaphore(threadPoolSize);
+        this.openThreadPool = executorProvider.newQueueingExecutor(
+                "cos-hedged-read-open", threadPoolSize);
+        this.openPermits = new Semaphore(threadPoolSize);
+        LOG.info("Initialize the hedged read. percentile: [{}], " +
+                        "min threshold: [{}ms], max percent: [{}%], " +
+                        "thread pool size: [{}].", percentile,
+                this.minThresholdMillis, this.maxHedgePercent, threadPoolSize);
+
+        this.referCount.incrementAndGet();
+        this.isInitialize = true;
+        return true;
+    }
+
+    public boolean isEnabled() {
+        return this.isInitialize;
+    }
+
+    /**
+     * @return the threshold of the first byte latency, or -1 if there are
+     * not enough samples
+     */
+    public synchronized long getFirstByteThresholdMillis() {
+        long micros = this.firstByteLatency.percentile();
+        if (micros < 0) {
+            return -1;
+        }
+        return Math.max(this.minThresholdMillis,
+                TimeUnit.MICROSECONDS.toMillis(micros));
+    }
+
+    /**
+     * @param length the length of the block
+     * @return the threshold of the whole fetch of the block, or -1 if there
+     * are not enough samples
+     */
+    public synchronized long getCompletionThresholdMillis(long length) {
+        long firstByteMicros = this.firstByteLatency.percentile();
+        long transferMicrosPerMB = this.transferLatency.percentile();
+        if (firstByteMicros < 0 || transferMicrosPerMB < 0) {
+            return -1;
+        }
+        long micros = firstByteMicros
+                + (long) ((double) transferMicrosPerMB * length / Unit.MB);
+        return Math.max(this.minThresholdMillis,
+                TimeUnit.MICROSECONDS.toMillis(micros));
+    }
+
+    /**
+     * Record the latency of a successful block fetch.
+     *
+     * @param firstByteNanos the time to get the response
+     * @param transferNanos  the time to transfer the content
+     * @param length         the length of the block
+     */
+    public synchronized void recordFetch(long firstByteNanos,
+                                         long transferNanos, long length) {
+        if (!this.isInitialize || length <= 0) {
+            return;
+        }
+        this.firstByteLatency.add(
+                TimeUnit.NANOSECONDS.toMicros(firstByteNanos));
+        this.transferLatency.add((long) ((double) TimeUnit.NANOSECONDS
+                .toMicros(transferNanos) * Unit.MB / length));
+    }
+
+    /**
+     * Record a block request, which adds the quota of the hedges.
+     */
+    public synchronized void requestIssued() {
+        this.recentRequests++;
+        if (this.recentRequests >= RATE_WINDOW_SIZE) {
+            this.recentRequests /= 2;
+            this.recentHedges /= 2;
+        }
+    }
+
+    /**
+     * Try to acquire the quota of a hedge.
+     *
+     * @return false if the hedge ratio would exceed the max percent
+     */
+    public synchronized boolean tryAcquireHedge() {
+        if ((this.recentHedges + 1) * 100
+                > this.recentRequests * this.maxHedgePercent) {
+            this.hedgedReadsThrottled.incrementAndGet();
+            return false;
+        }
+        this.recentHedges++;
+        return true;
+    }
+
+    ScheduledFuture<?> schedule(Runnable runnable, long delayMillis) {
+        try {
+            return this.timer.schedule(runnable, delayMillis,
+                    TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Run the hedge on the hedge thread pool.
+     *
+     * @return false if there is no idle hedge thread
+     */
+    boolean execute(Runnable hedge) {
+        if (!tryExecute(this.hedgeThreadPool, this.hedgePermits, hedge)) {
+            this.hedgedReadsThrottled.incrementAndGet();
+            return false;
+        }
+        this.hedgedReadsIssued.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Send the primary GET request on a helper thread.
+     *
+     * @return false if there is no idle thread or the manager is closed, and
+     * the caller should send it without the hedge
+     */
+    boolean executeOpen(Runnable open) {
+        return tryExecute(this.openThreadPool, this.openPermits, open);
+    }
+
+    private static boolean tryExecute(ExecutorService executor,
+                                      final Semaphore permits,
+                                      final Runnable task) {
+        if (null == executor || !permits.tryAcquire()) {
+            return false;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            return false;
+        }
+        return true;
+    }
+
+    void hedgeWon() {
+        this.hedgedReadsWon.incrementAndGet();
+    }
+
+    public long getHedgedReadsIssued() {
+        return hedgedReadsIssued.get();
+    }
+
+    public long getHedgedReadsWon() {
+        return hedgedReadsWon.get();
+    }
+
+    public long getHedgedReadsThrottled() {
+        return hedgedReadsThrottled.get();
+    }
+
+    /**
+     * Release a reference taken by {@link #initialize(Configuration)}. The
+     * thread pools are shut down when the last one is released.
+     */
+    public synchronized void close() {
+        if (!this.isInitialize) {
+            return;
+        }
+        if (this.referCount.decrementAndGet() > 0) {
+            return;
+        }
+
+        LOG.info("Close the hedged read. {}", this);
+        this.timer.shutdownNow();
+        this.hedgeThreadPool.shutdown();
+        this.openThreadPool.shutdown();
+        this.recentRequests = 0;
+        this.recentHedges = 0;
+        this.isInitialize = false;
+    }
+
+    @Override
+    public String toString() {
+        return "CosNHedgedReadManager{" +
+                "hedgedReadsIssued=" + hedgedReadsIssued +
+                ", hedgedReadsWon=" + hedgedReadsWon +
+                ", hedgedReadsThrottled=" + hedgedReadsThrottled +
+                '}';
+    }
+
+    /**
+     * A ring of the latest latency samples.
+     * It is not thread-safe, and must be called under the lock of the
+     * manager.
+     */
+    private static final class LatencyWindow {
+        private final int percentile;
+        private final long[] samples = new long[SAMPLE_WINDOW_SIZE];
+        private int count = 0;
+        private int next = 0;
+        private int newSamples = 0;
+        private long cachedPercentile = -1;
+
+        LatencyWindow(int percentile) {
+            this.percentile = percentile;
+        }
+
+        void add(long sample) {
+            this.samples[this.next] = sample;
+            this.next = (this.next + 1) % this.samples.length;
+            this.count = Math.min(this.count + 1, this.samples.length);
+            this.newSamples++;
+        }
+
+        long percentile() {
+            if (this.count < MIN_SAMPLES) {
+                return -1;
+            }
+            if (this.cachedPercentile < 0
+                    || this.newSamples >= RECOMPUTE_INTERVAL) {
+                long[] sorted = Arrays.copyOf(this.samples, this.count);
+                Arrays.sort(sorted);
+                this.cachedPercentile = sorted[Math.min(this.count - 1,
+                        this.count * this.percentile / 100)];
+                this.newSamples = 0;
+            }
+            return this.cachedPercentile;
+        }
+    }
+}
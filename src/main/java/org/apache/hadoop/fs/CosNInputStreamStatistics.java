@@ -0,0 +1,276 @@
+package org.apache.hadoop.fs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The statistics of a single CosFsInputStream.
+ * The counters may be updated by the read ahead tasks concurrently, and the
+ * gauges reflect the latest decision of the read ahead policy.
+ */
+public class CosNInputStreamStatistics {
+    private final AtomicLong reopenCount = new AtomicLong(0);
+    private final AtomicLong forwardSeekCount = new AtomicLong(0);
+    private final AtomicLong backwardSeekCount = new AtomicLong(0);
+    private final AtomicLong readAheadRequests = new AtomicLong(0);
+    private final AtomicLong readAheadBytes = new AtomicLong(0);
+    private final AtomicLong readAheadBytesDiscarded = new AtomicLong(0);
+    private final AtomicLong readAheadThrottled = new AtomicLong(0);
+    private final AtomicLong readAheadCancelled = new AtomicLong(0);
+    private final AtomicLong readAheadBytesSaved = new AtomicLong(0);
+    private final AtomicLong tailPrefetchHits = new AtomicLong(0);
+    private final AtomicLong retainedBlockHits = new AtomicLong(0);
+    private final AtomicLong streamingRequests = new AtomicLong(0);
+    private final AtomicLong hedgedReadsIssued = new AtomicLong(0);
+    private final AtomicLong hedgedReadsWon = new AtomicLong(0);
+    private final AtomicLong parallelReadOperations = new AtomicLong(0);
+    private final AtomicLong parallelReadRequests = new AtomicLong(0);
+    private final AtomicLong vectoredReadOperations = new AtomicLong(0);
+    private final AtomicLong vectoredReadRanges = new AtomicLong(0);
+    private final AtomicLong vectoredReadRequests = new AtomicLong(0);
+
+    private volatile String readAheadMode =
+            CosNReadAheadPolicy.Mode.SEQUENTIAL.getName();
+    private volatile long readAheadBlockSize = 0;
+    private volatile int readAheadWindow = 0;
+    private volatile long measuredFirstByteMillis = -1;
+    private volatile long measuredThroughput = 0;
+    private volatile long measuredConsumeRate = 0;
+    private volatile long tunedBlockSize = 0;
+    private volatile int tunedQueueDepth = 0;
+
+    public void reopened(long pos, long currentPos) {
+        this.reopenCount.incrementAndGet();
+        if (pos > currentPos) {
+            this.forwardSeekCount.incrementAndGet();
+        } else if (pos < currentPos) {
+            this.backwardSeekCount.incrementAndGet();
+        }
+    }
+
+    public void readAheadIssued(long bytes) {
+        this.readAheadRequests.incrementAndGet();
+        this.readAheadBytes.addAndGet(bytes);
+    }
+
+    public void readAheadDiscarded(long bytes) {
+        this.readAheadBytesDiscarded.addAndGet(bytes);
+    }
+
+    public void readAheadThrottled() {
+        this.readAheadThrottled.incrementAndGet();
+    }
+
+    /**
+     * Record a read ahead cancelled before or during its GET request.
+     *
+     * @param savedBytes the bytes which are not downloaded for the cancel
+     */
+    public void readAheadCancelled(long savedBytes) {
+        this.readAheadCancelled.incrementAndGet();
+        this.readAheadBytesSaved.addAndGet(savedBytes);
+    }
+
+    public void tailPrefetchHit() {
+        this.tailPrefetchHits.incrementAndGet();
+    }
+
+    /**
+     * Record a seek served by the consumed blocks kept in memory, including
+     * the current one.
+     */
+    public void retainedBlockHit() {
+        this.retainedBlockHits.incrementAndGet();
+    }
+
+    public void streamingRequestIssued() {
+        this.streamingRequests.incrementAndGet();
+    }
+
+    public void hedgedReadIssued() {
+        this.hedgedReadsIssued.incrementAndGet();
+    }
+
+    public void hedgedReadWon() {
+        this.hedgedReadsWon.incrementAndGet();
+    }
+
+    public void parallelReadIssued(int requests) {
+        this.parallelReadOperations.incrementAndGet();
+        this.parallelReadRequests.addAndGet(requests);
+    }
+
+    public void vectoredReadIssued(int ranges, int requests) {
+        this.vectoredReadOperations.incrementAndGet();
+        this.vectoredReadRanges.addAndGet(ranges);
+        this.vectoredReadRequests.addAndGet(requests);
+    }
+
+    public void updateReadAheadPolicy(CosNReadAheadPolicy policy) {
+        this.readAheadMode = policy.getMode().getName();
+        this.readAheadBlockSize = policy.getBlockSize();
+        this.readAheadWindow = policy.getWindow();
+    }
+
+    public void updateReadAheadTuner(CosNReadAheadTuner tuner) {
+        this.measuredFirstByteMillis = tuner.getFirstByteMillis();
+        this.measuredThroughput = tuner.getThroughput();
+        this.measuredConsumeRate = tuner.getConsumeRate();
+        this.tunedBlockSize = tuner.getTunedBlockSize();
+        this.tunedQueueDepth = tuner.getTunedDepth();
+    }
+
+    public long getReopenCount() {
+        return reopenCount.get();
+    }
+
+    public long getForwardSeekCount() {
+        return forwardSeekCount.get();
+    }
+
+    public long getBackwardSeekCount() {
+        return backwardSeekCount.get();
+    }
+
+    public long getReadAheadRequests() {
+        return readAheadRequests.get();
+    }
+
+    public long getReadAheadBytes() {
+        return readAheadBytes.get();
+    }
+
+    public long getReadAheadBytesDiscarded() {
+        return readAheadBytesDiscarded.get();
+    }
+
+    public long getReadAheadThrottled() {
+        return readAheadThrottled.get();
+    }
+
+    public long getReadAheadCancelled() {
+        return readAheadCancelled.get();
+    }
+
+    public long getReadAheadBytesSaved() {
+        return readAheadBytesSaved.get();
+    }
+
+    public long getTailPrefetchHits() {
+        return tailPrefetchHits.get();
+    }
+
+    public long getRetainedBlockHits() {
+        return retainedBlockHits.get();
+    }
+
+    public long getStreamingRequests() {
+        return streamingRequests.get();
+    }
+
+    public long getHedgedReadsIssued() {
+        return hedgedReadsIssued.get();
+    }
+
+    public long getHedgedReadsWon() {
+        return hedgedReadsWon.get();
+    }
+
+    public long getParallelReadOperations() {
+        return parallelReadOperations.get();
+    }
+
+    public long getParallelReadRequests() {
+        return parallelReadRequests.get();
+    }
+
+    public long getVectoredReadOperations() {
+        return vectoredReadOperations.get();
+    }
+
+    public long getVectoredReadRanges() {
+        return vectoredReadRanges.get();
+    }
+
+    public long getVectoredReadRequests() {
+        return vectoredReadRequests.get();
+    }
+
+    public String getReadAheadMode() {
+        return readAheadMode;
+    }
+
+    public long getReadAheadBlockSize() {
+        return readAheadBlockSize;
+    }
+
+    public int getReadAheadWindow() {
+        return readAheadWindow;
+    }
+
+    /**
+     * @return the average time to the first byte of the block fetches, or
+     * -1 if it is not measured
+     */
+    public long getMeasuredFirstByteMillis() {
+        return measuredFirstByteMillis;
+    }
+
+    /**
+     * @return the average bytes per second of a single block fetch
+     */
+    public long getMeasuredThroughput() {
+        return measuredThroughput;
+    }
+
+    /**
+     * @return the average bytes per second consumed by the reader
+     */
+    public long getMeasuredConsumeRate() {
+        return measuredConsumeRate;
+    }
+
+    /**
+     * @return the block size chosen by the auto tuning, or 0 if it has not
+     * taken effect
+     */
+    public long getTunedBlockSize() {
+        return tunedBlockSize;
+    }
+
+    public int getTunedQueueDepth() {
+        return tunedQueueDepth;
+    }
+
+    @Override
+    public String toString() {
+        return "CosNInputStreamStatistics{" +
+                "reopenCount=" + reopenCount +
+                ", forwardSeekCount=" + forwardSeekCount +
+                ", backwardSeekCount=" + backwardSeekCount +
+                ", readAheadRequests=" + readAheadRequests +
+                ", readAheadBytes=" + readAheadBytes +
+                ", readAheadBytesDiscarded=" + readAheadBytesDiscarded +
+                ", readAheadThrottled=" + readAheadThrottled +
+                ", readAheadCancelled=" + readAheadCancelled +
+                ", readAheadBytesSaved=" + readAheadBytesSaved +
+                ", tailPrefetchHits=" + tailPrefetchHits +
+                ", retainedBlockHits=" + retainedBlockHits +
+                ", streamingRequests=" + streamingRequests +
+                ", hedgedReadsIssued=" + hedgedReadsIssued +
+                ", hedgedReadsWon=" + hedgedReadsWon +
+                ", parallelReadOperations=" + parallelReadOperations +
+                ", parallelReadRequests=" + parallelReadRequests +
+                ", vectoredReadOperations=" + vectoredReadOperations +
+                ", vectoredReadRanges=" + vectoredReadRanges +
+                ", vectoredReadRequests=" + vectoredReadRequests +
+                ", readAheadMode=" + readAheadMode +
+                ", readAheadBlockSize=" + readAheadBlockSize +
+                ", readAheadWindow=" + readAheadWindow +
+                ", measuredFirstByteMillis=" + measuredFirstByteMillis +
+                ", measuredThroughput=" + measuredThroughput +
+                ", measuredConsumeRate=" + measuredConsumeRate +
+                ", tunedBlockSize=" + tunedBlockSize +
+                ", tunedQueueDepth=" + tunedQueueDepth +
+                '}';
+    }
+}
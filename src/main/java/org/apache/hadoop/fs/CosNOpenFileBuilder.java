@@ -0,0 +1,224 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The builder of the input stream returned by the
+ * {@link CosFileSystem#openFile(Path)}. It is the counterpart of the
+ * openFile builder of the newer Hadoop versions, and accepts the same
+ * option keys.
+ * <p>
+ * The read policy tells how the caller will read the file, and selects
+ * the strategy of the stream:
+ * <ul>
+ * <li>adaptive: the read ahead follows the detected access pattern.</li>
+ * <li>default, normal: the read ahead configured for the file system.</li>
+ * <li>sequential: the deepest read ahead with the max block size, which is
+ * never shrunk by the seeks.</li>
+ * <li>random: no read ahead beyond the block being read, and the block
+ * size is the min block size.</li>
+ * <li>vector: the same as random, for the callers mostly reading by the
+ * vectored read.</li>
+ * <li>whole-file: a single GET request streaming the whole file.</li>
+ * </ul>
+ * The policy may be a comma separated list, and the first one supported is
+ * used. The buffer size is the one of the buffer wrapping the stream, the
+ * same as the one passed to {@link CosFileSystem#open(Path, int)}, and the
+ * read ahead range overrides the bytes to prefetch of the policy. Any
+ * "fs.cosn." option overrides the configuration of this stream only, e.g.
+ * the read ahead block size.
+ */
+public class CosNOpenFileBuilder {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNOpenFileBuilder.class);
+
+    public static final String READ_POLICY_KEY =
+            "fs.option.openfile.read.policy";
+    public static final String BUFFER_SIZE_KEY =
+            "fs.option.openfile.buffer.size";
+    public static final String LENGTH_KEY = "fs.option.openfile.length";
+    public static final String READ_AHEAD_RANGE_KEY =
+            "fs.cosn.readahead.range";
+
+    public static final String READ_POLICY_ADAPTIVE = "adaptive";
+    public static final String READ_POLICY_DEFAULT = "default";
+    public static final String READ_POLICY_NORMAL = "normal";
+    public static final String READ_POLICY_SEQUENTIAL = "sequential";
+    public static final String READ_POLICY_RANDOM = "random";
+    public static final String READ_POLICY_VECTOR = "vector";
+    public static final String READ_POLICY_WHOLE_FILE = "whole-file";
+
+    private static final String COSN_OPTION_PREFIX = "fs.cosn.";
+
+    private final CosFileSystem fs;
+    private final Path path;
+    private final Map<String, String> options = new LinkedHashMap<>();
+    private FileStatus fileStatus;
+
+    CosNOpenFileBuilder(CosFileSystem fs, Path path) {
+        this.fs = fs;
+        this.path = path;
+    }
+
+    /**
+     * Set an option. The unknown options are ignored.
+     *
+     * @param key   the key of the option
+     * @param value the value of the option
+     * @return this builder
+     */
+    public CosNOpenFileBuilder opt(String key, String value) {
+        this.options.put(key, value);
+        return this;
+    }
+
+    public CosNOpenFileBuilder opt(String key, long value) {
+        return this.opt(key, Long.toString(value));
+    }
+
+    /**
+     * Pass the status of the file which the caller already holds, so that
+     * no request is sent before the first read.
+     *
+     * @param status the status of the file
+     * @return this builder
+     */
+    public CosNOpenFileBuilder withFileStatus(FileStatus status) {
+        this.fileStatus = status;
+        return this;
+    }
+
+    public CosNOpenFileBuilder withReadPolicy(String readPolicy) {
+        return this.opt(READ_POLICY_KEY, readPolicy);
+    }
+
+    public CosNOpenFileBuilder withBufferSize(int bufferSize) {
+        return this.opt(BUFFER_SIZE_KEY, bufferSize);
+    }
+
+    /**
+     * @param readAheadRange the bytes to prefetch beyond the block being
+     *                       read
+     * @return this builder
+     */
+    public CosNOpenFileBuilder withReadAheadRange(long readAheadRange) {
+        return this.opt(READ_AHEAD_RANGE_KEY, readAheadRange);
+    }
+
+    /**
+     * Pass the length of the file, so that no request is sent before the
+     * first read. The block caches are not used without the modification
+     * time of a status.
+     *
+     * @param length the length of the file
+     * @return this builder
+     */
+    public CosNOpenFileBuilder withFileLength(long length) {
+        return this.opt(LENGTH_KEY, length);
+    }
+
+    /**
+     * Open the file.
+     *
+     * @return the input stream of the file
+     * @throws IOException if the file does not exist or is a directory
+     */
+    public FSDataInputStream build() throws IOException {
+        FileStatus status = this.fileStatus;
+        String length = this.options.get(LENGTH_KEY);
+        if (null == status && null != length) {
+            status = new FileStatus(Long.parseLong(length.trim()), false, 1,
+                    this.fs.getDefaultBlockSize(this.path), 0,
+                    this.path);
+        }
+        if (null == status) {
+            status = this.fs.getFileStatus(this.path);
+        }
+        Configuration conf = this.buildConf();
+        String bufferSize = this.options.get(BUFFER_SIZE_KEY);
+        return this.fs.open(this.path, status, conf, null == bufferSize
+                ? conf.getInt(CosNConfigKeys.IO_FILE_BUFFER_SIZE_KEY,
+                CosNConfigKeys.IO_FILE_BUFFER_SIZE_DEFAULT)
+                : Integer.parseInt(bufferSize.trim()));
+    }
+
+    private Configuration buildConf() {
+        Configuration fsConf = this.fs.getConf();
+        if (this.options.isEmpty()) {
+            return fsConf;
+        }
+
+        Configuration conf = new Configuration(fsConf);
+        String readPolicy = this.options.get(READ_POLICY_KEY);
+        if (null != readPolicy) {
+            applyReadPolicy(conf, readPolicy);
+        }
+        for (Map.Entry<String, String> option : this.options.entrySet()) {
+            if (option.getKey().startsWith(COSN_OPTION_PREFIX)
+                    && !option.getKey().equals(READ_AHEAD_RANGE_KEY)) {
+                conf.set(option.getKey(), option.getValue());
+            }
+        }
+
+        String readAheadRange = this.options.get(READ_AHEAD_RANGE_KEY);
+        if (null != readAheadRange) {
+            long blockSize = conf.getLong(
+                    CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY,
+                    CosNConfigKeys.DEFAULT_READ_AHEAD_BLOCK_SIZE);
+            long range = Math.max(0, Long.parseLong(readAheadRange.trim()));
+            // The block being read plus the blocks covering the range.
+            conf.setInt(CosNConfigKeys.READ_AHEAD_QUEUE_SIZE, (int) Math.min(
+                    Integer.MAX_VALUE, 1 + (range + blockSize - 1) / blockSize));
+        }
+        return conf;
+    }
+
+    private static void applyReadPolicy(Configuration conf,
+                                        String readPolicies) {
+        for (String readPolicy : readPolicies.split(",")) {
+            switch (readPolicy.trim()) {
+                case READ_POLICY_ADAPTIVE:
+                    conf.setBoolean(
+                            CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                            true);
+                    return;
+                case READ_POLICY_DEFAULT:
+                case READ_POLICY_NORMAL:
+                    return;
+                case READ_POLICY_SEQUENTIAL:
+                    conf.setBoolean(
+                            CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                            false);
+                    conf.setLong(CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY,
+                            conf.getLong(
+                                    CosNConfigKeys.READ_AHEAD_MAX_BLOCK_SIZE_KEY,
+                                    CosNConfigKeys.DEFAULT_READ_AHEAD_MAX_BLOCK_SIZE));
+                    return;
+                case READ_POLICY_RANDOM:
+                case READ_POLICY_VECTOR:
+                    conf.setBoolean(
+                            CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                            false);
+                    conf.setInt(CosNConfigKeys.READ_AHEAD_QUEUE_SIZE, 1);
+                    conf.setLong(CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY,
+                            conf.getLong(
+                                    CosNConfigKeys.READ_AHEAD_MIN_BLOCK_SIZE_KEY,
+                                    CosNConfigKeys.DEFAULT_READ_AHEAD_MIN_BLOCK_SIZE));
+                    return;
+                case READ_POLICY_WHOLE_FILE:
+                    conf.set(CosNConfigKeys.READ_MODE_KEY,
+                            CosFsInputStream.STREAMING_READ_MODE);
+                    return;
+                default:
+                    LOG.debug("Skip the unsupported read policy: {}.",
+                            readPolicy);
+            }
+        }
+    }
+}
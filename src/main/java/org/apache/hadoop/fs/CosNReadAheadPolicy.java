@@ -0,0 +1,199 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The access pattern detector of a CosFsInputStream.
+ * It is fed with every reopen of the stream, and decides the size of the
+ * read ahead blocks and the number of blocks to be prefetched.
+ * <p>
+ * The contiguous reads and the short forward seeks double the prefetch
+ * window until it reaches the queue size, and then grow the block size up
+ * to the maximum. The long or backward seeks reset the window to a single
+ * block, and the repeated ones shrink the block size towards the bytes
+ * actually consumed per block.
+ * <p>
+ * It is not thread-safe, and must be called under the stream lock.
+ */
+public class CosNReadAheadPolicy {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNReadAheadPolicy.class);
+
+    public enum Mode {
+        SEQUENTIAL("sequential"),
+        RANDOM("random");
+
+        private final String name;
+
+        Mode(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    // The number of the consecutive accesses to switch the mode.
+    private static final int STREAK_THRESHOLD = 2;
+
+    private final boolean adaptive;
+    private final long baseBlockSize;
+    private final long minBlockSize;
+    private final long maxBlockSize;
+    private final int maxWindow;
+    // Null if the auto tuning is disabled.
+    private final CosNReadAheadTuner tuner;
+
+    private Mode mode = Mode.SEQUENTIAL;
+    private long blockSize;
+    private int window = 1;
+    private int sequentialStreak = 0;
+    private int randomStreak = 0;
+    private long avgConsumedBytes = -1;
+
+    public CosNReadAheadPolicy(Configuration conf) {
+        this(conf, null);
+    }
+
+    /**
+     * @param tuner the estimator of the stream, which is used only if both
+     *              the adaptive read ahead and the auto tuning are enabled
+     */
+    public CosNReadAheadPolicy(Configuration conf, CosNReadAheadTuner tuner) {
+        this.baseBlockSize = conf.getLong(
+                CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_BLOCK_SIZE);
+        this.adaptive = conf.getBoolean(
+                CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_ADAPTIVE_ENABLED);
+        this.tuner = this.adaptive && conf.getBoolean(
+                CosNConfigKeys.READ_AHEAD_AUTO_TUNE_ENABLED_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_AUTO_TUNE_ENABLED)
+                ? tuner : null;
+        int queueSize = conf.getInt(
+                CosNConfigKeys.READ_AHEAD_QUEUE_SIZE,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_QUEUE_SIZE);
+        if (null != this.tuner) {
+            queueSize = Math.max(queueSize, conf.getInt(
+                    CosNConfigKeys.READ_AHEAD_AUTO_TUNE_MAX_QUEUE_SIZE_KEY,
+                    CosNConfigKeys.DEFAULT_READ_AHEAD_AUTO_TUNE_MAX_QUEUE_SIZE));
+        }
+        this.maxWindow = Math.max(1, queueSize);
+        this.minBlockSize = Math.min(this.baseBlockSize, conf.getLong(
+                CosNConfigKeys.READ_AHEAD_MIN_BLOCK_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_MIN_BLOCK_SIZE));
+        this.maxBlockSize = Math.max(this.baseBlockSize, conf.getLong(
+                CosNConfigKeys.READ_AHEAD_MAX_BLOCK_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_MAX_BLOCK_SIZE));
+        this.blockSize = this.baseBlockSize;
+        LOG.debug("Read ahead policy adaptive: {}, block size: [{}, {}, {}], " +
+                        "max window: {}, auto tune: {}.", this.adaptive,
+                this.minBlockSize, this.baseBlockSize, this.maxBlockSize,
+                this.maxWindow, null != this.tuner);
+    }
+
+    /**
+     * Record a reopen of the stream.
+     *
+     * @param pos           the position to reopen
+     * @param currentPos    the position of the reader before the reopen
+     * @param expectedPos   the position right after the current block
+     * @param consumedBytes the bytes consumed from the current block
+     */
+    public void onReopen(long pos, long currentPos, long expectedPos,
+                         long consumedBytes) {
+        if (consumedBytes > 0) {
+            this.avgConsumedBytes = this.avgConsumedBytes < 0 ? consumedBytes
+                    : (this.avgConsumedBytes * 3 + consumedBytes) / 4;
+        }
+
+        boolean contiguous = pos == expectedPos;
+        if (!contiguous && this.adaptive) {
+            // The short forward seek is cheaper to read through.
+            contiguous = pos > currentPos && pos - expectedPos >= 0
+                    && pos - expectedPos < this.blockSize;
+        }
+
+        if (contiguous) {
+            this.sequentialStreak++;
+            this.randomStreak = 0;
+            if (this.mode == Mode.RANDOM && this.adaptive
+                    && this.sequentialStreak < STREAK_THRESHOLD) {
+                // Do not ramp up on a single contiguous read after the
+                // random accesses.
+                return;
+            }
+            this.mode = Mode.SEQUENTIAL;
+            if (null != this.tuner && this.tuner.isReady()) {
+                this.blockSize = this.tuner.tuneBlockSize(
+                        this.minBlockSize, this.maxBlockSize);
+                int depth = this.tuner.tuneDepth(this.blockSize,
+                        this.maxWindow);
+                // Ramp up to the depth as usual, but shrink at once.
+                this.window = Math.min(this.window * 2, depth);
+                return;
+            }
+            if (this.window < this.maxWindow) {
+                this.window = Math.min(this.window * 2, this.maxWindow);
+            } else if (this.adaptive && this.blockSize < this.maxBlockSize) {
+                this.blockSize = Math.min(this.blockSize * 2,
+                        this.maxBlockSize);
+            }
+            if (this.adaptive && this.blockSize < this.baseBlockSize) {
+                this.blockSize = Math.min(this.blockSize * 2,
+                        this.baseBlockSize);
+            }
+            return;
+        }
+
+        this.sequentialStreak = 0;
+        this.randomStreak++;
+        this.window = 1;
+        if (!this.adaptive) {
+            this.mode = Mode.RANDOM;
+            return;
+        }
+
+        if (this.blockSize > this.baseBlockSize) {
+            this.blockSize = this.baseBlockSize;
+        }
+        if (this.randomStreak >= STREAK_THRESHOLD) {
+            this.mode = Mode.RANDOM;
+            if (this.avgConsumedBytes > 0) {
+                long target = Long.highestOneBit(this.avgConsumedBytes);
+                if (target < this.avgConsumedBytes) {
+                    target <<= 1;
+                }
+                this.blockSize = Math.max(this.minBlockSize,
+                        Math.min(target, this.baseBlockSize));
+            }
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public long getBlockSize() {
+        return blockSize;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public boolean isAutoTuned() {
+        return null != tuner;
+    }
+
+    public int getMaxWindow() {
+        return maxWindow;
+    }
+}
@@ -0,0 +1,160 @@
+package org.apache.hadoop.fs;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The bandwidth-delay estimator of a CosFsInputStream.
+ * The read ahead tasks feed it with the time to the first byte and the
+ * transfer time of every block fetch, and the stream with the time the
+ * reader spends on each consumed block. The block size and the read ahead
+ * depth of the sequential reads are derived from the moving averages:
+ * <ul>
+ * <li>The block size is the bytes a single request transfers in
+ * {@link #LATENCY_FACTOR} times of its first byte latency, so that the
+ * latency is a small part of every request.</li>
+ * <li>The depth is the number of blocks the reader consumes during the
+ * fetch of a block, plus the one being read, so that the next block is
+ * ready when the current one is consumed and no more is fetched.</li>
+ * </ul>
+ * It is thread-safe.
+ */
+public class CosNReadAheadTuner {
+    // The transfer time of a block relative to its first byte latency.
+    private static final int LATENCY_FACTOR = 2;
+    // The weight of a new sample in the moving averages is 1 / SMOOTHING.
+    private static final int SMOOTHING = 4;
+    // The fetches needed before the tuning takes effect.
+    private static final int MIN_SAMPLES = 2;
+    // The smaller fetches are dominated by the latency, and their
+    // throughput is not sampled.
+    private static final long MIN_THROUGHPUT_SAMPLE_BYTES = 64 * Unit.KB;
+
+    private long fetchSamples = 0;
+    private double firstByteNanos = -1;
+    // The bytes per second of a single request.
+    private double throughput = -1;
+    // The rate of the reader is the ratio of the averages rather than the
+    // average of the ratios, which is skewed by the blocks consumed at once.
+    private double consumedBytes = -1;
+    private double consumeNanos = -1;
+
+    private long tunedBlockSize = 0;
+    private int tunedDepth = 0;
+
+    /**
+     * Record a block fetched from COS.
+     *
+     * @param firstByteNanos the time to get the response
+     * @param transferNanos  the time to transfer the content
+     * @param length         the length of the block
+     */
+    public synchronized void recordFetch(long firstByteNanos,
+                                         long transferNanos, long length) {
+        if (length <= 0) {
+            return;
+        }
+        this.firstByteNanos = average(this.firstByteNanos, firstByteNanos);
+        if (length >= MIN_THROUGHPUT_SAMPLE_BYTES) {
+            this.throughput = average(this.throughput,
+                    (double) length * TimeUnit.SECONDS.toNanos(1)
+                            / Math.max(1, transferNanos));
+        }
+        this.fetchSamples++;
+    }
+
+    /**
+     * Record the bytes consumed from a block by the reader.
+     *
+     * @param bytes        the bytes consumed
+     * @param consumeNanos the time the reader spent on them, excluding the
+     *                     time waiting for the block
+     */
+    public synchronized void recordConsume(long bytes, long consumeNanos) {
+        if (bytes <= 0) {
+            return;
+        }
+        this.consumedBytes = average(this.consumedBytes, bytes);
+        this.consumeNanos = average(this.consumeNanos,
+                Math.max(1, consumeNanos));
+    }
+
+    public synchronized boolean isReady() {
+        return this.fetchSamples >= MIN_SAMPLES && this.throughput > 0;
+    }
+
+    /**
+     * @return the block size in the bounds, which is a power of 2 if the
+     * bounds allow
+     */
+    public synchronized long tuneBlockSize(long minBlockSize,
+                                           long maxBlockSize) {
+        double firstByteSeconds = this.firstByteNanos
+                / TimeUnit.SECONDS.toNanos(1);
+        long target = (long) (this.throughput * firstByteSeconds
+                * LATENCY_FACTOR);
+        long blockSize = Long.highestOneBit(Math.max(1, target));
+        if (blockSize < target) {
+            blockSize <<= 1;
+        }
+        this.tunedBlockSize = Math.max(minBlockSize,
+                Math.min(blockSize, maxBlockSize));
+        return this.tunedBlockSize;
+    }
+
+    /**
+     * @return the number of the blocks to keep in flight, in [1, maxDepth]
+     */
+    public synchronized int tuneDepth(long blockSize, int maxDepth) {
+        double consumeRate = this.consumeRate();
+        if (consumeRate <= 0) {
+            // Nothing is known about the reader yet.
+            this.tunedDepth = maxDepth;
+            return this.tunedDepth;
+        }
+        double fetchSeconds = (this.firstByteNanos
+                + blockSize * (double) TimeUnit.SECONDS.toNanos(1)
+                / this.throughput) / TimeUnit.SECONDS.toNanos(1);
+        double blocksInFlight =
+                consumeRate * fetchSeconds / blockSize;
+        this.tunedDepth = (int) Math.max(1, Math.min(maxDepth,
+                Math.ceil(blocksInFlight) + 1));
+        return this.tunedDepth;
+    }
+
+    public synchronized long getFirstByteMillis() {
+        return this.firstByteNanos < 0 ? -1
+                : TimeUnit.NANOSECONDS.toMillis((long) this.firstByteNanos);
+    }
+
+    public synchronized long getThroughput() {
+        return (long) this.throughput;
+    }
+
+    public synchronized long getConsumeRate() {
+        return (long) Math.max(0, this.consumeRate());
+    }
+
+    public synchronized long getTunedBlockSize() {
+        return this.tunedBlockSize;
+    }
+
+    public synchronized int getTunedDepth() {
+        return this.tunedDepth;
+    }
+
+    /**
+     * @return the bytes per second of the reader, or -1 if it is unknown
+     */
+    private double consumeRate() {
+        if (this.consumeNanos <= 0) {
+            return -1;
+        }
+        return this.consumedBytes * TimeUnit.SECONDS.toNanos(1)
+                / this.consumeNanos;
+    }
+
+    private static double average(double average, double sample) {
+        return average < 0 ? sample
+                : average + (sample - average) / SMOOTHING;
+    }
+}
@@ -0,0 +1,343 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.buffer.CosNByteBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The reader of the streaming read mode of the {@link CosFsInputStream}.
+ * <p>
+ * It keeps a single GET request open from the start offset to the end of
+ * the object, and a pump running on a thread of the executor copies the
+ * content into a ring of chunks, which are consumed by the stream in order.
+ * The GET request is reopened at the current offset when it fails.
+ */
+public class CosNStreamingReader {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNStreamingReader.class);
+
+    /**
+     * A chunk of the ring filled by the pump thread.
+     */
+    public static final class Chunk {
+        private final CosNByteBuffer cosNByteBuffer;
+        private ByteBuffer buffer;
+        private long start;
+        private IOException error;
+
+        private Chunk(CosNByteBuffer cosNByteBuffer) {
+            this.cosNByteBuffer = cosNByteBuffer;
+        }
+
+        /**
+         * @return the view of the filled bytes, whose capacity equals to
+         * the length of the chunk
+         */
+        public ByteBuffer getBuffer() {
+            return buffer;
+        }
+
+        public long getStart() {
+            return start;
+        }
+
+        public long getEnd() {
+            return this.start + this.buffer.capacity() - 1;
+        }
+    }
+
+    private final String key;
+    private final NativeFileSystemStore store;
+    private final long fileSize;
+    private final int maxRetries;
+    private final long retryIntervalMillis;
+    private final CosNInputStreamStatistics streamStatistics;
+
+    private final List<Chunk> chunks;
+    private final BlockingQueue<Chunk> freeChunks;
+    private final BlockingQueue<Chunk> filledChunks;
+    private final Future<?> pumpTask;
+    private final long ringCapacity;
+    // The offset of the next chunk to be consumed.
+    private long nextOffset;
+    private volatile boolean closed = false;
+    private volatile InputStream inputStream;
+    // Guarded by the monitor of this reader.
+    private boolean pumpStarted = false;
+    private boolean pumpExited = false;
+
+    /**
+     * @param pumpExecutor the executor running the pump thread, which is
+     *                     held until the reader is closed
+     */
+    public CosNStreamingReader(Configuration conf, String key,
+                               NativeFileSystemStore store, long fileSize,
+                               long startOffset,
+                               CosNInputStreamStatistics streamStatistics,
+                               ExecutorService pumpExecutor)
+            throws IOException {
+        this.key = key;
+        this.store = store;
+        this.fileSize = fileSize;
+        this.nextOffset = startOffset;
+        this.streamStatistics = streamStatistics;
+        this.maxRetries = conf.getInt(CosNConfigKeys.COSN_MAX_RETRIES_KEY,
+                CosNConfigKeys.DEFAULT_MAX_RETRIES);
+        this.retryIntervalMillis = TimeUnit.SECONDS.toMillis(conf.getLong(
+                CosNConfigKeys.COSN_RETRY_INTERVAL_KEY,
+                CosNConfigKeys.DEFAULT_RETRY_INTERVAL));
+
+        long chunkSize = conf.getLong(
+                CosNConfigKeys.STREAMING_READ_CHUNK_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_STREAMING_READ_CHUNK_SIZE);
+        int ringSize = Math.max(2, conf.getInt(
+                CosNConfigKeys.STREAMING_READ_RING_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_STREAMING_READ_RING_SIZE));
+        if (chunkSize <= 0 || chunkSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid streaming read chunk size: %d", chunkSize));
+        }
+
+        int bufferSize = (int) Math.min(chunkSize,
+                Math.max(1, fileSize - startOffset));
+        this.chunks = new ArrayList<>(ringSize);
+        this.freeChunks = new ArrayBlockingQueue<>(ringSize);
+        this.filledChunks = new ArrayBlockingQueue<>(ringSize);
+        try {
+            // Only the first chunk is needed by the reader right now, and
+            // the ring is shrunk when the read buffer pool is exhausted.
+            CosNByteBuffer cosNByteBuffer =
+                    ReadBufferPool.getInstance().getBuffer(bufferSize);
+            while (null != cosNByteBuffer) {
+                Chunk chunk = new Chunk(cosNByteBuffer);
+                this.chunks.add(chunk);
+                this.freeChunks.add(chunk);
+                cosNByteBuffer = this.chunks.size() < ringSize
+                        ? ReadBufferPool.getInstance().tryGetBuffer(bufferSize)
+                        : null;
+            }
+        } catch (IOException e) {
+            this.returnBuffers();
+            throw e;
+        }
+        this.ringCapacity = (long) bufferSize * this.chunks.size();
+
+        try {
+            this.pumpTask = pumpExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    pump(bufferSize);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.returnBuffers();
+            throw new IOException(String.format("Failed to start the " +
+                    "streaming read of the cos key: %s.", key), e);
+        }
+    }
+
+    /**
+     * Get the next chunk. It blocks until the chunk is filled.
+     *
+     * @return the next chunk
+     * @throws IOException if the pump thread fails to fill the chunk
+     */
+    public Chunk next() throws IOException {
+        if (this.nextOffset >= this.fileSize) {
+            throw new EOFException(FSExceptionMessages.CANNOT_SEEK_PAST_EOF);
+        }
+        Chunk chunk;
+        try {
+            chunk = this.filledChunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted when waiting for the streaming read.");
+        }
+        if (null != chunk.error) {
+            IOException error = chunk.error;
+            this.release(chunk);
+            throw error;
+        }
+        this.nextOffset = chunk.getEnd() + 1;
+        return chunk;
+    }
+
+    /**
+     * Give the consumed chunk back to the pump thread.
+     *
+     * @param chunk the chunk getting from this reader
+     */
+    public void release(Chunk chunk) {
+        chunk.error = null;
+        this.freeChunks.offer(chunk);
+    }
+
+    /**
+     * @return the offset of the next chunk to be consumed
+     */
+    public long getNextOffset() {
+        return this.nextOffset;
+    }
+
+    /**
+     * @return the bytes which can be buffered in the ring
+     */
+    public long getRingCapacity() {
+        return this.ringCapacity;
+    }
+
+    private void pump(int chunkSize) {
+        synchronized (this) {
+            this.pumpStarted = true;
+        }
+        long offset = this.nextOffset;
+        int retries = 0;
+        try {
+            while (!this.closed && offset < this.fileSize) {
+                Chunk chunk = this.freeChunks.take();
+                int length = (int) Math.min(chunkSize, this.fileSize - offset);
+                ByteBuffer target =
+                        chunk.cosNByteBuffer.getByteBuffer().duplicate();
+                target.clear();
+                target.limit(length);
+                while (target.hasRemaining()) {
+                    try {
+                        if (null == this.inputStream) {
+                            if (this.closed) {
+                                // The stream is aborted by the close, which
+                                // may come after the chunk is taken.
+                                break;
+                            }
+                            long position = offset + target.position();
+                            LOG.debug("Open the streaming read of the cos key" +
+                                    ": {}, position: {}.", this.key, position);
+                            this.inputStream = this.store.retrieve(this.key,
+                                    position);
+                            this.streamStatistics.streamingRequestIssued();
+                            if (this.closed) {
+                                break;
+                            }
+                        }
+                        fill(this.inputStream, target);
+                        retries = 0;
+                    } catch (IOException e) {
+                        this.abortStream();
+                        if (this.closed) {
+                            break;
+                        }
+                        if (retries++ >= this.maxRetries) {
+                            chunk.error = e;
+                            break;
+                        }
+                        LOG.warn("Exception occurs when streaming read the " +
+                                        "cos key: {}, reopen it at position: " +
+                                        "{}. retries: {}.", this.key,
+                                offset + target.position(), retries, e);
+                        Thread.sleep(this.retryIntervalMillis);
+                    }
+                }
+
+                ByteBuffer view = chunk.cosNByteBuffer.getByteBuffer()
+                        .duplicate();
+                view.clear();
+                view.limit(target.position());
+                chunk.buffer = view.slice();
+                chunk.start = offset;
+                offset += target.position();
+                this.filledChunks.put(chunk);
+                if (null != chunk.error) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("The streaming read of the cos key: {} is interrupted.",
+                    this.key);
+        } finally {
+            this.abortStream();
+            synchronized (this) {
+                this.pumpExited = true;
+                if (this.closed) {
+                    this.returnBuffers();
+                }
+            }
+        }
+    }
+
+    /**
+     * Read from the stream until the target is full or the stream reaches
+     * the end.
+     */
+    private static void fill(InputStream inputStream, ByteBuffer target)
+            throws IOException {
+        if (target.hasArray()) {
+            while (target.hasRemaining()) {
+                int bytes = inputStream.read(target.array(),
+                        target.arrayOffset() + target.position(),
+                        target.remaining());
+                if (bytes < 0) {
+                    throw new EOFException("Premature EOF from inputStream");
+                }
+                target.position(target.position() + bytes);
+            }
+            return;
+        }
+
+        ReadableByteChannel channel = Channels.newChannel(inputStream);
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                throw new EOFException("Premature EOF from inputStream");
+            }
+        }
+    }
+
+    private void abortStream() {
+        InputStream in = this.inputStream;
+        this.inputStream = null;
+        CosFsInputStream.ReadBuffer.abort(in);
+    }
+
+    private synchronized void returnBuffers() {
+        for (Chunk chunk : this.chunks) {
+            ReadBufferPool.getInstance().returnBuffer(chunk.cosNByteBuffer);
+        }
+        this.chunks.clear();
+    }
+
+    /**
+     * Stop the pump thread and abort the GET request. The chunks are
+     * returned to the read buffer pool once the pump thread exits, so all
+     * the chunks getting from this reader must not be used any more.
+     */
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.abortStream();
+        this.pumpTask.cancel(true);
+        synchronized (this) {
+            // The pump never runs once it is cancelled before it starts.
+            if (!this.pumpStarted || this.pumpExited) {
+                this.returnBuffers();
+            }
+        }
+    }
+}
@@ -12,6 +12,11 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.net.URI;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 
 public final class CosNUtils {
     private static final Logger LOG = LoggerFactory.getLogger(CosNUtils.class);
@@ -22,6 +27,9 @@ public final class CosNUtils {
     static final String ABSTRACT_CREDENTIAL_PROVIDER = "is abstract and " +
             "therefore cannot be created";
 
+    static final String BOUNDED_EXECUTOR_PROVIDER = "bounded";
+    static final String VIRTUAL_EXECUTOR_PROVIDER = "virtual";
+
     private CosNUtils() {
     }
 
@@ -130,10 +138,119 @@ public final class CosNUtils {
         }
     }
 
+    public static CosNExecutorProvider createExecutorProvider(
+            Configuration conf) throws IOException {
+        String provider = conf.get(CosNConfigKeys.EXECUTOR_PROVIDER_KEY,
+                CosNConfigKeys.DEFAULT_EXECUTOR_PROVIDER).trim();
+        if (BOUNDED_EXECUTOR_PROVIDER.equalsIgnoreCase(provider)) {
+            return new CosNBoundedExecutorProvider(conf);
+        }
+        if (VIRTUAL_EXECUTOR_PROVIDER.equalsIgnoreCase(provider)) {
+            return new CosNVirtualThreadExecutorProvider(conf);
+        }
+
+        Class<?> providerClass;
+        try {
+            providerClass = conf.getClassByName(provider);
+        } catch (ClassNotFoundException e) {
+            throw new IOException(String.format(
+                    "From option %s: the executor provider [%s] is not found.",
+                    CosNConfigKeys.EXECUTOR_PROVIDER_KEY, provider), e);
+        }
+        if (!CosNExecutorProvider.class.isAssignableFrom(providerClass)
+                || Modifier.isAbstract(providerClass.getModifiers())) {
+            throw new IOException(String.format(
+                    "From option %s: the class [%s] is not an executor " +
+                            "provider.",
+                    CosNConfigKeys.EXECUTOR_PROVIDER_KEY, provider));
+        }
+        LOG.info("Executor Provider class: " + providerClass.getName());
+
+        try {
+            Constructor<?> constructor = getConstructor(providerClass,
+                    Configuration.class);
+            if (null != constructor) {
+                return (CosNExecutorProvider) constructor.newInstance(conf);
+            }
+            constructor = getConstructor(providerClass);
+            if (null != constructor) {
+                return (CosNExecutorProvider) constructor.newInstance();
+            }
+            throw new IllegalArgumentException(
+                    "Not supported constructor found");
+        } catch (IllegalAccessException | InstantiationException e) {
+            throw new IOException(providerClass.getName() + " " + INSTANTIATION_EXCEPTION + ": " + e,
+                    e);
+        } catch (InvocationTargetException e) {
+            Throwable targetException = e.getTargetException();
+            if (targetException == null) {
+                targetException = e;
+            }
+            throw new IOException(providerClass.getName() + " " + INSTANTIATION_EXCEPTION + ": " + targetException,
+                    targetException);
+        }
+    }
+
+    /**
+     * Hand a task over to the executor without waiting for the room of a
+     * bounded one, for the submitters which must never block, e.g. the
+     * timer threads and the network IO threads.
+     * <p>
+     * A thread pool is offered the task into its queue directly, bypassing
+     * the rejection handler, and the executor of the virtual threads takes
+     * a permit only if one is free. Any other executor is submitted as
+     * usual.
+     *
+     * @param executor the executor of the task
+     * @param task     the task to run
+     * @return the future of the task, or null if the executor is saturated
+     * or shut down
+     */
+    static Future<?> trySubmit(ExecutorService executor, Runnable task) {
+        if (executor.isShutdown()) {
+            return null;
+        }
+        try {
+            if (executor instanceof CosNVirtualThreadExecutorProvider
+                    .LimitedExecutorService) {
+                FutureTask<Void> future = new FutureTask<>(task, null);
+                return ((CosNVirtualThreadExecutorProvider
+                        .LimitedExecutorService) executor).tryExecute(future)
+                        ? future : null;
+            }
+            if (!(executor instanceof ThreadPoolExecutor)) {
+                return executor.submit(task);
+            }
+
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            FutureTask<Void> future = new FutureTask<>(task, null);
+            if (pool.getPoolSize() < pool.getCorePoolSize()) {
+                // A new core thread is started, which never blocks.
+                pool.execute(future);
+                return future;
+            }
+            if (!pool.getQueue().offer(future)) {
+                return null;
+            }
+            if (pool.isShutdown() && pool.remove(future)) {
+                return null;
+            }
+            if (pool.getPoolSize() == 0 && !pool.prestartCoreThread()
+                    && pool.remove(future)) {
+                // No core thread is kept, and a thread is started only by
+                // the execute of the empty pool.
+                pool.execute(future);
+            }
+            return future;
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+    }
+
     private static Constructor<?> getConstructor(Class<?> cl,
                                                  Class<?>... args) {
         try {
-            Constructor constructor = cl.getDeclaredConstructor(args);
+            Constructor<?> constructor = cl.getDeclaredConstructor(args);
             return Modifier.isPublic(constructor.getModifiers()) ?
                     constructor : null;
         } catch (NoSuchMethodException e) {
@@ -0,0 +1,185 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The task fetching a merged range of the vectored read with a single GET
+ * request. The bytes of each requested range are copied into its buffer
+ * as soon as they arrive, and the bytes in the gaps are skipped.
+ */
+public class CosNVectoredReadTask implements Runnable {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNVectoredReadTask.class);
+
+    /**
+     * A requested range whose data may be fetched by several tasks.
+     */
+    static final class PendingRange {
+        private final CosNFileRange range;
+        private final ByteBuffer buffer;
+        private final AtomicInteger remainingSlices;
+
+        PendingRange(CosNFileRange range, ByteBuffer buffer, int slices) {
+            this.range = range;
+            this.buffer = buffer;
+            this.remainingSlices = new AtomicInteger(slices);
+        }
+
+        void sliceDone() {
+            if (this.remainingSlices.decrementAndGet() == 0) {
+                this.buffer.position(0);
+                this.buffer.limit(this.range.getLength());
+                this.range.getData().complete(this.buffer);
+            }
+        }
+
+        void fail(Throwable cause) {
+            this.range.getData().completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * A contiguous part of a requested range.
+     */
+    static final class Slice {
+        private final PendingRange pendingRange;
+        private final long start;
+        private final int length;
+        private final int bufferOffset;
+
+        Slice(PendingRange pendingRange, long start, int length,
+              int bufferOffset) {
+            this.pendingRange = pendingRange;
+            this.start = start;
+            this.length = length;
+            this.bufferOffset = bufferOffset;
+        }
+
+        long getEnd() {
+            return this.start + this.length - 1;
+        }
+    }
+
+    private final String key;
+    private final NativeFileSystemStore store;
+    private final FileSystem.Statistics statistics;
+    private final CosNReadAheadTuner readAheadTuner;
+    private final List<Slice> slices = new ArrayList<>();
+    private final long start;
+    private long end;
+
+    CosNVectoredReadTask(String key, NativeFileSystemStore store,
+                         FileSystem.Statistics statistics, Slice slice) {
+        this(key, store, statistics, slice, null);
+    }
+
+    /**
+     * @param readAheadTuner the estimator fed with the latency and the
+     *                       throughput of the request, or null
+     */
+    CosNVectoredReadTask(String key, NativeFileSystemStore store,
+                         FileSystem.Statistics statistics, Slice slice,
+                         CosNReadAheadTuner readAheadTuner) {
+        this.key = key;
+        this.store = store;
+        this.statistics = statistics;
+        this.readAheadTuner = readAheadTuner;
+        this.slices.add(slice);
+        this.start = slice.start;
+        this.end = slice.getEnd();
+    }
+
+    /**
+     * Merge the slice into this task if the gap is small enough and the
+     * merged range does not exceed the max size.
+     *
+     * @param slice        the slice following the ones of this task
+     * @param minSeekSize  the max gap to be read through
+     * @param maxMergeSize the max size of the merged range
+     * @return true if the slice is merged
+     */
+    boolean tryMerge(Slice slice, long minSeekSize, long maxMergeSize) {
+        if (slice.start - this.end - 1 > minSeekSize
+                || slice.getEnd() - this.start + 1 > maxMergeSize) {
+            return false;
+        }
+        this.slices.add(slice);
+        this.end = slice.getEnd();
+        return true;
+    }
+
+    long getLength() {
+        return this.end - this.start + 1;
+    }
+
+    @Override
+    public void run() {
+        LOG.debug("Vectored read the cos key: {}, range: [{}, {}], slices: {}.",
+                this.key, this.start, this.end, this.slices.size());
+        InputStream inputStream = null;
+        int completed = 0;
+        try {
+            long startNanos = System.nanoTime();
+            inputStream = this.store.retrieveBlock(this.key, this.start,
+                    this.end);
+            long firstByteNanos = System.nanoTime();
+            long position = this.start;
+            for (Slice slice : this.slices) {
+                IOUtils.skipFully(inputStream, slice.start - position);
+                ByteBuffer target = slice.pendingRange.buffer.duplicate();
+                target.clear();
+                target.position(slice.bufferOffset);
+                target.limit(slice.bufferOffset + slice.length);
+                readFully(inputStream, target);
+                position = slice.start + slice.length;
+                completed++;
+                if (null != this.statistics) {
+                    this.statistics.incrementBytesRead(slice.length);
+                }
+                slice.pendingRange.sliceDone();
+            }
+            if (null != this.readAheadTuner) {
+                this.readAheadTuner.recordFetch(firstByteNanos - startNanos,
+                        System.nanoTime() - firstByteNanos, this.getLength());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Exception occurs when vectored read the cos key: {}, " +
+                    "range: [{}, {}].", this.key, this.start, this.end, e);
+            for (Slice slice : this.slices.subList(completed,
+                    this.slices.size())) {
+                slice.pendingRange.fail(e);
+            }
+        } finally {
+            IOUtils.closeStream(inputStream);
+        }
+    }
+
+    private static void readFully(InputStream inputStream, ByteBuffer target)
+            throws IOException {
+        if (target.hasArray()) {
+            IOUtils.readFully(inputStream, target.array(),
+                    target.arrayOffset() + target.position(),
+                    target.remaining());
+            return;
+        }
+
+        ReadableByteChannel channel = Channels.newChannel(inputStream);
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                throw new EOFException("Premature EOF from inputStream");
+            }
+        }
+    }
+}
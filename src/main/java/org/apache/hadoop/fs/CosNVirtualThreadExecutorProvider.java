@@ -0,0 +1,245 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The executor provider running every task on a new virtual thread, which
+ * is cheap enough for the blocking COS requests to scale to thousands in
+ * flight. The concurrency is limited by a semaphore rather than by the
+ * number of the threads.
+ * <p>
+ * The virtual threads are looked up reflectively, so that this class builds
+ * with Java 8. On a JVM before Java 21, it warns and falls back to the
+ * {@link CosNBoundedExecutorProvider}.
+ */
+public class CosNVirtualThreadExecutorProvider
+        implements CosNExecutorProvider {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNVirtualThreadExecutorProvider.class);
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = Class.forName("java.lang.Thread$Builder")
+                    .getMethod("name", String.class, long.class);
+            factory = Class.forName("java.lang.Thread$Builder")
+                    .getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod(
+                    "newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (NoSuchMethodException | ClassNotFoundException e) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private final int maxConcurrency;
+    private final CosNExecutorProvider fallback;
+
+    public CosNVirtualThreadExecutorProvider(Configuration conf) {
+        this.maxConcurrency = conf.getInt(
+                CosNConfigKeys.EXECUTOR_VIRTUAL_MAX_CONCURRENCY_KEY,
+                CosNConfigKeys.DEFAULT_EXECUTOR_VIRTUAL_MAX_CONCURRENCY);
+        if (isSupported()) {
+            this.fallback = null;
+        } else {
+            LOG.warn("The virtual threads are not supported by the Java {}, " +
+                            "fall back to the thread pools.",
+                    System.getProperty("java.version"));
+            this.fallback = new CosNBoundedExecutorProvider(conf);
+        }
+    }
+
+    /**
+     * @return whether the JVM supports the virtual threads
+     */
+    public static boolean isSupported() {
+        return null != OF_VIRTUAL;
+    }
+
+    @Override
+    public ExecutorService newBoundedExecutor(String name,
+                                              int maxConcurrency) {
+        if (null != this.fallback) {
+            return this.fallback.newBoundedExecutor(name, maxConcurrency);
+        }
+        return new LimitedExecutorService(newVirtualThreadExecutor(name),
+                this.limit(maxConcurrency), true);
+    }
+
+    @Override
+    public ExecutorService newQueueingExecutor(String name,
+                                               int maxConcurrency) {
+        if (null != this.fallback) {
+            return this.fallback.newQueueingExecutor(name, maxConcurrency);
+        }
+        return new LimitedExecutorService(newVirtualThreadExecutor(name),
+                this.limit(maxConcurrency), false);
+    }
+
+    private int limit(int maxConcurrency) {
+        return this.maxConcurrency > 0 ? this.maxConcurrency : maxConcurrency;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor(String name) {
+        try {
+            Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-",
+                    0L);
+            ThreadFactory threadFactory =
+                    (ThreadFactory) FACTORY.invoke(builder);
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null,
+                    threadFactory);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(String.format(
+                    "Failed to create the virtual thread executor [%s].",
+                    name), e);
+        }
+    }
+
+    /**
+     * The executor holding a permit of the semaphore for every running task.
+     * The submitter of a blocking one waits for the permit, and the task of
+     * a queueing one waits for it on its own virtual thread.
+     */
+    static final class LimitedExecutorService
+            extends AbstractExecutorService {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+        private final boolean blocking;
+
+        LimitedExecutorService(ExecutorService delegate, int maxConcurrency,
+                               boolean blocking) {
+            this.delegate = delegate;
+            this.permits = new Semaphore(Math.max(1, maxConcurrency), true);
+            this.blocking = blocking;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            if (this.delegate.isShutdown()) {
+                throw new RejectedExecutionException(
+                        "The executor is shutdown.");
+            }
+            if (!this.blocking) {
+                this.delegate.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            permits.acquire();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        runAndRelease(command);
+                    }
+                });
+                return;
+            }
+
+            try {
+                this.permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(
+                        "Interrupted while waiting for a permit.", e);
+            }
+            try {
+                this.delegate.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runAndRelease(command);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.permits.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Run the command only if a permit is free, even for a blocking
+         * executor.
+         *
+         * @return false if all the permits are taken
+         */
+        boolean tryExecute(final Runnable command) {
+            if (!this.blocking) {
+                this.execute(command);
+                return true;
+            }
+            if (this.delegate.isShutdown() || !this.permits.tryAcquire()) {
+                return false;
+            }
+            try {
+                this.delegate.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runAndRelease(command);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.permits.release();
+                return false;
+            }
+            return true;
+        }
+
+        private void runAndRelease(Runnable command) {
+            try {
+                command.run();
+            } finally {
+                this.permits.release();
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            this.delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return this.delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return this.delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return this.delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return this.delegate.awaitTermination(timeout, unit);
+        }
+    }
+}
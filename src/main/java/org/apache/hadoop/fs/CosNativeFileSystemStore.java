@@ -2,8 +2,10 @@ package org.apache.hadoop.fs;
 
 import com.qcloud.cos.COSClient;
 import com.qcloud.cos.ClientConfig;
+import com.qcloud.cos.Headers;
 import com.qcloud.cos.exception.CosClientException;
 import com.qcloud.cos.exception.CosServiceException;
+import com.qcloud.cos.http.HttpMethodName;
 import com.qcloud.cos.http.HttpProtocol;
 import com.qcloud.cos.model.*;
 import com.qcloud.cos.region.Region;
@@ -20,24 +22,33 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
 
 import static org.apache.hadoop.fs.CosFileSystem.PATH_DELIMITER;
 
 @InterfaceAudience.Private
 @InterfaceStability.Unstable
 class CosNativeFileSystemStore implements NativeFileSystemStore {
+    public static final String BLOCKING_TRANSPORT_MODE = "blocking";
+    public static final String ASYNC_TRANSPORT_MODE = "async";
+
     private COSClient cosClient;
     private COSCredentialProviderList cosCredentialProviderList;
     private TransferManager transferManager;
     private String bucketName;
     private int maxRetryTimes;
     private CosEncryptionSecrets encryptionSecrets;
+    private CosNAsyncTransport asyncTransport;
 
     public static final Logger LOG =
             LoggerFactory.getLogger(CosNativeFileSystemStore.class);
@@ -121,9 +132,41 @@ class CosNativeFileSystemStore implements NativeFileSystemStore {
                     CosNConfigKeys.UPLOAD_THREAD_POOL_SIZE_KEY);
             throw new IOException(exceptionMessage);
         }
+        // The transfer manager submits the parts from its own threads, and
+        // they would deadlock waiting for a saturated pool.
         this.transferManager =
                 new TransferManager(this.cosClient,
-                        Executors.newFixedThreadPool(threadCount));
+                        CosNUtils.createExecutorProvider(conf)
+                                .newQueueingExecutor("cos-transfer-manager",
+                                        threadCount));
+    }
+
+    private void initAsyncTransport(Configuration conf) throws IOException {
+        String transportMode = conf.get(CosNConfigKeys.TRANSPORT_MODE_KEY,
+                CosNConfigKeys.DEFAULT_TRANSPORT_MODE).trim();
+        if (BLOCKING_TRANSPORT_MODE.equalsIgnoreCase(transportMode)) {
+            return;
+        }
+        if (!ASYNC_TRANSPORT_MODE.equalsIgnoreCase(transportMode)) {
+            String exceptionMessage = String.format("'%s' value is invalid: " +
+                            "%s, and it must be '%s' or '%s'.",
+                    CosNConfigKeys.TRANSPORT_MODE_KEY, transportMode,
+                    BLOCKING_TRANSPORT_MODE, ASYNC_TRANSPORT_MODE);
+            throw new IOException(exceptionMessage);
+        }
+        if (this.encryptionSecrets.getEncryptionMethod()
+                == CosEncryptionMethods.SSE_C) {
+            // The customer key is not allowed in the presigned requests.
+            LOG.warn("The async transport does not support the SSE_C, " +
+                    "and the blocking transport is used.");
+            return;
+        }
+        try {
+            this.asyncTransport = new CosNAsyncTransport(conf);
+        } catch (NoClassDefFoundError e) {
+            LOG.warn("The netty is not found in the classpath, " +
+                    "and the blocking transport is used.", e);
+        }
     }
 
     @Override
@@ -131,6 +174,7 @@ class CosNativeFileSystemStore implements NativeFileSystemStore {
         try {
             initCOSClient(uri, conf);
             initTransferManager(conf);
+            initAsyncTransport(conf);
             this.bucketName = uri.getHost();
         } catch (Exception e) {
             handleException(e, "");
@@ -452,6 +496,141 @@ class CosNativeFileSystemStore implements NativeFileSystemStore {
         }
     }
 
+    @Override
+    public boolean isAsyncTransportEnabled() {
+        return null != this.asyncTransport;
+    }
+
+    @Override
+    public CompletableFuture<Long> retrieveBlockAsync(String key,
+                                                      long byteRangeStart,
+                                                      long byteRangeEnd,
+                                                      ByteBuffer target) {
+        LOG.debug("Retrieve the cos key asynchronously: {}, byte range " +
+                "start: {}, byte range end: {}.", key, byteRangeStart,
+                byteRangeEnd);
+        if (null == this.asyncTransport) {
+            return this.asyncTransportDisabled();
+        }
+        URL url;
+        try {
+            url = this.generatePresignedUrl(key, HttpMethodName.GET,
+                    Collections.<String, String>emptyMap(),
+                    Collections.<String, String>emptyMap());
+        } catch (CosClientException e) {
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            future.completeExceptionally(new IOException(String.format(
+                    "Failed to sign the request of the key %s.", key), e));
+            return future;
+        }
+        return this.asyncTransport.get(url, byteRangeStart, byteRangeEnd,
+                target);
+    }
+
+    @Override
+    public CompletableFuture<PartETag> uploadPartAsync(ByteBuffer part,
+                                                       String key,
+                                                       String uploadId,
+                                                       int partNum) {
+        if (null == this.asyncTransport) {
+            return this.asyncTransportDisabled();
+        }
+        CompletableFuture<PartETag> future = new CompletableFuture<>();
+        this.uploadPartAsync(part, key, uploadId, partNum, 1, future);
+        return future;
+    }
+
+    private void uploadPartAsync(final ByteBuffer part, final String key,
+                                 final String uploadId, final int partNum,
+                                 final int retryIndex,
+                                 final CompletableFuture<PartETag> future) {
+        Map<String, String> params = new HashMap<>();
+        params.put("partNumber", Integer.toString(partNum));
+        params.put("uploadId", uploadId);
+        Map<String, String> headers = new HashMap<>();
+        if (this.encryptionSecrets.getEncryptionMethod()
+                == CosEncryptionMethods.SSE_COS) {
+            headers.put(Headers.SERVER_SIDE_ENCRYPTION,
+                    SSEAlgorithm.AES256.getAlgorithm());
+        }
+        URL url;
+        try {
+            url = this.generatePresignedUrl(key, HttpMethodName.PUT, params,
+                    headers);
+        } catch (CosClientException e) {
+            future.completeExceptionally(new IOException(String.format(
+                    "Failed to sign the request of the key %s.", key), e));
+            return;
+        }
+
+        this.asyncTransport.put(url, headers, part).whenComplete(
+                new BiConsumer<String, Throwable>() {
+                    @Override
+                    public void accept(String eTag, Throwable throwable) {
+                        if (null == throwable) {
+                            future.complete(new PartETag(partNum, eTag));
+                            return;
+                        }
+                        String errMsg = String.format("The async upload " +
+                                        "of cos key: %s, upload id: %s, " +
+                                        "part num: %d is failed, " +
+                                        "retryIndex: [%d / %d], " +
+                                        "exception: %s", key, uploadId,
+                                partNum, retryIndex, maxRetryTimes,
+                                throwable.toString());
+                        // 对5xx错误进行重试
+                        if (throwable instanceof CosNAsyncTransport.ResponseException
+                                && ((CosNAsyncTransport.ResponseException) throwable)
+                                .getStatusCode() / 100 == 5
+                                && retryIndex <= maxRetryTimes
+                                && !future.isDone()) {
+                            LOG.info(errMsg);
+                            long sleepLeast = retryIndex * 300L;
+                            long sleepBound = retryIndex * 500L;
+                            try {
+                                asyncTransport.schedule(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        uploadPartAsync(part, key, uploadId,
+                                                partNum, retryIndex + 1,
+                                                future);
+                                    }
+                                }, ThreadLocalRandom.current().nextLong(
+                                        sleepLeast, sleepBound));
+                            } catch (IOException e) {
+                                future.completeExceptionally(
+                                        new IOException(errMsg, e));
+                            }
+                        } else {
+                            LOG.error(errMsg);
+                            future.completeExceptionally(
+                                    new IOException(errMsg, throwable));
+                        }
+                    }
+                });
+    }
+
+    private URL generatePresignedUrl(String key, HttpMethodName method,
+                                     Map<String, String> params,
+                                     Map<String, String> headers) {
+        GeneratePresignedUrlRequest request =
+                new GeneratePresignedUrlRequest(this.bucketName, key, method);
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            request.addRequestParameter(param.getKey(), param.getValue());
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            request.putCustomRequestHeader(header.getKey(), header.getValue());
+        }
+        return this.cosClient.generatePresignedUrl(request);
+    }
+
+    private <T> CompletableFuture<T> asyncTransportDisabled() {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(new IOException(
+                "The async transport is not enabled."));
+        return future;
+    }
+
     @Override
     public PartialListing list(String prefix, int maxListingLength) throws IOException {
         return list(prefix, maxListingLength, null, false);
@@ -621,6 +800,12 @@ class CosNativeFileSystemStore implements NativeFileSystemStore {
 
     @Override
     public void close() {
+        if (null != this.asyncTransport) {
+            this.asyncTransport.close();
+        }
+        if (null != this.transferManager) {
+            this.transferManager.shutdownNow(false);
+        }
         if (null != this.cosClient) {
             this.cosClient.shutdown();
         }
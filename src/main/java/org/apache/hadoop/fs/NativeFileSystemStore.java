@@ -10,7 +10,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -55,6 +57,29 @@ interface NativeFileSystemStore {
     boolean retrieveBlock(String key, long byteRangeStart, long blockSize,
                           String localBlockPath) throws IOException;
 
+    /**
+     * @return whether the async methods are served by the non-blocking
+     * transport rather than the threads of the callers
+     */
+    boolean isAsyncTransportEnabled();
+
+    /**
+     * Read the byte range into the remaining of the target without blocking.
+     *
+     * @return the future completed with the time the response arrives, in
+     * {@link System#nanoTime()}
+     */
+    CompletableFuture<Long> retrieveBlockAsync(String key, long byteRangeStart,
+                                               long byteRangeEnd,
+                                               ByteBuffer target);
+
+    /**
+     * Upload the remaining of the buffer as a part without blocking. The
+     * buffer must not be modified until the future is completed.
+     */
+    CompletableFuture<PartETag> uploadPartAsync(ByteBuffer part, String key,
+                                                String uploadId, int partNum);
+
     long getFileLength(String key) throws IOException;
 
     PartialListing list(String prefix, int maxListingLength) throws IOException;
@@ -0,0 +1,439 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.buffer.BufferType;
+import org.apache.hadoop.fs.buffer.CosNBufferFactory;
+import org.apache.hadoop.fs.buffer.CosNByteBuffer;
+import org.apache.hadoop.fs.buffer.CosNDirectBufferFactory;
+import org.apache.hadoop.fs.buffer.CosNNonDirectBufferFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ReadBufferPool class is used to recycle the read ahead buffers of all the
+ * CosFsInputStreams in the process.
+ * It is provided in a thread-safe singleton mode like the {@link BufferPool}.
+ * The buffers are kept in the size classes of the power of two, and
+ * allocated lazily up to a global memory limit. The idle buffers of the
+ * other size classes are released to make room for a new buffer when the
+ * limit is reached.
+ * <p>
+ * The prefetching is throttled before the limit, so that the rest of the
+ * pool is left to the buffers needed by the readers immediately. When even
+ * that is exhausted, every open reader may still hold a single buffer
+ * beyond the limit rather than wait for the others.
+ */
+public final class ReadBufferPool {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(ReadBufferPool.class);
+
+    // The smallest size class of the read buffer.
+    private static final int MIN_SIZE_CLASS = 4 * (int) Unit.KB;
+    // The prefetching stops when less than 1 / PREFETCH_RESERVE_DIVISOR of
+    // the pool is left.
+    private static final int PREFETCH_RESERVE_DIVISOR = 4;
+    // The maximum time to wait for a buffer needed by a reader immediately,
+    // after all the readers have taken a buffer beyond the limit.
+    private static final long MAX_WAIT_MILLIS = 60 * 1000L;
+
+    private static ReadBufferPool ourInstance = new ReadBufferPool();
+
+    /**
+     * Use this method to get the instance of ReadBufferPool.
+     *
+     * @return the instance of ReadBufferPool
+     */
+    public static ReadBufferPool getInstance() {
+        return ourInstance;
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition bufferReturned = lock.newCondition();
+    private final TreeMap<Integer, Deque<CosNByteBuffer>> freeBuffers =
+            new TreeMap<>();
+    // The buffers allocated beyond the limit, which are released once
+    // returned.
+    private final Set<CosNByteBuffer> overflowBuffers =
+            Collections.newSetFromMap(
+                    new IdentityHashMap<CosNByteBuffer, Boolean>());
+
+    private BufferType bufferType;
+    private CosNBufferFactory bufferFactory;
+    private long maxPoolSize = -1;
+    private long allocatedBytes = 0;
+    private long idleBytes = 0;
+    private long overflowCount = 0;
+    private int openReaders = 0;
+
+    private final AtomicInteger referCount = new AtomicInteger(0);
+    private boolean isInitialize = false;
+
+    private ReadBufferPool() {
+    }
+
+    /**
+     * Initialize the pool by the buffer type and the memory limit in the
+     * configuration. Only the first initialization takes effect, and the
+     * later ones just add the reference count.
+     *
+     * @param conf Provides configurations for the Hadoop runtime
+     */
+    public void initialize(Configuration conf) {
+        this.lock.lock();
+        try {
+            if (this.isInitialize) {
+                this.referCount.incrementAndGet();
+                return;
+            }
+
+            String typeName = conf.get(
+                    CosNConfigKeys.READ_AHEAD_BUFFER_TYPE_KEY,
+                    CosNConfigKeys.DEFAULT_READ_AHEAD_BUFFER_TYPE);
+            this.bufferType = BufferType.typeFactory(typeName);
+            if (BufferType.DIRECT_MEMORY == this.bufferType) {
+                this.bufferFactory = new CosNDirectBufferFactory();
+            } else {
+                if (BufferType.NON_DIRECT_MEMORY != this.bufferType) {
+                    LOG.warn("The read ahead buffer type [{}] is not " +
+                                    "supported, using the default settings: " +
+                                    "[{}].", typeName,
+                            CosNConfigKeys.DEFAULT_READ_AHEAD_BUFFER_TYPE);
+                }
+                this.bufferType = BufferType.NON_DIRECT_MEMORY;
+                this.bufferFactory = new CosNNonDirectBufferFactory();
+            }
+
+            this.maxPoolSize = conf.getLong(
+                    CosNConfigKeys.READ_AHEAD_BUFFER_POOL_SIZE_KEY,
+                    CosNConfigKeys.DEFAULT_READ_AHEAD_BUFFER_POOL_SIZE);
+            if (this.maxPoolSize < 0 && -1 != this.maxPoolSize) {
+                String errMsg = String.format("Negative read buffer pool " +
+                        "size: %d", this.maxPoolSize);
+                throw new IllegalArgumentException(errMsg);
+            }
+            LOG.info("The type of the read buffer pool is [{}]. Pool size: " +
+                    "[{}].", this.bufferType, this.maxPoolSize);
+
+            this.referCount.incrementAndGet();
+            this.isInitialize = true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Register a reader of the pool, which may hold a buffer beyond the
+     * limit until it is unregistered.
+     */
+    public void registerReader() {
+        this.lock.lock();
+        try {
+            this.openReaders++;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void unregisterReader() {
+        this.lock.lock();
+        try {
+            if (this.openReaders > 0) {
+                this.openReaders--;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Get a buffer needed by the reader immediately. It never waits while
+     * the readers hold fewer buffers beyond the limit than their number, so
+     * that an idle stream holding its buffers can never block the readers
+     * of the other streams.
+     *
+     * @param bufferSize the expected buffer size
+     * @return a buffer whose capacity is at least the buffer size
+     * @throws IOException if the pool is not initialized, or no buffer is
+     *                     returned in time
+     */
+    public CosNByteBuffer getBuffer(int bufferSize) throws IOException {
+        CosNByteBuffer buffer = this.acquire(bufferSize, MAX_WAIT_MILLIS,
+                true);
+        if (null == buffer) {
+            throw new IOException(String.format("Timed out waiting for a " +
+                    "read buffer [size: %d].", bufferSize));
+        }
+        return buffer;
+    }
+
+    /**
+     * Try to get a buffer for prefetching. It never waits, and leaves the
+     * reserved part of the pool to the {@link #getBuffer(int)}.
+     *
+     * @param bufferSize the expected buffer size
+     * @return a buffer, or null if the pool is exhausted
+     * @throws IOException if the pool is not initialized
+     */
+    public CosNByteBuffer tryGetBuffer(int bufferSize) throws IOException {
+        return this.acquire(bufferSize, 0, false);
+    }
+
+    private CosNByteBuffer acquire(int bufferSize, long waitMillis,
+                                   boolean demand) throws IOException {
+        if (bufferSize <= 0) {
+            throw new IOException(String.format(
+                    "Parameter buffer size out of range: %d", bufferSize));
+        }
+        int sizeClass = sizeClassOf(bufferSize);
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+
+        this.lock.lock();
+        try {
+            while (true) {
+                this.checkInitialize();
+                long limit = demand || -1 == this.maxPoolSize
+                        ? this.maxPoolSize
+                        : this.maxPoolSize
+                        - this.maxPoolSize / PREFETCH_RESERVE_DIVISOR;
+                Deque<CosNByteBuffer> buffers = this.freeBuffers.get(sizeClass);
+                if (null != buffers && !buffers.isEmpty()
+                        && this.isInUseUnder(sizeClass, limit)) {
+                    this.idleBytes -= sizeClass;
+                    return buffers.pollFirst();
+                }
+                if (this.hasRoomFor(sizeClass, limit)) {
+                    return this.allocate(sizeClass, false);
+                }
+                if (demand && this.overflowBuffers.size()
+                        < Math.max(1, this.openReaders)) {
+                    LOG.debug("The read buffer pool is exhausted, allocate " +
+                            "a buffer [size: {}] beyond the limit.",
+                            bufferSize);
+                    return this.allocate(sizeClass, true);
+                }
+
+                long waitNanos = deadline - System.nanoTime();
+                if (waitNanos <= 0) {
+                    return null;
+                }
+                try {
+                    this.bufferReturned.awaitNanos(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted when waiting for a " +
+                            "read buffer.", e);
+                }
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Check if the buffers in use are under the limit with another buffer
+     * of the size class.
+     */
+    private boolean isInUseUnder(int sizeClass, long limit) {
+        return -1 == limit
+                || this.allocatedBytes - this.idleBytes + sizeClass <= limit;
+    }
+
+    /**
+     * Check if a new buffer of the size class can be allocated under the
+     * limit, and release the idle buffers of the other size classes if
+     * necessary.
+     */
+    private boolean hasRoomFor(int sizeClass, long limit) {
+        if (-1 == limit) {
+            return true;
+        }
+        if (!this.isInUseUnder(sizeClass, limit)) {
+            return false;
+        }
+        if (this.allocatedBytes + sizeClass <= this.maxPoolSize) {
+            return true;
+        }
+
+        while (this.allocatedBytes + sizeClass > this.maxPoolSize) {
+            Map.Entry<Integer, Deque<CosNByteBuffer>> entry = null;
+            for (Map.Entry<Integer, Deque<CosNByteBuffer>> candidate
+                    : this.freeBuffers.descendingMap().entrySet()) {
+                if (!candidate.getValue().isEmpty()) {
+                    entry = candidate;
+                    break;
+                }
+            }
+            if (null == entry) {
+                return false;
+            }
+            this.destroy(entry.getValue().pollFirst(), entry.getKey());
+            this.idleBytes -= entry.getKey();
+        }
+        return true;
+    }
+
+    private CosNByteBuffer allocate(int sizeClass, boolean overflow)
+            throws IOException {
+        this.lock.lock();
+        try {
+            this.checkInitialize();
+            CosNByteBuffer buffer = this.bufferFactory.create(sizeClass);
+            if (null == buffer) {
+                String exceptionMsg = String.format("create read buffer " +
+                                "failed. buffer type: %s, buffer factory: %s",
+                        this.bufferType.getName(),
+                        this.bufferFactory.getClass().getName());
+                throw new IOException(exceptionMsg);
+            }
+            this.allocatedBytes += sizeClass;
+            if (overflow) {
+                this.overflowBuffers.add(buffer);
+                this.overflowCount++;
+            }
+            return buffer;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Return the buffer getting from this pool.
+     *
+     * @param buffer the buffer to be returned
+     */
+    public void returnBuffer(CosNByteBuffer buffer) {
+        if (null == buffer || null == buffer.getByteBuffer()) {
+            LOG.debug("The read buffer returned is null. Ignore it.");
+            return;
+        }
+
+        int sizeClass = buffer.getByteBuffer().capacity();
+        this.lock.lock();
+        try {
+            if (this.overflowBuffers.remove(buffer) || !this.isInitialize
+                    || (-1 != this.maxPoolSize
+                    && this.allocatedBytes > this.maxPoolSize)) {
+                this.destroy(buffer, sizeClass);
+            } else {
+                buffer.getByteBuffer().clear();
+                Deque<CosNByteBuffer> buffers =
+                        this.freeBuffers.get(sizeClass);
+                if (null == buffers) {
+                    buffers = new ArrayDeque<>();
+                    this.freeBuffers.put(sizeClass, buffers);
+                }
+                buffers.addFirst(buffer);
+                this.idleBytes += sizeClass;
+            }
+            this.bufferReturned.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void destroy(CosNByteBuffer buffer, int sizeClass) {
+        this.allocatedBytes -= sizeClass;
+        if (null != this.bufferFactory) {
+            this.bufferFactory.release(buffer);
+        }
+    }
+
+    private void checkInitialize() throws IOException {
+        if (!this.isInitialize) {
+            throw new IOException(
+                    "The read buffer pool has not been initialized yet");
+        }
+    }
+
+    private static int sizeClassOf(int bufferSize) {
+        if (bufferSize <= MIN_SIZE_CLASS) {
+            return MIN_SIZE_CLASS;
+        }
+        int sizeClass = Integer.highestOneBit(bufferSize);
+        if (sizeClass < bufferSize) {
+            sizeClass <<= 1;
+        }
+        return sizeClass;
+    }
+
+    public long getAllocatedBytes() {
+        this.lock.lock();
+        try {
+            return this.allocatedBytes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getIdleBytes() {
+        this.lock.lock();
+        try {
+            return this.idleBytes;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the buffers beyond the limit not returned yet
+     */
+    public int getOverflowBuffers() {
+        this.lock.lock();
+        try {
+            return this.overflowBuffers.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public long getOverflowCount() {
+        this.lock.lock();
+        try {
+            return this.overflowCount;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void close() {
+        this.lock.lock();
+        try {
+            if (!this.isInitialize) {
+                LOG.warn("The read buffer pool has been closed. no changes " +
+                        "would be execute.");
+                return;
+            }
+            if (this.referCount.decrementAndGet() > 0) {
+                return;
+            }
+
+            LOG.info("Begin to release the read buffers.");
+            for (Map.Entry<Integer, Deque<CosNByteBuffer>> entry
+                    : this.freeBuffers.entrySet()) {
+                for (CosNByteBuffer buffer : entry.getValue()) {
+                    this.destroy(buffer, entry.getKey());
+                }
+                entry.getValue().clear();
+            }
+            this.idleBytes = 0;
+            this.isInitialize = false;
+            this.bufferReturned.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+}
@@ -6,7 +6,8 @@ package org.apache.hadoop.fs.buffer;
 public enum BufferType {
     NON_DIRECT_MEMORY("non_direct_memory"),
     DIRECT_MEMORY("direct_memory"),
-    MAPPED_DISK("mapped_disk");
+    MAPPED_DISK("mapped_disk"),
+    HYBRID("hybrid");
 
     private final String name;
 
@@ -28,6 +29,9 @@ public enum BufferType {
         if (typeName.compareToIgnoreCase(MAPPED_DISK.getName()) == 0) {
             return MAPPED_DISK;
         }
+        if (typeName.compareToIgnoreCase(HYBRID.getName()) == 0) {
+            return HYBRID;
+        }
 
         return null;
     }
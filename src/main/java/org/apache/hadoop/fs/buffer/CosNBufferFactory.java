@@ -4,4 +4,11 @@ public interface CosNBufferFactory {
     CosNByteBuffer create(int size);
 
     void release(CosNByteBuffer cosNByteBuffer);
+
+    /**
+     * Release the resources held by the factory. The buffers still in use
+     * keep theirs until they are released.
+     */
+    default void close() {
+    }
 }
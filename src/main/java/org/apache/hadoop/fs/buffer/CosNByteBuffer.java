@@ -3,9 +3,7 @@ package org.apache.hadoop.fs.buffer;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
 
-import org.apache.hadoop.io.nativeio.NativeIO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import sun.nio.ch.DirectBuffer;
@@ -39,9 +37,9 @@ public abstract class CosNByteBuffer implements Closeable {
         }
         this.byteBuffer.clear();
 
-        if (this.isMapped()) {
-            NativeIO.POSIX.munmap((MappedByteBuffer) this.byteBuffer);
-        } else if (this.byteBuffer.isDirect()) {
+        // The mapped buffers are the regions of the arenas, which are
+        // unmapped by their factory.
+        if (!this.isMapped() && this.byteBuffer.isDirect()) {
             ((DirectBuffer) this.byteBuffer).cleaner().clean();
         }
 
@@ -0,0 +1,144 @@
+package org.apache.hadoop.fs.buffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The factory of the hybrid buffers. It creates the buffers in the JVM heap
+ * memory until the memory budget is used up, and then spills the new
+ * buffers to the disk files mapped in the tmp dir. It never blocks.
+ */
+public class CosNHybridBufferFactory implements CosNBufferFactory {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNHybridBufferFactory.class);
+
+    private final long memoryBudget;
+    private final CosNBufferFactory memoryBufferFactory =
+            new CosNNonDirectBufferFactory();
+    private final CosNBufferFactory diskBufferFactory;
+
+    private final AtomicLong memoryBytes = new AtomicLong(0);
+    private final AtomicInteger diskBuffers = new AtomicInteger(0);
+    private final AtomicLong createdBuffers = new AtomicLong(0);
+    private final AtomicLong spilledBuffers = new AtomicLong(0);
+
+    /**
+     * @param memoryBudget   the bytes of the memory buffers at most
+     * @param tmpDir         the dir of the mapped files
+     * @param maxMappedBytes the cap of the bytes mapped for the spilled
+     *                       buffers, or -1 for no cap
+     * @throws IOException if the tmp dir can not be created
+     */
+    public CosNHybridBufferFactory(long memoryBudget, String tmpDir,
+                                   long maxMappedBytes) throws IOException {
+        this.memoryBudget = memoryBudget;
+        this.diskBufferFactory = new CosNMappedBufferFactory(tmpDir,
+                CosNMappedBufferFactory.DEFAULT_ARENA_SIZE, maxMappedBytes);
+    }
+
+    @Override
+    public CosNByteBuffer create(int size) {
+        CosNByteBuffer buffer;
+        if (this.reserveMemory(size)) {
+            buffer = this.memoryBufferFactory.create(size);
+        } else {
+            LOG.debug("The memory budget [{}] of the hybrid buffers is used " +
+                    "up, spill the buffer [size: {}] to the disk.",
+                    this.memoryBudget, size);
+            buffer = this.diskBufferFactory.create(size);
+            if (null != buffer) {
+                this.diskBuffers.incrementAndGet();
+                this.spilledBuffers.incrementAndGet();
+            }
+        }
+        if (null != buffer) {
+            this.createdBuffers.incrementAndGet();
+        }
+        return buffer;
+    }
+
+    private boolean reserveMemory(int size) {
+        while (true) {
+            long current = this.memoryBytes.get();
+            if (current + size > this.memoryBudget) {
+                return false;
+            }
+            if (this.memoryBytes.compareAndSet(current, current + size)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release(CosNByteBuffer cosNByteBuffer) {
+        if (null == cosNByteBuffer) {
+            LOG.debug("The buffer returned is null. Ignore it.");
+            return;
+        }
+        if (null == cosNByteBuffer.getByteBuffer()) {
+            LOG.warn("The byte buffer returned is null. can not be released.");
+            return;
+        }
+
+        if (cosNByteBuffer.isMapped()) {
+            this.diskBuffers.decrementAndGet();
+            this.diskBufferFactory.release(cosNByteBuffer);
+        } else {
+            this.memoryBytes.addAndGet(
+                    -cosNByteBuffer.getByteBuffer().capacity());
+            this.memoryBufferFactory.release(cosNByteBuffer);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.diskBufferFactory.close();
+    }
+
+    /**
+     * @return the bytes of the memory buffers in use
+     */
+    public long getMemoryBytes() {
+        return this.memoryBytes.get();
+    }
+
+    /**
+     * @return the number of the disk buffers in use
+     */
+    public int getDiskBuffers() {
+        return this.diskBuffers.get();
+    }
+
+    public long getCreatedBuffers() {
+        return this.createdBuffers.get();
+    }
+
+    public long getSpilledBuffers() {
+        return this.spilledBuffers.get();
+    }
+
+    /**
+     * @return the ratio of the buffers spilled to the disk in all the
+     * buffers created
+     */
+    public double getSpillRate() {
+        long created = this.createdBuffers.get();
+        return 0 == created ? 0 : (double) this.spilledBuffers.get() / created;
+    }
+
+    @Override
+    public String toString() {
+        return "CosNHybridBufferFactory{" +
+                "memoryBudget=" + memoryBudget +
+                ", memoryBytes=" + memoryBytes +
+                ", diskBuffers=" + diskBuffers +
+                ", createdBuffers=" + createdBuffers +
+                ", spilledBuffers=" + spilledBuffers +
+                ", spillRate=" + String.format("%.4f", getSpillRate()) +
+                '}';
+    }
+}
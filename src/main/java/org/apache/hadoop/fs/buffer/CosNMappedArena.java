@@ -0,0 +1,153 @@
+package org.apache.hadoop.fs.buffer;
+
+import org.apache.hadoop.fs.Constants;
+import org.apache.hadoop.io.nativeio.NativeIO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A disk file mapped once and sliced into the regions of the mapped
+ * buffers. The free regions are kept by their offsets, and the adjacent
+ * ones are merged when a region is freed.
+ * <p>
+ * The file is deleted once it is mapped, so that nothing is left in the tmp
+ * dir, and its disk space is released when the arena is unmapped.
+ * It is not thread-safe, and is guarded by its factory.
+ */
+final class CosNMappedArena {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNMappedArena.class);
+
+    // Cleared when the munmap is unavailable, which is logged only once.
+    private static final AtomicBoolean UNMAP_SUPPORTED =
+            new AtomicBoolean(true);
+
+    private final File file;
+    private final int capacity;
+    private MappedByteBuffer mappedBuffer;
+    // The offset to the length of the free regions.
+    private final TreeMap<Integer, Integer> freeRegions = new TreeMap<>();
+    private int freeBytes;
+
+    private CosNMappedArena(File file, MappedByteBuffer mappedBuffer,
+                            int capacity) {
+        this.file = file;
+        this.mappedBuffer = mappedBuffer;
+        this.capacity = capacity;
+        this.freeRegions.put(0, capacity);
+        this.freeBytes = capacity;
+    }
+
+    static CosNMappedArena create(File tmpDir, int capacity)
+            throws IOException {
+        File tmpFile = File.createTempFile(Constants.BLOCK_TMP_FILE_PREFIX,
+                Constants.BLOCK_TMP_FILE_SUFFIX, tmpDir);
+        MappedByteBuffer mappedBuffer;
+        try (RandomAccessFile randomAccessFile =
+                     new RandomAccessFile(tmpFile, "rw")) {
+            randomAccessFile.setLength(capacity);
+            mappedBuffer = randomAccessFile.getChannel().map(
+                    FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } finally {
+            // The mapping outlives the file.
+            if (!tmpFile.delete()) {
+                LOG.warn("Failed to delete the mapped file: [{}].", tmpFile);
+                tmpFile.deleteOnExit();
+            }
+        }
+        LOG.debug("Create a mapped arena [file: {}, capacity: {}].", tmpFile,
+                capacity);
+        return new CosNMappedArena(tmpFile, mappedBuffer, capacity);
+    }
+
+    /**
+     * Allocate a region by the first fit.
+     *
+     * @param length the length of the region
+     * @return the offset of the region, or -1 if no free region is large
+     * enough
+     */
+    int allocate(int length) {
+        if (length > this.freeBytes) {
+            return -1;
+        }
+        for (Map.Entry<Integer, Integer> region
+                : this.freeRegions.entrySet()) {
+            if (region.getValue() >= length) {
+                int offset = region.getKey();
+                this.freeRegions.remove(offset);
+                if (region.getValue() > length) {
+                    this.freeRegions.put(offset + length,
+                            region.getValue() - length);
+                }
+                this.freeBytes -= length;
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    void free(int offset, int length) {
+        int start = offset;
+        int end = offset + length;
+        Map.Entry<Integer, Integer> previous =
+                this.freeRegions.lowerEntry(offset);
+        if (null != previous
+                && previous.getKey() + previous.getValue() == offset) {
+            start = previous.getKey();
+            this.freeRegions.remove(start);
+        }
+        Integer nextLength = this.freeRegions.remove(end);
+        if (null != nextLength) {
+            end += nextLength;
+        }
+        this.freeRegions.put(start, end - start);
+        this.freeBytes += length;
+    }
+
+    ByteBuffer slice(int offset, int size) {
+        ByteBuffer region = this.mappedBuffer.duplicate();
+        region.position(offset);
+        region.limit(offset + size);
+        return region.slice();
+    }
+
+    boolean isEmpty() {
+        return this.freeBytes == this.capacity;
+    }
+
+    int getCapacity() {
+        return this.capacity;
+    }
+
+    void unmap() {
+        if (null == this.mappedBuffer) {
+            return;
+        }
+        LOG.debug("Unmap the mapped arena [file: {}, capacity: {}].",
+                this.file, this.capacity);
+        if (UNMAP_SUPPORTED.get()) {
+            try {
+                NativeIO.POSIX.munmap(this.mappedBuffer);
+            } catch (LinkageError e) {
+                // The unmapping of this Hadoop version needs the Java 8
+                // APIs, and the buffers are unmapped by the GC instead.
+                if (UNMAP_SUPPORTED.compareAndSet(true, false)) {
+                    LOG.warn("The mapped arenas can not be unmapped on this " +
+                            "JVM, and are released by the GC instead.", e);
+                }
+            }
+        }
+        this.mappedBuffer = null;
+    }
+}
@@ -1,29 +1,22 @@
 package org.apache.hadoop.fs.buffer;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.MappedByteBuffer;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
- * The buffer based on the memory file mapped.
+ * The buffer based on the memory file mapped. It is a region of a
+ * {@link CosNMappedArena}, which is returned to the arena by the factory.
  */
 class CosNMappedBuffer extends CosNByteBuffer {
-    private static final Logger LOG =
-            LoggerFactory.getLogger(MappedByteBuffer.class);
-
-    private File file;
-    private RandomAccessFile randomAccessFile;
+    private final CosNMappedArena arena;
+    private final int offset;
+    private final int length;
 
-    public CosNMappedBuffer(ByteBuffer byteBuffer,
-                            RandomAccessFile randomAccessFile, File file) {
+    public CosNMappedBuffer(ByteBuffer byteBuffer, CosNMappedArena arena,
+                            int offset, int length) {
         super(byteBuffer);
-        this.randomAccessFile = randomAccessFile;
-        this.file = file;
+        this.arena = arena;
+        this.offset = offset;
+        this.length = length;
     }
 
     @Override
@@ -31,32 +24,15 @@ class CosNMappedBuffer extends CosNByteBuffer {
         return true;
     }
 
-    @Override
-    public void close() throws IOException {
-        super.close();
-
-        IOException e = null;
-        try {
-            // Close the random access file.
-            if (null != this.randomAccessFile) {
-                this.randomAccessFile.close();
-            }
-        } catch (IOException e1) {
-            LOG.error("Close the random access file failed.", e1);
-            e = e1;
-        }
+    CosNMappedArena getArena() {
+        return arena;
+    }
 
-        // Delete the disk file to release the resource.
-        if (null != this.file && this.file.exists()) {
-            if (!this.file.delete()) {
-                LOG.warn("Failed to clean up the temporary file: [{}].",
-                        this.file);
-            }
-        }
+    int getOffset() {
+        return offset;
+    }
 
-        // Finally, throw the error that occurred in the process.
-        if (null != e) {
-            throw e;
-        }
+    int getLength() {
+        return length;
     }
 }
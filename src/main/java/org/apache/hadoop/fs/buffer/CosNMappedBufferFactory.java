@@ -1,23 +1,52 @@
 package org.apache.hadoop.fs.buffer;
 
-import org.apache.hadoop.fs.Constants;
+import org.apache.hadoop.fs.Unit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 public class CosNMappedBufferFactory implements CosNBufferFactory {
     private static final Logger LOG =
             LoggerFactory.getLogger(CosNMappedBufferFactory.class);
 
+    // The mapped arena size when the buffers needed are unknown.
+    public static final long DEFAULT_ARENA_SIZE = 128 * Unit.MB;
+    // The max size of a single arena, and the larger buffers are put in the
+    // arenas of their own.
+    private static final long MAX_ARENA_SIZE = Unit.GB;
+    // The regions are aligned to the pages.
+    private static final int PAGE_SIZE = 4096;
+
     private final File tmpDir;
+    private final long arenaSize;
+    private final long maxMappedBytes;
+    private final List<CosNMappedArena> arenas = new ArrayList<>();
+    private long mappedBytes = 0;
+    private boolean closed = false;
 
     public CosNMappedBufferFactory(String tmpDir) throws IOException {
+        this(tmpDir, DEFAULT_ARENA_SIZE, -1);
+    }
+
+    /**
+     * @param tmpDir         the dir of the mapped files
+     * @param arenaSize      the size of a mapped file, which is sliced into
+     *                       the buffers. It is at most 1GB.
+     * @param maxMappedBytes the cap of the bytes mapped by all the arenas,
+     *                       or -1 for no cap
+     * @throws IOException if the tmp dir can not be created
+     */
+    public CosNMappedBufferFactory(String tmpDir, long arenaSize,
+                                   long maxMappedBytes) throws IOException {
         this.tmpDir = CosNMappedBufferFactory.createDir(tmpDir);
+        this.arenaSize = Math.max(PAGE_SIZE,
+                Math.min(arenaSize, MAX_ARENA_SIZE));
+        this.maxMappedBytes = maxMappedBytes;
     }
 
     private static File createDir(String tmpDir) throws IOException {
@@ -51,7 +80,7 @@ public class CosNMappedBufferFactory implements CosNBufferFactory {
     }
 
     @Override
-    public CosNByteBuffer create(int size) {
+    public synchronized CosNByteBuffer create(int size) {
         if (null == this.tmpDir) {
             LOG.error("The tmp dir is null. no mapped buffer will be created.");
             return null;
@@ -61,20 +90,36 @@ public class CosNMappedBufferFactory implements CosNBufferFactory {
             LOG.error("The tmp dir does not exist.");
         }
 
+        int length = (int) Math.min(Integer.MAX_VALUE,
+                (size + PAGE_SIZE - 1L) / PAGE_SIZE * PAGE_SIZE);
+        for (CosNMappedArena arena : this.arenas) {
+            int offset = arena.allocate(length);
+            if (-1 != offset) {
+                return new CosNMappedBuffer(arena.slice(offset, size), arena,
+                        offset, length);
+            }
+        }
+
+        // A smaller arena is mapped for the buffer alone near the cap.
+        long capacity = Math.max(length, this.arenaSize);
+        if (this.exceedsCap(capacity)) {
+            capacity = length;
+        }
+        if (this.exceedsCap(capacity)) {
+            LOG.warn("The mapped bytes [{}] reach the cap [{}], and no " +
+                            "mapped buffer [size: {}] will be created.",
+                    this.mappedBytes, this.maxMappedBytes, size);
+            return null;
+        }
+
         try {
-            File tmpFile = File.createTempFile(
-                    Constants.BLOCK_TMP_FILE_PREFIX,
-                    Constants.BLOCK_TMP_FILE_SUFFIX,
-                    this.tmpDir
-            );
-            tmpFile.deleteOnExit();
-            RandomAccessFile randomAccessFile = new RandomAccessFile(tmpFile,
-                    "rw");
-            randomAccessFile.setLength(size);
-            MappedByteBuffer buf =
-                    randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0
-                            , size);
-            return new CosNMappedBuffer(buf, randomAccessFile, tmpFile);
+            CosNMappedArena arena = CosNMappedArena.create(this.tmpDir,
+                    (int) capacity);
+            this.arenas.add(arena);
+            this.mappedBytes += arena.getCapacity();
+            int offset = arena.allocate(length);
+            return new CosNMappedBuffer(arena.slice(offset, size), arena,
+                    offset, length);
         } catch (IOException e) {
             LOG.error("Create tmp file failed. Tmp dir: {}", this.tmpDir, e);
             return null;
@@ -82,16 +127,61 @@ public class CosNMappedBufferFactory implements CosNBufferFactory {
     }
 
     @Override
-    public void release(CosNByteBuffer cosNByteBuffer) {
+    public synchronized void release(CosNByteBuffer cosNByteBuffer) {
         if (null == cosNByteBuffer) {
             LOG.debug("The buffer returned is null. Ignore it.");
             return;
         }
+        if (!(cosNByteBuffer instanceof CosNMappedBuffer)
+                || null == cosNByteBuffer.getByteBuffer()) {
+            LOG.warn("The buffer returned is not a mapped buffer in use. " +
+                    "Ignore it.");
+            return;
+        }
 
+        CosNMappedBuffer mappedBuffer = (CosNMappedBuffer) cosNByteBuffer;
         try {
-            cosNByteBuffer.close();
+            mappedBuffer.close();
         } catch (IOException e) {
             LOG.error("Release the mapped byte buffer failed.", e);
         }
+        CosNMappedArena arena = mappedBuffer.getArena();
+        arena.free(mappedBuffer.getOffset(), mappedBuffer.getLength());
+        // An empty arena is kept for the next buffers unless there are
+        // others.
+        if (arena.isEmpty() && (this.closed || this.arenas.size() > 1)) {
+            this.arenas.remove(arena);
+            this.unmap(arena);
+        }
+    }
+
+    private boolean exceedsCap(long capacity) {
+        return this.maxMappedBytes > 0
+                && this.mappedBytes + capacity > this.maxMappedBytes;
+    }
+
+    private void unmap(CosNMappedArena arena) {
+        this.mappedBytes -= arena.getCapacity();
+        arena.unmap();
+    }
+
+    /**
+     * @return the bytes mapped by the arenas in use
+     */
+    public synchronized long getMappedBytes() {
+        return this.mappedBytes;
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        Iterator<CosNMappedArena> iterator = this.arenas.iterator();
+        while (iterator.hasNext()) {
+            CosNMappedArena arena = iterator.next();
+            if (arena.isEmpty()) {
+                iterator.remove();
+                this.unmap(arena);
+            }
+        }
     }
 }
@@ -0,0 +1,125 @@
+package org.apache.hadoop.fs.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The key of a cached block.
+ * A block is identified by the bucket, the cos key, the version of the
+ * object and the byte range, so that a modified object never hits the
+ * blocks cached from its previous version.
+ */
+public final class CosNBlockCacheKey {
+    private final String bucket;
+    private final String key;
+    private final long version;
+    private final long start;
+    private final long end;
+
+    public CosNBlockCacheKey(String bucket, String key, long version,
+                             long start, long end) {
+        this.bucket = bucket;
+        this.key = key;
+        this.version = version;
+        this.start = start;
+        this.end = end;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return this.end - this.start + 1;
+    }
+
+    /**
+     * Get the identity of the object version, which is shared by all the
+     * blocks of the object.
+     *
+     * @return the identity of the object version
+     */
+    public String getObjectId() {
+        return "cosn://" + this.bucket + this.key + "@" + this.version;
+    }
+
+    /**
+     * Check if the range of this block contains the range of the other one.
+     *
+     * @param other the key of the other block
+     * @return true if the other block can be served by this one
+     */
+    public boolean contains(CosNBlockCacheKey other) {
+        return this.getObjectId().equals(other.getObjectId())
+                && this.start <= other.start && this.end >= other.end;
+    }
+
+    /**
+     * Get a file name which is unique for this key and safe for the local
+     * file system.
+     *
+     * @return the hex string of the digest of this key
+     */
+    public String toFileName() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(
+                    this.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder fileName = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                fileName.append(String.format("%02x", b & 0xff));
+            }
+            return fileName.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported.", e);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CosNBlockCacheKey)) {
+            return false;
+        }
+        CosNBlockCacheKey that = (CosNBlockCacheKey) o;
+        return this.version == that.version
+                && this.start == that.start
+                && this.end == that.end
+                && this.bucket.equals(that.bucket)
+                && this.key.equals(that.key);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = this.bucket.hashCode();
+        result = 31 * result + this.key.hashCode();
+        result = 31 * result + (int) (this.version ^ (this.version >>> 32));
+        result = 31 * result + (int) (this.start ^ (this.start >>> 32));
+        result = 31 * result + (int) (this.end ^ (this.end >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return this.getObjectId() + "[" + this.start + "-" + this.end + "]";
+    }
+}
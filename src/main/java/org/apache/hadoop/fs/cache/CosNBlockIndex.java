@@ -0,0 +1,93 @@
+package org.apache.hadoop.fs.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The index of the cached blocks by the object version and the offset.
+ * The read ahead blocks start from the seek positions, so a lookup is
+ * served by any cached block of the same object version whose range
+ * contains the requested one.
+ * <p>
+ * It is not thread-safe, and must be called under the lock of the cache.
+ */
+final class CosNBlockIndex {
+    private final Map<String, ObjectBlocks> objects = new HashMap<>();
+
+    void add(CosNBlockCacheKey key) {
+        ObjectBlocks blocks = this.objects.get(key.getObjectId());
+        if (null == blocks) {
+            blocks = new ObjectBlocks();
+            this.objects.put(key.getObjectId(), blocks);
+        }
+        blocks.add(key);
+    }
+
+    void remove(CosNBlockCacheKey key) {
+        ObjectBlocks blocks = this.objects.get(key.getObjectId());
+        if (null != blocks && blocks.remove(key)) {
+            this.objects.remove(key.getObjectId());
+        }
+    }
+
+    /**
+     * Find a cached block containing the range of the key.
+     *
+     * @param key the key of the requested block
+     * @return the key of the cached block, or null if there is none
+     */
+    CosNBlockCacheKey findContaining(CosNBlockCacheKey key) {
+        ObjectBlocks blocks = this.objects.get(key.getObjectId());
+        return null == blocks ? null : blocks.findContaining(key);
+    }
+
+    void clear() {
+        this.objects.clear();
+    }
+
+    /**
+     * The cached blocks of an object version ordered by the start offset.
+     */
+    private static final class ObjectBlocks {
+        // The blocks starting from the same offset are kept the longest one.
+        private final TreeMap<Long, CosNBlockCacheKey> blocks =
+                new TreeMap<>();
+        private long maxBlockLength = 0;
+
+        void add(CosNBlockCacheKey key) {
+            CosNBlockCacheKey existing = this.blocks.get(key.getStart());
+            if (null == existing || existing.getEnd() < key.getEnd()) {
+                this.blocks.put(key.getStart(), key);
+            }
+            this.maxBlockLength = Math.max(this.maxBlockLength,
+                    key.getLength());
+        }
+
+        /**
+         * @return true if no block is left
+         */
+        boolean remove(CosNBlockCacheKey key) {
+            if (key.equals(this.blocks.get(key.getStart()))) {
+                this.blocks.remove(key.getStart());
+            }
+            return this.blocks.isEmpty();
+        }
+
+        CosNBlockCacheKey findContaining(CosNBlockCacheKey key) {
+            // Only the blocks starting within the max block length before
+            // the key may contain it.
+            for (CosNBlockCacheKey candidate : this.blocks.headMap(
+                    key.getStart(), true).descendingMap().values()) {
+                if (candidate.getStart() + this.maxBlockLength
+                        <= key.getStart()) {
+                    break;
+                }
+                if (candidate.contains(key)) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package org.apache.hadoop.fs.cache;
+
+/**
+ * A count-min sketch estimating the recent access frequency of the blocks,
+ * which is used as the TinyLFU admission filter of the memory block cache.
+ * <p>
+ * The counters are saturated at 15, and all of them are halved once the
+ * number of the recorded accesses reaches the sample size, so that the
+ * frequency of the old accesses decays.
+ * <p>
+ * It is not thread-safe, and must be called under the lock of the cache.
+ */
+final class CosNFrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {
+            0x97cb3127, 0xb9f5c4d3, 0x5bd1e995, 0x27d4eb2f};
+
+    private final int[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    CosNFrequencySketch(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.max(expectedEntries, 64) - 1)
+                << 1;
+        this.table = new int[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = width * 10;
+    }
+
+    void increment(Object item) {
+        int hash = spread(item.hashCode());
+        boolean added = false;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = this.indexOf(hash, i);
+            if (this.table[i][index] < MAX_COUNT) {
+                this.table[i][index]++;
+                added = true;
+            }
+        }
+        if (added && ++this.additions >= this.sampleSize) {
+            this.reset();
+        }
+    }
+
+    int frequency(Object item) {
+        int hash = spread(item.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, this.table[i][this.indexOf(hash,
+                    i)]);
+        }
+        return frequency;
+    }
+
+    private int indexOf(int hash, int depth) {
+        int h = (hash ^ SEEDS[depth]) * SEEDS[(depth + 1) % DEPTH];
+        return (h ^ (h >>> 16)) & this.mask;
+    }
+
+    private void reset() {
+        for (int[] row : this.table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        this.additions /= 2;
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9e3779b9;
+        return h ^ (h >>> 15);
+    }
+}
@@ -0,0 +1,289 @@
+package org.apache.hadoop.fs.cache;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CosNConfigKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The local disk cache of the read ahead blocks, shared by all the streams
+ * in the process.
+ * It is provided in a thread-safe singleton mode. The blocks are stored as
+ * files in a directory under the fs.cosn.tmp.dir, which is private to this
+ * process, and evicted in the LRU order when the cache size is exceeded.
+ * A lookup is served by any cached block containing the requested range.
+ */
+public final class CosNLocalBlockCache {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNLocalBlockCache.class);
+
+    private static final String CACHE_DIR_PREFIX = "block_cache_";
+    private static final String TMP_FILE_SUFFIX = ".tmp";
+
+    private static CosNLocalBlockCache ourInstance = new CosNLocalBlockCache();
+
+    /**
+     * Use this method to get the instance of CosNLocalBlockCache.
+     *
+     * @return the instance of CosNLocalBlockCache
+     */
+    public static CosNLocalBlockCache getInstance() {
+        return ourInstance;
+    }
+
+    // Access ordered, the eldest entry is the least recently used one.
+    private final LinkedHashMap<CosNBlockCacheKey, File> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final CosNBlockIndex blockIndex = new CosNBlockIndex();
+    private File cacheDir;
+    private long capacity;
+    private long usedBytes = 0;
+    private boolean isInitialize = false;
+    private final AtomicInteger referCount = new AtomicInteger(0);
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+    private final AtomicLong evictionCount = new AtomicLong(0);
+    private final AtomicLong hitBytes = new AtomicLong(0);
+
+    private CosNLocalBlockCache() {
+    }
+
+    /**
+     * Initialize the cache if it is enabled in the configuration. Only the
+     * first initialization takes effect, and the later ones just add the
+     * reference count.
+     *
+     * @param conf Provides configurations for the Hadoop runtime
+     * @return true if a reference is taken, which must be released by
+     * {@link #close()}, or false if the cache is disabled
+     * @throws IOException if the cache dir can not be created
+     */
+    public synchronized boolean initialize(Configuration conf)
+            throws IOException {
+        if (!conf.getBoolean(
+                CosNConfigKeys.READ_AHEAD_LOCAL_CACHE_ENABLED_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_LOCAL_CACHE_ENABLED)) {
+            return false;
+        }
+        long cacheSize = conf.getLong(
+                CosNConfigKeys.READ_AHEAD_LOCAL_CACHE_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_LOCAL_CACHE_SIZE);
+        if (this.isInitialize) {
+            if (cacheSize != this.capacity) {
+                LOG.warn("The local block cache is shared by the process, " +
+                        "and keeps the capacity [{}] rather than [{}].",
+                        this.capacity, cacheSize);
+            }
+            this.referCount.incrementAndGet();
+            return true;
+        }
+
+        this.capacity = cacheSize;
+        if (this.capacity <= 0) {
+            String errMsg = String.format("The local block cache size must " +
+                    "be greater than 0. current size: %d", this.capacity);
+            throw new IllegalArgumentException(errMsg);
+        }
+
+        File tmpDir = new File(conf.get(CosNConfigKeys.COSN_TMP_DIR,
+                CosNConfigKeys.DEFAULT_TMP_DIR));
+        Files.createDirectories(tmpDir.toPath());
+        this.cacheDir = Files.createTempDirectory(tmpDir.toPath(),
+                CACHE_DIR_PREFIX).toFile();
+        LOG.info("Initialize the local block cache. dir: [{}], capacity: " +
+                "[{}].", this.cacheDir, this.capacity);
+
+        this.referCount.incrementAndGet();
+        this.isInitialize = true;
+        return true;
+    }
+
+    public synchronized boolean isEnabled() {
+        return this.isInitialize;
+    }
+
+    /**
+     * Read the cached block into the buffer.
+     *
+     * @param key    the key of the block
+     * @param buffer the buffer whose remaining equals to the block length
+     * @return true if the block is hit and read into the buffer completely
+     */
+    public boolean get(CosNBlockCacheKey key, ByteBuffer buffer) {
+        CosNBlockCacheKey cachedKey;
+        File file;
+        synchronized (this) {
+            cachedKey = this.isInitialize ? this.blockIndex.findContaining(key) : null;
+            // Touch the entry to keep the LRU order.
+            file = null == cachedKey ? null : this.entries.get(cachedKey);
+        }
+        if (null == file) {
+            this.missCount.incrementAndGet();
+            return false;
+        }
+
+        ByteBuffer target = buffer.duplicate();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long position = key.getStart() - cachedKey.getStart();
+            while (target.hasRemaining()) {
+                int bytes = channel.read(target, position);
+                if (bytes < 0) {
+                    break;
+                }
+                position += bytes;
+            }
+        } catch (IOException e) {
+            // The entry may be evicted concurrently.
+            LOG.debug("Read the cached block [{}] failed.", key, e);
+        }
+
+        if (target.hasRemaining()) {
+            this.missCount.incrementAndGet();
+            return false;
+        }
+        this.hitCount.incrementAndGet();
+        this.hitBytes.addAndGet(key.getLength());
+        return true;
+    }
+
+    /**
+     * Store the block into the cache. The block is written to a temporary
+     * file first, and then renamed to be visible.
+     *
+     * @param key    the key of the block
+     * @param buffer the buffer holding the whole block in its remaining
+     */
+    public void put(CosNBlockCacheKey key, ByteBuffer buffer) {
+        File dir;
+        synchronized (this) {
+            if (!this.isInitialize || key.getLength() > this.capacity
+                    || null != this.blockIndex.findContaining(key)) {
+                return;
+            }
+            dir = this.cacheDir;
+        }
+
+        File file = new File(dir, key.toFileName());
+        File tmpFile = new File(dir, file.getName() + "."
+                + Thread.currentThread().getId() + TMP_FILE_SUFFIX);
+        try {
+            ByteBuffer source = buffer.duplicate();
+            try (FileChannel channel = FileChannel.open(tmpFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+            }
+            Files.move(tmpFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Store the block [{}] into the local cache failed.", key,
+                    e);
+            deleteFile(tmpFile);
+            return;
+        }
+
+        synchronized (this) {
+            if (!this.isInitialize || !dir.equals(this.cacheDir)) {
+                deleteFile(file);
+                return;
+            }
+            if (null == this.entries.put(key, file)) {
+                this.usedBytes += key.getLength();
+                this.blockIndex.add(key);
+            }
+            Iterator<Map.Entry<CosNBlockCacheKey, File>> iterator =
+                    this.entries.entrySet().iterator();
+            while (this.usedBytes > this.capacity && iterator.hasNext()) {
+                Map.Entry<CosNBlockCacheKey, File> eldest = iterator.next();
+                iterator.remove();
+                this.usedBytes -= eldest.getKey().getLength();
+                this.blockIndex.remove(eldest.getKey());
+                deleteFile(eldest.getValue());
+                this.evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            LOG.warn("Failed to delete the cache file: [{}].", file);
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getHitBytes() {
+        return hitBytes.get();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Release a reference taken by {@link #initialize(Configuration)}. The
+     * cache files are deleted when the last one is released.
+     */
+    public synchronized void close() {
+        if (!this.isInitialize) {
+            return;
+        }
+        if (this.referCount.decrementAndGet() > 0) {
+            return;
+        }
+
+        LOG.info("Close the local block cache. {}", this);
+        for (File file : this.entries.values()) {
+            deleteFile(file);
+        }
+        this.entries.clear();
+        this.blockIndex.clear();
+        this.usedBytes = 0;
+        File[] leftFiles = this.cacheDir.listFiles();
+        if (null != leftFiles) {
+            for (File file : leftFiles) {
+                deleteFile(file);
+            }
+        }
+        deleteFile(this.cacheDir);
+        this.isInitialize = false;
+    }
+
+    @Override
+    public String toString() {
+        return "CosNLocalBlockCache{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                ", hitBytes=" + hitBytes +
+                '}';
+    }
+}
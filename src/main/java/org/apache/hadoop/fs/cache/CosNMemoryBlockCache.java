@@ -0,0 +1,297 @@
+package org.apache.hadoop.fs.cache;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CosNConfigKeys;
+import org.apache.hadoop.fs.Unit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The in-memory cache of the read ahead blocks, shared by all the streams
+ * in the process.
+ * It is provided in a thread-safe singleton mode. The blocks are evicted in
+ * the LRU order when the byte budget is exceeded, and a new block is
+ * admitted only if it has been requested more frequently than the blocks to
+ * be evicted, so that a single scan can not flush the hot blocks.
+ * <p>
+ * It also deduplicates the concurrent fetches of the same block. The first
+ * read task registers itself as the loader, and the others wait for its
+ * result instead of sending the same GET request.
+ */
+public final class CosNMemoryBlockCache {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(CosNMemoryBlockCache.class);
+
+    // The block size for estimating the entries of the frequency sketch.
+    private static final long SKETCH_BLOCK_SIZE = 64 * Unit.KB;
+
+    private static CosNMemoryBlockCache ourInstance =
+            new CosNMemoryBlockCache();
+
+    /**
+     * Use this method to get the instance of CosNMemoryBlockCache.
+     *
+     * @return the instance of CosNMemoryBlockCache
+     */
+    public static CosNMemoryBlockCache getInstance() {
+        return ourInstance;
+    }
+
+    // Access ordered, the eldest entry is the least recently used one.
+    private final LinkedHashMap<CosNBlockCacheKey, byte[]> entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final CosNBlockIndex blockIndex = new CosNBlockIndex();
+    private final ConcurrentMap<CosNBlockCacheKey, CompletableFuture<byte[]>>
+            inFlightFetches = new ConcurrentHashMap<>();
+    private CosNFrequencySketch sketch;
+    private long capacity;
+    private long usedBytes = 0;
+    private volatile boolean isInitialize = false;
+    private final AtomicInteger referCount = new AtomicInteger(0);
+
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+    private final AtomicLong evictionCount = new AtomicLong(0);
+    private final AtomicLong rejectionCount = new AtomicLong(0);
+    private final AtomicLong sharedFetchCount = new AtomicLong(0);
+
+    private CosNMemoryBlockCache() {
+    }
+
+    /**
+     * Initialize the cache if it is enabled in the configuration. Only the
+     * first initialization takes effect, and the later ones just add the
+     * reference count.
+     *
+     * @param conf Provides configurations for the Hadoop runtime
+     * @return true if a reference is taken, which must be released by
+     * {@link #close()}, or false if the cache is disabled
+     */
+    public synchronized boolean initialize(Configuration conf) {
+        if (!conf.getBoolean(
+                CosNConfigKeys.READ_AHEAD_MEMORY_CACHE_ENABLED_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_MEMORY_CACHE_ENABLED)) {
+            return false;
+        }
+        long cacheSize = conf.getLong(
+                CosNConfigKeys.READ_AHEAD_MEMORY_CACHE_SIZE_KEY,
+                CosNConfigKeys.DEFAULT_READ_AHEAD_MEMORY_CACHE_SIZE);
+        if (this.isInitialize) {
+            if (cacheSize != this.capacity) {
+                LOG.warn("The memory block cache is shared by the process, " +
+                        "and keeps the capacity [{}] rather than [{}].",
+                        this.capacity, cacheSize);
+            }
+            this.referCount.incrementAndGet();
+            return true;
+        }
+
+        this.capacity = cacheSize;
+        if (this.capacity <= 0) {
+            String errMsg = String.format("The memory block cache size must " +
+                    "be greater than 0. current size: %d", this.capacity);
+            throw new IllegalArgumentException(errMsg);
+        }
+        this.sketch = new CosNFrequencySketch((int) Math.min(
+                Integer.MAX_VALUE >> 4, this.capacity / SKETCH_BLOCK_SIZE));
+        LOG.info("Initialize the memory block cache. capacity: [{}].",
+                this.capacity);
+
+        this.referCount.incrementAndGet();
+        this.isInitialize = true;
+        return true;
+    }
+
+    public boolean isEnabled() {
+        return this.isInitialize;
+    }
+
+    /**
+     * Copy the cached block into the buffer.
+     *
+     * @param key    the key of the block
+     * @param buffer the buffer whose remaining equals to the block length
+     * @return true if the block is hit
+     */
+    public boolean get(CosNBlockCacheKey key, ByteBuffer buffer) {
+        CosNBlockCacheKey cachedKey;
+        byte[] data;
+        synchronized (this) {
+            if (!this.isInitialize) {
+                return false;
+            }
+            this.sketch.increment(key);
+            cachedKey = this.blockIndex.findContaining(key);
+            data = null == cachedKey ? null : this.entries.get(cachedKey);
+            if (null != data && !cachedKey.equals(key)) {
+                this.sketch.increment(cachedKey);
+            }
+        }
+        if (null == data) {
+            this.missCount.incrementAndGet();
+            return false;
+        }
+
+        buffer.duplicate().put(data,
+                (int) (key.getStart() - cachedKey.getStart()),
+                (int) key.getLength());
+        this.hitCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Join the in-flight fetch of the same block, or register the caller as
+     * the loader of the block if there is none. The loader must call the
+     * {@link #complete(CosNBlockCacheKey, ByteBuffer)} at last, and call it
+     * with null before it retries the fetch, so that the waiting ones never
+     * hold the threads its retry needs.
+     *
+     * @param key the key of the block
+     * @return the future of the in-flight fetch, or null if the caller
+     * becomes the loader
+     */
+    public CompletableFuture<byte[]> joinOrRegister(CosNBlockCacheKey key) {
+        if (!this.isInitialize) {
+            return null;
+        }
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> inFlight =
+                this.inFlightFetches.putIfAbsent(key, future);
+        if (null != inFlight) {
+            this.sharedFetchCount.incrementAndGet();
+        }
+        return inFlight;
+    }
+
+    /**
+     * Complete the fetch of the loader, and try to admit the block into the
+     * cache.
+     *
+     * @param key    the key of the block
+     * @param buffer the buffer holding the whole block in its remaining, or
+     *               null if the fetch is failed
+     */
+    public void complete(CosNBlockCacheKey key, ByteBuffer buffer) {
+        CompletableFuture<byte[]> future = this.inFlightFetches.remove(key);
+        byte[] data = null;
+        if (null != buffer) {
+            data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            this.put(key, data);
+        }
+        if (null != future) {
+            future.complete(data);
+        }
+    }
+
+    /**
+     * Store the block into the cache if it is admitted.
+     *
+     * @param key  the key of the block
+     * @param data the whole data of the block
+     */
+    public synchronized void put(CosNBlockCacheKey key, byte[] data) {
+        if (!this.isInitialize || data.length > this.capacity
+                || null != this.blockIndex.findContaining(key)) {
+            return;
+        }
+
+        List<CosNBlockCacheKey> victims = new ArrayList<>();
+        long freeBytes = this.capacity - this.usedBytes;
+        if (freeBytes < data.length) {
+            int candidateFrequency = this.sketch.frequency(key);
+            Iterator<CosNBlockCacheKey> iterator =
+                    this.entries.keySet().iterator();
+            while (freeBytes < data.length && iterator.hasNext()) {
+                CosNBlockCacheKey victim = iterator.next();
+                if (this.sketch.frequency(victim) >= candidateFrequency) {
+                    this.rejectionCount.incrementAndGet();
+                    return;
+                }
+                victims.add(victim);
+                freeBytes += victim.getLength();
+            }
+        }
+
+        for (CosNBlockCacheKey victim : victims) {
+            this.entries.remove(victim);
+            this.blockIndex.remove(victim);
+            this.usedBytes -= victim.getLength();
+            this.evictionCount.incrementAndGet();
+        }
+        this.entries.put(key, data);
+        this.blockIndex.add(key);
+        this.usedBytes += data.length;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    public long getSharedFetchCount() {
+        return sharedFetchCount.get();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Release a reference taken by {@link #initialize(Configuration)}. The
+     * cached blocks are dropped when the last one is released.
+     */
+    public synchronized void close() {
+        if (!this.isInitialize) {
+            return;
+        }
+        if (this.referCount.decrementAndGet() > 0) {
+            return;
+        }
+
+        LOG.info("Close the memory block cache. {}", this);
+        this.entries.clear();
+        this.blockIndex.clear();
+        this.usedBytes = 0;
+        this.isInitialize = false;
+        for (Map.Entry<CosNBlockCacheKey, CompletableFuture<byte[]>> entry
+                : this.inFlightFetches.entrySet()) {
+            entry.getValue().complete(null);
+        }
+        this.inFlightFetches.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "CosNMemoryBlockCache{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                ", rejectionCount=" + rejectionCount +
+                ", sharedFetchCount=" + sharedFetchCount +
+                '}';
+    }
+}
@@ -0,0 +1,317 @@
+package org.apache.hadoop.fs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jboss.netty.bootstrap.ServerBootstrap;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelPipelineFactory;
+import org.jboss.netty.channel.ChannelStateEvent;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.ExceptionEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelUpstreamHandler;
+import org.jboss.netty.channel.socket.nio.NioServerSocketChannelFactory;
+import org.jboss.netty.handler.codec.http.DefaultHttpResponse;
+import org.jboss.netty.handler.codec.http.HttpChunkAggregator;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpRequestDecoder;
+import org.jboss.netty.handler.codec.http.HttpResponse;
+import org.jboss.netty.handler.codec.http.HttpResponseEncoder;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.jboss.netty.handler.codec.http.QueryStringDecoder;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in of the COS XML API on the loopback address, for the
+ * tests and the benchmarks of the async transport. It serves the ranged
+ * GET, the PUT of the objects and the parts, and the initiation and the
+ * completion of the multipart uploads. The signatures are not checked.
+ * <p>
+ * The responses can be delayed or failed, and the connections are counted.
+ */
+class MockCosServer implements Closeable {
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> parts = new ConcurrentHashMap<>();
+    private final AtomicInteger uploadIds = new AtomicInteger(0);
+
+    private final AtomicInteger requests = new AtomicInteger(0);
+    private final AtomicInteger failedRequests = new AtomicInteger(0);
+    private final AtomicInteger openConnections = new AtomicInteger(0);
+    private final AtomicInteger maxOpenConnections = new AtomicInteger(0);
+    private volatile long latencyMillis = 0;
+
+    private final HashedWheelTimer timer =
+            new HashedWheelTimer(1, TimeUnit.MILLISECONDS);
+    private final ServerBootstrap bootstrap;
+    private final int port;
+
+    /**
+     * Start the server on a free port.
+     */
+    MockCosServer() {
+        this(0);
+    }
+
+    MockCosServer(int port) {
+        this.bootstrap = new ServerBootstrap(new NioServerSocketChannelFactory(
+                Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                        .setNameFormat("mock-cos-boss-%d")
+                        .setDaemon(true).build()),
+                Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                        .setNameFormat("mock-cos-io-%d")
+                        .setDaemon(true).build()), 4));
+        this.bootstrap.setOption("backlog", 8192);
+        this.bootstrap.setPipelineFactory(new ChannelPipelineFactory() {
+            @Override
+            public ChannelPipeline getPipeline() {
+                return Channels.pipeline(new HttpRequestDecoder(),
+                        new HttpChunkAggregator(64 * 1024 * 1024),
+                        new HttpResponseEncoder(), new RequestHandler());
+            }
+        });
+        Channel channel = this.bootstrap.bind(
+                new InetSocketAddress("127.0.0.1", port));
+        this.port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    int getPort() {
+        return this.port;
+    }
+
+    /**
+     * @return the URL of the object, which stands for its presigned one
+     */
+    String getUrl(String key) {
+        return "http://127.0.0.1:" + this.port + "/" + key;
+    }
+
+    /**
+     * Put an object of the random bytes.
+     *
+     * @return the content of the object
+     */
+    byte[] putRandomObject(String key, int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        this.objects.put("/" + key, data);
+        return data;
+    }
+
+    byte[] getObject(String key) {
+        return this.objects.get("/" + key);
+    }
+
+    void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Answer the next requests by 503 SlowDown.
+     */
+    void failNextRequests(int requests) {
+        this.failedRequests.set(requests);
+    }
+
+    int getRequests() {
+        return this.requests.get();
+    }
+
+    int getMaxOpenConnections() {
+        return this.maxOpenConnections.get();
+    }
+
+    @Override
+    public void close() {
+        this.bootstrap.releaseExternalResources();
+        this.timer.stop();
+    }
+
+    private HttpResponse handle(HttpRequest request) {
+        QueryStringDecoder query = new QueryStringDecoder(request.getUri());
+        String key = query.getPath();
+        Map<String, List<String>> parameters = query.getParameters();
+        if (this.failedRequests.get() > 0
+                && this.failedRequests.getAndDecrement() > 0) {
+            return error(HttpResponseStatus.SERVICE_UNAVAILABLE, "SlowDown");
+        }
+
+        if (request.getMethod() == HttpMethod.GET) {
+            byte[] data = this.objects.get(key);
+            if (null == data) {
+                return error(HttpResponseStatus.NOT_FOUND, "NoSuchKey");
+            }
+            String range = request.getHeader(HttpHeaders.Names.RANGE);
+            int start = 0;
+            int end = data.length - 1;
+            if (null != range) {
+                String[] bounds = range.substring("bytes=".length())
+                        .split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            HttpResponse response = new DefaultHttpResponse(
+                    HttpVersion.HTTP_1_1, null == range
+                    ? HttpResponseStatus.OK
+                    : HttpResponseStatus.PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.Names.CONTENT_LENGTH,
+                    end - start + 1);
+            response.setContent(ChannelBuffers.wrappedBuffer(
+                    data, start, end - start + 1));
+            return response;
+        }
+
+        if (request.getMethod() == HttpMethod.PUT) {
+            byte[] content = new byte[request.getContent().readableBytes()];
+            request.getContent().readBytes(content);
+            List<String> partNumber = parameters.get("partNumber");
+            List<String> uploadId = parameters.get("uploadId");
+            if (null != partNumber && null != uploadId) {
+                this.parts.put(partKey(key, uploadId.get(0),
+                        Integer.parseInt(partNumber.get(0))), content);
+            } else {
+                this.objects.put(key, content);
+            }
+            HttpResponse response = new DefaultHttpResponse(
+                    HttpVersion.HTTP_1_1, HttpResponseStatus.OK);
+            response.setHeader(HttpHeaders.Names.ETAG,
+                    "\"" + md5Hex(content) + "\"");
+            response.setHeader(HttpHeaders.Names.CONTENT_LENGTH, 0);
+            return response;
+        }
+
+        if (request.getMethod() == HttpMethod.POST
+                && parameters.containsKey("uploads")) {
+            String uploadId = "upload-" + this.uploadIds.incrementAndGet();
+            return xml("<InitiateMultipartUploadResult><Bucket>bucket</Bucket>"
+                    + "<Key>" + key.substring(1) + "</Key><UploadId>"
+                    + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+        }
+        if (request.getMethod() == HttpMethod.POST
+                && parameters.containsKey("uploadId")) {
+            String uploadId = parameters.get("uploadId").get(0);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (int partNumber = 1; ; partNumber++) {
+                byte[] part = this.parts.remove(
+                        partKey(key, uploadId, partNumber));
+                if (null == part) {
+                    break;
+                }
+                content.write(part, 0, part.length);
+            }
+            this.objects.put(key, content.toByteArray());
+            return xml("<CompleteMultipartUploadResult><Location>" + key
+                    + "</Location><Bucket>bucket</Bucket><Key>"
+                    + key.substring(1) + "</Key><ETag>\""
+                    + md5Hex(content.toByteArray()) + "\"</ETag>"
+                    + "</CompleteMultipartUploadResult>");
+        }
+        return error(HttpResponseStatus.METHOD_NOT_ALLOWED,
+                "MethodNotAllowed");
+    }
+
+    private static String partKey(String key, String uploadId,
+                                  int partNumber) {
+        return key + "#" + uploadId + "#" + partNumber;
+    }
+
+    private static HttpResponse xml(String body) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.OK);
+        setXmlContent(response, body);
+        return response;
+    }
+
+    private static HttpResponse error(HttpResponseStatus status,
+                                      String code) {
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1,
+                status);
+        setXmlContent(response, "<Error><Code>" + code + "</Code><Message>"
+                + code + "</Message></Error>");
+        return response;
+    }
+
+    private static void setXmlContent(HttpResponse response, String body) {
+        byte[] content = ("<?xml version='1.0' encoding='utf-8' ?>" + body)
+                .getBytes(StandardCharsets.UTF_8);
+        response.setHeader(HttpHeaders.Names.CONTENT_TYPE, "application/xml");
+        response.setHeader(HttpHeaders.Names.CONTENT_LENGTH, content.length);
+        response.setContent(ChannelBuffers.wrappedBuffer(content));
+    }
+
+    static String md5Hex(byte[] content) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(content)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private class RequestHandler extends SimpleChannelUpstreamHandler {
+        @Override
+        public void channelOpen(ChannelHandlerContext ctx,
+                                ChannelStateEvent e) {
+            int connections = openConnections.incrementAndGet();
+            while (true) {
+                int max = maxOpenConnections.get();
+                if (connections <= max || maxOpenConnections.compareAndSet(
+                        max, connections)) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void channelClosed(ChannelHandlerContext ctx,
+                                  ChannelStateEvent e) {
+            openConnections.decrementAndGet();
+        }
+
+        @Override
+        public void messageReceived(final ChannelHandlerContext ctx,
+                                    MessageEvent e) {
+            requests.incrementAndGet();
+            final HttpResponse response = handle((HttpRequest) e.getMessage());
+            if (latencyMillis <= 0) {
+                ctx.getChannel().write(response);
+                return;
+            }
+            timer.newTimeout(new TimerTask() {
+                @Override
+                public void run(Timeout timeout) {
+                    ctx.getChannel().write(response);
+                }
+            }, latencyMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx,
+                                    ExceptionEvent e) {
+            ctx.getChannel().close();
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package org.apache.hadoop.fs;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.qcloud.cos.model.CompleteMultipartUploadResult;
+import com.qcloud.cos.model.PartETag;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory store for the unit tests. The range reads can be delayed,
+ * slowed down or failed, and the requests are counted.
+ */
+class MockNativeFileSystemStore implements NativeFileSystemStore {
+    static final String IO_THREAD_NAME = "mock-store-io";
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, byte[]> parts = new ConcurrentHashMap<>();
+
+    private final AtomicInteger getRequests = new AtomicInteger(0);
+    private final Map<Long, AtomicInteger> rangeRequests =
+            new ConcurrentHashMap<>();
+    private final AtomicInteger headRequests = new AtomicInteger(0);
+    private final AtomicLong bytesServed = new AtomicLong(0);
+    private final AtomicInteger failedRequests = new AtomicInteger(0);
+    private final AtomicInteger openStreams = new AtomicInteger(0);
+    private volatile long firstByteDelayMillis = 0;
+    private volatile long chunkDelayMillis = 0;
+    // The io thread of the async range reads, which stands for the one of
+    // the transport.
+    private volatile ExecutorService ioThread = null;
+
+    /**
+     * Put an object of the random bytes.
+     *
+     * @return the content of the object
+     */
+    byte[] putRandomObject(String key, int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        this.objects.put(key, data);
+        return data;
+    }
+
+    void putObject(String key, byte[] data) {
+        this.objects.put(key, data);
+    }
+
+    byte[] getObject(String key) {
+        return this.objects.get(key);
+    }
+
+    /**
+     * Fail the next range reads after the first byte delay, before any byte
+     * is sent.
+     */
+    void failNextRequests(int requests) {
+        this.failedRequests.set(requests);
+    }
+
+    void setFirstByteDelayMillis(long firstByteDelayMillis) {
+        this.firstByteDelayMillis = firstByteDelayMillis;
+    }
+
+    /**
+     * Slow down the content of the range reads, which is sent in the chunks
+     * of 8KB.
+     */
+    void setChunkDelayMillis(long chunkDelayMillis) {
+        this.chunkDelayMillis = chunkDelayMillis;
+    }
+
+    /**
+     * Serve the async range reads on an io thread of the mock store, with
+     * the same delays and failures as the blocking ones.
+     */
+    synchronized void enableAsyncTransport() {
+        if (null == this.ioThread) {
+            this.ioThread = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder()
+                            .setNameFormat(IO_THREAD_NAME)
+                            .setDaemon(true).build());
+        }
+    }
+
+    int getGetRequests() {
+        return this.getRequests.get();
+    }
+
+    /**
+     * @return the range reads starting at the position
+     */
+    int getGetRequests(long rangeStart) {
+        AtomicInteger requests = this.rangeRequests.get(rangeStart);
+        return null == requests ? 0 : requests.get();
+    }
+
+    int getHeadRequests() {
+        return this.headRequests.get();
+    }
+
+    long getBytesServed() {
+        return this.bytesServed.get();
+    }
+
+    /**
+     * @return the range reads whose content is neither consumed nor closed
+     */
+    int getOpenStreams() {
+        return this.openStreams.get();
+    }
+
+    @Override
+    public void initialize(URI uri, Configuration conf) {
+    }
+
+    @Override
+    public void storeFile(String key, File file, byte[] md5Hash)
+            throws IOException {
+        throw new IOException("Not supported by the mock store.");
+    }
+
+    @Override
+    public void storeFile(String key, InputStream inputStream, byte[] md5Hash,
+                          long contentLength) throws IOException {
+        this.objects.put(key, readAll(inputStream));
+    }
+
+    @Override
+    public void storeEmptyFile(String key) {
+        this.objects.put(key, new byte[0]);
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(
+            String key, String uploadId, List<PartETag> partETagList) {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (PartETag partETag : partETagList) {
+            byte[] part = this.parts.remove(
+                    uploadId + "/" + partETag.getPartNumber());
+            content.write(part, 0, part.length);
+        }
+        this.objects.put(key, content.toByteArray());
+        return new CompleteMultipartUploadResult();
+    }
+
+    @Override
+    public void abortMultipartUpload(String key, String uploadId) {
+    }
+
+    @Override
+    public String getUploadId(String key) {
+        return key + "-upload";
+    }
+
+    @Override
+    public PartETag uploadPart(File file, String key, String uploadId,
+                               int partNum) throws IOException {
+        throw new IOException("Not supported by the mock store.");
+    }
+
+    @Override
+    public PartETag uploadPart(InputStream inputStream, String key,
+                               String uploadId, int partNum, long partSize)
+            throws IOException {
+        this.parts.put(uploadId + "/" + partNum, readAll(inputStream));
+        return new PartETag(partNum, "etag-" + partNum);
+    }
+
+    @Override
+    public FileMetadata retrieveMetadata(String key) {
+        this.headRequests.incrementAndGet();
+        byte[] data = this.objects.get(key);
+        return null == data ? null
+                : new FileMetadata(key, data.length, 1000L, true);
+    }
+
+    @Override
+    public InputStream retrieve(String key) throws IOException {
+        return this.retrieve(key, 0);
+    }
+
+    @Override
+    public InputStream retrieve(String key, long byteRangeStart)
+            throws IOException {
+        return this.retrieveBlock(key, byteRangeStart, Long.MAX_VALUE - 1);
+    }
+
+    @Override
+    public InputStream retrieveBlock(String key, long byteRangeStart,
+                                     long byteRangeEnd) throws IOException {
+        this.getRequests.incrementAndGet();
+        AtomicInteger requests = this.rangeRequests.get(byteRangeStart);
+        if (null == requests) {
+            this.rangeRequests.putIfAbsent(byteRangeStart,
+                    new AtomicInteger(0));
+            requests = this.rangeRequests.get(byteRangeStart);
+        }
+        requests.incrementAndGet();
+        byte[] data = this.objects.get(key);
+        if (null == data) {
+            throw new FileNotFoundException(key);
+        }
+        sleep(this.firstByteDelayMillis);
+        if (this.failedRequests.get() > 0
+                && this.failedRequests.getAndDecrement() > 0) {
+            throw new IOException("Injected failure of the range read.");
+        }
+        int start = (int) byteRangeStart;
+        int end = (int) Math.min(byteRangeEnd, data.length - 1);
+        return new RangeInputStream(data, start, end - start + 1);
+    }
+
+    @Override
+    public boolean retrieveBlock(String key, long byteRangeStart,
+                                 long blockSize, String localBlockPath)
+            throws IOException {
+        throw new IOException("Not supported by the mock store.");
+    }
+
+    @Override
+    public boolean isAsyncTransportEnabled() {
+        return null != this.ioThread;
+    }
+
+    @Override
+    public CompletableFuture<Long> retrieveBlockAsync(final String key,
+                                                      final long byteRangeStart,
+                                                      final long byteRangeEnd,
+                                                      final ByteBuffer target) {
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        if (null == this.ioThread) {
+            future.completeExceptionally(
+                    new IOException("Not supported by the mock store."));
+            return future;
+        }
+        this.ioThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    InputStream inputStream = retrieveBlock(key,
+                            byteRangeStart, byteRangeEnd);
+                    long firstByteNanos = System.nanoTime();
+                    try {
+                        target.put(readAll(inputStream));
+                    } finally {
+                        inputStream.close();
+                    }
+                    future.complete(firstByteNanos);
+                } catch (IOException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<PartETag> uploadPartAsync(ByteBuffer part,
+                                                       String key,
+                                                       String uploadId,
+                                                       int partNum) {
+        CompletableFuture<PartETag> future = new CompletableFuture<>();
+        future.completeExceptionally(
+                new IOException("Not supported by the mock store."));
+        return future;
+    }
+
+    @Override
+    public long getFileLength(String key) throws IOException {
+        this.headRequests.incrementAndGet();
+        byte[] data = this.objects.get(key);
+        if (null == data) {
+            throw new FileNotFoundException(key);
+        }
+        return data.length;
+    }
+
+    @Override
+    public PartialListing list(String prefix, int maxListingLength) {
+        return new PartialListing(null, new FileMetadata[0],
+                new FileMetadata[0]);
+    }
+
+    @Override
+    public PartialListing list(String prefix, int maxListingLength,
+                               String priorLastKey, boolean recursive) {
+        return new PartialListing(null, new FileMetadata[0],
+                new FileMetadata[0]);
+    }
+
+    @Override
+    public void delete(String key) {
+        this.objects.remove(key);
+    }
+
+    @Override
+    public void copy(String srcKey, String dstKey) {
+        this.objects.put(dstKey, this.objects.get(srcKey));
+    }
+
+    @Override
+    public void purge(String prefix) {
+    }
+
+    @Override
+    public void dump() {
+    }
+
+    @Override
+    public void close() {
+        if (null != this.ioThread) {
+            this.ioThread.shutdownNow();
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int bytes;
+        while ((bytes = inputStream.read(chunk)) > 0) {
+            content.write(chunk, 0, bytes);
+        }
+        return content.toByteArray();
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted in the mock store.");
+        }
+    }
+
+    /**
+     * The content of a range read, which fails after being closed like an
+     * aborted HTTP response.
+     */
+    private final class RangeInputStream extends InputStream {
+        private final ByteArrayInputStream content;
+        private volatile boolean closed = false;
+
+        RangeInputStream(byte[] data, int offset, int length) {
+            this.content = new ByteArrayInputStream(data, offset, length);
+            openStreams.incrementAndGet();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return this.read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.closed) {
+                throw new IOException("The range read is aborted.");
+            }
+            sleep(chunkDelayMillis);
+            if (this.closed) {
+                throw new IOException("The range read is aborted.");
+            }
+            int bytes = this.content.read(b, off, Math.min(len, 8192));
+            if (bytes > 0) {
+                bytesServed.addAndGet(bytes);
+            }
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            if (!this.closed) {
+                this.closed = true;
+                openStreams.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.buffer.CosNByteBuffer;
+import org.apache.hadoop.fs.buffer.CosNHybridBufferFactory;
+import org.apache.hadoop.fs.buffer.CosNMappedBufferFactory;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestBufferPool {
+    private static final int BLOCK_SIZE = (int) Unit.MB;
+
+    private final ExecutorService executor =
+            Executors.newCachedThreadPool();
+    private final List<BufferPool> pools = new ArrayList<>();
+    private final Map<CosNByteBuffer, BufferPool> buffers =
+            new IdentityHashMap<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (Map.Entry<CosNByteBuffer, BufferPool> buffer
+                : this.buffers.entrySet()) {
+            buffer.getValue().returnBuffer(buffer.getKey());
+        }
+        for (BufferPool pool : this.pools) {
+            pool.close();
+        }
+        this.executor.shutdownNow();
+        BufferPool.resetGlobalBufferSize();
+    }
+
+    /**
+     * Create a pool of its own, which does not touch the singleton one.
+     */
+    private BufferPool newPool(String bufferType, long bufferSize)
+            throws Exception {
+        return this.newPool(bufferType, bufferSize, -1);
+    }
+
+    private BufferPool newPool(String bufferType, long bufferSize,
+                               long globalBufferSize) throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.setLong(CosNConfigKeys.COSN_UPLOAD_BUFFER_GLOBAL_SIZE_KEY,
+                globalBufferSize);
+        conf.set(CosNConfigKeys.COSN_UPLOAD_BUFFER_POOL_SCOPE_KEY,
+                BufferPool.FILESYSTEM_POOL_SCOPE);
+        conf.set(CosNConfigKeys.COSN_UPLOAD_BUFFER_TYPE_KEY, bufferType);
+        conf.setLong(CosNConfigKeys.COSN_UPLOAD_BUFFER_SIZE_KEY, bufferSize);
+        conf.setLong(CosNConfigKeys.COSN_BLOCK_SIZE_KEY, BLOCK_SIZE);
+        conf.set(CosNConfigKeys.COSN_TMP_DIR, new File(
+                System.getProperty("java.io.tmpdir"), "hadoop_cos_test")
+                .getAbsolutePath());
+        BufferPool pool = BufferPool.getInstance(conf);
+        pool.initialize(conf);
+        this.pools.add(pool);
+        return pool;
+    }
+
+    private CosNByteBuffer keep(BufferPool pool, int bufferSize)
+            throws Exception {
+        CosNByteBuffer buffer = pool.getBuffer(bufferSize);
+        this.buffers.put(buffer, pool);
+        return buffer;
+    }
+
+    // The memory buffers of the hybrid pool are in the heap, and the
+    // spilled ones are mapped.
+    @Test(timeout = 30000)
+    public void testHybridSpillsBeyondTheMemoryBudget() throws Exception {
+        BufferPool pool = this.newPool("hybrid", 2 * BLOCK_SIZE);
+        CosNHybridBufferFactory factory = pool.getHybridBufferFactory();
+
+        assertFalse(keep(pool, BLOCK_SIZE).getByteBuffer().isDirect());
+        assertFalse(keep(pool, BLOCK_SIZE).getByteBuffer().isDirect());
+        assertEquals(2 * BLOCK_SIZE, factory.getMemoryBytes());
+
+        // The getter is never blocked by the budget.
+        CosNByteBuffer spilled = pool.getBuffer(BLOCK_SIZE);
+        assertTrue(spilled.getByteBuffer().isDirect());
+        assertEquals(BLOCK_SIZE, spilled.getByteBuffer().capacity());
+        assertEquals(2 * BLOCK_SIZE, factory.getMemoryBytes());
+        assertEquals(1, factory.getDiskBuffers());
+        assertEquals(3, factory.getCreatedBuffers());
+        assertEquals(1, factory.getSpilledBuffers());
+        assertEquals(1.0 / 3, factory.getSpillRate(), 1e-9);
+
+        // The spilled buffer is as writable as the memory ones.
+        spilled.getByteBuffer().put(new byte[BLOCK_SIZE]);
+        pool.returnBuffer(spilled);
+        assertEquals(0, factory.getDiskBuffers());
+    }
+
+    @Test(timeout = 30000)
+    public void testHybridReturnFreesTheMemoryBudget() throws Exception {
+        BufferPool pool = this.newPool("hybrid", BLOCK_SIZE);
+        CosNHybridBufferFactory factory = pool.getHybridBufferFactory();
+
+        CosNByteBuffer buffer = pool.getBuffer(BLOCK_SIZE / 2);
+        assertFalse(buffer.getByteBuffer().isDirect());
+        assertEquals(BLOCK_SIZE / 2, factory.getMemoryBytes());
+        assertTrue(keep(pool, BLOCK_SIZE).getByteBuffer().isDirect());
+
+        pool.returnBuffer(buffer);
+        assertEquals(0, factory.getMemoryBytes());
+        assertFalse(keep(pool, BLOCK_SIZE).getByteBuffer().isDirect());
+        assertEquals(BLOCK_SIZE, factory.getMemoryBytes());
+        // No buffer is kept by the pool.
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test
+    public void testNoHybridFactoryForTheOtherTypes() throws Exception {
+        assertNull(this.newPool("non_direct_memory", BLOCK_SIZE)
+                .getHybridBufferFactory());
+    }
+
+    @Test
+    public void testSizeClasses() throws Exception {
+        BufferPool pool = this.newPool("non_direct_memory", 4 * BLOCK_SIZE);
+        // Nothing is allocated in advance.
+        assertEquals(0, pool.getAllocatedBytes());
+
+        assertEquals(64 * 1024, keep(pool, 100).getByteBuffer().capacity());
+        assertEquals(128 * 1024, keep(pool, 64 * 1024 + 1).getByteBuffer()
+                .capacity());
+        assertEquals(BLOCK_SIZE, keep(pool, BLOCK_SIZE / 2 + 1)
+                .getByteBuffer().capacity());
+        assertEquals(64 * 1024 + 128 * 1024 + BLOCK_SIZE,
+                pool.getAllocatedBytes());
+    }
+
+    @Test(timeout = 30000)
+    public void testIdleBuffersOfOtherClassesAreReleased() throws Exception {
+        BufferPool pool = this.newPool("non_direct_memory", 2 * BLOCK_SIZE);
+        CosNByteBuffer first = pool.getBuffer(BLOCK_SIZE);
+        CosNByteBuffer second = pool.getBuffer(BLOCK_SIZE);
+        pool.returnBuffer(first);
+        pool.returnBuffer(second);
+        assertEquals(2 * BLOCK_SIZE, pool.getIdleBytes());
+
+        // The budget is used up by the idle blocks, and one of them is
+        // released for the small buffer.
+        assertEquals(64 * 1024, keep(pool, 4096).getByteBuffer().capacity());
+        assertEquals(BLOCK_SIZE + 64 * 1024, pool.getAllocatedBytes());
+        assertEquals(BLOCK_SIZE, pool.getIdleBytes());
+
+        // The idle block is reused as it is.
+        keep(pool, BLOCK_SIZE);
+        assertEquals(BLOCK_SIZE + 64 * 1024, pool.getAllocatedBytes());
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test(timeout = 30000)
+    public void testGetterWaitsWhenAllTheBuffersAreInUse() throws Exception {
+        final BufferPool pool = this.newPool("non_direct_memory",
+                2 * BLOCK_SIZE);
+        CosNByteBuffer first = pool.getBuffer(BLOCK_SIZE);
+        keep(pool, BLOCK_SIZE);
+
+        Future<CosNByteBuffer> getter = this.executor.submit(
+                new Callable<CosNByteBuffer>() {
+                    @Override
+                    public CosNByteBuffer call() throws Exception {
+                        return keep(pool, 64 * 1024);
+                    }
+                });
+        try {
+            getter.get(200, TimeUnit.MILLISECONDS);
+            fail("The getter is not blocked by the buffers in use.");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        pool.returnBuffer(first);
+        assertEquals(64 * 1024,
+                getter.get(10, TimeUnit.SECONDS).getByteBuffer().capacity());
+    }
+
+    @Test(timeout = 30000)
+    public void testSmallStreamsFitInTheBudget() throws Exception {
+        BufferPool pool = this.newPool("non_direct_memory", 4 * BLOCK_SIZE);
+        MockNativeFileSystemStore store = new MockNativeFileSystemStore();
+        Configuration conf = new Configuration(false);
+
+        // The streams of the first buffers of 256 KB, which would be four
+        // with the buffers of the block size.
+        List<CosFsDataOutputStream> streams = new ArrayList<>();
+        byte[] data = new byte[1000];
+        new Random(1L).nextBytes(data);
+        for (int i = 0; i < 16; i++) {
+            CosFsDataOutputStream stream = new CosFsDataOutputStream(conf,
+                    store, "small-" + i, BLOCK_SIZE, pool, this.executor,
+                    false);
+            stream.write(data);
+            streams.add(stream);
+        }
+        assertEquals(4 * BLOCK_SIZE, pool.getAllocatedBytes());
+        for (int i = 0; i < 16; i++) {
+            streams.get(i).close();
+            assertArrayEquals(data, store.getObject("small-" + i));
+        }
+        assertEquals(4 * BLOCK_SIZE, pool.getIdleBytes());
+    }
+
+    @Test(timeout = 30000)
+    public void testStreamBufferGrows() throws Exception {
+        BufferPool pool = this.newPool("non_direct_memory", 4 * BLOCK_SIZE);
+        MockNativeFileSystemStore store = new MockNativeFileSystemStore();
+        Configuration conf = new Configuration(false);
+        conf.setLong(CosNConfigKeys.COSN_UPLOAD_BUFFER_INITIAL_SIZE_KEY,
+                64 * 1024);
+        CosFsDataOutputStream stream = new CosFsDataOutputStream(conf,
+                store, "grown", BLOCK_SIZE, pool, this.executor, false);
+        assertEquals(64 * 1024, pool.getAllocatedBytes());
+
+        // The buffer grows by 4 times, and the bytes written are kept.
+        byte[] data = new byte[200 * 1024];
+        new Random(2L).nextBytes(data);
+        stream.write(data, 0, 100 * 1024);
+        assertEquals(64 * 1024 + 256 * 1024, pool.getAllocatedBytes());
+        assertEquals(64 * 1024, pool.getIdleBytes());
+        stream.write(data, 100 * 1024, 100 * 1024);
+        assertEquals(64 * 1024 + 256 * 1024, pool.getAllocatedBytes());
+
+        stream.close();
+        assertArrayEquals(data, store.getObject("grown"));
+    }
+
+    @Test(timeout = 30000)
+    public void testStreamFailsWithoutBufferToGrow() throws Exception {
+        BufferPool pool = this.newPool("non_direct_memory", 4 * BLOCK_SIZE);
+        MockNativeFileSystemStore store = new MockNativeFileSystemStore();
+        Configuration conf = new Configuration(false);
+        conf.setLong(CosNConfigKeys.COSN_UPLOAD_BUFFER_INITIAL_SIZE_KEY,
+                64 * 1024);
+        CosFsDataOutputStream stream = new CosFsDataOutputStream(conf,
+                store, "failed", BLOCK_SIZE, pool, this.executor, false);
+        stream.write(new byte[1000]);
+
+        // No buffer can be got to grow into, and the stream gives up.
+        pool.close();
+        try {
+            stream.write(new byte[100 * 1024]);
+            fail("The buffer grows in a closed pool.");
+        } catch (IOException e) {
+            // The pool is closed.
+        }
+        try {
+            stream.write(new byte[1]);
+            fail("The failed stream is written.");
+        } catch (IOException e) {
+            // The stream is closed by the failure.
+        }
+        stream.flush();
+        stream.close();
+        assertNull(store.getObject("failed"));
+    }
+
+    @Test(timeout = 30000)
+    public void testMappedArenaIsKeptAcrossBuffers() throws Exception {
+        BufferPool pool = this.newPool("mapped_disk", -1);
+        CosNMappedBufferFactory factory = pool.getMappedBufferFactory();
+        CosNByteBuffer buffer = pool.getBuffer(BLOCK_SIZE);
+        long mappedBytes = factory.getMappedBytes();
+        assertTrue(mappedBytes >= BLOCK_SIZE);
+        pool.returnBuffer(buffer);
+
+        // The returned buffers go back to the arena, which stays mapped.
+        for (int i = 0; i < 16; i++) {
+            assertEquals(mappedBytes, factory.getMappedBytes());
+            pool.returnBuffer(pool.getBuffer(BLOCK_SIZE));
+        }
+        assertEquals(mappedBytes, factory.getMappedBytes());
+    }
+
+    @Test(timeout = 30000)
+    public void testIdleBuffersAreSharedByTheStripes() throws Exception {
+        final BufferPool pool = this.newPool("non_direct_memory",
+                2 * BLOCK_SIZE);
+        CosNByteBuffer first = pool.getBuffer(BLOCK_SIZE);
+        CosNByteBuffer second = pool.getBuffer(BLOCK_SIZE);
+        pool.returnBuffer(first);
+        pool.returnBuffer(second);
+
+        // The other threads take the idle buffers returned by this one,
+        // instead of waiting or releasing them.
+        List<Future<CosNByteBuffer>> getters = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            getters.add(this.executor.submit(new Callable<CosNByteBuffer>() {
+                @Override
+                public CosNByteBuffer call() throws Exception {
+                    return keep(pool, BLOCK_SIZE);
+                }
+            }));
+        }
+        Set<CosNByteBuffer> taken = Collections.newSetFromMap(
+                new IdentityHashMap<CosNByteBuffer, Boolean>());
+        for (Future<CosNByteBuffer> getter : getters) {
+            taken.add(getter.get(10, TimeUnit.SECONDS));
+        }
+        assertTrue(taken.contains(first));
+        assertTrue(taken.contains(second));
+        assertEquals(2 * BLOCK_SIZE, pool.getAllocatedBytes());
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentGetAndReturn() throws Exception {
+        final BufferPool pool = this.newPool("non_direct_memory",
+                2 * BLOCK_SIZE);
+        final Set<CosNByteBuffer> inUse = Collections.newSetFromMap(
+                new ConcurrentHashMap<CosNByteBuffer, Boolean>());
+        final ExecutorService returners = Executors.newFixedThreadPool(4);
+        final AtomicInteger duplicates = new AtomicInteger(0);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            final Random random = new Random(i);
+            writers.add(this.executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int j = 0; j < 200; j++) {
+                        final CosNByteBuffer buffer = pool.getBuffer(
+                                1 + random.nextInt(BLOCK_SIZE));
+                        if (!inUse.add(buffer)) {
+                            duplicates.incrementAndGet();
+                        }
+                        // The buffers are returned by the other threads,
+                        // as the uploads do.
+                        returners.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                inUse.remove(buffer);
+                                pool.returnBuffer(buffer);
+                                return null;
+                            }
+                        }).get();
+                    }
+                    return null;
+                }
+            }));
+        }
+        try {
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            returners.shutdownNow();
+        }
+        assertEquals(0, duplicates.get());
+        assertTrue(pool.getAllocatedBytes() <= 2 * BLOCK_SIZE);
+        assertEquals(pool.getAllocatedBytes(), pool.getIdleBytes());
+    }
+
+    private Future<CosNByteBuffer> getInBackground(final BufferPool pool,
+                                                   final int bufferSize) {
+        return this.executor.submit(new Callable<CosNByteBuffer>() {
+            @Override
+            public CosNByteBuffer call() throws Exception {
+                return keep(pool, bufferSize);
+            }
+        });
+    }
+
+    private static void assertBlocked(Future<?> getter) throws Exception {
+        try {
+            getter.get(200, TimeUnit.MILLISECONDS);
+            fail("The getter is not blocked by the global buffer size.");
+        } catch (TimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testGlobalBufferSizeWakesTheOtherPools() throws Exception {
+        BufferPool first = this.newPool("non_direct_memory", 2 * BLOCK_SIZE,
+                2 * BLOCK_SIZE);
+        BufferPool second = this.newPool("non_direct_memory",
+                2 * BLOCK_SIZE, 2 * BLOCK_SIZE);
+        CosNByteBuffer returned = first.getBuffer(BLOCK_SIZE);
+        CosNByteBuffer released = first.getBuffer(BLOCK_SIZE);
+
+        // The getters of the other pool wait for no time out, and are woken
+        // up by the idle buffer of the first pool, which is released for
+        // them.
+        Future<CosNByteBuffer> getter = this.getInBackground(second,
+                BLOCK_SIZE);
+        assertBlocked(getter);
+        first.returnBuffer(returned);
+        getter.get(10, TimeUnit.SECONDS);
+        assertEquals(BLOCK_SIZE, first.getAllocatedBytes());
+        assertEquals(BLOCK_SIZE, second.getAllocatedBytes());
+
+        // And by the buffer released after the first pool is closed.
+        getter = this.getInBackground(second, BLOCK_SIZE);
+        assertBlocked(getter);
+        first.close();
+        this.pools.remove(first);
+        assertBlocked(getter);
+        first.returnBuffer(released);
+        getter.get(10, TimeUnit.SECONDS);
+        assertEquals(2 * BLOCK_SIZE, second.getAllocatedBytes());
+    }
+}
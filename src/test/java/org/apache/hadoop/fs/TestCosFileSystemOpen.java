@@ -0,0 +1,152 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The open paths of the file system send no more HEAD requests than the
+ * status needs, and the read policies of the openFile builder select the
+ * strategies of the stream.
+ */
+public class TestCosFileSystemOpen {
+    private static final URI BUCKET = URI.create("cosn://bucket-1250000000");
+    private static final String KEY = "/data";
+    private static final Path PATH = new Path(KEY);
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 123;
+
+    private MockNativeFileSystemStore store;
+    private CosFileSystem fs;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.set(CosNConfigKeys.COSN_UPLOAD_BUFFER_TYPE_KEY,
+                "non_direct_memory");
+        conf.setLong(CosNConfigKeys.COSN_UPLOAD_BUFFER_SIZE_KEY,
+                16 * 1024 * 1024);
+        conf.set(CosNConfigKeys.COSN_TMP_DIR, new File(
+                System.getProperty("java.io.tmpdir"), "hadoop_cos_test")
+                .getAbsolutePath());
+        this.store = new MockNativeFileSystemStore();
+        this.data = this.store.putRandomObject(KEY, FILE_SIZE, 3L);
+        this.fs = new CosFileSystem(this.store);
+        this.fs.initialize(BUCKET, conf);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.fs.close();
+    }
+
+    private void readFullyAndCheck(FSDataInputStream in) throws Exception {
+        try {
+            byte[] content = new byte[FILE_SIZE];
+            IOUtils.readFully(in, content, 0, content.length);
+            assertArrayEquals(this.data, content);
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testOpenPathSendsOneHead() throws Exception {
+        this.readFullyAndCheck(this.fs.open(PATH));
+        assertEquals(1, this.store.getHeadRequests());
+    }
+
+    @Test(timeout = 30000)
+    public void testOpenFileStatusSendsNoHead() throws Exception {
+        FileStatus status = this.fs.getFileStatus(PATH);
+        int headRequests = this.store.getHeadRequests();
+        this.readFullyAndCheck(this.fs.open(status));
+        this.readFullyAndCheck(
+                this.fs.openFile(PATH).withFileStatus(status).build());
+        assertEquals(headRequests, this.store.getHeadRequests());
+    }
+
+    @Test(timeout = 30000)
+    public void testOpenFileLengthSendsNoHead() throws Exception {
+        this.readFullyAndCheck(this.fs.openFile(PATH)
+                .withFileLength(FILE_SIZE).build());
+        this.readFullyAndCheck(this.fs.openFile(PATH)
+                .opt(CosNOpenFileBuilder.LENGTH_KEY, FILE_SIZE).build());
+        assertEquals(0, this.store.getHeadRequests());
+    }
+
+    @Test(timeout = 30000)
+    public void testOpenFileBufferSize() throws Exception {
+        FSDataInputStream in = this.fs.openFile(PATH)
+                .withFileLength(FILE_SIZE)
+                .withBufferSize(64 * 1024)
+                .build();
+        assertEquals(64 * 1024, ((CosNBufferedFSInputStream)
+                in.getWrappedStream()).getBufferSize());
+        this.readFullyAndCheck(in);
+        // The read ahead blocks keep the size of the file system.
+        assertEquals(0, this.store.getGetRequests(64 * 1024));
+        assertEquals(1, this.store.getGetRequests(
+                CosNConfigKeys.DEFAULT_READ_AHEAD_BLOCK_SIZE));
+    }
+
+    @Test(timeout = 30000)
+    public void testWholeFilePolicy() throws Exception {
+        this.readFullyAndCheck(this.fs.openFile(PATH)
+                .withFileLength(FILE_SIZE)
+                .withReadPolicy(CosNOpenFileBuilder.READ_POLICY_WHOLE_FILE)
+                .build());
+        assertEquals(1, this.store.getGetRequests());
+    }
+
+    @Test(timeout = 30000)
+    public void testRandomPolicy() throws Exception {
+        FSDataInputStream in = this.fs.openFile(PATH)
+                .withFileLength(FILE_SIZE)
+                .withReadPolicy("unknown, " +
+                        CosNOpenFileBuilder.READ_POLICY_RANDOM)
+                .build();
+        try {
+            in.seek(FILE_SIZE / 2);
+            assertEquals(this.data[FILE_SIZE / 2] & 0xFF, in.read());
+            // Wait for the read ahead which must not be issued.
+            Thread.sleep(200);
+            assertEquals(1, this.store.getGetRequests());
+            assertEquals(CosNConfigKeys.DEFAULT_READ_AHEAD_MIN_BLOCK_SIZE,
+                    this.store.getBytesServed());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testSequentialPolicy() throws Exception {
+        FSDataInputStream in = this.fs.openFile(PATH)
+                .withFileLength(FILE_SIZE)
+                .withReadPolicy(CosNOpenFileBuilder.READ_POLICY_SEQUENTIAL)
+                .withReadAheadRange(FILE_SIZE)
+                .build();
+        try {
+            assertEquals(this.data[0] & 0xFF, in.read());
+            // The whole file is prefetched after the first read.
+            long deadline = System.currentTimeMillis() + 10000;
+            while (this.store.getBytesServed() < FILE_SIZE) {
+                assertTrue("The read ahead is not issued.",
+                        System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.cache.CosNLocalBlockCache;
+import org.apache.hadoop.fs.cache.CosNMemoryBlockCache;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The process wide caches and the hedged read are released only by the file
+ * systems which enabled them.
+ */
+public class TestCosFileSystemSharedCaches {
+    private static final URI BUCKET = URI.create("cosn://bucket-1250000000");
+
+    private static Configuration newConf() {
+        Configuration conf = new Configuration(false);
+        conf.set(CosNConfigKeys.COSN_UPLOAD_BUFFER_TYPE_KEY,
+                "non_direct_memory");
+        conf.setLong(CosNConfigKeys.COSN_UPLOAD_BUFFER_SIZE_KEY,
+                16 * 1024 * 1024);
+        conf.set(CosNConfigKeys.COSN_TMP_DIR, new File(
+                System.getProperty("java.io.tmpdir"), "hadoop_cos_test")
+                .getAbsolutePath());
+        return conf;
+    }
+
+    private static CosFileSystem newFileSystem(Configuration conf)
+            throws Exception {
+        CosFileSystem fs = new CosFileSystem(new MockNativeFileSystemStore());
+        fs.initialize(BUCKET, conf);
+        return fs;
+    }
+
+    @Test
+    public void testLocalBlockCache() throws Exception {
+        Configuration enabled = newConf();
+        enabled.setBoolean(CosNConfigKeys.READ_AHEAD_LOCAL_CACHE_ENABLED_KEY,
+                true);
+        CosFileSystem withCache = newFileSystem(enabled);
+        CosFileSystem withoutCache = newFileSystem(newConf());
+        try {
+            withoutCache.close();
+            assertTrue(CosNLocalBlockCache.getInstance().isEnabled());
+        } finally {
+            withCache.close();
+        }
+        assertFalse(CosNLocalBlockCache.getInstance().isEnabled());
+    }
+
+    @Test
+    public void testMemoryBlockCache() throws Exception {
+        Configuration enabled = newConf();
+        enabled.setBoolean(
+                CosNConfigKeys.READ_AHEAD_MEMORY_CACHE_ENABLED_KEY, true);
+        CosFileSystem withCache = newFileSystem(enabled);
+        CosFileSystem withoutCache = newFileSystem(newConf());
+        try {
+            withoutCache.close();
+            assertTrue(CosNMemoryBlockCache.getInstance().isEnabled());
+        } finally {
+            withCache.close();
+        }
+        assertFalse(CosNMemoryBlockCache.getInstance().isEnabled());
+    }
+
+    @Test
+    public void testHedgedReadManager() throws Exception {
+        Configuration enabled = newConf();
+        enabled.setBoolean(CosNConfigKeys.HEDGED_READ_ENABLED_KEY, true);
+        CosFileSystem withHedge = newFileSystem(enabled);
+        CosFileSystem withoutHedge = newFileSystem(newConf());
+        try {
+            withoutHedge.close();
+            assertTrue(CosNHedgedReadManager.getInstance().isEnabled());
+        } finally {
+            withHedge.close();
+        }
+        assertFalse(CosNHedgedReadManager.getInstance().isEnabled());
+    }
+}
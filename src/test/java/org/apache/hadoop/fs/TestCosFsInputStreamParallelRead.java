@@ -0,0 +1,150 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCosFsInputStreamParallelRead {
+    private static final String KEY = "data";
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int READ_SIZE = 16 * BLOCK_SIZE;
+    private static final int FILE_SIZE = 2 * READ_SIZE;
+
+    private Configuration conf;
+    private MockNativeFileSystemStore store;
+    private byte[] data;
+    private ExecutorService readAheadExecutor;
+
+    @Before
+    public void setUp() {
+        this.conf = new Configuration(false);
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY,
+                BLOCK_SIZE);
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                false);
+        this.conf.setLong(CosNConfigKeys.PARALLEL_READ_THRESHOLD_KEY,
+                4 * BLOCK_SIZE);
+        this.conf.setLong(CosNConfigKeys.PARALLEL_READ_PART_SIZE_KEY,
+                BLOCK_SIZE);
+        this.conf.setInt(CosNConfigKeys.PARALLEL_READ_MAX_CONCURRENCY_KEY, 4);
+        this.store = new MockNativeFileSystemStore();
+        this.data = this.store.putRandomObject(KEY, FILE_SIZE, 5L);
+        this.readAheadExecutor = Executors.newFixedThreadPool(4);
+        ReadBufferPool.getInstance().initialize(this.conf);
+    }
+
+    @After
+    public void tearDown() {
+        this.readAheadExecutor.shutdownNow();
+        ReadBufferPool.getInstance().close();
+    }
+
+    private CosFsInputStream newInputStream() {
+        return new CosFsInputStream(this.conf, this.store, null, KEY,
+                FILE_SIZE, this.readAheadExecutor);
+    }
+
+    private void readAndCheck(CosFsInputStream in, int length)
+            throws Exception {
+        long pos = in.getPos();
+        byte[] buffer = new byte[length];
+        IOUtils.readFully(in, buffer, 0, length);
+        assertArrayEquals(Arrays.copyOfRange(this.data, (int) pos,
+                (int) pos + length), buffer);
+    }
+
+    @Test(timeout = 30000)
+    public void testLargeReadIsSplit() throws Exception {
+        CosFsInputStream in = newInputStream();
+        try {
+            this.readAndCheck(in, READ_SIZE);
+            // The parts grow to keep the requests within the cap.
+            for (int i = 0; i < 4; i++) {
+                assertEquals(1, this.store.getGetRequests(i * 4 * BLOCK_SIZE));
+            }
+            assertEquals(4, this.store.getGetRequests());
+            assertEquals(1,
+                    in.getStreamStatistics().getParallelReadOperations());
+            // The read continues from the end of the parallel read.
+            this.readAndCheck(in, 100);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testReadReportedToThePolicy() throws Exception {
+        CosFsInputStream in = newInputStream();
+        try {
+            this.readAndCheck(in, READ_SIZE);
+            this.readAndCheck(in, 100);
+            // Both the parallel read and the block after it ramp the window
+            // of the sequential read up.
+            assertEquals(4, in.getStreamStatistics().getReadAheadWindow());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testReadReportedToTheTuner() throws Exception {
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                true);
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_AUTO_TUNE_ENABLED_KEY,
+                true);
+        CosFsInputStream in = newInputStream();
+        try {
+            this.readAndCheck(in, READ_SIZE);
+            this.readAndCheck(in, 100);
+            CosNInputStreamStatistics statistics = in.getStreamStatistics();
+            assertTrue(statistics.getMeasuredFirstByteMillis() >= 0);
+            assertTrue(statistics.getMeasuredThroughput() > 0);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testLockNotHeldWhileWaiting() throws Exception {
+        // Every part of 256KB takes about 640 ms.
+        this.store.setChunkDelayMillis(20);
+        final CosFsInputStream in = newInputStream();
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> read = reader.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    readAndCheck(in, READ_SIZE);
+                    return null;
+                }
+            });
+            while (this.store.getGetRequests() < 4) {
+                Thread.sleep(10);
+            }
+            long startNanos = System.nanoTime();
+            synchronized (in) {
+                assertFalse(read.isDone());
+            }
+            assertTrue(System.nanoTime() - startNanos
+                    < TimeUnit.MILLISECONDS.toNanos(200));
+            read.get();
+        } finally {
+            reader.shutdownNow();
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCosFsInputStreamPositionedRead {
+    private static final String KEY = "data";
+    private static final int FILE_SIZE = 3 * 1024 * 1024 + 77;
+
+    private Configuration conf;
+    private MockNativeFileSystemStore store;
+    private byte[] data;
+    private ExecutorService readAheadExecutor;
+
+    @Before
+    public void setUp() {
+        this.conf = new Configuration(false);
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY, 256 * 1024);
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                false);
+        this.store = new MockNativeFileSystemStore();
+        this.data = this.store.putRandomObject(KEY, FILE_SIZE, 1L);
+        this.readAheadExecutor = Executors.newFixedThreadPool(4);
+        ReadBufferPool.getInstance().initialize(this.conf);
+    }
+
+    @After
+    public void tearDown() {
+        this.readAheadExecutor.shutdownNow();
+        ReadBufferPool.getInstance().close();
+    }
+
+    private CosFsInputStream newInputStream() {
+        return new CosFsInputStream(this.conf, this.store, null, KEY,
+                FILE_SIZE, this.readAheadExecutor);
+    }
+
+    @Test
+    public void testPositionedReadKeepsThePosition() throws Exception {
+        CosFsInputStream in = newInputStream();
+        try {
+            byte[] head = new byte[1000];
+            in.readFully(0, head);
+            in.seek(100);
+            assertEquals(100, in.read(new byte[100], 0, 100));
+
+            byte[] buffer = new byte[4096];
+            int gets = this.store.getGetRequests();
+            assertEquals(buffer.length, in.read(2000000, buffer, 0,
+                    buffer.length));
+            assertEquals("A positioned read is a single range read.",
+                    gets + 1, this.store.getGetRequests());
+            assertArrayEquals(Arrays.copyOfRange(this.data, 2000000,
+                    2000000 + buffer.length), buffer);
+            assertEquals(200, in.getPos());
+
+            byte[] next = new byte[100];
+            IOUtils.readFully(in, next, 0, next.length);
+            assertArrayEquals(Arrays.copyOfRange(this.data, 200, 300), next);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testPositionedReadAtTheEnd() throws Exception {
+        CosFsInputStream in = newInputStream();
+        try {
+            byte[] buffer = new byte[100];
+            assertEquals(77, in.read(FILE_SIZE - 77, buffer, 0, 100));
+            assertArrayEquals(Arrays.copyOfRange(this.data, FILE_SIZE - 77,
+                    FILE_SIZE), Arrays.copyOf(buffer, 77));
+            assertEquals(-1, in.read(FILE_SIZE, buffer, 0, 100));
+            try {
+                in.readFully(FILE_SIZE - 50, buffer, 0, 100);
+                fail("Read fully past the end of the file.");
+            } catch (EOFException e) {
+                // expected
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentPositionedAndSequentialReads()
+            throws Exception {
+        final CosFsInputStream in = newInputStream();
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                final long seed = i;
+                results.add(readers.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        Random random = new Random(seed);
+                        byte[] buffer = new byte[10000];
+                        for (int j = 0; j < 50; j++) {
+                            int position = random.nextInt(
+                                    FILE_SIZE - buffer.length);
+                            in.readFully(position, buffer, 0, buffer.length);
+                            if (!Arrays.equals(Arrays.copyOfRange(data,
+                                    position, position + buffer.length),
+                                    buffer)) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+
+            byte[] content = new byte[FILE_SIZE];
+            int offset = 0;
+            while (offset < FILE_SIZE) {
+                int bytes = in.read(content, offset,
+                        Math.min(30000, FILE_SIZE - offset));
+                assertTrue(bytes > 0);
+                offset += bytes;
+            }
+            assertArrayEquals(this.data, content);
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            readers.shutdownNow();
+            in.close();
+        }
+    }
+}
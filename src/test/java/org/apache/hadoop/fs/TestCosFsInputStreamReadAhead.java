@@ -0,0 +1,225 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCosFsInputStreamReadAhead {
+    private static final String KEY = "data";
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final int FILE_SIZE = 64 * BLOCK_SIZE;
+
+    private Configuration conf;
+    private MockNativeFileSystemStore store;
+    private byte[] data;
+    private ExecutorService readAheadExecutor;
+
+    @Before
+    public void setUp() {
+        this.conf = new Configuration(false);
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY,
+                BLOCK_SIZE);
+        this.conf.setInt(CosNConfigKeys.READ_AHEAD_QUEUE_SIZE, 8);
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                false);
+        this.store = new MockNativeFileSystemStore();
+        this.data = this.store.putRandomObject(KEY, FILE_SIZE, 4L);
+        this.readAheadExecutor = Executors.newFixedThreadPool(2);
+        ReadBufferPool.getInstance().initialize(this.conf);
+    }
+
+    @After
+    public void tearDown() {
+        this.readAheadExecutor.shutdownNow();
+        ReadBufferPool.getInstance().close();
+    }
+
+    private CosFsInputStream newInputStream() {
+        return new CosFsInputStream(this.conf, this.store, null, KEY,
+                FILE_SIZE, this.readAheadExecutor);
+    }
+
+    private void readAndCheck(CosFsInputStream in, int length)
+            throws Exception {
+        long pos = in.getPos();
+        byte[] buffer = new byte[length];
+        IOUtils.readFully(in, buffer, 0, length);
+        assertArrayEquals(Arrays.copyOfRange(this.data, (int) pos,
+                (int) pos + length), buffer);
+    }
+
+    private void waitForNoOpenStreams() throws InterruptedException {
+        while (this.store.getOpenStreams() != 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testSeekCancelsTheStaleReadAhead() throws Exception {
+        // Every block takes 80 ms, and the most of the window is queued.
+        this.store.setChunkDelayMillis(10);
+        CosFsInputStream in = newInputStream();
+        try {
+            for (int i = 0; i < 4; i++) {
+                this.readAndCheck(in, BLOCK_SIZE);
+            }
+            CosNInputStreamStatistics statistics = in.getStreamStatistics();
+            assertEquals(8, statistics.getReadAheadWindow());
+
+            in.seek(FILE_SIZE / 2);
+            this.readAndCheck(in, 100);
+            assertTrue(statistics.getReadAheadCancelled() > 0);
+            assertTrue(statistics.getReadAheadBytesSaved() >= BLOCK_SIZE);
+            // The cancelled tasks are removed from the executor as well.
+            assertTrue(((ThreadPoolExecutor) this.readAheadExecutor)
+                    .getQueue().size() <= 2);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testCloseAbortsTheInFlightReadAhead() throws Exception {
+        // The next block is in flight or queued behind the first one.
+        this.readAheadExecutor.shutdownNow();
+        this.readAheadExecutor = Executors.newFixedThreadPool(1);
+        this.store.setChunkDelayMillis(50);
+        CosFsInputStream in = newInputStream();
+        this.readAndCheck(in, 100);
+        in.close();
+
+        this.waitForNoOpenStreams();
+        long bytesServed = this.store.getBytesServed();
+        int requests = this.store.getGetRequests();
+        Thread.sleep(300);
+        assertEquals(requests, this.store.getGetRequests());
+        assertEquals(bytesServed, this.store.getBytesServed());
+        assertTrue(bytesServed < 2 * BLOCK_SIZE);
+        assertEquals(0, ((ThreadPoolExecutor) this.readAheadExecutor)
+                .getActiveCount());
+    }
+
+    @Test(timeout = 30000)
+    public void testBackwardSeekServedByTheRetainedBlocks() throws Exception {
+        CosFsInputStream in = newInputStream();
+        try {
+            this.readAndCheck(in, 1000);
+            // Within the current block, only the position moves.
+            in.seek(500);
+            this.readAndCheck(in, 1000);
+            for (int i = 0; i < 3; i++) {
+                in.seek(BLOCK_SIZE * (i + 1));
+                this.readAndCheck(in, BLOCK_SIZE);
+            }
+
+            // The in-buffer seek is counted as a hit as well.
+            CosNInputStreamStatistics statistics = in.getStreamStatistics();
+            assertEquals(1, statistics.getRetainedBlockHits());
+
+            // The last two consumed blocks are retained.
+            in.seek(2 * BLOCK_SIZE + 100);
+            this.readAndCheck(in, 1000);
+            in.seek(BLOCK_SIZE + 100);
+            this.readAndCheck(in, 1000);
+            assertEquals(3, statistics.getRetainedBlockHits());
+            assertEquals(1, this.store.getGetRequests(BLOCK_SIZE));
+            assertEquals(1, this.store.getGetRequests(2 * BLOCK_SIZE));
+
+            // The eldest consumed block has been released.
+            in.seek(100);
+            this.readAndCheck(in, 1000);
+            assertEquals(3, statistics.getRetainedBlockHits());
+            assertEquals(1, this.store.getGetRequests(100));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testRetainedBytesAreBounded() throws Exception {
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_RETAINED_SIZE_KEY,
+                BLOCK_SIZE - 1);
+        CosFsInputStream in = newInputStream();
+        try {
+            this.readAndCheck(in, 2 * BLOCK_SIZE);
+            in.seek(100);
+            this.readAndCheck(in, 1000);
+            assertEquals(0, in.getStreamStatistics().getRetainedBlockHits());
+            assertEquals(1, this.store.getGetRequests(100));
+        } finally {
+            in.close();
+        }
+    }
+
+    private void waitForReadAhead(long rangeStart)
+            throws InterruptedException {
+        while (this.store.getGetRequests(rangeStart) == 0
+                || this.store.getOpenStreams() != 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testForwardSeekIntoAQueuedBlock() throws Exception {
+        CosFsInputStream in = newInputStream();
+        try {
+            for (int i = 0; i < 4; i++) {
+                this.readAndCheck(in, BLOCK_SIZE);
+            }
+            this.waitForReadAhead(10 * BLOCK_SIZE);
+
+            // Into the middle of the third queued block.
+            in.seek(6 * BLOCK_SIZE + 1000);
+            this.readAndCheck(in, BLOCK_SIZE - 1000);
+            assertEquals(1, this.store.getGetRequests(6 * BLOCK_SIZE));
+            assertEquals(0, this.store.getGetRequests(6 * BLOCK_SIZE + 1000));
+            // The skipped blocks are discarded, and so are the ones beyond
+            // the window of the random read.
+            assertEquals(6 * BLOCK_SIZE,
+                    in.getStreamStatistics().getReadAheadBytesDiscarded());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testShortForwardSeekKeepsTheQueuedBlocks() throws Exception {
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                true);
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_AUTO_TUNE_ENABLED_KEY,
+                false);
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_MIN_BLOCK_SIZE_KEY,
+                BLOCK_SIZE);
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_MAX_BLOCK_SIZE_KEY,
+                BLOCK_SIZE);
+        CosFsInputStream in = newInputStream();
+        try {
+            for (int i = 0; i < 4; i++) {
+                this.readAndCheck(in, BLOCK_SIZE);
+            }
+            this.waitForReadAhead(10 * BLOCK_SIZE);
+
+            in.seek(4 * BLOCK_SIZE + 1000);
+            this.readAndCheck(in, 4 * BLOCK_SIZE);
+            for (int i = 4; i < 11; i++) {
+                assertEquals(1, this.store.getGetRequests(i * BLOCK_SIZE));
+            }
+            assertEquals(0, this.store.getGetRequests(4 * BLOCK_SIZE + 1000));
+            assertEquals(0,
+                    in.getStreamStatistics().getReadAheadBytesDiscarded());
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCosFsInputStreamStreaming {
+    private static final String KEY = "data";
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int FILE_SIZE = 40 * CHUNK_SIZE + 123;
+
+    private Configuration conf;
+    private MockNativeFileSystemStore store;
+    private byte[] data;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.conf = new Configuration(false);
+        this.conf.set(CosNConfigKeys.READ_MODE_KEY,
+                CosFsInputStream.STREAMING_READ_MODE);
+        this.conf.setLong(CosNConfigKeys.STREAMING_READ_CHUNK_SIZE_KEY,
+                CHUNK_SIZE);
+        this.conf.setInt(CosNConfigKeys.STREAMING_READ_RING_SIZE_KEY, 4);
+        this.conf.setLong(CosNConfigKeys.COSN_RETRY_INTERVAL_KEY, 0);
+        this.store = new MockNativeFileSystemStore();
+        this.data = this.store.putRandomObject(KEY, FILE_SIZE, 7L);
+        this.executor = Executors.newFixedThreadPool(2);
+        ReadBufferPool.getInstance().initialize(this.conf);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+        ReadBufferPool.getInstance().close();
+    }
+
+    private CosFsInputStream newInputStream() {
+        return new CosFsInputStream(this.conf, this.store, null, KEY,
+                FILE_SIZE, this.executor);
+    }
+
+    private void readAndCheck(CosFsInputStream in, int length)
+            throws Exception {
+        long pos = in.getPos();
+        byte[] buffer = new byte[length];
+        IOUtils.readFully(in, buffer, 0, length);
+        assertArrayEquals(Arrays.copyOfRange(this.data, (int) pos,
+                (int) pos + length), buffer);
+    }
+
+    @Test(timeout = 30000)
+    public void testSequentialReadIsASingleRequest() throws Exception {
+        CosFsInputStream in = newInputStream();
+        try {
+            this.readAndCheck(in, FILE_SIZE);
+            assertEquals(-1, in.read());
+            assertEquals(1, this.store.getGetRequests());
+            assertEquals(1, in.getStreamStatistics().getStreamingRequests());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testSeek() throws Exception {
+        CosFsInputStream in = newInputStream();
+        try {
+            this.readAndCheck(in, 1000);
+            // A short forward seek skips the bytes of the same request.
+            in.seek(3 * CHUNK_SIZE);
+            this.readAndCheck(in, 1000);
+            assertEquals(1, this.store.getGetRequests());
+
+            // The others reopen the request at the position.
+            in.seek(100);
+            this.readAndCheck(in, 2 * CHUNK_SIZE);
+            assertEquals(2, this.store.getGetRequests());
+            in.seek(30 * CHUNK_SIZE + 7);
+            this.readAndCheck(in, 10 * CHUNK_SIZE - 7);
+            assertEquals(3, this.store.getGetRequests());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testReconnectOnError() throws Exception {
+        this.store.failNextRequests(2);
+        CosFsInputStream in = newInputStream();
+        try {
+            this.readAndCheck(in, FILE_SIZE);
+            assertEquals(3, this.store.getGetRequests());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testCloseStopsThePump() throws Exception {
+        this.store.setChunkDelayMillis(20);
+        CosFsInputStream in = newInputStream();
+        this.readAndCheck(in, 100);
+        in.close();
+        while (this.store.getOpenStreams() != 0) {
+            Thread.sleep(10);
+        }
+        // The ring is returned to the pool once the pump thread exits.
+        while (ReadBufferPool.getInstance().getIdleBytes()
+                != ReadBufferPool.getInstance().getAllocatedBytes()) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testPumpRunsOnTheExecutor() throws Exception {
+        this.store.setChunkDelayMillis(20);
+        ThreadPoolExecutor pumpExecutor =
+                (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+        try {
+            CosFsInputStream in = new CosFsInputStream(this.conf, this.store,
+                    null, null, KEY, FILE_SIZE, 0, this.executor,
+                    pumpExecutor);
+            this.readAndCheck(in, 100);
+            assertEquals(1, pumpExecutor.getActiveCount());
+            in.close();
+            // The thread is given back to the executor.
+            while (pumpExecutor.getActiveCount() != 0) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, pumpExecutor.getCompletedTaskCount());
+        } finally {
+            pumpExecutor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testCloseBeforeThePumpStarts() throws Exception {
+        ExecutorService pumpExecutor = Executors.newSingleThreadExecutor();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        try {
+            pumpExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        blocked.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            CosNStreamingReader reader = new CosNStreamingReader(this.conf,
+                    KEY, this.store, FILE_SIZE, 0,
+                    new CosNInputStreamStatistics(), pumpExecutor);
+            assertTrue(ReadBufferPool.getInstance().getIdleBytes()
+                    < ReadBufferPool.getInstance().getAllocatedBytes());
+            reader.close();
+            // The ring of the queued pump is returned by the close.
+            assertEquals(ReadBufferPool.getInstance().getAllocatedBytes(),
+                    ReadBufferPool.getInstance().getIdleBytes());
+            blocked.countDown();
+            pumpExecutor.shutdown();
+            assertTrue(pumpExecutor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(0, this.store.getGetRequests());
+        } finally {
+            blocked.countDown();
+            pumpExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCosFsInputStreamTailPrefetch {
+    private static final String KEY = "data.orc";
+    private static final int TAIL_SIZE = 64 * 1024;
+    private static final int FILE_SIZE = 1024 * 1024;
+
+    private Configuration conf;
+    private MockNativeFileSystemStore store;
+    private byte[] data;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.conf = new Configuration(false);
+        this.conf.set(CosNConfigKeys.TAIL_PREFETCH_SUFFIXES_KEY, ".orc");
+        this.conf.setLong(CosNConfigKeys.TAIL_PREFETCH_SIZE_KEY, TAIL_SIZE);
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY,
+                128 * 1024);
+        this.store = new MockNativeFileSystemStore();
+        this.data = this.store.putRandomObject(KEY, FILE_SIZE, 6L);
+        this.executor = Executors.newFixedThreadPool(2);
+        ReadBufferPool.getInstance().initialize(this.conf);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+        ReadBufferPool.getInstance().close();
+    }
+
+    @Test(timeout = 30000)
+    public void testTailIsReadWithoutTheStreamLock() throws Exception {
+        final CosFsInputStream in = new CosFsInputStream(this.conf,
+                this.store, null, KEY, FILE_SIZE, this.executor);
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch unlock = new CountDownLatch(1);
+        ExecutorService lockHolder = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> holder = lockHolder.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    synchronized (in) {
+                        locked.countDown();
+                        unlock.await();
+                    }
+                    return null;
+                }
+            });
+            assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+            byte[] footer = new byte[100];
+            in.readFully(FILE_SIZE - footer.length, footer, 0, footer.length);
+            assertArrayEquals(Arrays.copyOfRange(this.data,
+                    FILE_SIZE - footer.length, FILE_SIZE), footer);
+            assertEquals(1, in.getStreamStatistics().getTailPrefetchHits());
+            assertEquals("Only the tail is fetched.", 1,
+                    this.store.getGetRequests());
+
+            unlock.countDown();
+            holder.get();
+        } finally {
+            unlock.countDown();
+            lockHolder.shutdownNow();
+            in.close();
+        }
+    }
+
+    @Test
+    public void testPinnedBufferIsReturnedAfterTheUnpin() throws Exception {
+        ReadBufferPool pool = ReadBufferPool.getInstance();
+        CosFsInputStream.ReadBuffer readBuffer =
+                new CosFsInputStream.ReadBuffer(0, 4095,
+                        pool.tryGetBuffer(4096));
+        readBuffer.finish();
+        assertTrue(readBuffer.pin());
+        readBuffer.release();
+        assertEquals(0, pool.getIdleBytes());
+        assertFalse("A released buffer can not be pinned.",
+                readBuffer.pin());
+
+        readBuffer.unpin();
+        assertEquals(4096, pool.getIdleBytes());
+    }
+}
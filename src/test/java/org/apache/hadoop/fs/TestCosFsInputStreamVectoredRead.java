@@ -0,0 +1,144 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCosFsInputStreamVectoredRead {
+    private static final String KEY = "data";
+    private static final int FILE_SIZE = 1024 * 1024;
+    private static final IntFunction<ByteBuffer> ALLOCATE =
+            new IntFunction<ByteBuffer>() {
+                @Override
+                public ByteBuffer apply(int length) {
+                    return ByteBuffer.allocate(length);
+                }
+            };
+
+    private Configuration conf;
+    private MockNativeFileSystemStore store;
+    private byte[] data;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.conf = new Configuration(false);
+        this.conf.setInt(CosNConfigKeys.VECTORED_READ_MIN_SEEK_SIZE_KEY, 1000);
+        this.conf.setInt(CosNConfigKeys.VECTORED_READ_MAX_MERGED_SIZE_KEY,
+                64 * 1024);
+        this.store = new MockNativeFileSystemStore();
+        this.data = this.store.putRandomObject(KEY, FILE_SIZE, 5L);
+        this.executor = Executors.newFixedThreadPool(4);
+        ReadBufferPool.getInstance().initialize(this.conf);
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+        ReadBufferPool.getInstance().close();
+    }
+
+    private CosFsInputStream newInputStream() {
+        return new CosFsInputStream(this.conf, this.store, null, KEY,
+                FILE_SIZE, this.executor);
+    }
+
+    private void assertRange(CosNFileRange range) throws Exception {
+        ByteBuffer buffer = range.getData().get();
+        assertEquals(range.getLength(), buffer.remaining());
+        byte[] content = new byte[range.getLength()];
+        buffer.duplicate().get(content);
+        assertArrayEquals(Arrays.copyOfRange(this.data,
+                (int) range.getOffset(),
+                (int) range.getOffset() + range.getLength()), content);
+    }
+
+    @Test(timeout = 30000)
+    public void testMergeTheCloseRanges() throws Exception {
+        List<CosNFileRange> ranges = Arrays.asList(
+                CosNFileRange.createFileRange(5000, 100),
+                CosNFileRange.createFileRange(0, 100),
+                CosNFileRange.createFileRange(500, 200),
+                CosNFileRange.createFileRange(1600, 10));
+        CosFsInputStream in = newInputStream();
+        try {
+            in.seek(300);
+            int gets = this.store.getGetRequests();
+            in.readVectored(ranges, ALLOCATE);
+            for (CosNFileRange range : ranges) {
+                this.assertRange(range);
+            }
+            assertEquals("The gap less than the min seek size is read " +
+                    "through.", gets + 2, this.store.getGetRequests());
+            assertEquals(2, in.getStreamStatistics()
+                    .getVectoredReadRequests());
+            assertEquals(4, in.getStreamStatistics().getVectoredReadRanges());
+            assertEquals(300, in.getPos());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testSplitTheLargeRange() throws Exception {
+        List<CosNFileRange> ranges = Arrays.asList(
+                CosNFileRange.createFileRange(100000, 200 * 1024),
+                CosNFileRange.createFileRange(100000 + 200 * 1024 + 10, 20));
+        CosFsInputStream in = newInputStream();
+        try {
+            in.readVectored(ranges, ALLOCATE);
+            for (CosNFileRange range : ranges) {
+                this.assertRange(range);
+            }
+            // The last slice of the large range is merged with the next one.
+            assertEquals(4, this.store.getGetRequests());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testInvalidRanges() throws Exception {
+        CosFsInputStream in = newInputStream();
+        try {
+            try {
+                in.readVectored(Arrays.asList(
+                        CosNFileRange.createFileRange(0, 100),
+                        CosNFileRange.createFileRange(50, 100)), ALLOCATE);
+                fail("The overlapping ranges are rejected.");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+
+            CosNFileRange empty = CosNFileRange.createFileRange(10, 0);
+            CosNFileRange pastEof = CosNFileRange.createFileRange(
+                    FILE_SIZE - 10, 20);
+            in.readVectored(Arrays.asList(empty, pastEof), ALLOCATE);
+            assertEquals(0, empty.getData().get().remaining());
+            try {
+                pastEof.getData().get();
+                fail("The range past the end of the file is failed.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof EOFException);
+            }
+            assertEquals(0, this.store.getGetRequests());
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The async transport against the local stand-in of the COS XML API.
+ */
+public class TestCosNAsyncTransport {
+    private static final String KEY = "data";
+    private static final int FILE_SIZE = 1024 * 1024;
+
+    private MockCosServer server;
+    private CosNAsyncTransport transport;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        this.server = new MockCosServer();
+        this.data = this.server.putRandomObject(KEY, FILE_SIZE, 9L);
+        Configuration conf = new Configuration(false);
+        conf.setInt(CosNConfigKeys.MAX_CONNECTION_NUM, 2);
+        this.transport = new CosNAsyncTransport(conf);
+    }
+
+    @After
+    public void tearDown() {
+        this.transport.close();
+        this.server.close();
+    }
+
+    private CompletableFuture<Long> get(ByteBuffer target, long start) {
+        try {
+            return this.transport.get(new URL(this.server.getUrl(KEY)),
+                    start, start + target.remaining() - 1, target);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testRangeRead() throws Exception {
+        ByteBuffer target = ByteBuffer.allocate(300 * 1024);
+        long startNanos = System.nanoTime();
+        long firstByteNanos = this.get(target, 1000).get();
+        assertTrue(firstByteNanos >= startNanos);
+        assertArrayEquals(Arrays.copyOfRange(this.data, 1000,
+                1000 + target.capacity()), target.array());
+    }
+
+    @Test(timeout = 30000)
+    public void testConnectionsAreCapped() throws Exception {
+        this.server.setLatencyMillis(20);
+        List<ByteBuffer> targets = new ArrayList<>();
+        List<CompletableFuture<Long>> futures = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            ByteBuffer target = ByteBuffer.allocate(4096);
+            targets.add(target);
+            futures.add(this.get(target, i * 4096L));
+        }
+        for (int i = 0; i < 32; i++) {
+            futures.get(i).get();
+            assertArrayEquals(Arrays.copyOfRange(this.data, i * 4096,
+                    (i + 1) * 4096), targets.get(i).array());
+        }
+        // The requests over the cap wait for the kept alive connections.
+        assertEquals(32, this.server.getRequests());
+        assertTrue(this.server.getMaxOpenConnections() <= 2);
+    }
+
+    @Test(timeout = 30000)
+    public void testErrorResponse() throws Exception {
+        this.server.failNextRequests(1);
+        try {
+            this.get(ByteBuffer.allocate(4096), 0).get();
+            fail("The error response is not surfaced.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause()
+                    instanceof CosNAsyncTransport.ResponseException);
+            assertEquals(503, ((CosNAsyncTransport.ResponseException)
+                    e.getCause()).getStatusCode());
+        }
+        // The connection is still usable after the error.
+        ByteBuffer target = ByteBuffer.allocate(4096);
+        this.get(target, 0).get(10, TimeUnit.SECONDS);
+        assertArrayEquals(Arrays.copyOf(this.data, 4096), target.array());
+    }
+
+    @Test(timeout = 30000)
+    public void testCancel() throws Exception {
+        this.server.setLatencyMillis(300);
+        ByteBuffer cancelled = ByteBuffer.allocate(4096);
+        CompletableFuture<Long> future = this.get(cancelled, 0);
+        assertTrue(future.cancel(false));
+
+        // The target is never written after the cancel, and the transport
+        // serves the next request.
+        ByteBuffer target = ByteBuffer.allocate(4096);
+        this.get(target, 4096).get(10, TimeUnit.SECONDS);
+        assertArrayEquals(Arrays.copyOfRange(this.data, 4096, 8192),
+                target.array());
+        assertArrayEquals(new byte[4096], cancelled.array());
+    }
+
+    @Test(timeout = 30000)
+    public void testPut() throws Exception {
+        byte[] content = Arrays.copyOf(this.data, 64 * 1024);
+        String eTag = this.transport.put(
+                new URL(this.server.getUrl("uploaded")),
+                Collections.<String, String>emptyMap(),
+                ByteBuffer.wrap(content)).get();
+        assertEquals(MockCosServer.md5Hex(content), eTag.replace("\"", ""));
+        assertArrayEquals(content, this.server.getObject("uploaded"));
+    }
+
+    @Test(timeout = 30000)
+    public void testScheduledTasksRunOnClose() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        this.transport.schedule(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        }, TimeUnit.MINUTES.toMillis(10));
+        this.transport.close();
+        assertEquals(0, ran.getCount());
+
+        try {
+            this.transport.schedule(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, 0);
+            fail("The task is scheduled after the close.");
+        } catch (IOException e) {
+            // The caller fails its request instead of waiting forever.
+        }
+    }
+}
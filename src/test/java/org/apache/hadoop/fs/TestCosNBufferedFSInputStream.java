@@ -0,0 +1,111 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestCosNBufferedFSInputStream {
+    private static final int FILE_SIZE = 1024 * 1024 + 13;
+
+    private MockNativeFileSystemStore store;
+    private CosFileSystem fs;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws Exception {
+        Configuration conf = new Configuration(false);
+        conf.set(CosNConfigKeys.COSN_UPLOAD_BUFFER_TYPE_KEY,
+                "non_direct_memory");
+        conf.setLong(CosNConfigKeys.COSN_UPLOAD_BUFFER_SIZE_KEY,
+                16 * 1024 * 1024);
+        conf.setLong(CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY, 128 * 1024);
+        conf.setBoolean(CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                false);
+        this.store = new MockNativeFileSystemStore();
+        this.data = this.store.putRandomObject("/data", FILE_SIZE, 2L);
+        this.fs = new CosFileSystem(this.store);
+        this.fs.initialize(URI.create("cosn://bucket-1250000000"), conf);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.fs.close();
+    }
+
+    @Test
+    public void testOpenIsBuffered() throws Exception {
+        FSDataInputStream in = this.fs.open(new Path("/data"), 8192);
+        try {
+            assertTrue(in.getWrappedStream()
+                    instanceof CosNBufferedFSInputStream);
+            for (int i = 0; i < 100; i++) {
+                assertEquals(this.data[i] & 0xff, in.read());
+            }
+            assertEquals(100, in.getPos());
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testByteBufferReadThroughTheBuffer() throws Exception {
+        FSDataInputStream in = this.fs.open(new Path("/data"), 8192);
+        try {
+            byte[] head = new byte[10];
+            in.readFully(head);
+            assertArrayEquals(Arrays.copyOf(this.data, 10), head);
+
+            // The buffered bytes are drained first.
+            ByteBuffer direct = ByteBuffer.allocateDirect(FILE_SIZE);
+            int bytes = in.read(direct);
+            assertEquals(8192 - 10, bytes);
+            assertEquals(8192, in.getPos());
+
+            // The rest is read straight into the byte buffer.
+            while (direct.position() < FILE_SIZE - 10) {
+                assertTrue(in.read(direct) > 0);
+            }
+            assertEquals(FILE_SIZE, in.getPos());
+            assertEquals(-1, in.read(direct));
+
+            direct.flip();
+            byte[] rest = new byte[direct.remaining()];
+            direct.get(rest);
+            assertArrayEquals(Arrays.copyOfRange(this.data, 10, FILE_SIZE),
+                    rest);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testByteBufferReadKeepsTheMark() throws Exception {
+        FSDataInputStream in = this.fs.open(new Path("/data"), 4096);
+        try {
+            in.seek(1000);
+            in.mark(100000);
+            ByteBuffer buffer = ByteBuffer.allocate(20000);
+            while (buffer.hasRemaining()) {
+                assertTrue(in.read(buffer) > 0);
+            }
+            in.reset();
+            assertEquals(1000, in.getPos());
+            byte[] again = new byte[20000];
+            in.readFully(again);
+            assertArrayEquals(buffer.array(), again);
+            assertArrayEquals(Arrays.copyOfRange(this.data, 1000, 21000),
+                    again);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.buffer.CosNNonDirectBufferFactory;
+import org.apache.hadoop.fs.cache.CosNBlockCacheKey;
+import org.apache.hadoop.fs.cache.CosNMemoryBlockCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestCosNFileReadTask {
+    private static final String KEY = "data";
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private Configuration conf;
+    private MockNativeFileSystemStore store;
+    private byte[] data;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        this.conf = new Configuration(false);
+        this.conf.setBoolean(
+                CosNConfigKeys.READ_AHEAD_MEMORY_CACHE_ENABLED_KEY, true);
+        this.conf.setInt(CosNConfigKeys.COSN_MAX_RETRIES_KEY, 3);
+        this.conf.setLong(CosNConfigKeys.COSN_RETRY_INTERVAL_KEY, 0);
+        this.store = new MockNativeFileSystemStore();
+        this.data = this.store.putRandomObject(KEY, 4 * BLOCK_SIZE, 3L);
+        CosNMemoryBlockCache.getInstance().initialize(this.conf);
+    }
+
+    @After
+    public void tearDown() {
+        if (null != this.executor) {
+            this.executor.shutdownNow();
+        }
+        CosNMemoryBlockCache.getInstance().close();
+    }
+
+    private static CosNBlockCacheKey blockKey() {
+        return new CosNBlockCacheKey("bucket", KEY, 1000L, 0,
+                BLOCK_SIZE - 1);
+    }
+
+    private List<CosFsInputStream.ReadBuffer> submitReads(int tasks) {
+        List<CosFsInputStream.ReadBuffer> readBuffers = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            CosFsInputStream.ReadBuffer readBuffer =
+                    new CosFsInputStream.ReadBuffer(0, BLOCK_SIZE - 1,
+                            new CosNNonDirectBufferFactory().create(
+                                    BLOCK_SIZE));
+            new CosNFileReadTask(this.conf, KEY, this.store, readBuffer,
+                    blockKey(), null).submit(this.executor);
+            readBuffers.add(readBuffer);
+        }
+        return readBuffers;
+    }
+
+    private void assertFetched(List<CosFsInputStream.ReadBuffer> readBuffers)
+            throws Exception {
+        for (CosFsInputStream.ReadBuffer readBuffer : readBuffers) {
+            ByteBuffer buffer = readBuffer.getFuture().get();
+            byte[] content = new byte[BLOCK_SIZE];
+            buffer.duplicate().get(content);
+            assertArrayEquals(Arrays.copyOf(this.data, BLOCK_SIZE), content);
+        }
+    }
+
+    /**
+     * Take both the threads and the whole queue of the bounded executor of
+     * 2 threads, until the latch is released.
+     */
+    private void saturate(final CountDownLatch blocked) throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        assertTrue(null != CosNUtils.trySubmit(this.executor, blocker));
+        while (started.getCount() > 1) {
+            Thread.sleep(10);
+        }
+        int queued = 0;
+        while (null != CosNUtils.trySubmit(this.executor, blocker)) {
+            queued++;
+        }
+        assertEquals(4, queued);
+        // The queue is full, and the second thread is started.
+        this.executor.execute(blocker);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrentFetchesAreShared() throws Exception {
+        this.executor = Executors.newFixedThreadPool(3);
+        this.store.setFirstByteDelayMillis(300);
+        long shared = CosNMemoryBlockCache.getInstance().getSharedFetchCount();
+
+        assertFetched(this.submitReads(3));
+        assertEquals(1, this.store.getGetRequests());
+        assertEquals(shared + 2,
+                CosNMemoryBlockCache.getInstance().getSharedFetchCount());
+    }
+
+    @Test(timeout = 30000)
+    public void testRetryOfTheLoaderReleasesTheWaiters() throws Exception {
+        // The waiters hold all the threads, and the retry of the loader
+        // would be queued behind them.
+        this.conf.setLong(
+                CosNConfigKeys.READ_AHEAD_MEMORY_CACHE_WAIT_TIMEOUT_MS_KEY,
+                60000);
+        this.executor = Executors.newFixedThreadPool(2);
+        this.store.setFirstByteDelayMillis(300);
+        this.store.failNextRequests(1);
+
+        assertFetched(this.submitReads(3));
+        assertTrue(this.store.getGetRequests() >= 2);
+    }
+
+    @Test(timeout = 30000)
+    public void testWaitForTheInFlightFetchIsBounded() throws Exception {
+        this.conf.setLong(
+                CosNConfigKeys.READ_AHEAD_MEMORY_CACHE_WAIT_TIMEOUT_MS_KEY,
+                100);
+        this.executor = Executors.newSingleThreadExecutor();
+        // A loader which never completes.
+        assertNull(CosNMemoryBlockCache.getInstance().joinOrRegister(
+                blockKey()));
+
+        assertFetched(this.submitReads(1));
+        assertEquals(1, this.store.getGetRequests());
+    }
+
+    @Test(timeout = 30000)
+    public void testRetryNotBlockedBySaturatedExecutor() throws Exception {
+        this.conf.setLong(CosNConfigKeys.COSN_RETRY_INTERVAL_KEY, 1);
+        this.executor = new CosNBoundedExecutorProvider(this.conf)
+                .newBoundedExecutor("test-read-ahead", 2);
+        this.store.failNextRequests(1);
+        List<CosFsInputStream.ReadBuffer> readBuffers = this.submitReads(1);
+        while (this.store.getGetRequests() < 1) {
+            Thread.sleep(10);
+        }
+
+        // Take all the threads and the queue before the retry is due.
+        CountDownLatch blocked = new CountDownLatch(1);
+        try {
+            this.saturate(blocked);
+            // The retry gives up rather than waiting for the room.
+            try {
+                readBuffers.get(0).getFuture().get(10, TimeUnit.SECONDS);
+                fail("The retry is not given up.");
+            } catch (ExecutionException e) {
+                assertEquals(1, this.store.getGetRequests());
+            }
+        } finally {
+            blocked.countDown();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testTrySubmitStartsTheThread() throws Exception {
+        // No core thread is kept by the executor of a single thread.
+        this.executor = new CosNBoundedExecutorProvider(this.conf)
+                .newBoundedExecutor("test-read-ahead", 1);
+        final CountDownLatch executed = new CountDownLatch(1);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                executed.countDown();
+            }
+        };
+        assertTrue(null != CosNUtils.trySubmit(this.executor, task));
+        assertTrue(executed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test(timeout = 30000)
+    public void testAsyncFetchReleasesTheThread() throws Exception {
+        this.executor = Executors.newSingleThreadExecutor();
+        this.store.enableAsyncTransport();
+        this.store.setFirstByteDelayMillis(300);
+        List<CosFsInputStream.ReadBuffer> readBuffers = this.submitReads(1);
+
+        // The only thread is free while the response is pending.
+        final CountDownLatch executed = new CountDownLatch(1);
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                executed.countDown();
+            }
+        });
+        assertTrue(executed.await(10, TimeUnit.SECONDS));
+        assertFalse(readBuffers.get(0).getFuture().isDone());
+        assertFetched(readBuffers);
+    }
+
+    @Test(timeout = 30000)
+    public void testAsyncFetchNotBlockedBySaturatedExecutor()
+            throws Exception {
+        this.executor = new CosNBoundedExecutorProvider(this.conf)
+                .newBoundedExecutor("test-read-ahead", 2);
+        this.store.enableAsyncTransport();
+        this.store.setFirstByteDelayMillis(300);
+        List<CosFsInputStream.ReadBuffer> readBuffers = this.submitReads(1);
+
+        // Take all the threads and the queue before the response arrives.
+        CountDownLatch blocked = new CountDownLatch(1);
+        try {
+            this.saturate(blocked);
+            // The response is handled on the io thread rather than waiting
+            // for the room.
+            assertFetched(readBuffers);
+            assertEquals(1, this.store.getGetRequests());
+        } finally {
+            blocked.countDown();
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The hedged read manager hands a task over only to an idle thread, and
+ * the race gives up the hedge rather than waiting for one.
+ */
+public class TestCosNHedgedReadManager {
+    private static final String KEY = "hedged";
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final CosNHedgedReadManager manager =
+            CosNHedgedReadManager.getInstance();
+    private Configuration conf;
+    private CountDownLatch blocked;
+
+    @Before
+    public void setUp() throws Exception {
+        this.conf = new Configuration(false);
+        this.conf.setBoolean(CosNConfigKeys.HEDGED_READ_ENABLED_KEY, true);
+        this.conf.setInt(CosNConfigKeys.HEDGED_READ_THREAD_POOL_SIZE_KEY, 1);
+        assertTrue(this.manager.initialize(this.conf));
+        this.blocked = new CountDownLatch(1);
+    }
+
+    @After
+    public void tearDown() {
+        this.blocked.countDown();
+        this.manager.close();
+    }
+
+    private Runnable blockingTask() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    @Test
+    public void testHedgeDroppedWhenSaturated() {
+        long throttled = this.manager.getHedgedReadsThrottled();
+        assertTrue(this.manager.execute(this.blockingTask()));
+        assertFalse(this.manager.execute(this.blockingTask()));
+        assertEquals(throttled + 1, this.manager.getHedgedReadsThrottled());
+    }
+
+    @Test
+    public void testOpenReleasesThread() throws Exception {
+        final CountDownLatch opened = new CountDownLatch(2);
+        Runnable open = new Runnable() {
+            @Override
+            public void run() {
+                opened.countDown();
+            }
+        };
+        assertTrue(this.manager.executeOpen(open));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!this.manager.executeOpen(open)) {
+            assertTrue("The thread is never released.",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertTrue(opened.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOpenWithoutHedgeWhenSaturated() throws Exception {
+        Configuration bufferConf = new Configuration(false);
+        ReadBufferPool.getInstance().initialize(bufferConf);
+        try {
+            MockNativeFileSystemStore store = new MockNativeFileSystemStore();
+            byte[] data = store.putRandomObject(KEY, BLOCK_SIZE, 0L);
+            // Learn the thresholds, and leave enough quota for a hedge.
+            for (int i = 0; i < 128; i++) {
+                this.manager.recordFetch(TimeUnit.MILLISECONDS.toNanos(1),
+                        TimeUnit.MILLISECONDS.toNanos(1), BLOCK_SIZE);
+                this.manager.requestIssued();
+            }
+            assertTrue(this.manager.executeOpen(this.blockingTask()));
+
+            long issued = this.manager.getHedgedReadsIssued();
+            CosNHedgedRead race = new CosNHedgedRead(this.manager, KEY, store,
+                    0, BLOCK_SIZE - 1, null);
+            race.arm();
+            InputStream inputStream = race.openPrimary();
+            byte[] content = new byte[BLOCK_SIZE];
+            try {
+                IOUtils.readFully(inputStream, content, 0, content.length);
+            } finally {
+                inputStream.close();
+            }
+            assertArrayEquals(data, content);
+
+            // The thresholds are passed, but the disarmed race never hedges.
+            Thread.sleep(300);
+            assertEquals(issued, this.manager.getHedgedReadsIssued());
+            assertEquals(1, store.getGetRequests());
+            race.primaryFinished();
+            race.close();
+        } finally {
+            ReadBufferPool.getInstance().close();
+        }
+    }
+
+    @Test
+    public void testLateResponseAbortedAfterClose() throws Exception {
+        Configuration bufferConf = new Configuration(false);
+        ReadBufferPool.getInstance().initialize(bufferConf);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            MockNativeFileSystemStore store = new MockNativeFileSystemStore();
+            store.putRandomObject(KEY, BLOCK_SIZE, 0L);
+            store.setFirstByteDelayMillis(500);
+            for (int i = 0; i < 128; i++) {
+                this.manager.recordFetch(TimeUnit.MILLISECONDS.toNanos(1),
+                        TimeUnit.MILLISECONDS.toNanos(1), BLOCK_SIZE);
+                this.manager.requestIssued();
+            }
+
+            final CosNHedgedRead race = new CosNHedgedRead(this.manager, KEY,
+                    store, 0, BLOCK_SIZE - 1, null);
+            race.arm();
+            Future<InputStream> primary = executor.submit(
+                    new Callable<InputStream>() {
+                        @Override
+                        public InputStream call() throws Exception {
+                            return race.openPrimary();
+                        }
+                    });
+            Thread.sleep(100);
+            // The response of the helper GET arrives after the race is closed.
+            race.close();
+            try {
+                primary.get(10, TimeUnit.SECONDS).close();
+                fail("The late response is handed over.");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof InterruptedIOException);
+            }
+            assertEquals(0, store.getOpenStreams());
+        } finally {
+            executor.shutdownNow();
+            ReadBufferPool.getInstance().close();
+        }
+    }
+
+    @Test
+    public void testReferenceCount() throws Exception {
+        Configuration disabled = new Configuration(false);
+        assertFalse(this.manager.initialize(disabled));
+
+        Configuration other = new Configuration(this.conf);
+        other.setInt(CosNConfigKeys.HEDGED_READ_THREAD_POOL_SIZE_KEY, 4);
+        assertTrue(this.manager.initialize(other));
+        this.manager.close();
+        assertTrue(this.manager.isEnabled());
+    }
+}
@@ -0,0 +1,176 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCosNReadAheadPolicy {
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+
+    private Configuration conf;
+
+    @Before
+    public void setUp() {
+        this.conf = new Configuration(false);
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY, MB);
+        this.conf.setInt(CosNConfigKeys.READ_AHEAD_QUEUE_SIZE, 8);
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_MIN_BLOCK_SIZE_KEY,
+                256 * KB);
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_MAX_BLOCK_SIZE_KEY,
+                8 * MB);
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                true);
+    }
+
+    /**
+     * Reopen right after the current block, which is fully consumed.
+     */
+    private static void readOn(CosNReadAheadPolicy policy, long pos) {
+        policy.onReopen(pos, pos, pos, policy.getBlockSize());
+    }
+
+    /**
+     * Reopen at a position far from the current block.
+     */
+    private static void seekTo(CosNReadAheadPolicy policy, long pos,
+                               long currentPos, long consumedBytes) {
+        policy.onReopen(pos, currentPos, currentPos + 1, consumedBytes);
+    }
+
+    @Test
+    public void testFixedPolicy() {
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                false);
+        CosNReadAheadPolicy policy = new CosNReadAheadPolicy(this.conf);
+        assertFalse(policy.isAdaptive());
+        assertEquals(CosNReadAheadPolicy.Mode.SEQUENTIAL, policy.getMode());
+        assertEquals(1, policy.getWindow());
+
+        int[] windows = {2, 4, 8, 8, 8};
+        for (int i = 0; i < windows.length; i++) {
+            readOn(policy, (i + 1) * MB);
+            assertEquals(windows[i], policy.getWindow());
+            assertEquals(MB, policy.getBlockSize());
+        }
+
+        // Even a short forward seek is a random access.
+        policy.onReopen(6 * MB + 10, 5 * MB, 6 * MB, MB);
+        assertEquals(CosNReadAheadPolicy.Mode.RANDOM, policy.getMode());
+        assertEquals(1, policy.getWindow());
+        assertEquals(MB, policy.getBlockSize());
+    }
+
+    @Test
+    public void testSequentialRampUp() {
+        CosNReadAheadPolicy policy = new CosNReadAheadPolicy(this.conf);
+        // The window is doubled to the queue size first, and then the block.
+        int[] windows = {2, 4, 8, 8, 8, 8, 8};
+        long[] blockSizes = {MB, MB, MB, 2 * MB, 4 * MB, 8 * MB, 8 * MB};
+        long pos = 0;
+        for (int i = 0; i < windows.length; i++) {
+            pos += policy.getBlockSize();
+            readOn(policy, pos);
+            assertEquals(CosNReadAheadPolicy.Mode.SEQUENTIAL,
+                    policy.getMode());
+            assertEquals(windows[i], policy.getWindow());
+            assertEquals(blockSizes[i], policy.getBlockSize());
+        }
+    }
+
+    @Test
+    public void testShortForwardSeekIsSequential() {
+        CosNReadAheadPolicy policy = new CosNReadAheadPolicy(this.conf);
+        readOn(policy, MB);
+        assertEquals(2, policy.getWindow());
+
+        // Skip less than a block ahead of the current one.
+        policy.onReopen(2 * MB + 100 * KB, MB + 10, 2 * MB, 10);
+        assertEquals(CosNReadAheadPolicy.Mode.SEQUENTIAL, policy.getMode());
+        assertEquals(4, policy.getWindow());
+
+        // Skip more than a block.
+        policy.onReopen(5 * MB, 2 * MB + 200 * KB, 3 * MB + 100 * KB,
+                100 * KB);
+        assertEquals(1, policy.getWindow());
+    }
+
+    @Test
+    public void testRandomShrinksToTheConsumedBytes() {
+        CosNReadAheadPolicy policy = new CosNReadAheadPolicy(this.conf);
+        long pos = 0;
+        for (int i = 0; i < 5; i++) {
+            pos += policy.getBlockSize();
+            readOn(policy, pos);
+        }
+        assertEquals(4 * MB, policy.getBlockSize());
+
+        // A single long seek resets the window and the block size, but
+        // keeps the mode.
+        seekTo(policy, 100 * MB, pos + 300 * KB, 300 * KB);
+        assertEquals(CosNReadAheadPolicy.Mode.SEQUENTIAL, policy.getMode());
+        assertEquals(1, policy.getWindow());
+        assertEquals(MB, policy.getBlockSize());
+
+        // The repeated ones shrink the block to the power of two above the
+        // average consumed bytes, which still counts the sequential blocks.
+        seekTo(policy, 10 * MB, 100 * MB + 300 * KB, 300 * KB);
+        assertEquals(CosNReadAheadPolicy.Mode.RANDOM, policy.getMode());
+        assertEquals(MB, policy.getBlockSize());
+        for (int i = 0; i < 20; i++) {
+            seekTo(policy, i * 10 * MB, 50 * MB, 300 * KB);
+        }
+        assertEquals(512 * KB, policy.getBlockSize());
+
+        // But not below the minimum.
+        for (int i = 0; i < 10; i++) {
+            seekTo(policy, i * 10 * MB, 50 * MB, KB);
+        }
+        assertEquals(256 * KB, policy.getBlockSize());
+    }
+
+    @Test
+    public void testRandomNeedsAStreakToRampUp() {
+        CosNReadAheadPolicy policy = new CosNReadAheadPolicy(this.conf);
+        seekTo(policy, 10 * MB, 0, 300 * KB);
+        seekTo(policy, 20 * MB, 10 * MB + 300 * KB, 300 * KB);
+        assertEquals(CosNReadAheadPolicy.Mode.RANDOM, policy.getMode());
+        assertEquals(512 * KB, policy.getBlockSize());
+
+        // A single contiguous read changes nothing.
+        long pos = 20 * MB + policy.getBlockSize();
+        readOn(policy, pos);
+        assertEquals(CosNReadAheadPolicy.Mode.RANDOM, policy.getMode());
+        assertEquals(1, policy.getWindow());
+        assertEquals(512 * KB, policy.getBlockSize());
+
+        // The second one switches back, and grows the block to the base.
+        pos += policy.getBlockSize();
+        readOn(policy, pos);
+        assertEquals(CosNReadAheadPolicy.Mode.SEQUENTIAL, policy.getMode());
+        assertEquals(2, policy.getWindow());
+        assertEquals(MB, policy.getBlockSize());
+    }
+
+    @Test
+    public void testAutoTuneNeedsTheAdaptivePolicy() {
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_AUTO_TUNE_ENABLED_KEY,
+                true);
+        this.conf.setInt(
+                CosNConfigKeys.READ_AHEAD_AUTO_TUNE_MAX_QUEUE_SIZE_KEY, 32);
+        CosNReadAheadPolicy policy = new CosNReadAheadPolicy(this.conf,
+                new CosNReadAheadTuner());
+        assertTrue(policy.isAutoTuned());
+        assertEquals(32, policy.getMaxWindow());
+
+        this.conf.setBoolean(CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY,
+                false);
+        policy = new CosNReadAheadPolicy(this.conf, new CosNReadAheadTuner());
+        assertFalse(policy.isAutoTuned());
+        assertEquals(8, policy.getMaxWindow());
+    }
+}
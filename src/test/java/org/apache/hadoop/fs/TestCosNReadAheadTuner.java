@@ -0,0 +1,113 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCosNReadAheadTuner {
+    private static final long KB = 1024;
+    private static final long MB = 1024 * KB;
+
+    private CosNReadAheadTuner tuner;
+
+    @Before
+    public void setUp() {
+        this.tuner = new CosNReadAheadTuner();
+    }
+
+    /**
+     * A fetch of 50 ms to the first byte and 100 MB/s.
+     */
+    private void recordFetch(CosNReadAheadTuner tuner) {
+        tuner.recordFetch(TimeUnit.MILLISECONDS.toNanos(50),
+                TimeUnit.MILLISECONDS.toNanos(10), MB);
+    }
+
+    @Test
+    public void testReadyAfterTheThroughputIsSampled() {
+        assertFalse(this.tuner.isReady());
+        assertEquals(-1, this.tuner.getFirstByteMillis());
+
+        // The small fetches are dominated by the latency.
+        for (int i = 0; i < 4; i++) {
+            this.tuner.recordFetch(TimeUnit.MILLISECONDS.toNanos(50),
+                    TimeUnit.MILLISECONDS.toNanos(1), 4 * KB);
+        }
+        assertFalse(this.tuner.isReady());
+        assertEquals(50, this.tuner.getFirstByteMillis());
+
+        this.recordFetch(this.tuner);
+        assertTrue(this.tuner.isReady());
+        assertEquals(100 * MB, this.tuner.getThroughput());
+    }
+
+    @Test
+    public void testBlockSize() {
+        this.recordFetch(this.tuner);
+        this.recordFetch(this.tuner);
+        // Twice of the bytes transferred during the first byte latency,
+        // rounded up to a power of 2.
+        assertEquals(16 * MB, this.tuner.tuneBlockSize(MB, 64 * MB));
+        assertEquals(16 * MB, this.tuner.getTunedBlockSize());
+        assertEquals(4 * MB, this.tuner.tuneBlockSize(MB, 4 * MB));
+        assertEquals(32 * MB, this.tuner.tuneBlockSize(32 * MB, 64 * MB));
+    }
+
+    @Test
+    public void testDepth() {
+        this.recordFetch(this.tuner);
+        this.recordFetch(this.tuner);
+        // Nothing is known about the reader.
+        assertEquals(8, this.tuner.tuneDepth(16 * MB, 8));
+
+        // A fetch of 16 MB takes 210 ms, during which a reader of 10 MB/s
+        // consumes less than a block.
+        this.tuner.recordConsume(MB, TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(10 * MB, this.tuner.getConsumeRate());
+        assertEquals(2, this.tuner.tuneDepth(16 * MB, 8));
+
+        // A reader of 1000 MB/s consumes 13.1 blocks.
+        CosNReadAheadTuner fastReader = new CosNReadAheadTuner();
+        this.recordFetch(fastReader);
+        this.recordFetch(fastReader);
+        fastReader.recordConsume(MB, TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(15, fastReader.tuneDepth(16 * MB, 32));
+        assertEquals(8, fastReader.tuneDepth(16 * MB, 8));
+        assertEquals(8, fastReader.getTunedDepth());
+    }
+
+    @Test
+    public void testTunedPolicy() {
+        Configuration conf = new Configuration(false);
+        conf.setLong(CosNConfigKeys.READ_AHEAD_BLOCK_SIZE_KEY, MB);
+        conf.setLong(CosNConfigKeys.READ_AHEAD_MIN_BLOCK_SIZE_KEY, 256 * KB);
+        conf.setLong(CosNConfigKeys.READ_AHEAD_MAX_BLOCK_SIZE_KEY, 8 * MB);
+        conf.setBoolean(CosNConfigKeys.READ_AHEAD_ADAPTIVE_ENABLED_KEY, true);
+        conf.setBoolean(CosNConfigKeys.READ_AHEAD_AUTO_TUNE_ENABLED_KEY,
+                true);
+        conf.setInt(CosNConfigKeys.READ_AHEAD_AUTO_TUNE_MAX_QUEUE_SIZE_KEY,
+                32);
+        CosNReadAheadPolicy policy = new CosNReadAheadPolicy(conf,
+                this.tuner);
+        this.recordFetch(this.tuner);
+        this.recordFetch(this.tuner);
+        this.tuner.recordConsume(MB, TimeUnit.MILLISECONDS.toNanos(100));
+
+        // The block size is capped by the max, and the window ramps up to
+        // the tuned depth only.
+        long pos = 0;
+        for (int i = 0; i < 4; i++) {
+            pos += policy.getBlockSize();
+            policy.onReopen(pos, pos, pos, policy.getBlockSize());
+            assertEquals(8 * MB, policy.getBlockSize());
+        }
+        assertEquals(this.tuner.tuneDepth(8 * MB, 32), policy.getWindow());
+        assertTrue(policy.getWindow() < policy.getMaxWindow());
+    }
+}
@@ -0,0 +1,145 @@
+package org.apache.hadoop.fs;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.buffer.CosNByteBuffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestReadBufferPool {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long POOL_SIZE = 16 * BUFFER_SIZE;
+
+    private ReadBufferPool pool;
+    private final List<CosNByteBuffer> buffers = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        Configuration conf = new Configuration(false);
+        conf.setLong(CosNConfigKeys.READ_AHEAD_BUFFER_POOL_SIZE_KEY,
+                POOL_SIZE);
+        this.pool = ReadBufferPool.getInstance();
+        this.pool.initialize(conf);
+    }
+
+    @After
+    public void tearDown() {
+        for (CosNByteBuffer buffer : this.buffers) {
+            this.pool.returnBuffer(buffer);
+        }
+        this.pool.close();
+    }
+
+    private CosNByteBuffer keep(CosNByteBuffer buffer) {
+        if (null != buffer) {
+            this.buffers.add(buffer);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void testSizeClasses() throws Exception {
+        CosNByteBuffer buffer = this.pool.tryGetBuffer(100);
+        assertEquals(4096, buffer.getByteBuffer().capacity());
+        this.pool.returnBuffer(buffer);
+        buffer = this.pool.tryGetBuffer(BUFFER_SIZE + 1);
+        assertEquals(2 * BUFFER_SIZE, buffer.getByteBuffer().capacity());
+        this.pool.returnBuffer(buffer);
+        assertEquals(4096 + 2 * BUFFER_SIZE, this.pool.getIdleBytes());
+
+        // The idle buffers are reused.
+        buffer = keep(this.pool.tryGetBuffer(BUFFER_SIZE + 100));
+        assertEquals(4096 + 2 * BUFFER_SIZE,
+                this.pool.getAllocatedBytes());
+        assertEquals(4096, this.pool.getIdleBytes());
+    }
+
+    @Test
+    public void testPrefetchLeavesTheReserve() throws Exception {
+        for (int i = 0; i < 12; i++) {
+            assertNotNull(keep(this.pool.tryGetBuffer(BUFFER_SIZE)));
+        }
+        assertNull("The prefetching is throttled at 3/4 of the pool.",
+                this.pool.tryGetBuffer(BUFFER_SIZE));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(keep(this.pool.getBuffer(BUFFER_SIZE)));
+        }
+        assertTrue(System.nanoTime() - start
+                < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(POOL_SIZE, this.pool.getAllocatedBytes());
+        assertEquals(0, this.pool.getOverflowBuffers());
+
+        // The idle buffers are not taken by the prefetching either.
+        this.pool.returnBuffer(this.buffers.remove(0));
+        assertEquals(BUFFER_SIZE, this.pool.getIdleBytes());
+        assertNull(this.pool.tryGetBuffer(BUFFER_SIZE));
+        assertNotNull(keep(this.pool.getBuffer(BUFFER_SIZE)));
+    }
+
+    @Test(timeout = 30000)
+    public void testOverflowIsCappedByTheReaders() throws Exception {
+        this.pool.registerReader();
+        this.pool.registerReader();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int i = 0; i < 16; i++) {
+                keep(this.pool.getBuffer(BUFFER_SIZE));
+            }
+
+            long start = System.nanoTime();
+            CosNByteBuffer first = this.pool.getBuffer(BUFFER_SIZE);
+            keep(this.pool.getBuffer(BUFFER_SIZE));
+            assertTrue("The demand reads do not wait for the overflow.",
+                    System.nanoTime() - start
+                            < TimeUnit.MILLISECONDS.toNanos(500));
+            assertEquals(2, this.pool.getOverflowBuffers());
+            assertEquals(2, this.pool.getOverflowCount());
+            assertEquals(POOL_SIZE + 2 * BUFFER_SIZE,
+                    this.pool.getAllocatedBytes());
+
+            // A third reader buffer waits for a returned one.
+            Future<CosNByteBuffer> third = executor.submit(
+                    new Callable<CosNByteBuffer>() {
+                        @Override
+                        public CosNByteBuffer call() throws Exception {
+                            return pool.getBuffer(BUFFER_SIZE);
+                        }
+                    });
+            try {
+                third.get(200, TimeUnit.MILLISECONDS);
+                fail("The overflow is capped by the open readers.");
+            } catch (TimeoutException e) {
+                // expected
+            }
+
+            // The overflow buffer is released once returned.
+            this.pool.returnBuffer(first);
+            assertNotNull(keep(third.get()));
+            assertEquals(2, this.pool.getOverflowBuffers());
+            assertEquals(POOL_SIZE + 2 * BUFFER_SIZE,
+                    this.pool.getAllocatedBytes());
+            assertEquals(0, this.pool.getIdleBytes());
+        } finally {
+            executor.shutdownNow();
+            this.pool.unregisterReader();
+            this.pool.unregisterReader();
+        }
+    }
+}
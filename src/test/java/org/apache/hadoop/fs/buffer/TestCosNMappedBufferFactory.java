@@ -0,0 +1,109 @@
+package org.apache.hadoop.fs.buffer;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestCosNMappedBufferFactory {
+    private static final int ARENA_SIZE = 1024 * 1024;
+
+    private File tmpDir;
+    private CosNMappedBufferFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        this.tmpDir = new File(System.getProperty("java.io.tmpdir"),
+                "hadoop_cos_test_" + UUID.randomUUID());
+        this.factory = new CosNMappedBufferFactory(
+                this.tmpDir.getAbsolutePath(), ARENA_SIZE, 2 * ARENA_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        this.factory.close();
+        FileUtil.fullyDelete(this.tmpDir);
+    }
+
+    @Test
+    public void testBuffersAreSlicedFromAnArena() throws Exception {
+        CosNByteBuffer[] buffers = new CosNByteBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = this.factory.create(64 * 1024);
+            ByteBuffer byteBuffer = buffers[i].getByteBuffer();
+            assertEquals(64 * 1024, byteBuffer.capacity());
+            while (byteBuffer.hasRemaining()) {
+                byteBuffer.put((byte) i);
+            }
+        }
+        assertEquals(ARENA_SIZE, this.factory.getMappedBytes());
+        // The files are deleted once they are mapped.
+        assertEquals(0, this.tmpDir.list().length);
+
+        // The regions never overlap.
+        for (int i = 0; i < buffers.length; i++) {
+            ByteBuffer byteBuffer = buffers[i].getByteBuffer();
+            byteBuffer.flip();
+            while (byteBuffer.hasRemaining()) {
+                assertEquals((byte) i, byteBuffer.get());
+            }
+            this.factory.release(buffers[i]);
+        }
+    }
+
+    @Test
+    public void testFreeRegionsAreMerged() throws Exception {
+        CosNByteBuffer first = this.factory.create(ARENA_SIZE / 4);
+        CosNByteBuffer second = this.factory.create(ARENA_SIZE / 4);
+        CosNByteBuffer third = this.factory.create(ARENA_SIZE / 2);
+        this.factory.release(second);
+        this.factory.release(first);
+
+        // The merged regions hold a buffer twice the size of either.
+        CosNByteBuffer merged = this.factory.create(ARENA_SIZE / 2);
+        assertEquals(ARENA_SIZE, this.factory.getMappedBytes());
+        this.factory.release(merged);
+        this.factory.release(third);
+        // The last arena is kept for the next buffers.
+        assertEquals(ARENA_SIZE, this.factory.getMappedBytes());
+    }
+
+    @Test
+    public void testMappedBytesAreCapped() throws Exception {
+        CosNByteBuffer first = this.factory.create(ARENA_SIZE);
+        CosNByteBuffer second = this.factory.create(ARENA_SIZE);
+        assertNotNull(second);
+        assertEquals(2 * ARENA_SIZE, this.factory.getMappedBytes());
+        assertNull(this.factory.create(4096));
+
+        // An empty arena beyond the first one is unmapped at once.
+        this.factory.release(first);
+        assertEquals(ARENA_SIZE, this.factory.getMappedBytes());
+        CosNByteBuffer third = this.factory.create(4096);
+        assertNotNull(third);
+        this.factory.release(second);
+        this.factory.release(third);
+        this.factory.close();
+        assertEquals(0, this.factory.getMappedBytes());
+    }
+
+    @Test
+    public void testArenaIsCutNearTheCap() throws Exception {
+        CosNByteBuffer first = this.factory.create(ARENA_SIZE + 4096);
+        // The next arena holds this buffer only, instead of a whole arena.
+        CosNByteBuffer second = this.factory.create(64 * 1024);
+        assertNotNull(second);
+        assertEquals(ARENA_SIZE + 4096 + 64 * 1024,
+                this.factory.getMappedBytes());
+        this.factory.release(first);
+        this.factory.release(second);
+    }
+}
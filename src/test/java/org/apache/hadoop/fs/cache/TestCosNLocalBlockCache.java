@@ -0,0 +1,120 @@
+package org.apache.hadoop.fs.cache;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CosNConfigKeys;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCosNLocalBlockCache {
+    private static final int BLOCK_SIZE = 1024;
+
+    private Configuration conf;
+    private CosNLocalBlockCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        this.conf = new Configuration(false);
+        this.conf.setBoolean(
+                CosNConfigKeys.READ_AHEAD_LOCAL_CACHE_ENABLED_KEY, true);
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_LOCAL_CACHE_SIZE_KEY,
+                3 * BLOCK_SIZE);
+        this.conf.set(CosNConfigKeys.COSN_TMP_DIR, new File(
+                System.getProperty("java.io.tmpdir"), "hadoop_cos_test")
+                .getAbsolutePath());
+        this.cache = CosNLocalBlockCache.getInstance();
+        assertTrue(this.cache.initialize(this.conf));
+    }
+
+    @After
+    public void tearDown() {
+        while (this.cache.isEnabled()) {
+            this.cache.close();
+        }
+    }
+
+    private static CosNBlockCacheKey blockKey(int index) {
+        return new CosNBlockCacheKey("bucket", "key", 1000L,
+                (long) index * BLOCK_SIZE, (long) (index + 1) * BLOCK_SIZE - 1);
+    }
+
+    private static byte[] block(int index) {
+        byte[] data = new byte[BLOCK_SIZE];
+        Arrays.fill(data, (byte) index);
+        return data;
+    }
+
+    private boolean isCached(int index) {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        if (!this.cache.get(blockKey(index), buffer)) {
+            return false;
+        }
+        assertArrayEquals(block(index), buffer.array());
+        return true;
+    }
+
+    @Test
+    public void testGetContainedRange() {
+        assertFalse(this.isCached(0));
+        this.cache.put(blockKey(0), ByteBuffer.wrap(block(0)));
+        assertTrue(this.isCached(0));
+
+        ByteBuffer part = ByteBuffer.allocate(100);
+        assertTrue(this.cache.get(new CosNBlockCacheKey("bucket", "key",
+                1000L, 200, 299), part));
+        assertArrayEquals(Arrays.copyOf(block(0), 100), part.array());
+
+        // Neither another version nor a range across the blocks is served.
+        assertFalse(this.cache.get(new CosNBlockCacheKey("bucket", "key",
+                2000L, 0, BLOCK_SIZE - 1), ByteBuffer.allocate(BLOCK_SIZE)));
+        assertFalse(this.cache.get(new CosNBlockCacheKey("bucket", "key",
+                1000L, 1000, 1099), ByteBuffer.allocate(100)));
+        assertEquals(2, this.cache.getHitCount());
+        assertEquals(BLOCK_SIZE + 100, this.cache.getHitBytes());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        for (int i = 0; i < 3; i++) {
+            this.cache.put(blockKey(i), ByteBuffer.wrap(block(i)));
+        }
+        assertEquals(3 * BLOCK_SIZE, this.cache.getUsedBytes());
+        assertTrue(this.isCached(0));
+
+        this.cache.put(blockKey(3), ByteBuffer.wrap(block(3)));
+        assertEquals(1, this.cache.getEvictionCount());
+        assertEquals(3 * BLOCK_SIZE, this.cache.getUsedBytes());
+        assertTrue(this.isCached(0));
+        assertFalse(this.isCached(1));
+        assertTrue(this.isCached(2));
+        assertTrue(this.isCached(3));
+    }
+
+    @Test
+    public void testBlockLargerThanTheCacheIsNotAdmitted() {
+        this.cache.put(new CosNBlockCacheKey("bucket", "key", 1000L, 0,
+                4 * BLOCK_SIZE - 1), ByteBuffer.allocate(4 * BLOCK_SIZE));
+        assertEquals(0, this.cache.getUsedBytes());
+    }
+
+    @Test
+    public void testReferenceCount() throws Exception {
+        Configuration disabled = new Configuration(false);
+        assertFalse(this.cache.initialize(disabled));
+        assertTrue(this.cache.initialize(this.conf));
+
+        this.cache.close();
+        assertTrue(this.cache.isEnabled());
+        this.cache.close();
+        assertFalse(this.cache.isEnabled());
+    }
+}
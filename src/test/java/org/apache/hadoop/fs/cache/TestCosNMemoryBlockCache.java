@@ -0,0 +1,147 @@
+package org.apache.hadoop.fs.cache;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CosNConfigKeys;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestCosNMemoryBlockCache {
+    private static final int BLOCK_SIZE = 1024;
+
+    private Configuration conf;
+    private CosNMemoryBlockCache cache;
+
+    @Before
+    public void setUp() {
+        this.conf = new Configuration(false);
+        this.conf.setBoolean(
+                CosNConfigKeys.READ_AHEAD_MEMORY_CACHE_ENABLED_KEY, true);
+        this.conf.setLong(CosNConfigKeys.READ_AHEAD_MEMORY_CACHE_SIZE_KEY,
+                2 * BLOCK_SIZE);
+        this.cache = CosNMemoryBlockCache.getInstance();
+        assertTrue(this.cache.initialize(this.conf));
+    }
+
+    @After
+    public void tearDown() {
+        while (this.cache.isEnabled()) {
+            this.cache.close();
+        }
+    }
+
+    private static CosNBlockCacheKey blockKey(int index) {
+        return new CosNBlockCacheKey("bucket", "key", 1000L,
+                (long) index * BLOCK_SIZE, (long) (index + 1) * BLOCK_SIZE - 1);
+    }
+
+    private static byte[] block(int index) {
+        byte[] data = new byte[BLOCK_SIZE];
+        Arrays.fill(data, (byte) index);
+        return data;
+    }
+
+    private boolean isCached(int index) {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+        if (!this.cache.get(blockKey(index), buffer)) {
+            return false;
+        }
+        assertArrayEquals(block(index), buffer.array());
+        return true;
+    }
+
+    @Test
+    public void testAdmitTheFrequentBlocksOnly() {
+        // The counters of the singleton are kept across the tests.
+        long rejections = this.cache.getRejectionCount();
+        long evictions = this.cache.getEvictionCount();
+        this.cache.put(blockKey(0), block(0));
+        this.cache.put(blockKey(1), block(1));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(this.isCached(0));
+            assertTrue(this.isCached(1));
+        }
+
+        // A block of a scan is requested once, and can not flush them.
+        assertFalse(this.isCached(2));
+        this.cache.put(blockKey(2), block(2));
+        assertEquals(rejections + 1, this.cache.getRejectionCount());
+        assertFalse(this.isCached(2));
+
+        // The block requested more frequently evicts the least recently
+        // used one.
+        for (int i = 0; i < 6; i++) {
+            assertFalse(this.isCached(3));
+        }
+        assertTrue(this.isCached(1));
+        this.cache.put(blockKey(3), block(3));
+        assertEquals(evictions + 1, this.cache.getEvictionCount());
+        assertEquals(2 * BLOCK_SIZE, this.cache.getUsedBytes());
+        assertFalse(this.isCached(0));
+        assertTrue(this.isCached(1));
+        assertTrue(this.isCached(3));
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        long sharedFetches = this.cache.getSharedFetchCount();
+        assertNull("The first one becomes the loader.",
+                this.cache.joinOrRegister(blockKey(0)));
+        CompletableFuture<byte[]> first =
+                this.cache.joinOrRegister(blockKey(0));
+        CompletableFuture<byte[]> second =
+                this.cache.joinOrRegister(blockKey(0));
+        assertNotNull(first);
+        assertSame(first, second);
+        assertEquals(sharedFetches + 2, this.cache.getSharedFetchCount());
+
+        this.cache.complete(blockKey(0), ByteBuffer.wrap(block(0)));
+        assertArrayEquals(block(0), first.get());
+        assertTrue(this.isCached(0));
+        // The next fetch of the block has a new loader.
+        assertNull(this.cache.joinOrRegister(blockKey(0)));
+    }
+
+    @Test
+    public void testFailedLoaderReleasesTheWaiters() throws Exception {
+        assertNull(this.cache.joinOrRegister(blockKey(0)));
+        CompletableFuture<byte[]> waiter =
+                this.cache.joinOrRegister(blockKey(0));
+        this.cache.complete(blockKey(0), null);
+        assertNull(waiter.get());
+        assertFalse(this.isCached(0));
+        assertNull(this.cache.joinOrRegister(blockKey(0)));
+    }
+
+    @Test
+    public void testCloseReleasesTheWaiters() throws Exception {
+        assertNull(this.cache.joinOrRegister(blockKey(0)));
+        CompletableFuture<byte[]> waiter =
+                this.cache.joinOrRegister(blockKey(0));
+        this.cache.close();
+        assertNull(waiter.get());
+        assertNull(this.cache.joinOrRegister(blockKey(0)));
+    }
+
+    @Test
+    public void testReferenceCount() {
+        assertFalse(this.cache.initialize(new Configuration(false)));
+        assertTrue(this.cache.initialize(this.conf));
+        this.cache.close();
+        assertTrue(this.cache.isEnabled());
+        this.cache.close();
+        assertFalse(this.cache.isEnabled());
+    }
+}